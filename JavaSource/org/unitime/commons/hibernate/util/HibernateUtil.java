@@ -63,8 +63,14 @@ import org.unitime.commons.hibernate.connection.LoggingDBCPConnectionProvider;
 import org.unitime.commons.hibernate.id.UniqueIdGenerator;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.events.MeetingIndex;
+import org.unitime.timetable.gwt.server.CalendarFeedCache;
+import org.unitime.timetable.gwt.server.CurriculumProjectionStore;
 import org.unitime.timetable.model.base._BaseRootDAO;
 import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.util.CalendarFeedChangeListener;
+import org.unitime.timetable.util.CurriculumProjectionChangeListener;
+import org.unitime.timetable.util.MeetingChangeListener;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
@@ -266,6 +272,8 @@ public class HibernateUtil {
         
         UniqueIdGenerator.configure(cfg);
         
+        cfg.setInterceptor(new StatementCounter());
+        
         (new _BaseRootDAO() {
     		void setConf(Configuration cfg) {
     			_BaseRootDAO.sConfiguration = cfg;
@@ -294,6 +302,21 @@ public class HibernateUtil {
     	}).setSF(sSessionFactory);
         sLog.debug("  -- session factory set to _BaseRootDAO");
         
+        if (ApplicationProperty.RoomAvailabilityCacheIncremental.isTrue() || MeetingIndex.isEnabled()) {
+        	new MeetingChangeListener().register(sSessionFactory);
+        	sLog.debug("  -- meeting change listener registered");
+        }
+        
+        if (CalendarFeedCache.isEnabled()) {
+        	new CalendarFeedChangeListener().register(sSessionFactory);
+        	sLog.debug("  -- calendar feed change listener registered");
+        }
+        
+        if (CurriculumProjectionStore.isEnabled()) {
+        	new CurriculumProjectionChangeListener().register(sSessionFactory);
+        	sLog.debug("  -- curriculum projection change listener registered");
+        }
+        
         addBitwiseOperationsToDialect();
         sLog.debug("  -- bitwise operation added to the dialect if needed");
         
@@ -375,6 +398,8 @@ public class HibernateUtil {
             
             UniqueIdGenerator.configure(cfg);
             sLog.debug("  -- UniquId generator configured");
+            
+            cfg.setInterceptor(new StatementCounter());
         } catch (Exception e) {
             sLog.error("Unable to configure hibernate, reason: "+e.getMessage(),e);
         }
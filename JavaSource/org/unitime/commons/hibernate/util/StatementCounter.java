@@ -0,0 +1,51 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.commons.hibernate.util;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Hibernate interceptor counting the SQL statements prepared by the current thread.
+ * The counter is never reset, callers should use the difference between two calls of {@link StatementCounter#getCount()}.
+ * 
+ * @author Tomas Muller
+ */
+public class StatementCounter extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+	private static ThreadLocal<int[]> sCounter = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[] {0};
+		}
+	};
+	
+	/**
+	 * Number of SQL statements prepared by the current thread
+	 */
+	public static int getCount() {
+		return sCounter.get()[0];
+	}
+
+	@Override
+	public String onPrepareStatement(String sql) {
+		sCounter.get()[0]++;
+		return sql;
+	}
+}
@@ -29,11 +29,14 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.unitime.commons.Debug;
 import org.unitime.timetable.defaults.ApplicationProperty;
@@ -50,11 +53,14 @@ import org.unitime.timetable.util.Constants;
  */
 public class ApplicationProperties {
 	private static DateFormat sTempFileDateFormat = new SimpleDateFormat("yy-MM-dd_HHmmssSSS", Locale.US);
-	private static Properties props = new Properties();
+	private static AtomicLong sVersion = new AtomicLong(0);
+	private static Properties props = new ObservableProperties();
     private static long appPropertiesLastModified = -1, custPropertiesLastModified = -1;  
     private static PropertyFileChangeListener pfc=null;
     private static Properties configProps = null;
-    private static Map<Long, Properties> sSessionProperties = new HashMap<Long, Properties>();
+    private static Map<Long, Properties> sSessionProperties = new ConcurrentHashMap<Long, Properties>();
+    private static volatile Snapshot sSnapshot = null;
+    private static Map<Long, Snapshot> sSessionSnapshots = new ConcurrentHashMap<Long, Snapshot>();
     
     private static final ThreadLocal<Long> sAcademicSession = new ThreadLocal<Long>() {
 		 @Override
@@ -181,13 +187,17 @@ public class ApplicationProperties {
 	}
 	
 	public static Properties getConfigProperties() {
-	    if (configProps==null && _RootDAO.isConfigured())
-	        configProps = ApplicationConfig.toProperties();
+	    if (configProps==null && _RootDAO.isConfigured()) {
+	    	Properties properties = new ObservableProperties();
+	    	properties.putAll(ApplicationConfig.toProperties());
+	        configProps = properties;
+	    }
 	    return (configProps==null?new Properties():configProps);
 	}
 	
 	public static void clearConfigProperties() {
 	    configProps = null;
+	    invalidate();
 	}
 	
 	public static Properties getSessionProperties(Long sessionId) {
@@ -196,7 +206,8 @@ public class ApplicationProperties {
 		
 		Properties properties = sSessionProperties.get(sessionId);
 		if (properties == null) {
-			properties = SessionConfig.toProperties(sessionId);
+			properties = new ObservableProperties();
+			properties.putAll(SessionConfig.toProperties(sessionId));
 			sSessionProperties.put(sessionId, properties);
 		}
 		return properties;
@@ -207,6 +218,61 @@ public class ApplicationProperties {
 			sSessionProperties.clear();
 		else
 			sSessionProperties.remove(sessionId);
+		invalidate();
+	}
+	
+	/**
+	 * Reload application properties: when a session id is given, only the session configuration of the given academic session
+	 * is dropped, otherwise the property files are reloaded and both the application and all the session configurations are dropped.
+	 * See {@link org.unitime.timetable.solver.service.SolverServerService#reloadApplicationProperties(Long)} for the cluster-wide variant.
+	 */
+	public static void reload(Long sessionId) {
+		if (sessionId == null) {
+			load();
+			configProps = null;
+			sSessionProperties.clear();
+		} else {
+			sSessionProperties.remove(sessionId);
+		}
+		invalidate();
+	}
+	
+	/**
+	 * Drop all compiled property snapshots, called whenever any of the underlying properties has changed
+	 */
+	protected static void invalidate() {
+		sVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Default properties overlaid with the application configuration, compiled into an immutable map.
+	 * The snapshot is rebuilt lazily when the version has changed (or when the database was not yet configured when it was built).
+	 */
+	protected static Map<String, String> getSnapshot(long version) {
+		Snapshot snapshot = sSnapshot;
+		if (snapshot == null || !snapshot.isValid(version)) {
+			Map<String, String> properties = new HashMap<String, String>();
+			Snapshot.putAll(properties, props);
+			Properties config = getConfigProperties();
+			Snapshot.putAll(properties, config);
+			snapshot = new Snapshot(version, properties, config == configProps);
+			sSnapshot = snapshot;
+		}
+		return snapshot.getProperties();
+	}
+	
+	/**
+	 * Session configuration of the given academic session, compiled into an immutable map
+	 */
+	protected static Map<String, String> getSessionSnapshot(Long sessionId, long version) {
+		Snapshot snapshot = sSessionSnapshots.get(sessionId);
+		if (snapshot == null || !snapshot.isValid(version)) {
+			Map<String, String> properties = new HashMap<String, String>();
+			Snapshot.putAll(properties, getSessionProperties(sessionId));
+			snapshot = new Snapshot(version, properties, _RootDAO.isConfigured());
+			sSessionSnapshots.put(sessionId, snapshot);
+		}
+		return snapshot.getProperties();
 	}
 	
 	/**
@@ -244,15 +310,14 @@ public class ApplicationProperties {
 	    if(key==null || key.trim().length()==0)
 	        return defaultValue;
 	    
+	    long version = sVersion.get();
 	    if (sessionId != null) {
-	    	String value = getSessionProperties(sessionId).getProperty(key);
+	    	String value = getSessionSnapshot(sessionId, version).get(key);
 	    	if (value != null) return value;
 	    }
         
-        String value = getConfigProperties().getProperty(key);
-        if (value!=null) return value;
-        
-        return props.getProperty(key, defaultValue);
+        String value = getSnapshot(version).get(key);
+        return (value == null ? defaultValue : value);
 	}
 	
 	/**
@@ -267,7 +332,8 @@ public class ApplicationProperties {
 	 * @return Properties object
 	 */
 	public static Properties getProperties() {
-        Properties ret = (Properties)props.clone();
+        Properties ret = new Properties();
+        ret.putAll(props);
         ret.putAll(getConfigProperties());
         
 	    Long sessionId = ApplicationProperties.getSessionId();
@@ -388,6 +454,60 @@ public class ApplicationProperties {
 		}
 	}
     
+    /**
+     * Properties that drop the compiled snapshots whenever they are changed
+     */
+    static class ObservableProperties extends Properties {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			Object old = super.put(key, value);
+			invalidate();
+			return old;
+		}
+		
+		@Override
+		public synchronized Object remove(Object key) {
+			Object old = super.remove(key);
+			invalidate();
+			return old;
+		}
+		
+		@Override
+		public synchronized void clear() {
+			super.clear();
+			invalidate();
+		}
+    }
+    
+    /**
+     * Immutable compiled properties, valid for the version of the underlying properties it was created from
+     */
+    static class Snapshot {
+    	private long iVersion;
+    	private Map<String, String> iProperties;
+    	private boolean iComplete;
+    	
+    	Snapshot(long version, Map<String, String> properties, boolean complete) {
+    		iVersion = version;
+    		iProperties = Collections.unmodifiableMap(properties);
+    		iComplete = complete;
+    	}
+    	
+    	boolean isValid(long version) { return iComplete && iVersion == version; }
+    	
+    	Map<String, String> getProperties() { return iProperties; }
+    	
+    	static void putAll(Map<String, String> map, Properties properties) {
+    		synchronized (properties) {
+    			for (Map.Entry<Object, Object> e: properties.entrySet())
+    				if (e.getKey() instanceof String && e.getValue() instanceof String)
+    					map.put((String)e.getKey(), (String)e.getValue());
+    		}
+    	}
+    }
+    
     /**
      * Thread to check if property file has changed
      * and reload the properties on the fly. Interval = 1 minute
@@ -31,6 +31,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.struts.action.Action;
 import org.apache.struts.action.ActionForm;
 import org.apache.struts.action.ActionForward;
@@ -767,15 +768,15 @@ public class ManageSolversAction extends Action {
                boolean mem = ApplicationProperty.ManageSolversComputeMemoryUses.isTrue();
                
                WebTable webTable = (mem ?
-            		   new WebTable( 14,
+            		   new WebTable( 15,
             				   "Manage Online Scheduling Servers", "manageSolvers.do?ordo=%%",
-            				   new String[] {"Created", "Session", "Host", "Mode", "Mem", "Assign", "Total", "CompSched", "DistConf", "TimeConf", "FreeConf", "AvgDisb", "Disb[>=10%]", "Operation(s)"},
-            				   new String[] {"left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left"},
+            				   new String[] {"Created", "Session", "Host", "Mode", "Mem", "Assign", "Total", "CompSched", "DistConf", "TimeConf", "FreeConf", "AvgDisb", "Disb[>=10%]", "Locks", "Operation(s)"},
+            				   new String[] {"left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left"},
             				   null ) :
-                       new WebTable( 13,
+                       new WebTable( 14,
                     		   "Manage Online Scheduling Servers", "manageSolvers.do?ordo=%%",
-                    		   new String[] {"Created", "Session", "Host", "Mode", "Assign", "Total", "CompSched", "DistConf", "TimeConf", "FreeConf", "AvgDisb", "Disb[>=10%]", "Operation(s)"},
-                               new String[] {"left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left"},
+                    		   new String[] {"Created", "Session", "Host", "Mode", "Assign", "Total", "CompSched", "DistConf", "TimeConf", "FreeConf", "AvgDisb", "Disb[>=10%]", "Locks", "Operation(s)"},
+                               new String[] {"left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left", "left"},
                                null )
                			);
                webTable.setRowStyle("white-space:nowrap");
@@ -801,6 +802,14 @@ public class ManageSolversAction extends Action {
                        String free = (info == null ? null : info.get("Free time overlapping conflicts"));
                        String disb = (info == null ? null : info.get("Average disbalance"));
                        String disb10 = (info == null ? null : info.get("Sections disbalanced by 10% or more"));
+                       String locks = (info == null ? null : info.get("Locks"));
+                       if (locks != null) {
+                    	   String title = "";
+                    	   for (String property: new String[] {"Locks acquired", "Lock wait time", "Lock queues"})
+                    		   if (info.get(property) != null) title += (title.isEmpty() ? "" : "\n") + property + ": " + info.get(property);
+                    	   locks = StringEscapeUtils.escapeHtml(locks);
+                    	   if (!title.isEmpty()) locks = "<span title='" + StringEscapeUtils.escapeHtml(title).replace("'", "&#39;") + "'>" + locks + "</span>";
+                       }
                        Date loaded = new Date(solver.getConfig().getPropertyLong("General.StartUpDate", 0));
 
                        String op = "";
@@ -841,6 +850,7 @@ public class ManageSolversAction extends Action {
                                    (free==null?"N/A":free),
                                    (disb==null?"N/A":disb),
                                    (disb10==null?"N/A":disb10),
+                                   (locks==null?"N/A":locks),
                                    op},
                                new Comparable[] {
                                    loaded,
@@ -856,6 +866,7 @@ public class ManageSolversAction extends Action {
                                    (free==null?"":free),
                                    (disb==null?"":disb),
                                    (disb10==null?"":disb10),
+                                   (locks==null?"":info.get("Locks")),
                                    null});
                        } else {
                            webTable.addLine(null, new String[] {
@@ -871,6 +882,7 @@ public class ManageSolversAction extends Action {
                                    (free==null?"N/A":free),
                                    (disb==null?"N/A":disb),
                                    (disb10==null?"N/A":disb10),
+                                   (locks==null?"N/A":locks),
                                    op},
                                new Comparable[] {
                                    loaded,
@@ -885,6 +897,7 @@ public class ManageSolversAction extends Action {
                                    (free==null?"":free),
                                    (disb==null?"":disb),
                                    (disb10==null?"":disb10),
+                                   (locks==null?"":info.get("Locks")),
                                    null});                    	   
                        }
                        nrLines++;
@@ -38,6 +38,7 @@ import org.hibernate.HibernateException;
 import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.unitime.timetable.events.MeetingIndex;
 import org.unitime.timetable.form.SessionEditForm;
 import org.unitime.timetable.model.Assignment;
 import org.unitime.timetable.model.ChangeLog;
@@ -342,6 +343,10 @@ public class SessionEditAction extends SpringAwareLookupDispatchAction {
             }
             
             tx.commit() ;
+            
+            // class and exam events of a test session are deleted in bulk (not passing through the meeting change listener)
+            if (sessn.getStatusType().isTestSession() && MeetingIndex.isEnabled())
+            	MeetingIndex.getInstance().clear();
         } catch (Exception e) {
             if (tx!=null) tx.rollback();
             throw e;
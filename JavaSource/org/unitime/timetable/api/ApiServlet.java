@@ -29,13 +29,16 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 import org.unitime.timetable.gwt.shared.PageAccessException;
 import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.context.AnonymousUserContext;
 import org.unitime.timetable.security.context.HttpSessionContext;
+import org.unitime.timetable.util.RequestStatistics;
 
 /**
  * @author Tomas Muller
@@ -52,6 +55,16 @@ public class ApiServlet extends HttpServlet {
 		return request.getServletPath() + request.getPathInfo();
 	}
 
+	/**
+	 * Name under which the call is recorded in the request statistics: the registered reference of the connector
+	 * (e.g., /api/buildings), falling back to the servlet path. Path info is not used as it may contain ids.
+	 */
+	protected String getStatisticsName(ApiConnector connector, HttpServletRequest request) {
+		Service service = AnnotationUtils.findAnnotation(connector.getClass(), Service.class);
+		if (service != null && !service.value().isEmpty()) return service.value();
+		return request.getServletPath();
+	}
+
 	protected ApiConnector getConnector(HttpServletRequest request) {
 		WebApplicationContext applicationContext = WebApplicationContextUtils.getWebApplicationContext(getServletContext());
 		return (ApiConnector) applicationContext.getBean(getReference(request));
@@ -80,36 +93,56 @@ public class ApiServlet extends HttpServlet {
 
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		RequestStatistics.Measurement measurement = null;
 		try {
-			getConnector(request).doGet(request, response);
+			ApiConnector connector = getConnector(request);
+			measurement = RequestStatistics.start("API:GET " + getStatisticsName(connector, request));
+			connector.doGet(request, response);
+			measurement.stop(false);
 		} catch (Throwable t) {
+			if (measurement != null) measurement.stop(true);
 			checkError(request, response, t);
 		}
 	}
 
 	@Override
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		RequestStatistics.Measurement measurement = null;
 		try {
-			getConnector(request).doPost(request, response);
+			ApiConnector connector = getConnector(request);
+			measurement = RequestStatistics.start("API:POST " + getStatisticsName(connector, request));
+			connector.doPost(request, response);
+			measurement.stop(false);
 		} catch (Throwable t) {
+			if (measurement != null) measurement.stop(true);
 			checkError(request, response, t);
 		}
 	}
 	
 	@Override
 	public void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		RequestStatistics.Measurement measurement = null;
 		try {
-			getConnector(request).doPut(request, response);
+			ApiConnector connector = getConnector(request);
+			measurement = RequestStatistics.start("API:PUT " + getStatisticsName(connector, request));
+			connector.doPut(request, response);
+			measurement.stop(false);
 		} catch (Throwable t) {
+			if (measurement != null) measurement.stop(true);
 			checkError(request, response, t);
 		}
 	}
 	
 	@Override
 	public void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		RequestStatistics.Measurement measurement = null;
 		try {
-			getConnector(request).doDelete(request, response);
+			ApiConnector connector = getConnector(request);
+			measurement = RequestStatistics.start("API:DELETE " + getStatisticsName(connector, request));
+			connector.doDelete(request, response);
+			measurement.stop(false);
 		} catch (Throwable t) {
+			if (measurement != null) measurement.stop(true);
 			checkError(request, response, t);
 		}
 	}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.api.connectors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.stereotype.Service;
+import org.unitime.timetable.api.ApiConnector;
+import org.unitime.timetable.api.ApiHelper;
+import org.unitime.timetable.security.rights.Right;
+import org.unitime.timetable.util.RequestStatistics;
+import org.unitime.timetable.util.RequestStatistics.Metric;
+
+/**
+ * @author Tomas Muller
+ */
+@Service("/api/request-stats")
+public class RequestStatisticsConnector extends ApiConnector {
+	
+	@Override
+	public void doGet(ApiHelper helper) throws IOException {
+		helper.getSessionContext().checkPermissionAnyAuthority(Right.PageStatistics);
+		
+		helper.setResponse(new StatisticsInfo(RequestStatistics.getInstance()));
+	}
+	
+	@Override
+	public void doDelete(ApiHelper helper) throws IOException {
+		helper.getSessionContext().checkPermissionAnyAuthority(Right.PageStatistics);
+		
+		RequestStatistics.getInstance().reset();
+		helper.setResponse(new StatisticsInfo(RequestStatistics.getInstance()));
+	}
+	
+	class StatisticsInfo {
+		Long iStartTime;
+		List<MetricInfo> iRequests = new ArrayList<MetricInfo>();
+		
+		StatisticsInfo(RequestStatistics stats) {
+			iStartTime = stats.getStartTime();
+			double minutes = Math.max(1.0, (System.currentTimeMillis() - iStartTime) / 60000.0);
+			List<Metric> metrics = stats.getMetrics();
+			Collections.sort(metrics, new Comparator<Metric>() {
+				@Override
+				public int compare(Metric m1, Metric m2) {
+					return m1.getName().compareTo(m2.getName());
+				}
+			});
+			for (Metric metric: metrics)
+				iRequests.add(new MetricInfo(metric, minutes));
+		}
+	}
+	
+	class MetricInfo {
+		String iName;
+		Long iCount;
+		Double iThroughput;
+		Long iErrors;
+		Double iErrorRate;
+		Double iAverageTime;
+		Double iP50Time;
+		Double iP90Time;
+		Double iP99Time;
+		Double iMaxTime;
+		Double iAverageStatements;
+		Long iMaxStatements;
+		
+		MetricInfo(Metric metric, double minutes) {
+			iName = metric.getName();
+			iCount = metric.getCount();
+			iThroughput = metric.getCount() / minutes;
+			iErrors = metric.getErrors();
+			iErrorRate = (metric.getCount() == 0 ? 0.0 : ((double)metric.getErrors()) / metric.getCount());
+			iAverageTime = metric.getAverageTime() / 1000.0;
+			iP50Time = metric.getPercentile(0.50) / 1000.0;
+			iP90Time = metric.getPercentile(0.90) / 1000.0;
+			iP99Time = metric.getPercentile(0.99) / 1000.0;
+			iMaxTime = metric.getMaxTime() / 1000.0;
+			iAverageStatements = metric.getAverageStatements();
+			iMaxStatements = metric.getMaxStatements();
+		}
+	}
+
+	@Override
+	protected String getName() {
+		return "request-stats";
+	}
+}
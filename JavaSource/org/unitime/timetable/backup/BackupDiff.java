@@ -0,0 +1,260 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Differential academic session backups.<br>
+ * A differential backup uses the same {@link TableData} format as the full backup, but it only contains the records that have
+ * been added or changed since its parent backup, a {@link BackupDiff#DELETED} table listing the records that have been removed,
+ * and a {@link BackupDiff#MANIFEST} table with the fingerprint of the parent backup. The parent is either a full backup or
+ * another differential backup, so a chain of differential backups can be applied onto a base backup.<br>
+ * Changes are detected by comparing a digest of each exported record with the last state of the chain, as most of the tables
+ * do not have any modification time stamp.
+ *
+ * @author Tomas Muller
+ */
+public class BackupDiff {
+	public static final String MANIFEST = "__manifest__";
+	public static final String DELETED = "__deleted__";
+	
+	private ConcurrentMap<String, ConcurrentMap<String, Long>> iDigests = new ConcurrentHashMap<String, ConcurrentMap<String, Long>>();
+	private String iParent = null;
+	private int iChainLength = 0;
+	
+	private BackupDiff() {}
+	
+	/**
+	 * Read the given chain of backups (a full backup followed by zero or more differential backups) and remember the digests of the
+	 * resulting records
+	 */
+	public static BackupDiff load(List<InputStream> chain) throws IOException {
+		final BackupDiff diff = new BackupDiff();
+		diff.iParent = readChain(chain, new ChainHandler() {
+			@Override
+			public void table(TableData.Table table) {
+				ConcurrentMap<String, Long> digests = diff.iDigests.get(table.getName());
+				if (digests == null) {
+					digests = new ConcurrentHashMap<String, Long>();
+					diff.iDigests.put(table.getName(), digests);
+				}
+				for (TableData.Record record: table.getRecordList())
+					digests.put(record.getId(), digest(record));
+			}
+			
+			@Override
+			public void deleted(String table, List<String> ids) {
+				ConcurrentMap<String, Long> digests = diff.iDigests.get(table);
+				if (digests != null)
+					for (String id: ids)
+						digests.remove(id);
+			}
+		});
+		diff.iChainLength = chain.size();
+		return diff;
+	}
+	
+	/**
+	 * Read the given chain of backups (a full backup followed by zero or more differential backups) and return the resulting tables
+	 */
+	public static List<TableData.Table> merge(List<InputStream> chain) throws IOException {
+		final Map<String, Map<String, TableData.Record>> tables = new LinkedHashMap<String, Map<String, TableData.Record>>();
+		readChain(chain, new ChainHandler() {
+			@Override
+			public void table(TableData.Table table) {
+				Map<String, TableData.Record> records = tables.get(table.getName());
+				if (records == null) {
+					records = new LinkedHashMap<String, TableData.Record>();
+					tables.put(table.getName(), records);
+				}
+				for (TableData.Record record: table.getRecordList())
+					records.put(record.getId(), record);
+			}
+			
+			@Override
+			public void deleted(String table, List<String> ids) {
+				Map<String, TableData.Record> records = tables.get(table);
+				if (records != null)
+					for (String id: ids)
+						records.remove(id);
+			}
+		});
+		List<TableData.Table> ret = new ArrayList<TableData.Table>();
+		for (Map.Entry<String, Map<String, TableData.Record>> e: tables.entrySet()) {
+			if (e.getValue().isEmpty()) continue;
+			ret.add(TableData.Table.newBuilder().setName(e.getKey()).addAllRecord(e.getValue().values()).build());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Check whether the given record has not changed since the parent backup. Each record should be checked exactly once, the
+	 * records of the parent backup that have not been checked are considered deleted (see {@link BackupDiff#getDeleted()}).
+	 */
+	public boolean isUnchanged(String table, TableData.Record record) {
+		ConcurrentMap<String, Long> digests = iDigests.get(table);
+		if (digests == null) return false;
+		Long digest = digests.remove(record.getId());
+		return digest != null && digest.longValue() == digest(record);
+	}
+	
+	/**
+	 * Manifest table, to be written at the beginning of a differential backup
+	 */
+	public TableData.Table getManifest() {
+		return TableData.Table.newBuilder().setName(MANIFEST).addRecord(
+				TableData.Record.newBuilder().setId("diff")
+				.addElement(TableData.Element.newBuilder().setName("parent").addValue(iParent))
+				.addElement(TableData.Element.newBuilder().setName("chain").addValue(String.valueOf(iChainLength)))
+				.addElement(TableData.Element.newBuilder().setName("created").addValue(String.valueOf(System.currentTimeMillis())))
+				).build();
+	}
+	
+	/**
+	 * Table listing the records of the parent backup that have not been exported (record id is the table name, element id contains the record ids)
+	 */
+	public TableData.Table getDeleted() {
+		TableData.Table.Builder table = TableData.Table.newBuilder().setName(DELETED);
+		for (String name: new TreeSet<String>(iDigests.keySet())) {
+			Map<String, Long> digests = iDigests.get(name);
+			if (digests.isEmpty()) continue;
+			table.addRecord(TableData.Record.newBuilder().setId(name).addElement(
+					TableData.Element.newBuilder().setName("id").addAllValue(new TreeSet<String>(digests.keySet()))));
+		}
+		return table.build();
+	}
+	
+	/** Fingerprint of the last backup of the chain */
+	public String getParent() { return iParent; }
+	
+	/**
+	 * Digest of a record, values of each element are sorted as the order of collections is not preserved by the backup
+	 */
+	public static long digest(TableData.Record record) {
+		MessageDigest md = createDigest();
+		List<TableData.Element> elements = new ArrayList<TableData.Element>(record.getElementList());
+		Collections.sort(elements, new Comparator<TableData.Element>() {
+			@Override
+			public int compare(TableData.Element e1, TableData.Element e2) {
+				return e1.getName().compareTo(e2.getName());
+			}
+		});
+		for (TableData.Element element: elements) {
+			md.update(element.getName().getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+			List<ByteString> values = new ArrayList<ByteString>(element.getValueCount());
+			for (int i = 0; i < element.getValueCount(); i++)
+				values.add(element.getValueBytes(i));
+			Collections.sort(values, sByteStringComparator);
+			for (ByteString value: values) {
+				md.update(value.toByteArray());
+				md.update((byte)0);
+			}
+		}
+		byte[] digest = md.digest();
+		long ret = 0;
+		for (int i = 0; i < 8; i++)
+			ret = (ret << 8) | (digest[i] & 0xFF);
+		return ret;
+	}
+	
+	private static Comparator<ByteString> sByteStringComparator = new Comparator<ByteString>() {
+		@Override
+		public int compare(ByteString b1, ByteString b2) {
+			for (int i = 0; i < Math.min(b1.size(), b2.size()); i++) {
+				int cmp = Integer.compare(b1.byteAt(i) & 0xFF, b2.byteAt(i) & 0xFF);
+				if (cmp != 0) return cmp;
+			}
+			return Integer.compare(b1.size(), b2.size());
+		}
+	};
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuffer ret = new StringBuffer();
+		for (byte b: bytes)
+			ret.append(String.format("%02x", b & 0xFF));
+		return ret.toString();
+	}
+	
+	private static String readChain(List<InputStream> chain, ChainHandler handler) throws IOException {
+		String parent = null;
+		for (int i = 0; i < chain.size(); i++) {
+			MessageDigest md = createDigest();
+			CodedInputStream cin = CodedInputStream.newInstance(new DigestInputStream(chain.get(i), md));
+			cin.setSizeLimit(1024*1024*1024); // 1 GB
+			boolean differential = false;
+			TableData.Table table = null;
+			while ((table = SessionRestore.readTable(cin)) != null) {
+				if (MANIFEST.equals(table.getName())) {
+					if (i == 0)
+						throw new IOException("The first backup of the chain must be a full backup.");
+					String p = null;
+					for (TableData.Element element: table.getRecord(0).getElementList())
+						if ("parent".equals(element.getName())) p = element.getValue(0);
+					if (!parent.equals(p))
+						throw new IOException("Backup " + (1 + i) + " of the chain is not a differential backup of the previous one.");
+					differential = true;
+				} else if (DELETED.equals(table.getName())) {
+					for (TableData.Record record: table.getRecordList())
+						for (TableData.Element element: record.getElementList())
+							if ("id".equals(element.getName()))
+								handler.deleted(record.getId(), element.getValueList());
+				} else {
+					handler.table(table);
+				}
+			}
+			if (i > 0 && !differential)
+				throw new IOException("Backup " + (1 + i) + " of the chain is not a differential backup.");
+			parent = toHex(md.digest());
+		}
+		return parent;
+	}
+	
+	private static interface ChainHandler {
+		public void table(TableData.Table table);
+		public void deleted(String table, List<String> ids);
+	}
+}
@@ -19,13 +19,21 @@
 */
 package org.unitime.timetable.backup;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
@@ -37,6 +45,8 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 import org.apache.commons.logging.Log;
@@ -48,9 +58,13 @@ import org.dom4j.Document;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
 import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
 import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.type.BinaryType;
 import org.hibernate.type.CollectionType;
@@ -99,32 +113,30 @@ public class SessionBackup implements SessionBackupInterface {
     private static Log sLog = LogFactory.getLog(SessionBackup.class);
     private SessionFactory iHibSessionFactory = null;
 	private org.hibernate.Session iHibSession = null;
+	private static DecimalFormat sDF = new DecimalFormat("0.0");
 	
 	private CodedOutputStream iOut = null;
 	private PrintWriter iDebug = null;
 	private Long iSessionId = null;
 	private BackupProgress iProgress = null;
+	private BackupDiff iDiff = null;
 	
 	public BackupProgress getProgress() {
 		return iProgress;
 	}
 	
-	private void add(TableData.Table table) throws IOException {
-		iProgress.info("Writing " + table.getName().substring(table.getName().lastIndexOf('.') + 1) + " [" + table.getRecordCount() + " records, " + table.getSerializedSize() + " bytes]");
-		iOut.writeInt32NoTag(table.getSerializedSize());
-		table.writeTo(iOut);
-		iOut.flush();
-		if (iDebug != null) {
-			iDebug.println("## " + table.getName() + " ##");
-			iDebug.print(table.toString());
-			iDebug.flush();
-		}
-	}
-	
 	public void debug(PrintWriter pw) {
 		iDebug = pw;
 	}
 	
+	/**
+	 * Make a differential backup: only records that are new or that have changed since the last backup of the given chain
+	 * (a full backup followed by zero or more differential backups) are written, see {@link BackupDiff}.
+	 */
+	public void setParent(List<InputStream> chain) throws IOException {
+		iDiff = (chain == null || chain.isEmpty() ? null : BackupDiff.load(chain));
+	}
+	
 	@Override
 	public void backup(OutputStream out, BackupProgress progress, Long sessionId) throws IOException {
         iOut = CodedOutputStream.newInstance(out);
@@ -133,6 +145,7 @@ public class SessionBackup implements SessionBackupInterface {
         iHibSession = new _RootDAO().createNewSession(); 
         iHibSession.setCacheMode(CacheMode.IGNORE);
         iHibSessionFactory = iHibSession.getSessionFactory();
+        Snapshot snapshot = new Snapshot(iHibSession);
         try {
     		iProgress.setStatus("Exporting Session");
     		iProgress.setPhase("Loading Model", 3);
@@ -273,162 +286,30 @@ public class SessionBackup implements SessionBackupInterface {
             }
             iProgress.incProgress();
             
-            Map<String, Set<Serializable>> allExportedIds = new HashMap<String, Set<Serializable>>();
-            for (String name: new TreeSet<String>(data.keySet())) {
-            	List<QueueItem> list = data.get(name);
-            	Map<String, TableData.Table.Builder> tables = new HashMap<String, TableData.Table.Builder>();
-            	for (QueueItem current: list) {
-            		if (current.size() == 0) continue;
-            		iProgress.info("Loading " + current);
-            		List<Object> objects = current.list();
-            		if (objects == null || objects.isEmpty()) continue;
-            		iProgress.setPhase(current.abbv() + " [" + objects.size() + "]", objects.size());
-            		objects: for (Object object: objects) {
-            			iProgress.incProgress();
-            			
-            			// Get meta data (check for sub-classes)
-            			ClassMetadata meta = iHibSessionFactory.getClassMetadata(object.getClass());
-            			if (meta == null) meta = current.meta();
-            			if (meta.hasSubclasses()) {
-            	            for (Iterator i=iHibSessionFactory.getAllClassMetadata().entrySet().iterator();i.hasNext();) {
-            	                Map.Entry entry = (Map.Entry)i.next();
-            	                ClassMetadata classMetadata = (ClassMetadata)entry.getValue();
-            	                if (classMetadata.getMappedClass().isInstance(object) && !classMetadata.hasSubclasses()) {
-            	                	meta = classMetadata; break;
-            	                }
-            	            }
-            			}
-            			
-            			// Get unique identifier
-            			Serializable id = meta.getIdentifier(object, (SessionImplementor)iHibSession);
-            			if (meta.getIdentifierType().isComponentType()) {
-            				ComponentType cid = (ComponentType)meta.getIdentifierType();
-            				Object[] ids = new Object[cid.getPropertyNames().length];
-            				for (int i = 0; i < cid.getPropertyNames().length; i++) {
-            					Type type = meta.getPropertyType(cid.getPropertyNames()[i]);
-                				Object value = cid.getPropertyValue(object, i);
-                				if (value == null) continue;
-                				if (type.isEntityType()) {
-                					ids[i] = iHibSessionFactory.getClassMetadata(type.getReturnedClass()).getIdentifier(value, (SessionImplementor)iHibSession); 
-                				} else {
-                					ids[i] = value;
-                				}
-            				}
-            				id = new CompositeId(ids);
-            			}
-            			
-            			// Check if already exported
-            			Set<Serializable> exportedIds = allExportedIds.get(meta.getEntityName());
-            			if (exportedIds == null) {
-            				exportedIds = new HashSet<Serializable>();
-            				allExportedIds.put(meta.getEntityName(), exportedIds);
-            			}
-            			if (!exportedIds.add(id)) continue;
-            			
-            			// Check relation to an academic session (if exists)
-            			for (String property: meta.getPropertyNames()) {
-            				Type type = meta.getPropertyType(property);
-                        	if (type instanceof EntityType && type.getReturnedClass().equals(Session.class)) {
-                        		Session s = (Session)meta.getPropertyValue(object, property);
-                        		if (s != null && !s.getUniqueId().equals(iSessionId)) {
-                        			iProgress.warn(meta.getEntityName().substring(meta.getEntityName().lastIndexOf('.') + 1) + "@" + id + " belongs to a different academic session (" + s + ")");
-                        			continue objects; // wrong session
-                        		}
-                        	}
-            			}
-
-            			// Get appropriate table
-            			TableData.Table.Builder table = tables.get(meta.getEntityName());
-            			if (table == null) {
-            				table = TableData.Table.newBuilder();
-            				tables.put(meta.getEntityName(), table);
-            				table.setName(meta.getEntityName());
-            			}
-
-            			// Export object
-            			TableData.Record.Builder record = TableData.Record.newBuilder();
-            			record.setId(id.toString());
-            			for (String property: meta.getPropertyNames()) {
-            				Type type = meta.getPropertyType(property);
-            				Object value = meta.getPropertyValue(object, property);
-            				if (value == null) continue;
-            				TableData.Element.Builder element = TableData.Element.newBuilder();
-            				element.setName(property);
-            				if (type instanceof PrimitiveType) {
-            					element.addValue(((PrimitiveType)type).toString(value));
-            				} else if (type instanceof StringType) {	
-            					element.addValue(((StringType)type).toString((String)value));
-            				} else if (type instanceof BinaryType) {	
-            					element.addValueBytes(ByteString.copyFrom((byte[])value));
-            				} else if (type instanceof TimestampType) {
-            					element.addValue(((TimestampType)type).toString((Date)value));
-            				} else if (type instanceof DateType) {
-            					element.addValue(((DateType)type).toString((Date)value));
-            				} else if (type instanceof EntityType) {
-    							List<Object> ids = current.relation(property, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-    							iHibSession.evict(value);
-            				} else if (type instanceof CustomType && value instanceof Document) {
-            					if (object instanceof CurriculumClassification && property.equals("students")) continue;
-            					StringWriter w = new StringWriter();
-            					XMLWriter x = new XMLWriter(w, OutputFormat.createCompactFormat());
-            					x.write((Document)value);
-            					x.flush(); x.close();
-            					element.addValue(w.toString());
-            				} else if (type instanceof CollectionType) {
-    							List<Object> ids = current.relation(property, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-            				} else if (type instanceof EmbeddedComponentType && property.equalsIgnoreCase("uniqueCourseNbr")) {
-            					continue;
-            				} else {
-            					iProgress.warn("Unknown data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
-            					continue;
-            				}
-            				record.addElement(element.build());
-            			}
-            			if (meta.getIdentifierType().isComponentType()) {
-            				ComponentType cid = (ComponentType)meta.getIdentifierType();
-            				for (int i = 0; i < cid.getPropertyNames().length; i++) {
-            					String property = cid.getPropertyNames()[i];
-            					Type type = cid.getSubtypes()[i];
-                				Object value = ((CompositeId)id).iId[i];
-                				if (value == null) continue;
-                				TableData.Element.Builder element = TableData.Element.newBuilder();
-                				element.setName(property);
-                				if (type instanceof PrimitiveType) {
-                					element.addValue(((PrimitiveType)type).toString(value));
-                				} else if (type instanceof StringType) {	
-                					element.addValue(((StringType)type).toString((String)value));
-                				} else if (type instanceof BinaryType) {	
-                					element.addValueBytes(ByteString.copyFrom((byte[])value));
-                				} else if (type instanceof TimestampType) {
-                					element.addValue(((TimestampType)type).toString((Date)value));
-                				} else if (type instanceof DateType) {
-                					element.addValue(((DateType)type).toString((Date)value));
-                				} else if (type instanceof EntityType) {
-                    				element.addValue(value.toString());
-                				} else {
-                					iProgress.warn("Not-supported composite key data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
-                					continue;
-                				}
-                				record.addElement(element.build());
-            				}
-            			}
-            			table.addRecord(record.build());
-            			iHibSession.evict(object);
-            		}
-            		current.clearCache();
-            	}
-            	
-            	for (TableData.Table.Builder table: tables.values()) {
-            		add(table.build());
+            if (iDiff != null)
+            	new TableWriter(iOut).write(iDiff.getManifest());
+            
+            ConcurrentMap<String, Set<Serializable>> allExportedIds = new ConcurrentHashMap<String, Set<Serializable>>();
+            List<String> names = new ArrayList<String>(new TreeSet<String>(data.keySet()));
+            int nrThreads = Math.max(1, ApplicationProperty.SessionBackupThreads.intValue());
+            if (nrThreads > 1 && names.size() > 1) {
+            	exportParallel(names, data, allExportedIds, nrThreads);
+            } else {
+            	for (String name: names) {
+            		long t0 = System.currentTimeMillis();
+            		TableWriter writer = new TableWriter(iOut);
+            		export(data.get(name), iHibSession, writer, allExportedIds, false);
+            		writer.flush();
+            		statistics(name, writer, System.currentTimeMillis() - t0);
             	}
             }
             
+            if (iDiff != null) {
+            	TableData.Table deleted = iDiff.getDeleted();
+            	if (deleted.getRecordCount() > 0)
+            		new TableWriter(iOut).write(deleted);
+            }
+            
             /*
             // Skip ConstraintInfo
             if (!iData.containsKey(ConstraintInfo.class.getName()))
@@ -454,10 +335,491 @@ public class SessionBackup implements SessionBackupInterface {
     		*/
     		iProgress.setStatus("All done.");
         } finally {
+        	snapshot.end();
         	iHibSession.close();
         }
 	}
 	
+	/**
+	 * Export all objects of the given queue items (all of the same entity name), the objects are fetched using a scrollable
+	 * result set and the hibernate session is cleared after each {@link ApplicationProperty#SessionBackupFetchSize} records.
+	 */
+	private void export(List<QueueItem> list, org.hibernate.Session hibSession, TableWriter writer, ConcurrentMap<String, Set<Serializable>> allExportedIds, boolean parallel) throws IOException {
+		int fetchSize = Math.max(1, ApplicationProperty.SessionBackupFetchSize.intValue());
+		for (QueueItem current: list) {
+			if (current.size() == 0) continue;
+			info("Loading " + current);
+			ScrollableResults results = current.scroll(hibSession, fetchSize);
+			if (results == null) continue;
+			if (!parallel)
+				iProgress.setPhase(current.abbv() + " [" + current.size() + "]", current.size());
+			try {
+				int fetched = 0;
+				while (results.next()) {
+					if (!parallel) iProgress.incProgress();
+					exportObject(current, results.get(0), hibSession, writer, allExportedIds);
+					if (++fetched % fetchSize == 0) hibSession.clear();
+				}
+			} finally {
+				results.close();
+			}
+			hibSession.clear();
+			current.clearCache();
+		}
+	}
+	
+	private void exportObject(QueueItem current, Object object, org.hibernate.Session hibSession, TableWriter writer, ConcurrentMap<String, Set<Serializable>> allExportedIds) throws IOException {
+		// Get meta data (check for sub-classes)
+		ClassMetadata meta = iHibSessionFactory.getClassMetadata(object.getClass());
+		if (meta == null) meta = current.meta();
+		if (meta.hasSubclasses()) {
+            for (Iterator i=iHibSessionFactory.getAllClassMetadata().entrySet().iterator();i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                ClassMetadata classMetadata = (ClassMetadata)entry.getValue();
+                if (classMetadata.getMappedClass().isInstance(object) && !classMetadata.hasSubclasses()) {
+                	meta = classMetadata; break;
+                }
+            }
+		}
+		
+		// Get unique identifier
+		Serializable id = meta.getIdentifier(object, (SessionImplementor)hibSession);
+		if (meta.getIdentifierType().isComponentType()) {
+			ComponentType cid = (ComponentType)meta.getIdentifierType();
+			Object[] ids = new Object[cid.getPropertyNames().length];
+			for (int i = 0; i < cid.getPropertyNames().length; i++) {
+				Type type = meta.getPropertyType(cid.getPropertyNames()[i]);
+				Object value = cid.getPropertyValue(object, i);
+				if (value == null) continue;
+				if (type.isEntityType()) {
+					ids[i] = iHibSessionFactory.getClassMetadata(type.getReturnedClass()).getIdentifier(value, (SessionImplementor)hibSession); 
+				} else {
+					ids[i] = value;
+				}
+			}
+			id = new CompositeId(ids);
+		}
+		
+		// Check if already exported
+		if (!getExportedIds(allExportedIds, meta.getEntityName()).add(id)) return;
+		
+		// Check relation to an academic session (if exists)
+		for (String property: meta.getPropertyNames()) {
+			Type type = meta.getPropertyType(property);
+        	if (type instanceof EntityType && type.getReturnedClass().equals(Session.class)) {
+        		Session s = (Session)meta.getPropertyValue(object, property);
+        		if (s != null && !s.getUniqueId().equals(iSessionId)) {
+        			warn(meta.getEntityName().substring(meta.getEntityName().lastIndexOf('.') + 1) + "@" + id + " belongs to a different academic session (" + s + ")");
+        			return; // wrong session
+        		}
+        	}
+		}
+
+		// Export object
+		TableData.Record.Builder record = TableData.Record.newBuilder();
+		record.setId(id.toString());
+		for (String property: meta.getPropertyNames()) {
+			Type type = meta.getPropertyType(property);
+			Object value = meta.getPropertyValue(object, property);
+			if (value == null) continue;
+			TableData.Element.Builder element = TableData.Element.newBuilder();
+			element.setName(property);
+			if (type instanceof PrimitiveType) {
+				element.addValue(((PrimitiveType)type).toString(value));
+			} else if (type instanceof StringType) {	
+				element.addValue(((StringType)type).toString((String)value));
+			} else if (type instanceof BinaryType) {	
+				element.addValueBytes(ByteString.copyFrom((byte[])value));
+			} else if (type instanceof TimestampType) {
+				element.addValue(((TimestampType)type).toString((Date)value));
+			} else if (type instanceof DateType) {
+				element.addValue(((DateType)type).toString((Date)value));
+			} else if (type instanceof EntityType) {
+				List<Object> ids = current.relation(hibSession, property, id, false);
+				if (ids != null)
+					for (Object i: ids)
+						element.addValue(i.toString());
+				hibSession.evict(value);
+			} else if (type instanceof CustomType && value instanceof Document) {
+				if (object instanceof CurriculumClassification && property.equals("students")) continue;
+				StringWriter w = new StringWriter();
+				XMLWriter x = new XMLWriter(w, OutputFormat.createCompactFormat());
+				x.write((Document)value);
+				x.flush(); x.close();
+				element.addValue(w.toString());
+			} else if (type instanceof CollectionType) {
+				List<Object> ids = current.relation(hibSession, property, id, false);
+				if (ids != null)
+					for (Object i: ids)
+						element.addValue(i.toString());
+			} else if (type instanceof EmbeddedComponentType && property.equalsIgnoreCase("uniqueCourseNbr")) {
+				continue;
+			} else {
+				warn("Unknown data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
+				continue;
+			}
+			record.addElement(element.build());
+		}
+		if (meta.getIdentifierType().isComponentType()) {
+			ComponentType cid = (ComponentType)meta.getIdentifierType();
+			for (int i = 0; i < cid.getPropertyNames().length; i++) {
+				String property = cid.getPropertyNames()[i];
+				Type type = cid.getSubtypes()[i];
+				Object value = ((CompositeId)id).iId[i];
+				if (value == null) continue;
+				TableData.Element.Builder element = TableData.Element.newBuilder();
+				element.setName(property);
+				if (type instanceof PrimitiveType) {
+					element.addValue(((PrimitiveType)type).toString(value));
+				} else if (type instanceof StringType) {	
+					element.addValue(((StringType)type).toString((String)value));
+				} else if (type instanceof BinaryType) {	
+					element.addValueBytes(ByteString.copyFrom((byte[])value));
+				} else if (type instanceof TimestampType) {
+					element.addValue(((TimestampType)type).toString((Date)value));
+				} else if (type instanceof DateType) {
+					element.addValue(((DateType)type).toString((Date)value));
+				} else if (type instanceof EntityType) {
+    				element.addValue(value.toString());
+				} else {
+					warn("Not-supported composite key data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
+					continue;
+				}
+				record.addElement(element.build());
+			}
+		}
+		writer.add(meta.getEntityName(), record.build());
+		hibSession.evict(object);
+	}
+	
+	private Set<Serializable> getExportedIds(ConcurrentMap<String, Set<Serializable>> allExportedIds, String entityName) {
+		Set<Serializable> exportedIds = allExportedIds.get(entityName);
+		if (exportedIds == null) {
+			Set<Serializable> newIds = Collections.newSetFromMap(new ConcurrentHashMap<Serializable, Boolean>());
+			exportedIds = allExportedIds.putIfAbsent(entityName, newIds);
+			if (exportedIds == null) exportedIds = newIds;
+		}
+		return exportedIds;
+	}
+	
+	/**
+	 * Export tables in parallel, each table is exported by one of the {@link TableExporter} threads into a temporary file.
+	 * The files are appended to the output in the order of the table names, as soon as they are ready. The backup fails
+	 * when a table cannot be exported or when all the threads have terminated before exporting all the tables.
+	 */
+	private void exportParallel(List<String> names, Map<String, List<QueueItem>> data, ConcurrentMap<String, Set<Serializable>> allExportedIds, int nrThreads) throws IOException {
+		iProgress.setPhase("Exporting tables", names.size());
+		Queue<String> queue = new LinkedList<String>(names);
+		Map<String, Section> sections = new HashMap<String, Section>();
+		List<TableExporter> exporters = new ArrayList<TableExporter>();
+		for (int i = 0; i < Math.min(nrThreads, names.size()); i++) {
+			TableExporter exporter = new TableExporter(1 + i, queue, data, sections, allExportedIds);
+			exporters.add(exporter);
+			exporter.start();
+		}
+		try {
+			for (String name: names) {
+				Section section = null;
+				synchronized (sections) {
+					while ((section = sections.remove(name)) == null) {
+						Throwable error = null;
+						boolean alive = false;
+						for (TableExporter exporter: exporters) {
+							if (exporter.isAlive()) alive = true;
+							if (exporter.iError != null) error = exporter.iError;
+						}
+						if (!alive)
+							throw new IOException("Failed to export " + name + ": all export threads have terminated" + (error == null ? "." : ": " + error.getMessage()), error);
+						sections.wait(1000);
+					}
+				}
+				try {
+					if (section.iError != null) {
+						if (section.iError instanceof IOException) throw (IOException)section.iError;
+						throw new IOException("Failed to export " + name + ": " + section.iError.getMessage(), section.iError);
+					}
+					section.appendTo(iOut);
+					statistics(name, section.iRecords, section.iUnchanged, section.iSections, section.iBytes, section.iTime);
+				} finally {
+					section.delete();
+				}
+				iProgress.incProgress();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Backup interrupted.", e);
+		} finally {
+			synchronized (queue) {
+				queue.clear();
+			}
+			for (TableExporter exporter: exporters) {
+				try {
+					exporter.join();
+				} catch (InterruptedException e) {}
+			}
+			for (Section section: sections.values())
+				section.delete();
+		}
+	}
+	
+	private void statistics(String name, TableWriter writer, long time) {
+		statistics(name, writer.getRecords(), writer.getUnchanged(), writer.getSections(), writer.getBytes(), time);
+	}
+	
+	private void statistics(String name, long records, long unchanged, int sections, long bytes, long time) {
+		if (records + unchanged == 0) return;
+		info("Exported " + name.substring(name.lastIndexOf('.') + 1) + " [" + records + " records in " + sections + " section" + (sections == 1 ? "" : "s") + ", " +
+				(unchanged > 0 ? unchanged + " unchanged, " : "") +
+				bytes + " bytes, " + sDF.format(time / 1000.0) + " s, " + (time <= 0 ? "-" : sDF.format(1000.0 * (records + unchanged) / time)) + " records/s]");
+	}
+	
+	private void info(String message) {
+		synchronized (iProgress) {
+			iProgress.info(message);
+		}
+	}
+	
+	private void warn(String message) {
+		synchronized (iProgress) {
+			iProgress.warn(message);
+		}
+	}
+	
+	/**
+	 * Writes table records into the output, a table is split into multiple sections of at most
+	 * {@link ApplicationProperty#SessionBackupChunkSize} records.
+	 */
+	class TableWriter {
+		private CodedOutputStream iOutput;
+		private Map<String, TableData.Table.Builder> iTables = new HashMap<String, TableData.Table.Builder>();
+		private int iChunkSize;
+		private long iRecords = 0, iBytes = 0, iUnchanged = 0;
+		private int iSections = 0;
+		
+		TableWriter(CodedOutputStream output) {
+			iOutput = output;
+			iChunkSize = ApplicationProperty.SessionBackupChunkSize.intValue();
+		}
+		
+		void add(String name, TableData.Record record) throws IOException {
+			if (iDiff != null && iDiff.isUnchanged(name, record)) {
+				iUnchanged ++;
+				return;
+			}
+			TableData.Table.Builder table = iTables.get(name);
+			if (table == null) {
+				table = TableData.Table.newBuilder();
+				table.setName(name);
+				iTables.put(name, table);
+			}
+			table.addRecord(record);
+			iRecords ++;
+			if (iChunkSize > 0 && table.getRecordCount() >= iChunkSize) {
+				write(table.build());
+				iTables.remove(name);
+			}
+		}
+		
+		void flush() throws IOException {
+			for (TableData.Table.Builder table: iTables.values())
+				write(table.build());
+			iTables.clear();
+			iOutput.flush();
+		}
+		
+		void write(TableData.Table table) throws IOException {
+			int size = table.getSerializedSize();
+			info("Writing " + table.getName().substring(table.getName().lastIndexOf('.') + 1) + " [" + table.getRecordCount() + " records, " + size + " bytes]");
+			iOutput.writeInt32NoTag(size);
+			table.writeTo(iOutput);
+			iOutput.flush();
+			iBytes += CodedOutputStream.computeInt32SizeNoTag(size) + size;
+			iSections ++;
+			if (iDebug != null) {
+				synchronized (iDebug) {
+					iDebug.println("## " + table.getName() + " ##");
+					iDebug.print(table.toString());
+					iDebug.flush();
+				}
+			}
+		}
+		
+		long getRecords() { return iRecords; }
+		long getUnchanged() { return iUnchanged; }
+		long getBytes() { return iBytes; }
+		int getSections() { return iSections; }
+	}
+	
+	/**
+	 * Table exported into a temporary file
+	 */
+	static class Section {
+		File iFile;
+		long iRecords = 0, iUnchanged = 0, iBytes = 0, iTime = 0;
+		int iSections = 0;
+		Throwable iError = null;
+		
+		void appendTo(CodedOutputStream output) throws IOException {
+			if (iFile == null) return;
+			FileInputStream in = new FileInputStream(iFile);
+			try {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) > 0)
+					output.writeRawBytes(buffer, 0, read);
+				output.flush();
+			} finally {
+				in.close();
+			}
+		}
+		
+		void delete() {
+			if (iFile != null && iFile.exists() && !iFile.delete())
+				sLog.warn("Failed to delete " + iFile);
+			iFile = null;
+		}
+	}
+	
+	/**
+	 * Table export thread, using its own hibernate session in a {@link Snapshot} transaction. The snapshots of all the threads are
+	 * taken when the threads are started, before any table is exported.
+	 */
+	class TableExporter extends Thread {
+		private Queue<String> iQueue;
+		private Map<String, List<QueueItem>> iData;
+		private Map<String, Section> iSections;
+		private ConcurrentMap<String, Set<Serializable>> iExportedIds;
+		private volatile Throwable iError = null;
+		
+		TableExporter(int index, Queue<String> queue, Map<String, List<QueueItem>> data, Map<String, Section> sections, ConcurrentMap<String, Set<Serializable>> exportedIds) {
+			super("SessionBackup-" + index);
+			setDaemon(true);
+			iQueue = queue;
+			iData = data;
+			iSections = sections;
+			iExportedIds = exportedIds;
+		}
+		
+		@Override
+		public void run() {
+			org.hibernate.Session hibSession = null;
+			Snapshot snapshot = null;
+			try {
+				hibSession = new _RootDAO().createNewSession();
+				hibSession.setCacheMode(CacheMode.IGNORE);
+				snapshot = new Snapshot(hibSession);
+				snapshot.take(iSessionId);
+				while (true) {
+					String name = null;
+					synchronized (iQueue) {
+						name = iQueue.poll();
+					}
+					if (name == null) break;
+					Section section = new Section();
+					long t0 = System.currentTimeMillis();
+					try {
+						section.iFile = File.createTempFile("backup-", ".dat");
+						FileOutputStream out = new FileOutputStream(section.iFile);
+						try {
+							TableWriter writer = new TableWriter(CodedOutputStream.newInstance(out));
+							export(iData.get(name), hibSession, writer, iExportedIds, true);
+							writer.flush();
+							section.iRecords = writer.getRecords();
+							section.iUnchanged = writer.getUnchanged();
+							section.iSections = writer.getSections();
+							section.iBytes = writer.getBytes();
+						} finally {
+							out.close();
+						}
+					} catch (Throwable t) {
+						section.iError = t;
+						hibSession.clear();
+					}
+					section.iTime = System.currentTimeMillis() - t0;
+					synchronized (iSections) {
+						iSections.put(name, section);
+						iSections.notifyAll();
+					}
+				}
+			} catch (Throwable t) {
+				sLog.error("Table export failed: " + t.getMessage(), t);
+				iError = t;
+			} finally {
+				if (snapshot != null) snapshot.end();
+				if (hibSession != null) hibSession.close();
+				synchronized (iSections) {
+					iSections.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read-only transaction of a hibernate session using the snapshot isolation (repeatable read, or serializable when
+	 * repeatable read is not supported by the database), so that all the tables exported using the session are consistent
+	 * with each other. The original isolation level and read-only flag of the connection are restored when the transaction ends.
+	 */
+	static class Snapshot implements Work {
+		private static boolean sCursorFetchWarned = false;
+		private Transaction iTransaction;
+		private Connection iConnection = null;
+		private int iIsolation;
+		private boolean iReadOnly;
+		private org.hibernate.Session iHibSession;
+		
+		Snapshot(org.hibernate.Session hibSession) {
+			iHibSession = hibSession;
+			iTransaction = hibSession.beginTransaction();
+			hibSession.doWork(this);
+		}
+		
+		@Override
+		public void execute(Connection connection) throws SQLException {
+			DatabaseMetaData md = connection.getMetaData();
+			iIsolation = connection.getTransactionIsolation();
+			if (md.supportsTransactionIsolationLevel(Connection.TRANSACTION_REPEATABLE_READ))
+				connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			else if (md.supportsTransactionIsolationLevel(Connection.TRANSACTION_SERIALIZABLE))
+				connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			iReadOnly = connection.isReadOnly();
+			iConnection = connection;
+			try {
+				connection.setReadOnly(true);
+			} catch (SQLException e) {
+				sLog.warn("Failed to make the transaction read-only: " + e.getMessage());
+			}
+			String url = md.getURL();
+			if (!sCursorFetchWarned && url != null && url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) {
+				sCursorFetchWarned = true;
+				sLog.warn("MySQL connection does not use cursor fetch (useCursorFetch=true is not set): " + ApplicationProperty.SessionBackupFetchSize.key() +
+						" is ignored and each table is read into memory at once.");
+			}
+		}
+		
+		/**
+		 * Take the snapshot now (the databases take the snapshot at the first read of the transaction)
+		 */
+		void take(Long sessionId) {
+			iHibSession.createQuery("select s.uniqueId from Session s where s.uniqueId = :sessionId").setLong("sessionId", sessionId).setReadOnly(true).uniqueResult();
+		}
+		
+		void end() {
+			try {
+				if (iConnection != null) {
+					iConnection.rollback();
+					iConnection.setReadOnly(iReadOnly);
+					iConnection.setTransactionIsolation(iIsolation);
+				}
+			} catch (SQLException e) {
+				sLog.warn("Failed to restore transaction isolation and read-only flag: " + e.getMessage(), e);
+			}
+			try {
+				if (iTransaction.isActive()) iTransaction.rollback();
+			} catch (Exception e) {
+				sLog.warn("Failed to rollback transaction: " + e.getMessage(), e);
+			}
+		}
+	}
+	
 	enum Relation {
 		None, Parent, One, Many, Empty
 	}
@@ -607,19 +969,19 @@ public class SessionBackup implements SessionBackupInterface {
 			}
 		}
 		
-		List<Object> list() {
+		ScrollableResults scroll(org.hibernate.Session hibSession, int fetchSize) {
 			if (relation() == Relation.Empty) return null;
 			if (AssignmentInfo.class.getName().equals(name())) return null;
 			if (ConstraintInfo.class.getName().equals(name())) return null;
 			if (ChangeLog.class.getName().equals(name())) return null;
-			return iHibSession.createQuery(
+			return hibSession.createQuery(
 					"select " + (distinct() ? "" : "distinct ") + hqlName() + " from " + hqlFrom() + " where " + hqlWhere()
-					).setLong("sessionId", iSessionId).list();
+					).setLong("sessionId", iSessionId).setFetchSize(fetchSize).setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY);
 		}
 		
 		Map<String, Map<Serializable, List<Object>>> iRelationCache = new HashMap<String, Map<Serializable,List<Object>>>();
 		
-		List<Object> relation(String property, Serializable id, boolean data) {
+		List<Object> relation(org.hibernate.Session hibSession, String property, Serializable id, boolean data) {
 			Map<Serializable, List<Object>> relation = iRelationCache.get(property);
 			if (relation == null) {
 				Type type = meta().getPropertyType(property);
@@ -661,7 +1023,7 @@ public class SessionBackup implements SessionBackupInterface {
 						else
 							select += (i > 0 ? ", " : "") + hqlName() + "." + idtype.getPropertyNames()[i] + "." + meta.getIdentifierPropertyName();
 					}
-					for (Object[] o: (List<Object[]>)iHibSession.createQuery(
+					for (Object[] o: (List<Object[]>)hibSession.createQuery(
 							"select distinct " + select + (data ? ", p" : ", p." + idProperty) + " from " + hqlFrom() + " inner join " + hqlName() + "." + property + " p where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
 						Object[] cid = new Object[idtype.getPropertyNames().length];
@@ -682,7 +1044,7 @@ public class SessionBackup implements SessionBackupInterface {
 						}
 					}
 				} else {
-					for (Object[] o: (List<Object[]>)iHibSession.createQuery(
+					for (Object[] o: (List<Object[]>)hibSession.createQuery(
 							"select distinct " + hqlName() + "." + meta().getIdentifierPropertyName() + (data ? ", p" : ", p." + idProperty) + 
 							" from " + hqlFrom() + " inner join " + hqlName() + "." + property + " p where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
@@ -741,6 +1103,17 @@ public class SessionBackup implements SessionBackupInterface {
             	backup.debug(debug);
             }
             
+            String parent = ApplicationProperties.getProperty("parent");
+            if (parent != null && !parent.isEmpty()) {
+            	sLog.info("Differential backup of " + parent);
+            	List<InputStream> chain = new ArrayList<InputStream>();
+            	for (String file: parent.split(","))
+            		chain.add(new FileInputStream(file.trim()));
+            	backup.setParent(chain);
+            	for (InputStream in: chain)
+            		in.close();
+            }
+            
             progress.addProgressListener(new ProgressWriter(System.out));
             
             backup.backup(out, new BackupProgress() {
@@ -26,17 +26,21 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
+import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
@@ -138,6 +142,9 @@ public class SessionRestore implements SessionRestoreInterface {
 	private org.hibernate.Session iHibSession = null;
 	private BackupProgress iProgress = null;
 	private boolean iIsClone = false;
+	private boolean iBulk = false;
+	private Map<String, Map<Object, List<Object>>> iLookupCache = new HashMap<String, Map<Object, List<Object>>>();
+	private static DecimalFormat sDF = new DecimalFormat("0.0");
 
 	private Map<String, Map<String, Entity>> iEntities = new Hashtable<String, Map<String, Entity>>();
 	private List<Entity> iAllEntitites = new ArrayList<Entity>();
@@ -161,6 +168,7 @@ public class SessionRestore implements SessionRestoreInterface {
 			if (session.equals(p)) { hasSession = true; break; }
 		if (!hasSession) return lookup(entity, property, value);
 		if (entity.getElement(session) != null) return false;
+		if (iBulk) return lookupCached(entity, property, value, session);
 		try {
 			Object object = iHibSession.createCriteria(entity.getMetaData().getMappedClass()).add(Restrictions.eq(property, value)).add(Restrictions.isNull(session)).uniqueResult();
 			if (object != null)
@@ -181,6 +189,7 @@ public class SessionRestore implements SessionRestoreInterface {
 	}
 	
 	private boolean lookup(Entity entity, String property, Object value) {
+		if (iBulk) return lookupCached(entity, property, value, null);
 		try {
 			Object object = iHibSession.createCriteria(entity.getMetaData().getMappedClass()).add(Restrictions.eq(property, value)).uniqueResult();
 			if (object != null)
@@ -200,6 +209,39 @@ public class SessionRestore implements SessionRestoreInterface {
 		}
 	}
 	
+	/**
+	 * Bulk mode: all the objects of the given class are loaded at once (with the session property null, if provided),
+	 * and the lookups are done using a map of them indexed by the given property.
+	 */
+	private boolean lookupCached(Entity entity, String property, Object value, String session) {
+		Class clazz = entity.getMetaData().getMappedClass();
+		String key = clazz.getName() + "." + property + (session == null ? "" : ":" + session);
+		Map<Object, List<Object>> cache = iLookupCache.get(key);
+		if (cache == null) {
+			cache = new HashMap<Object, List<Object>>();
+			for (Object[] o: (List<Object[]>)iHibSession.createQuery(
+					"select x." + property + ", x from " + clazz.getName() + " x" + (session == null ? "" : " where x." + session + " is null")
+					).list()) {
+				List<Object> objects = cache.get(o[0]);
+				if (objects == null) {
+					objects = new ArrayList<Object>(1);
+					cache.put(o[0], objects);
+				}
+				objects.add(o[1]);
+			}
+			iLookupCache.put(key, cache);
+		}
+		List<Object> objects = cache.get(value);
+		if (objects == null || objects.isEmpty()) {
+			message("Lookup " + entity.getAbbv() + "." + property + " failed", (value == null ? "null" : value.toString()));
+			return false;
+		}
+		if (objects.size() > 1)
+			message("Lookup " + entity.getAbbv() + "." + property + "=" + value +" is not unique", entity.getId());
+		entity.setObject(objects.get(0));
+		return true;
+	}
+	
 	protected void add(Entity entity) {
 		boolean save = true;
 		boolean lookup = true;
@@ -264,6 +306,10 @@ public class SessionRestore implements SessionRestoreInterface {
 	public void create(TableData.Table table) throws InstantiationException, IllegalAccessException, DocumentException, InvocationTargetException, NoSuchMethodException {
 		ClassMetadata metadata = iHibSessionFactory.getClassMetadata(table.getName());
 		if (metadata == null) {
+			// a table can be split into multiple sections
+			TableData.Table previous = iSkippedTables.get(table.getName());
+			if (previous != null)
+				table = previous.toBuilder().addAllRecord(table.getRecordList()).build();
 			iSkippedTables.put(table.getName(), table);
 			return;
 		}
@@ -471,26 +517,41 @@ public class SessionRestore implements SessionRestoreInterface {
 	
 	
 	public void restore(InputStream input, BackupProgress progress) throws IOException, InstantiationException, IllegalAccessException, DocumentException, InvocationTargetException, NoSuchMethodException {
+		restore(input, null, progress);
+	}
+	
+	/**
+	 * Restore the given base backup with a chain of differential backups applied onto it (see {@link BackupDiff})
+	 */
+	public void restore(InputStream input, List<InputStream> diffs, BackupProgress progress) throws IOException, InstantiationException, IllegalAccessException, DocumentException, InvocationTargetException, NoSuchMethodException {
 		iIn = input;
         iProgress = progress;
         iHibSession = new _RootDAO().createNewSession();
         iHibSession.setCacheMode(CacheMode.IGNORE);
         iHibSessionFactory = iHibSession.getSessionFactory();
+        iBulk = ApplicationProperty.SessionRestoreBulk.isTrue();
         try {
-            CodedInputStream cin = CodedInputStream.newInstance(iIn);
-            cin.setSizeLimit(1024*1024*1024); // 1 GB
-            
             iProgress.setPhase("Loading data", 1);
-            TableData.Table t = null;
-            while ((t = readTable(cin)) != null) {
-        		if (iDebug != null) {
-        			iDebug.println("## " + t.getName() + " ##");
-        			iDebug.print(t.toString());
-        			iDebug.flush();
-        		}
-            	create(t);
+            Map<String, long[]> loadStats = new TreeMap<String, long[]>();
+            if (diffs == null || diffs.isEmpty()) {
+                CodedInputStream cin = CodedInputStream.newInstance(iIn);
+                cin.setSizeLimit(1024*1024*1024); // 1 GB
+                
+                TableData.Table t = null;
+                while ((t = readTable(cin)) != null) {
+                	if (BackupDiff.MANIFEST.equals(t.getName()))
+                		throw new IOException("This is a differential backup, it can only be restored together with its base backup.");
+                	load(t, loadStats);
+                }
+            } else {
+            	List<InputStream> chain = new ArrayList<InputStream>();
+            	chain.add(iIn);
+            	chain.addAll(diffs);
+            	for (TableData.Table t: BackupDiff.merge(chain))
+            		load(t, loadStats);
             }
             iProgress.incProgress();
+            if (iBulk) printStatistics("Loaded", loadStats);
             
     		iHibSession.setFlushMode(FlushMode.MANUAL);
     		iProgress.setPhase("Fixing", iAllEntitites.size());
@@ -500,27 +561,33 @@ public class SessionRestore implements SessionRestoreInterface {
     		}
     		
     		iProgress.setPhase("Saving (not-null)", iAllEntitites.size());
-    		List<Entity> save = new ArrayList<Entity>(iAllEntitites);
     		List<Object> otherObjectsToSave = new ArrayList<Object>();
-    		boolean saved = true;
-    		while (!save.isEmpty() && saved) {
-    			saved = false;
-    			for (Iterator<Entity> i = save.iterator(); i.hasNext(); ) {
-    				Entity e = i.next();
-    				if (e.canSave() == null) {
-    					iProgress.incProgress();
-    					e.fixRelationsNullOnly(otherObjectsToSave);
-    					iHibSession.save(e.getObject());
-    					i.remove();
-    					saved = true;
-    				}
-    			}
-    			iHibSession.flush();
+    		if (iBulk) {
+    			saveInDependencyOrder(otherObjectsToSave);
+    		} else {
+        		List<Entity> save = new ArrayList<Entity>(iAllEntitites);
+        		boolean saved = true;
+        		while (!save.isEmpty() && saved) {
+        			saved = false;
+        			for (Iterator<Entity> i = save.iterator(); i.hasNext(); ) {
+        				Entity e = i.next();
+        				if (e.canSave() == null) {
+        					iProgress.incProgress();
+        					e.fixRelationsNullOnly(otherObjectsToSave);
+        					iHibSession.save(e.getObject());
+        					i.remove();
+        					saved = true;
+        				}
+        			}
+        			iHibSession.flush();
+        		}
     		}
     		for (Object object: otherObjectsToSave)
     			iHibSession.save(object);
     		otherObjectsToSave.clear();
+    		long f0 = System.currentTimeMillis();
     		iHibSession.flush();
+    		if (iBulk) iProgress.info("Flushed inserts in " + sDF.format((System.currentTimeMillis() - f0) / 1000.0) + " s");
 
     		iProgress.setPhase("Saving (all)", iAllEntitites.size());
     		for (Entity e: iAllEntitites) {
@@ -539,8 +606,10 @@ public class SessionRestore implements SessionRestoreInterface {
     		otherObjectsToSave.clear();
     		
     		iProgress.setPhase("Flush", 1);
+    		f0 = System.currentTimeMillis();
     		iHibSession.flush();
     		iProgress.incProgress();
+    		if (iBulk) iProgress.info("Flushed updates in " + sDF.format((System.currentTimeMillis() - f0) / 1000.0) + " s");
     		
     		printMessages();
     		
@@ -550,6 +619,105 @@ public class SessionRestore implements SessionRestoreInterface {
         }
 	}
 	
+	private void load(TableData.Table table, Map<String, long[]> loadStats) throws InstantiationException, IllegalAccessException, DocumentException, InvocationTargetException, NoSuchMethodException {
+		if (iDebug != null) {
+			iDebug.println("## " + table.getName() + " ##");
+			iDebug.print(table.toString());
+			iDebug.flush();
+		}
+		long t0 = System.currentTimeMillis();
+		create(table);
+		statistics(loadStats, table.getName(), table.getRecordCount(), System.currentTimeMillis() - t0);
+	}
+	
+	/**
+	 * Bulk mode: save entities in the order of their not-null relations. An entity that cannot be saved yet is waiting
+	 * for the object that is blocking it and it is only checked again once the object is saved (instead of checking all the
+	 * remaining entities over and over again). Entities of the same type are saved together, so that the inserts can be
+	 * executed in JDBC batches, and the session is only flushed after {@link ApplicationProperty#SessionRestoreBatchSize} saves.
+	 */
+	private void saveInDependencyOrder(List<Object> otherObjectsToSave) {
+		int batchSize = ApplicationProperty.SessionRestoreBatchSize.intValue();
+		Map<Object, List<Entity>> waiting = new IdentityHashMap<Object, List<Entity>>();
+		TreeMap<String, LinkedList<Entity>> ready = new TreeMap<String, LinkedList<Entity>>();
+		Map<String, long[]> saveStats = new TreeMap<String, long[]>();
+		for (Entity e: iAllEntitites)
+			schedule(e, waiting, ready);
+		int saved = 0;
+		while (true) {
+			while (!ready.isEmpty()) {
+				Map.Entry<String, LinkedList<Entity>> group = ready.pollFirstEntry();
+				long t0 = System.currentTimeMillis();
+				int count = 0;
+				Entity e = null;
+				while ((e = group.getValue().poll()) != null) {
+					iProgress.incProgress(); count ++;
+					e.fixRelationsNullOnly(otherObjectsToSave);
+					iHibSession.save(e.getObject());
+					List<Entity> waiters = waiting.remove(e.getObject());
+					if (waiters != null)
+						for (Entity w: waiters)
+							schedule(w, waiting, ready);
+					if (batchSize > 0 && (++saved) % batchSize == 0)
+						iHibSession.flush();
+				}
+				statistics(saveStats, group.getKey(), count, System.currentTimeMillis() - t0);
+			}
+			// objects that became persistent in some other way (e.g., through a cascade)
+			List<Entity> recheck = new ArrayList<Entity>();
+			for (Iterator<Map.Entry<Object, List<Entity>>> i = waiting.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry<Object, List<Entity>> entry = i.next();
+				if (iHibSession.contains(entry.getKey())) {
+					recheck.addAll(entry.getValue());
+					i.remove();
+				}
+			}
+			if (recheck.isEmpty()) break;
+			for (Entity w: recheck)
+				schedule(w, waiting, ready);
+		}
+		printStatistics("Saved", saveStats);
+	}
+	
+	private void schedule(Entity entity, Map<Object, List<Entity>> waiting, Map<String, LinkedList<Entity>> ready) {
+		String property = entity.canSave();
+		if (property == null) {
+			LinkedList<Entity> entities = ready.get(entity.getName());
+			if (entities == null) {
+				entities = new LinkedList<Entity>();
+				ready.put(entity.getName(), entities);
+			}
+			entities.add(entity);
+		} else {
+			Object value = entity.getRelation(property);
+			if (value == null) return; // cannot be saved, missing not-null relation
+			List<Entity> entities = waiting.get(value);
+			if (entities == null) {
+				entities = new ArrayList<Entity>();
+				waiting.put(value, entities);
+			}
+			entities.add(entity);
+		}
+	}
+	
+	private void statistics(Map<String, long[]> stats, String name, int records, long time) {
+		long[] stat = stats.get(name);
+		if (stat == null) {
+			stat = new long[] {0, 0};
+			stats.put(name, stat);
+		}
+		stat[0] += records; stat[1] += time;
+	}
+	
+	private void printStatistics(String operation, Map<String, long[]> stats) {
+		for (Map.Entry<String, long[]> e: stats.entrySet()) {
+			long records = e.getValue()[0], time = e.getValue()[1];
+			if (records == 0) continue;
+			iProgress.info(operation + " " + e.getKey().substring(e.getKey().lastIndexOf('.') + 1) + " [" + records + " records, " +
+					sDF.format(time / 1000.0) + " s, " + (time <= 0 ? "-" : sDF.format(1000.0 * records / time)) + " records/s]");
+		}
+	}
+	
 	protected class Entity {
 		private ClassMetadata iMetaData;
 		private TableData.Record iRecord;
@@ -591,6 +759,25 @@ public class SessionRestore implements SessionRestoreInterface {
 			return getAbbv() + "@" + getId();
 		}
 		
+		public Object getRelation(String property) {
+			Type type = null;
+			for (int i = 0; i < getMetaData().getPropertyNames().length; i++)
+				if (property.equals(getMetaData().getPropertyNames()[i])) {
+					type = getMetaData().getPropertyTypes()[i]; break;
+				}
+			if (type == null && getMetaData().getIdentifierType().isComponentType()) {
+				ComponentType cid = (ComponentType)getMetaData().getIdentifierType();
+				for (int i = 0; i < cid.getPropertyNames().length; i++)
+					if (property.equals(cid.getPropertyNames()[i])) {
+						type = cid.getSubtypes()[i]; break;
+					}
+			}
+			if (type == null || !(type instanceof EntityType)) return null;
+			TableData.Element element = getElement(property);
+			if (element == null || element.getValueCount() == 0) return null;
+			return get(type.getReturnedClass(), element.getValue(0));
+		}
+		
 		public String canSave() {
 			for (int i = 0; i < getMetaData().getPropertyNames().length; i++) {
 				if (getMetaData().getPropertyNullability()[i]) continue;
@@ -999,7 +1186,13 @@ public class SessionRestore implements SessionRestoreInterface {
             final Progress progress = Progress.getInstance();
             progress.addProgressListener(new ProgressWriter(System.out));
 
-            restore.restore(in, new BackupProgress() {
+            List<InputStream> diffs = new ArrayList<InputStream>();
+            String diff = ApplicationProperties.getProperty("diffs");
+            if (diff != null && !diff.isEmpty())
+            	for (String file: diff.split(","))
+            		diffs.add(new FileInputStream(file.trim()));
+
+            restore.restore(in, diffs, new BackupProgress() {
             	@Override
 				public void setStatus(String status) {
 					progress.setStatus(status);
@@ -1032,6 +1225,8 @@ public class SessionRestore implements SessionRestoreInterface {
 			});
             
             in.close();
+            for (InputStream d: diffs)
+            	d.close();
             if (debug != null) debug.close();
             
             HibernateUtil.closeHibernate();
@@ -24,7 +24,14 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.Field;
 import java.sql.Driver;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -667,11 +674,31 @@ public enum ApplicationProperty {
 
 	@Type(Integer.class)
 	@DefaultValue("5000")
-	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted)")
+	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted), zero or a negative value for no limit")
 	OnlineSchedulingLogLimit("unitime.sectioning.log.limit"),
 
 	@Description("Online Student Scheduling Log: besides of the database, also log the actions in the given file (if set)")
 	OnlineSchedulingLogFile("unitime.sectioning.log.file"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Online Student Scheduling Log: number of records persisted in one batch")
+	OnlineSchedulingLogBatchSize("unitime.sectioning.log.batchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Online Student Scheduling Log: maximal time in seconds a record waits in a batch before it is persisted")
+	OnlineSchedulingLogFlushInterval("unitime.sectioning.log.flushInterval"),
+
+	@Type(Integer.class)
+	@DefaultValue("1")
+	@Description("Online Student Scheduling Log: number of threads persisting the log records")
+	OnlineSchedulingLogWriters("unitime.sectioning.log.writers"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Online Student Scheduling Log: when the limit of records held in memory is reached, wait up to the given number of milliseconds before the record is dropped")
+	OnlineSchedulingLogBlockTimeout("unitime.sectioning.log.blockTimeout"),
 	
 	@Type(Boolean.class)
 	@DefaultValue("true")
@@ -748,6 +775,21 @@ public enum ApplicationProperty {
 	@Description("Solver: wait for the room availabity to synchronize")
 	RoomAvailabilitySolverWaitForSync("tmtbl.room.availability.solver.waitForSync"),
 
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Room Availability: maximal age (in seconds) of the cached room availability that can be reused by a solver load or a timetable grid instead of being rebuilt (0 to always rebuild it)")
+	RoomAvailabilityCacheMaxAge("tmtbl.room.availability.cache.maxAge"),
+
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Room Availability: number of threads loading the room availability cache in parallel (the time frame is split into date ranges)")
+	RoomAvailabilityCacheThreads("tmtbl.room.availability.cache.threads"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Room Availability: apply inserted, updated, and deleted meetings to the room availability cache as they are committed")
+	RoomAvailabilityCacheIncremental("tmtbl.room.availability.cache.incremental"),
+
 	/**
 	 * If you are using UniTime in conjunction with an external system that identifies classes differently than UniTime
 	 * you can create a java class that implements the ExternalClassNameHelperInterface interface to create custom
@@ -1345,11 +1387,31 @@ public enum ApplicationProperty {
 	@Description("Re-Create Curriculum: minimal number of last-like students")
 	CurriculumLastLikeDemandsEnrollmentLimit("tmtbl.curriculum.lldemands.enrlLimit"),
 
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Curricula: maximal age (in seconds) of the in-memory curriculum projections (enrollments, course requests, and last-like demands of the students of an academic area) used to compute curriculum counts (0 disables the projections)")
+	CurriculaProjectionStoreMaxAge("unitime.curricula.projections.maxAge"),
+
+	@Type(Integer.class)
+	@DefaultValue("200")
+	@Description("Curricula: maximal number of in-memory curriculum projections (one per academic area and academic session), the least recently used projections are dropped first")
+	CurriculaProjectionStoreSize("unitime.curricula.projections.size"),
+
 	@Type(Integer.class)
 	@DefaultValue("-1")
 	@Description("Events: indicate that a meeting is at an unusual time (too early); the value is the last time slot that is considered too early (e.g., 72 means 6 am)")
 	EventTooEarlySlot("unitime.event.tooEarly"),
 
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Events: maximal number of partitions (meetings of a room and a month) kept in the in-memory meeting index used by the room availability and conflict checks (0 disables the index)")
+	EventMeetingIndexSize("unitime.events.meetingIndex.size"),
+
+	@Type(Integer.class)
+	@DefaultValue("300")
+	@Description("Events: maximal age (in seconds) of a meeting index partition")
+	EventMeetingIndexMaxAge("unitime.events.meetingIndex.maxAge"),
+
 	@Type(Integer.class)
 	@DefaultValue("5")
 	@Description("Event: event expiration service thread update interval in minutes")
@@ -1882,6 +1944,31 @@ public enum ApplicationProperty {
 	@Description("Solver: passivate solution after given number of minutes of inactivity (disable passivation by setting to zero)")
 	SolverPasivationTime("unitime.solver.passivation.time"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Solver: use binary format for solver backups (passivation, server shutdown) instead of XML")
+	SolverBackupBinary("unitime.solver.backup.binary"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Solver: compress solver backups that are using the binary format")
+	SolverBackupCompress("unitime.solver.backup.compress"),
+
+	@Type(Integer.class)
+	@DefaultValue("50")
+	@Description("Solver: memory (in MB) that is needed by an empty solver instance, used to forecast the memory footprint of a new solver")
+	SolverMemoryBase("unitime.solver.memory.base"),
+
+	@Type(Integer.class)
+	@Parameter("solver type (course, exam, student, or instructor)")
+	@Description("Solver: initial estimate of the memory (in bytes) needed for each class (course solver), exam (exam solver), student or course request (student solver), or teaching request (instructor solver); the estimate is adjusted once the memory usage of a loaded solver is measured")
+	SolverMemoryPerUnit("unitime.solver.memory.perUnit.%"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Solver: interval in minutes in which passivated solvers are moved from solver servers that would not have enough memory to re-activate them (0 to disable)")
+	SolverRebalanceInterval("unitime.solver.rebalance.interval"),
+
 	@Type(Integer.class)
 	@DefaultValue("300")
 	@Description("Online Student Scheduling: sectioning queue load interval in seconds")
@@ -1892,6 +1979,16 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: sectioning queue update interval in seconds")
 	OnlineSchedulingQueueUpdateInterval("unitime.sectioning.queue.updateInterval"),
 
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: when a session reload is requested, only reload offerings and students that have changed since the last reload (instead of reloading all the data while the server is locked)")
+	OnlineSchedulingReloadIncremental("unitime.sectioning.reload.incremental"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Online Student Scheduling: interval in minutes in which the offerings and students that have changed since the last reload are re-synchronized (0 to disable)")
+	OnlineSchedulingResyncInterval("unitime.sectioning.resync.interval"),
+
 	@Description("Online Student Scheduling: only academic sessions matching this year (regular expression) are loaded in")
 	OnlineSchedulingAcademicYear("unitime.enrollment.year"),
 
@@ -1916,6 +2013,38 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: asynchronous execution thread pool size")
 	OnlineSchedulingServerAsyncPoolSize("unitime.enrollment.server.asyncPoolSize"),
 
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: use compact binary encoding (variable length numbers, string table) for the replicated cache entries (offerings, students, course requests); nodes of older versions cannot read the compact entries, so it must only be enabled when all the nodes of the cluster are upgraded, and it must be set the same on all the nodes")
+	OnlineSchedulingServerCompactSerialization("unitime.enrollment.server.compactSerialization"),
+
+	@Type(Integer.class)
+	@DefaultValue("10")
+	@Description("GWT RPC: number of threads executing asynchronous requests")
+	GwtRpcAsyncThreads("unitime.rpc.async.threads"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("GWT RPC: maximal number of asynchronous requests waiting to be executed (further requests are rejected)")
+	GwtRpcAsyncQueueSize("unitime.rpc.async.queueSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("2")
+	@Description("GWT RPC: maximal number of asynchronous requests of a user that are executed at the same time (0 for no limit)")
+	GwtRpcAsyncUserLimit("unitime.rpc.async.userLimit"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("GWT RPC: maximal number of asynchronous requests of the given type (request class name) that are executed at the same time (0 for no limit)")
+	@Parameter("request class name")
+	GwtRpcAsyncCommandLimit("unitime.rpc.async.limit.%"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("GWT RPC: priority of asynchronous requests of the given type (request class name), requests with higher priority are executed first")
+	@Parameter("request class name")
+	GwtRpcAsyncPriority("unitime.rpc.async.priority.%"),
+
 	@Type(Integer.class)
 	@DefaultValue("366")
 	@Description("Change Log: automatically remove records after the given number of days")
@@ -2210,11 +2339,36 @@ public enum ApplicationProperty {
 	@Description("Academic session backup: semicolon separated list of disallowed not-null relations")
 	SessionBackupDisallowed("unitime.session_backup.disallowed"),
 
+	@Type(Integer.class)
+	@DefaultValue("1")
+	@Description("Academic session backup: number of threads exporting independent tables in parallel (each table is dumped into a temporary file and appended to the backup as a separate section, each thread reads from its own database snapshot taken when the export starts)")
+	SessionBackupThreads("unitime.session_backup.threads"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Academic session backup: maximal number of records in one table section (larger tables are written in multiple sections, 0 for no limit)")
+	SessionBackupChunkSize("unitime.session_backup.chunkSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Academic session backup: number of records fetched from the database at a time (the hibernate session is cleared after each fetch); on MySQL, the records are only fetched in batches when the connection URL contains useCursorFetch=true")
+	SessionBackupFetchSize("unitime.session_backup.fetchSize"),
+
 	@Type(Class.class)
 	@Implements(org.unitime.timetable.backup.SessionRestoreInterface.class)
 	@DefaultValue("org.unitime.timetable.backup.SessionRestore")
 	@Description("Implementation of the session restore interface.")
 	SessionRestoreInterface("unitime.session_restore.class"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Academic session restore: bulk mode (lookup tables are pre-loaded, entities are saved in the order of their dependencies, flushes are deferred, and throughput of each table is reported)")
+	SessionRestoreBulk("unitime.session_restore.bulk"),
+
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Academic session restore: in the bulk mode, flush the hibernate session after the given number of saved objects (0 to flush only once all the objects are saved, the inserts are batched using hibernate.jdbc.batch_size)")
+	SessionRestoreBatchSize("unitime.session_restore.batchSize"),
 	
 	
 	@Type(String.class)
@@ -2749,6 +2903,16 @@ public enum ApplicationProperty {
 	@DefaultValue("http://www.tzurl.org/zoneinfo/{id}.ics")
 	CalendarVTimeZone("unitime.calendar.timezone"),
 	
+	@Type(Integer.class)
+	@DefaultValue("0")
+	@Description("Calendar: maximal number of iCalendar feeds kept in the cache of the calendar servlet (0 to disable the cache)")
+	CalendarFeedCacheSize("unitime.calendar.cache.size"),
+	
+	@Type(Integer.class)
+	@DefaultValue("3600")
+	@Description("Calendar: maximal age (in seconds) of a cached iCalendar feed")
+	CalendarFeedCacheMaxAge("unitime.calendar.cache.maxAge"),
+	
 	@Type(Double.class)
 	@DefaultValue("17.0")
 	@Description("Time Grid XLS Export: row height")
@@ -3096,75 +3260,49 @@ public enum ApplicationProperty {
 	;
 
 	String iKey;
+	private volatile Metadata iMetadata = null;
+	private static volatile Map<String, ApplicationProperty> sKeys = null;
+	private static final ConcurrentMap<String, ParsedValue> sParsedValues = new ConcurrentHashMap<String, ParsedValue>();
+	private static final ParsedValue sNullValue = new ParsedValue(null);
 	
 	ApplicationProperty(String key) { iKey = key; }
 	
 	public String key() { return iKey; }
 	public String key(String reference) { return (reference == null ? iKey : iKey.replace("%", reference)); }
 	
-	public String defaultValue() {
-		try {
-			DefaultValue defaultValue = ApplicationProperty.class.getField(name()).getAnnotation(DefaultValue.class);
-			return (defaultValue == null ? null : defaultValue.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
+	/**
+	 * Annotations of the application property, read only once
+	 */
+	private Metadata metadata() {
+		Metadata metadata = iMetadata;
+		if (metadata == null) {
+			metadata = new Metadata(this);
+			iMetadata = metadata;
 		}
+		return metadata;
+	}
+	
+	public String defaultValue() {
+		return metadata().iDefaultValue;
 	}
 	public String description() {
-		try {
-			Description description = ApplicationProperty.class.getField(name()).getAnnotation(Description.class);
-			return (description == null ? null : description.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iDescription;
 	}
 	
 	public Class type() {
-		try {
-			Type type = ApplicationProperty.class.getField(name()).getAnnotation(Type.class);
-			return (type == null ? String.class : type.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iType;
 	}
 	
 	public Class implementation() {
-		try {
-			Implements impl = ApplicationProperty.class.getField(name()).getAnnotation(Implements.class);
-			return (impl == null ? null : impl.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iImplementation;
 	}
 	
 	public String[] availableValues() {
-		try {
-			Values type = ApplicationProperty.class.getField(name()).getAnnotation(Values.class);
-			return (type == null ? null : type.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iAvailableValues;
 	}
 	
 	public Double since() {
-		try {
-			Since since = ApplicationProperty.class.getField(name()).getAnnotation(Since.class);
-			return (since == null ? null : since.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iSince;
 	}
 	
 	public String value() {
@@ -3235,91 +3373,70 @@ public enum ApplicationProperty {
 		return !isTrue();
 	}
 	
-	public Integer intValue() {
-		try {
-			return Integer.valueOf(value());
-		} catch (Exception e) {
-			return null;
+	/**
+	 * Typed values of the given text, each distinct text is parsed only once (the values are shared by all the properties,
+	 * references, and academic sessions)
+	 */
+	private static ParsedValue parse(String value) {
+		if (value == null) return sNullValue;
+		ParsedValue parsed = sParsedValues.get(value);
+		if (parsed == null) {
+			if (sParsedValues.size() >= 10000) sParsedValues.clear();
+			parsed = new ParsedValue(value);
+			sParsedValues.put(value, parsed);
 		}
+		return parsed;
+	}
+	
+	public Integer intValue() {
+		return parse(value()).iInteger;
 	}
 	
 	public Integer intValue(String reference) {
-		try {
-			return Integer.valueOf(value(reference));
-		} catch (Exception e) {
-			return null;
-		}
+		return parse(value(reference)).iInteger;
 	}
 	
 	public Float floatValue() {
-		try {
-			return Float.valueOf(value());
-		} catch (Exception e) {
-			return null;
-		}
+		return parse(value()).iFloat;
 	}
 	
 	public Double doubleValue() {
-		try {
-			return Double.valueOf(value());
-		} catch (Exception e) {
-			return null;
-		}
+		return parse(value()).iDouble;
 	}
 	
 	private String[] replaces() {
-		try {
-			Replaces replaces = ApplicationProperty.class.getField(name()).getAnnotation(Replaces.class);
-			return (replaces == null ? null : replaces.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iReplaces;
 	}
 	
 	public boolean matches(String key) {
-		if (key.matches(key().replace(".", "\\.").replace("%", "(.+)"))) return true;
-		
-		String[] oldKeys = replaces();
-		if (oldKeys != null)
-			for (String old: oldKeys) {
-				if (key.matches(old.replace(".", "\\.").replace("%", "(.+)"))) return true;
-			}
-			
+		for (Pattern pattern: metadata().iPatterns)
+			if (pattern.matcher(key).matches()) return true;
 		return false;
 	}
 	
 	public String reference() {
-		try {
-			Parameter reference = ApplicationProperty.class.getField(name()).getAnnotation(Parameter.class);
-			return (reference == null ? null : reference.value());
-		} catch (NoSuchFieldException e) {
-			return null;
-		} catch (SecurityException e) {
-			return null;
-		}
+		return metadata().iReference;
 	}
 	
 	public String reference(String key) {
-		Matcher m = Pattern.compile(key().replace(".", "\\.").replace("%", "(.+)")).matcher(key);
-		if (m.matches() && m.groupCount() > 0)
-			return m.group(1);
-
-		String[] oldKeys = replaces();
-		if (oldKeys != null)
-			for (String old: oldKeys) {
-				m = Pattern.compile(old.replace(".", "\\.").replace("%", "(.+)")).matcher(key);
-				if (m.matches() && m.groupCount() > 0)
-					return m.group(1);
-			}
-		
+		for (Pattern pattern: metadata().iPatterns) {
+			Matcher m = pattern.matcher(key);
+			if (m.matches() && m.groupCount() > 0)
+				return m.group(1);
+		}
 		return null;
 	}
 	
 	public static ApplicationProperty fromKey(String key) {
-		for (ApplicationProperty property: values())
-			if (property.key().equals(key)) return property;
+		Map<String, ApplicationProperty> keys = sKeys;
+		if (keys == null) {
+			keys = new HashMap<String, ApplicationProperty>();
+			for (ApplicationProperty property: values())
+				if (!keys.containsKey(property.key())) keys.put(property.key(), property);
+			sKeys = keys;
+		}
+		ApplicationProperty ret = keys.get(key);
+		if (ret != null) return ret;
 
 		for (ApplicationProperty property: values())
 			if (property.matches(key)) return property;
@@ -3340,32 +3457,81 @@ public enum ApplicationProperty {
 	}
 	
 	public boolean isDeprecated() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(Deprecated.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
-		}
+		return metadata().iDeprecated;
 	}
 	
 	public boolean isSecret() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(Secret.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
-		}
+		return metadata().iSecret;
 	}
 	
 	public boolean isReadOnly() {
-		try {
-			return (ApplicationProperty.class.getField(name()).getAnnotation(ReadOnly.class) != null);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (SecurityException e) {
-			return false;
+		return metadata().iReadOnly;
+	}
+	
+	/**
+	 * Compiled annotations of an application property
+	 */
+	private static class Metadata {
+		private String iDefaultValue = null, iDescription = null, iReference = null;
+		private Class iType = String.class, iImplementation = null;
+		private String[] iAvailableValues = null, iReplaces = null;
+		private Double iSince = null;
+		private boolean iDeprecated = false, iSecret = false, iReadOnly = false;
+		private List<Pattern> iPatterns = new ArrayList<Pattern>();
+		
+		private Metadata(ApplicationProperty property) {
+			try {
+				Field field = ApplicationProperty.class.getField(property.name());
+				DefaultValue defaultValue = field.getAnnotation(DefaultValue.class);
+				if (defaultValue != null) iDefaultValue = defaultValue.value();
+				Description description = field.getAnnotation(Description.class);
+				if (description != null) iDescription = description.value();
+				Type type = field.getAnnotation(Type.class);
+				if (type != null) iType = type.value();
+				Implements impl = field.getAnnotation(Implements.class);
+				if (impl != null) iImplementation = impl.value();
+				Values values = field.getAnnotation(Values.class);
+				if (values != null) iAvailableValues = values.value();
+				Since since = field.getAnnotation(Since.class);
+				if (since != null) iSince = since.value();
+				Replaces replaces = field.getAnnotation(Replaces.class);
+				if (replaces != null) iReplaces = replaces.value();
+				Parameter reference = field.getAnnotation(Parameter.class);
+				if (reference != null) iReference = reference.value();
+				iDeprecated = (field.getAnnotation(Deprecated.class) != null);
+				iSecret = (field.getAnnotation(Secret.class) != null);
+				iReadOnly = (field.getAnnotation(ReadOnly.class) != null);
+			} catch (NoSuchFieldException e) {
+				iType = null;
+			} catch (SecurityException e) {
+				iType = null;
+			}
+			iPatterns.add(Pattern.compile(property.key().replace(".", "\\.").replace("%", "(.+)")));
+			if (iReplaces != null)
+				for (String old: iReplaces)
+					iPatterns.add(Pattern.compile(old.replace(".", "\\.").replace("%", "(.+)")));
+		}
+	}
+	
+	/**
+	 * Typed values of a property value
+	 */
+	private static class ParsedValue {
+		private Integer iInteger = null;
+		private Float iFloat = null;
+		private Double iDouble = null;
+		
+		private ParsedValue(String value) {
+			if (value == null) return;
+			try {
+				iInteger = Integer.valueOf(value);
+			} catch (Exception e) {}
+			try {
+				iFloat = Float.valueOf(value);
+			} catch (Exception e) {}
+			try {
+				iDouble = Double.valueOf(value);
+			} catch (Exception e) {}
 		}
 	}
 	
@@ -19,7 +19,10 @@
 */
 package org.unitime.timetable.events;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -90,22 +93,41 @@ public class EventRoomAvailabilityBackend extends EventAction<EventRoomAvailabil
 					locations += (locations.isEmpty() ? "" : ",") + ":l" + i;
 				
 				Query query = EventDAO.getInstance().getSession().createQuery(
-						"select m from Meeting m, Location l " +
-						"where m.startPeriod<:stopTime and m.stopPeriod>:startTime and m.approvalStatus <= 1 and " +
-						"l.session.uniqueId = :sessionId and l.permanentId in (" + locations + ") and l.ignoreRoomCheck = false and " +
-						"m.locationPermanentId = l.permanentId and m.meetingDate in ("+dates+")");
-				
-				query.setInteger("startTime", request.getStartSlot());
-				query.setInteger("stopTime", request.getEndSlot());
-				query.setLong("sessionId", request.getSessionId());
-				for (int i = 0; i < request.getDates().size(); i++) {
-					Date date = CalendarUtils.dateOfYear2date(session.getSessionStartYear(), request.getDates().get(i));
-					query.setDate("d" + i, date);
-				}
+						"from Location where session.uniqueId = :sessionId and permanentId in (" + locations + ")");
 				for (int i = 0; i + idx < request.getLocations().size() && i < 1000; i++)
 					query.setLong("l" + i, request.getLocations().get(idx + i));
+				List<Location> rooms = (List<Location>)query.setLong("sessionId", request.getSessionId()).setCacheable(true).list();
+				
+				List<Meeting> meetings = null;
+				if (MeetingIndex.isEnabled()) {
+					List<Long> permanentIds = new ArrayList<Long>();
+					for (Location location: rooms)
+						if (!location.isIgnoreRoomCheck()) permanentIds.add(location.getPermanentId());
+					List<Date> meetingDates = new ArrayList<Date>();
+					for (Integer date: request.getDates())
+						meetingDates.add(CalendarUtils.dateOfYear2date(session.getSessionStartYear(), date));
+					meetings = getMeetings(MeetingIndex.getInstance().findMeetings(EventDAO.getInstance().getSession(), permanentIds, meetingDates, request.getStartSlot(), request.getEndSlot()),
+							permanentIds, meetingDates, request.getStartSlot(), request.getEndSlot());
+				} else {
+					query = EventDAO.getInstance().getSession().createQuery(
+							"select m from Meeting m, Location l " +
+							"where m.startPeriod<:stopTime and m.stopPeriod>:startTime and m.approvalStatus <= 1 and " +
+							"l.session.uniqueId = :sessionId and l.permanentId in (" + locations + ") and l.ignoreRoomCheck = false and " +
+							"m.locationPermanentId = l.permanentId and m.meetingDate in ("+dates+")");
+					
+					query.setInteger("startTime", request.getStartSlot());
+					query.setInteger("stopTime", request.getEndSlot());
+					query.setLong("sessionId", request.getSessionId());
+					for (int i = 0; i < request.getDates().size(); i++) {
+						Date date = CalendarUtils.dateOfYear2date(session.getSessionStartYear(), request.getDates().get(i));
+						query.setDate("d" + i, date);
+					}
+					for (int i = 0; i + idx < request.getLocations().size() && i < 1000; i++)
+						query.setLong("l" + i, request.getLocations().get(idx + i));
+					meetings = (List<Meeting>)query.list();
+				}
 				
-				for (Meeting m: (List<Meeting>)query.list()) {
+				for (Meeting m: meetings) {
 					MeetingConflictInterface conflict = new MeetingConflictInterface();
 
 					if (request.hasEventId() && m.getEvent().getUniqueId().equals(request.getEventId())) continue;
@@ -199,12 +221,7 @@ public class EventRoomAvailabilityBackend extends EventAction<EventRoomAvailabil
 					response.addOverlap(CalendarUtils.date2dayOfYear(session.getSessionStartYear(), m.getMeetingDate()), m.getLocationPermanentId(), conflict);
 				}
 				
-				query = EventDAO.getInstance().getSession().createQuery(
-						"from Location where session.uniqueId = :sessionId and permanentId in (" + locations + ")");
-				for (int i = 0; i + idx < request.getLocations().size() && i < 1000; i++)
-					query.setLong("l" + i, request.getLocations().get(idx + i));
-
-				for (Location location: (List<Location>)query.setLong("sessionId", request.getSessionId()).setCacheable(true).list()) {
+				for (Location location: rooms) {
 					if (context.hasPermission(location, request.getEventType() == EventType.Unavailabile ? Right.EventLocationUnavailable : Right.EventLocation)) {
 						Set<MeetingConflictInterface> conflicts = generateUnavailabilityMeetings(location, request.getDates(), request.getStartSlot(), request.getEndSlot());
 						if (conflicts != null && !conflicts.isEmpty())
@@ -313,8 +330,15 @@ public class EventRoomAvailabilityBackend extends EventAction<EventRoomAvailabil
 					available = false;
 				}
 				
-				if (!location.isIgnoreRoomCheck())
-					for (Meeting m: (List<Meeting>)EventDAO.getInstance().getSession().createQuery(
+				List<Meeting> meetings = null;
+				if (location.isIgnoreRoomCheck()) {
+					meetings = new ArrayList<Meeting>();
+				} else if (MeetingIndex.isEnabled()) {
+					Set<Long> meetingIds = MeetingIndex.getInstance().findMeetings(EventDAO.getInstance().getSession(), location.getPermanentId(), meeting.getMeetingDate(), meeting.getStartSlot(), meeting.getEndSlot());
+					if (meeting.getId() != null) meetingIds.remove(meeting.getId());
+					meetings = getMeetings(meetingIds, Collections.singleton(location.getPermanentId()), Collections.singleton(meeting.getMeetingDate()), meeting.getStartSlot(), meeting.getEndSlot());
+				} else {
+					meetings = (List<Meeting>)EventDAO.getInstance().getSession().createQuery(
 							"select m from Meeting m, Location l "+
 							"where m.startPeriod < :stopTime and m.stopPeriod > :startTime and m.approvalStatus <= 1 and " +
 							"m.locationPermanentId = l.permanentId and l.uniqueId = :locationdId and m.meetingDate = :meetingDate and m.uniqueId != :meetingId")
@@ -323,49 +347,52 @@ public class EventRoomAvailabilityBackend extends EventAction<EventRoomAvailabil
 							.setDate("meetingDate", meeting.getMeetingDate())
 							.setLong("locationdId", meeting.getLocation().getId())
 							.setLong("meetingId", meeting.getId() == null ? -1 : meeting.getId())
-							.list()) {
-						
-						MeetingConflictInterface conflict = new MeetingConflictInterface();
-						
-						if (request.hasEventId() && m.getEvent().getUniqueId().equals(request.getEventId())) continue;
+							.list();
+				}
+				
+				for (Meeting m: meetings) {
+					
+					MeetingConflictInterface conflict = new MeetingConflictInterface();
+					
+					if (request.hasEventId() && m.getEvent().getUniqueId().equals(request.getEventId())) continue;
 
-						conflict.setEventId(m.getEvent().getUniqueId());
-						conflict.setName(m.getEvent().getEventName());
-						conflict.setType(EventInterface.EventType.values()[m.getEvent().getEventType()]);
-						
-						conflict.setId(m.getUniqueId());
-						conflict.setMeetingDate(m.getMeetingDate());
-						conflict.setDayOfYear(meeting.getDayOfYear());
-						conflict.setStartSlot(m.getStartPeriod());
-						conflict.setEndSlot(m.getStopPeriod());
-						conflict.setStartOffset(m.getStartOffset() == null ? 0 : m.getStartOffset());
-						conflict.setEndOffset(m.getStopOffset() == null ? 0 : m.getStopOffset());
-						conflict.setApprovalDate(m.getApprovalDate());
-						conflict.setApprovalStatus(m.getApprovalStatus());
-						
-						if (context.hasPermission(Right.EventCanViewMeetingContacts)) {
-							Map<Long, ContactInterface> contacts = new HashMap<Long, ContactInterface>();
-							for (EventContact c: m.getMeetingContacts()) {
-								ContactInterface contact = contacts.get(c.getUniqueId());
-								if (contact == null) {
-									contact = new ContactInterface();
-									contact.setFirstName(c.getFirstName());
-									contact.setMiddleName(c.getMiddleName());
-									contact.setLastName(c.getLastName());
-									contact.setAcademicTitle(c.getAcademicTitle());
-									contact.setExternalId(c.getExternalUniqueId());
-									contact.setPhone(c.getPhone());
-									contact.setEmail(c.getEmailAddress());
-									contact.setFormattedName(c.getName(nameFormat));
-									contacts.put(c.getUniqueId(), contact);
-								}
-								conflict.addMeetingContact(contact);
+					conflict.setEventId(m.getEvent().getUniqueId());
+					conflict.setName(m.getEvent().getEventName());
+					conflict.setType(EventInterface.EventType.values()[m.getEvent().getEventType()]);
+					
+					conflict.setId(m.getUniqueId());
+					conflict.setMeetingDate(m.getMeetingDate());
+					conflict.setDayOfYear(meeting.getDayOfYear());
+					conflict.setStartSlot(m.getStartPeriod());
+					conflict.setEndSlot(m.getStopPeriod());
+					conflict.setStartOffset(m.getStartOffset() == null ? 0 : m.getStartOffset());
+					conflict.setEndOffset(m.getStopOffset() == null ? 0 : m.getStopOffset());
+					conflict.setApprovalDate(m.getApprovalDate());
+					conflict.setApprovalStatus(m.getApprovalStatus());
+					
+					if (context.hasPermission(Right.EventCanViewMeetingContacts)) {
+						Map<Long, ContactInterface> contacts = new HashMap<Long, ContactInterface>();
+						for (EventContact c: m.getMeetingContacts()) {
+							ContactInterface contact = contacts.get(c.getUniqueId());
+							if (contact == null) {
+								contact = new ContactInterface();
+								contact.setFirstName(c.getFirstName());
+								contact.setMiddleName(c.getMiddleName());
+								contact.setLastName(c.getLastName());
+								contact.setAcademicTitle(c.getAcademicTitle());
+								contact.setExternalId(c.getExternalUniqueId());
+								contact.setPhone(c.getPhone());
+								contact.setEmail(c.getEmailAddress());
+								contact.setFormattedName(c.getName(nameFormat));
+								contacts.put(c.getUniqueId(), contact);
 							}
+							conflict.addMeetingContact(contact);
 						}
-						
-						meeting.addConflict(conflict);
 					}
-				
+					
+					meeting.addConflict(conflict);
+				}
+			
 				if (location != null && location.getEventAvailability() != null && location.getEventAvailability().length() == Constants.SLOTS_PER_DAY * Constants.DAY_CODES.length) {
 					check: for (int slot = meeting.getStartSlot(); slot < meeting.getEndSlot(); slot++) {
 						if (location.getEventAvailability().charAt(meeting.getDayOfWeek() * Constants.SLOTS_PER_DAY + slot) == '1') {
@@ -424,6 +451,39 @@ public class EventRoomAvailabilityBackend extends EventAction<EventRoomAvailabil
 		return response;
 	}
 	
+	/**
+	 * Load meetings of the given unique ids (as returned by the {@link MeetingIndex}). The index may not yet reflect the latest changes,
+	 * so the meetings are checked again against the given locations (permanent ids), dates, and time slots, and only
+	 * the approved or pending meetings are returned.
+	 */
+	protected static List<Meeting> getMeetings(Collection<Long> meetingIds, Collection<Long> permanentIds, Collection<Date> meetingDates, int startSlot, int endSlot) {
+		List<Meeting> meetings = new ArrayList<Meeting>();
+		if (meetingIds.isEmpty() || permanentIds.isEmpty() || meetingDates.isEmpty()) return meetings;
+		List<Long> ids = new ArrayList<Long>(meetingIds);
+		List<Date> dates = new ArrayList<Date>(meetingDates);
+		String dateParams = "";
+		for (int i = 0; i < dates.size(); i++)
+			dateParams += (dateParams.isEmpty() ? "" : ",") + ":d" + i;
+		for (int idx = 0; idx < ids.size(); idx += 1000) {
+			String params = "";
+			for (int i = 0; i + idx < ids.size() && i < 1000; i++)
+				params += (params.isEmpty() ? "" : ",") + ":m" + i;
+			Query query = EventDAO.getInstance().getSession().createQuery(
+					"select m from Meeting m inner join fetch m.event where m.uniqueId in (" + params + ") and " +
+					"m.startPeriod < :stopTime and m.stopPeriod > :startTime and m.approvalStatus <= 1 and " +
+					"m.locationPermanentId in (:permanentIds) and m.meetingDate in (" + dateParams + ")");
+			for (int i = 0; i + idx < ids.size() && i < 1000; i++)
+				query.setLong("m" + i, ids.get(idx + i));
+			query.setInteger("startTime", startSlot);
+			query.setInteger("stopTime", endSlot);
+			query.setParameterList("permanentIds", permanentIds);
+			for (int i = 0; i < dates.size(); i++)
+				query.setDate("d" + i, dates.get(i));
+			meetings.addAll((List<Meeting>)query.list());
+		}
+		return meetings;
+	}
+	
 	public static TreeSet<MeetingConflictInterface> generateUnavailabilityMeetings(Location location, List<Integer> dates, int startSlot, int endSlot) {
 		if (location.getEventAvailability() == null || location.getEventAvailability().length() != Constants.SLOTS_PER_DAY * Constants.DAY_CODES.length) return null;
 
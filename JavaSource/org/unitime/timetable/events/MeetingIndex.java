@@ -0,0 +1,318 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.events;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.Meeting;
+import org.unitime.timetable.util.ChangeHistory;
+
+/**
+ * In-memory index of pending and approved meetings, partitioned by the location (permanent id) and the month of the
+ * meeting date. Each partition holds the meetings of a day ordered by their start time, so that the meetings overlapping
+ * with a given date and time slot range can be looked up without querying the database. Partitions are loaded on demand,
+ * kept in LRU order (up to unitime.events.meetingIndex.size partitions), and updated as the meeting changes are committed
+ * (see {@link org.unitime.timetable.util.MeetingChangeListener}).
+ *
+ * @author Tomas Muller
+ */
+public class MeetingIndex {
+	private static MeetingIndex sInstance = null;
+	
+	private Map<PartitionKey, Partition> iPartitions = new LinkedHashMap<PartitionKey, Partition>(1024, 0.75f, true);
+	private Map<Long, PartitionKey> iMeetings = new HashMap<Long, PartitionKey>();
+	private ChangeHistory<PartitionKey> iChanges = new ChangeHistory<PartitionKey>(600000l);
+	
+	public static synchronized MeetingIndex getInstance() {
+		if (sInstance == null)
+			sInstance = new MeetingIndex();
+		return sInstance;
+	}
+	
+	public static boolean isEnabled() {
+		Integer size = ApplicationProperty.EventMeetingIndexSize.intValue();
+		return size != null && size > 0;
+	}
+	
+	/**
+	 * Pending and approved meetings of the given locations that are on one of the given dates and that overlap with the given time slot range
+	 * @param hibSession hibernate session used to load partitions that are not in the index
+	 * @param permanentIds location permanent ids
+	 * @param dates meeting dates
+	 * @param startSlot first time slot
+	 * @param endSlot time slot following the last time slot
+	 * @return unique ids of the matching meetings
+	 */
+	public Set<Long> findMeetings(org.hibernate.Session hibSession, Collection<Long> permanentIds, Collection<Date> dates, int startSlot, int endSlot) {
+		Map<Integer, List<Integer>> days = new TreeMap<Integer, List<Integer>>();
+		for (Date date: dates) {
+			int day = day(date);
+			List<Integer> daysOfMonth = days.get(day / 100);
+			if (daysOfMonth == null) {
+				daysOfMonth = new ArrayList<Integer>();
+				days.put(day / 100, daysOfMonth);
+			}
+			daysOfMonth.add(day);
+		}
+		Map<PartitionKey, Partition> partitions = getPartitions(hibSession, permanentIds, days.keySet());
+		Set<Long> meetingIds = new TreeSet<Long>();
+		for (Long permanentId: permanentIds)
+			for (Map.Entry<Integer, List<Integer>> e: days.entrySet()) {
+				Partition partition = partitions.get(new PartitionKey(permanentId, e.getKey()));
+				if (partition == null) continue;
+				synchronized (this) {
+					for (Integer day: e.getValue())
+						partition.find(day, startSlot, endSlot, meetingIds);
+				}
+			}
+		return meetingIds;
+	}
+	
+	/**
+	 * Pending and approved meetings of the given location and date that overlap with the given time slot range
+	 */
+	public Set<Long> findMeetings(org.hibernate.Session hibSession, Long permanentId, Date date, int startSlot, int endSlot) {
+		List<Long> permanentIds = new ArrayList<Long>(1); permanentIds.add(permanentId);
+		List<Date> dates = new ArrayList<Date>(1); dates.add(date);
+		return findMeetings(hibSession, permanentIds, dates, startSlot, endSlot);
+	}
+	
+	/**
+	 * Partitions of the given locations and months, the ones that are not in the index (or that are too old) are loaded from the database
+	 */
+	protected Map<PartitionKey, Partition> getPartitions(org.hibernate.Session hibSession, Collection<Long> permanentIds, Collection<Integer> months) {
+		Map<PartitionKey, Partition> partitions = new HashMap<PartitionKey, Partition>();
+		Map<Integer, List<Long>> missing = new TreeMap<Integer, List<Long>>();
+		synchronized (this) {
+			Integer maxAge = ApplicationProperty.EventMeetingIndexMaxAge.intValue();
+			long created = (maxAge != null && maxAge > 0 ? System.currentTimeMillis() - 1000l * maxAge : 0l);
+			for (Long permanentId: permanentIds)
+				for (Integer month: months) {
+					PartitionKey key = new PartitionKey(permanentId, month);
+					Partition partition = iPartitions.get(key);
+					if (partition != null && partition.getCreated() >= created) {
+						partitions.put(key, partition);
+					} else {
+						List<Long> ids = missing.get(month);
+						if (ids == null) {
+							ids = new ArrayList<Long>();
+							missing.put(month, ids);
+						}
+						ids.add(permanentId);
+					}
+				}
+		}
+		for (Map.Entry<Integer, List<Long>> e: missing.entrySet()) {
+			Calendar c = Calendar.getInstance();
+			c.clear(); c.set(e.getKey() / 100, e.getKey() % 100 - 1, 1);
+			Date first = c.getTime();
+			c.add(Calendar.MONTH, 1);
+			Date last = c.getTime();
+			List<Long> ids = e.getValue();
+			for (int idx = 0; idx < ids.size(); idx += 1000) {
+				long created = System.currentTimeMillis();
+				Map<PartitionKey, Partition> loaded = new HashMap<PartitionKey, Partition>();
+				String locations = "";
+				for (int i = 0; i + idx < ids.size() && i < 1000; i++) {
+					locations += (locations.isEmpty() ? "" : ",") + ":l" + i;
+					PartitionKey key = new PartitionKey(ids.get(idx + i), e.getKey());
+					loaded.put(key, new Partition(key, created));
+				}
+				org.hibernate.Query query = hibSession.createQuery(
+						"select m.uniqueId, m.locationPermanentId, m.meetingDate, m.startPeriod, m.stopPeriod from Meeting m where " +
+						"m.approvalStatus <= 1 and m.locationPermanentId in (" + locations + ") and m.meetingDate >= :first and m.meetingDate < :last");
+				for (int i = 0; i + idx < ids.size() && i < 1000; i++)
+					query.setLong("l" + i, ids.get(idx + i));
+				for (Object[] o: (List<Object[]>)query.setDate("first", first).setDate("last", last).list()) {
+					Partition partition = loaded.get(new PartitionKey((Long)o[1], e.getKey()));
+					if (partition != null)
+						partition.add((Long)o[0], day((Date)o[2]), (Integer)o[3], (Integer)o[4]);
+				}
+				put(loaded.values());
+				partitions.putAll(loaded);
+			}
+		}
+		return partitions;
+	}
+	
+	/**
+	 * Put loaded partitions into the index, partitions that have changed while being loaded are not stored
+	 */
+	protected synchronized void put(Collection<Partition> partitions) {
+		for (Partition partition: partitions) {
+			if (iChanges.hasChanged(partition.getKey(), partition.getCreated())) continue;
+			Partition old = iPartitions.put(partition.getKey(), partition);
+			if (old != null) remove(old);
+			for (Long meetingId: partition.getMeetingIds())
+				iMeetings.put(meetingId, partition.getKey());
+		}
+		Integer size = ApplicationProperty.EventMeetingIndexSize.intValue();
+		for (Iterator<Partition> i = iPartitions.values().iterator(); i.hasNext() && iPartitions.size() > (size == null ? 0 : size); ) {
+			Partition eldest = i.next();
+			i.remove();
+			remove(eldest);
+		}
+	}
+	
+	private void remove(Partition partition) {
+		for (Long meetingId: partition.getMeetingIds())
+			if (partition.getKey().equals(iMeetings.get(meetingId)))
+				iMeetings.remove(meetingId);
+	}
+	
+	/**
+	 * A meeting has been inserted, updated, or deleted (called after the change is committed)
+	 */
+	public synchronized void meetingChanged(Meeting meeting, boolean deleted) {
+		if (meeting.getUniqueId() == null) return;
+		PartitionKey oldKey = iMeetings.remove(meeting.getUniqueId());
+		if (oldKey != null) {
+			iChanges.changed(oldKey);
+			Partition partition = iPartitions.get(oldKey);
+			if (partition != null) partition.remove(meeting.getUniqueId());
+		}
+		if (meeting.getLocationPermanentId() == null || meeting.getMeetingDate() == null) return;
+		int day = day(meeting.getMeetingDate());
+		PartitionKey key = new PartitionKey(meeting.getLocationPermanentId(), day / 100);
+		iChanges.changed(key);
+		if (deleted || meeting.getApprovalStatus() == null || meeting.getApprovalStatus() > 1 || meeting.getStartPeriod() == null || meeting.getStopPeriod() == null) return;
+		Partition partition = iPartitions.get(key);
+		if (partition != null) {
+			partition.add(meeting.getUniqueId(), day, meeting.getStartPeriod(), meeting.getStopPeriod());
+			iMeetings.put(meeting.getUniqueId(), key);
+		}
+	}
+	
+	public synchronized void clear() {
+		iPartitions.clear();
+		iMeetings.clear();
+		iChanges.clear();
+	}
+	
+	/**
+	 * Day of the given date encoded as yyyymmdd (the month of the date is then day / 100)
+	 */
+	protected static int day(Date date) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		return 10000 * c.get(Calendar.YEAR) + 100 * (c.get(Calendar.MONTH) + 1) + c.get(Calendar.DAY_OF_MONTH);
+	}
+	
+	protected static class PartitionKey {
+		private long iPermanentId;
+		private int iMonth;
+		
+		PartitionKey(long permanentId, int month) {
+			iPermanentId = permanentId; iMonth = month;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (o == null || !(o instanceof PartitionKey)) return false;
+			PartitionKey k = (PartitionKey)o;
+			return iPermanentId == k.iPermanentId && iMonth == k.iMonth;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * Long.valueOf(iPermanentId).hashCode() + iMonth;
+		}
+		
+		@Override
+		public String toString() {
+			return iPermanentId + ":" + iMonth;
+		}
+	}
+	
+	/**
+	 * Meetings of a location and a month, meetings of each day are ordered by their start time
+	 */
+	protected static class Partition {
+		private PartitionKey iKey;
+		private long iCreated;
+		private Map<Integer, List<MeetingSlot>> iDays = new HashMap<Integer, List<MeetingSlot>>();
+		private Map<Long, Integer> iMeetings = new HashMap<Long, Integer>();
+		
+		Partition(PartitionKey key, long created) {
+			iKey = key; iCreated = created;
+		}
+		
+		public PartitionKey getKey() { return iKey; }
+		public long getCreated() { return iCreated; }
+		public Collection<Long> getMeetingIds() { return iMeetings.keySet(); }
+		
+		void add(Long meetingId, int day, int startSlot, int endSlot) {
+			remove(meetingId);
+			List<MeetingSlot> slots = iDays.get(day);
+			if (slots == null) {
+				slots = new ArrayList<MeetingSlot>();
+				iDays.put(day, slots);
+			}
+			int idx = slots.size();
+			while (idx > 0 && slots.get(idx - 1).getStartSlot() > startSlot) idx--;
+			slots.add(idx, new MeetingSlot(meetingId, startSlot, endSlot));
+			iMeetings.put(meetingId, day);
+		}
+		
+		void remove(Long meetingId) {
+			Integer day = iMeetings.remove(meetingId);
+			if (day == null) return;
+			List<MeetingSlot> slots = iDays.get(day);
+			if (slots == null) return;
+			for (Iterator<MeetingSlot> i = slots.iterator(); i.hasNext(); )
+				if (i.next().getMeetingId().equals(meetingId)) { i.remove(); break; }
+			if (slots.isEmpty()) iDays.remove(day);
+		}
+		
+		void find(int day, int startSlot, int endSlot, Collection<Long> meetingIds) {
+			List<MeetingSlot> slots = iDays.get(day);
+			if (slots == null) return;
+			for (MeetingSlot slot: slots) {
+				if (slot.getStartSlot() >= endSlot) break;
+				if (slot.getEndSlot() > startSlot) meetingIds.add(slot.getMeetingId());
+			}
+		}
+	}
+	
+	protected static class MeetingSlot {
+		private Long iMeetingId;
+		private int iStartSlot, iEndSlot;
+		
+		MeetingSlot(Long meetingId, int startSlot, int endSlot) {
+			iMeetingId = meetingId; iStartSlot = startSlot; iEndSlot = endSlot;
+		}
+		
+		public Long getMeetingId() { return iMeetingId; }
+		public int getStartSlot() { return iStartSlot; }
+		public int getEndSlot() { return iEndSlot; }
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.gwt.command.server;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.commons.web.WebTable;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.gwt.command.client.GwtRpcException;
+
+/**
+ * Bounded pool of threads executing asynchronous GWT RPC requests.<br>
+ * Waiting tasks are ordered by their priority (see {@link ApplicationProperty#GwtRpcAsyncPriority}) and the time of submission.
+ * A task is only started when the number of running tasks of the same user ({@link ApplicationProperty#GwtRpcAsyncUserLimit})
+ * and of the same command ({@link ApplicationProperty#GwtRpcAsyncCommandLimit}) is under the limit, other waiting tasks can
+ * be started in the mean time.<br>
+ * The executor of the GWT RPC servlet is available as a servlet context attribute (named by this class name), its
+ * statistics are shown on the Page Statistics page (see {@link GwtRpcAsyncExecutor#getTable(String)}).
+ *
+ * @author Tomas Muller
+ */
+public class GwtRpcAsyncExecutor {
+	private static Log sLog = LogFactory.getLog(GwtRpcAsyncExecutor.class);
+	private List<Task> iQueue = new ArrayList<Task>();
+	private List<Worker> iWorkers = new ArrayList<Worker>();
+	private Map<String, Integer> iRunningPerUser = new HashMap<String, Integer>();
+	private Map<String, Integer> iRunningPerCommand = new HashMap<String, Integer>();
+	private Map<String, Statistics> iStatistics = new TreeMap<String, Statistics>();
+	private int iQueueLimit, iUserLimit;
+	private boolean iActive = true;
+
+	public GwtRpcAsyncExecutor() {
+		iQueueLimit = ApplicationProperty.GwtRpcAsyncQueueSize.intValue();
+		iUserLimit = ApplicationProperty.GwtRpcAsyncUserLimit.intValue();
+		int nrThreads = Math.max(1, ApplicationProperty.GwtRpcAsyncThreads.intValue());
+		for (int i = 0; i < nrThreads; i++) {
+			Worker worker = new Worker(i);
+			iWorkers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Put the given task in the queue
+	 * @throws GwtRpcException when there are too many tasks waiting in the queue
+	 */
+	public synchronized void submit(Task task) throws GwtRpcException {
+		if (!iActive)
+			throw new GwtRpcException("Asynchronous execution is not available.");
+		if (iQueueLimit > 0 && iQueue.size() >= iQueueLimit) {
+			getStatistics(task.getCommand()).rejected();
+			throw new GwtRpcException("Too many requests are waiting to be executed, please try again later.");
+		}
+		Integer priority = ApplicationProperty.GwtRpcAsyncPriority.intValue(task.getCommand());
+		task.iPriority = (priority == null ? 0 : priority.intValue());
+		task.iQueuedAt = System.currentTimeMillis();
+		int index = iQueue.size();
+		while (index > 0 && iQueue.get(index - 1).iPriority < task.iPriority) index--;
+		iQueue.add(index, task);
+		notifyAll();
+	}
+
+	/**
+	 * Remove the given task from the queue
+	 * @return true if the task was waiting in the queue, false if it is already running (or finished)
+	 */
+	public synchronized boolean cancel(Task task) {
+		if (iQueue.remove(task)) {
+			getStatistics(task.getCommand()).cancelled();
+			return true;
+		}
+		return false;
+	}
+
+	/** Number of tasks waiting in the queue */
+	public synchronized int getQueueSize() { return iQueue.size(); }
+
+	/** Number of running tasks */
+	public synchronized int getNrRunning() {
+		int running = 0;
+		for (Integer count: iRunningPerCommand.values()) running += count;
+		return running;
+	}
+
+	/** Number of worker threads */
+	public int getNrThreads() { return iWorkers.size(); }
+
+	/** Execution statistics for each command */
+	public synchronized Map<String, Statistics> getStatistics() {
+		Map<String, Statistics> ret = new TreeMap<String, Statistics>();
+		for (Map.Entry<String, Statistics> e: iStatistics.entrySet())
+			ret.put(e.getKey(), new Statistics(e.getValue()));
+		return ret;
+	}
+
+	/**
+	 * Execution statistics table (one line for each command)
+	 * @param ref sort link, %% is replaced with the column number
+	 */
+	public WebTable getTable(String ref) {
+		WebTable table = new WebTable(8, "Asynchronous Requests (" + getNrThreads() + " threads, " + getNrRunning() + " running, " + getQueueSize() + " waiting)", ref,
+				new String[] {"Command", "Executed", "Rejected", "Cancelled", "AvgQueue [ms]", "MaxQueue [ms]", "AvgTime [ms]", "MaxTime [ms]"},
+				new String[] {"left", "right", "right", "right", "right", "right", "right", "right"},
+				new boolean[] {true, false, false, false, false, false, false, false});
+		DecimalFormat df = new DecimalFormat("#,##0.0");
+		for (Map.Entry<String, Statistics> e: getStatistics().entrySet()) {
+			Statistics s = e.getValue();
+			table.addLine(new String[] {
+					e.getKey(),
+					String.valueOf(s.getNrExecuted()),
+					String.valueOf(s.getNrRejected()),
+					String.valueOf(s.getNrCancelled()),
+					df.format(s.getAverageQueueTime()),
+					String.valueOf(s.getMaxQueueTime()),
+					df.format(s.getAverageExecutionTime()),
+					String.valueOf(s.getMaxExecutionTime())
+				}, new Comparable[] {
+					e.getKey(), s.getNrExecuted(), s.getNrRejected(), s.getNrCancelled(),
+					s.getAverageQueueTime(), s.getMaxQueueTime(), s.getAverageExecutionTime(), s.getMaxExecutionTime()
+				});
+		}
+		return table;
+	}
+
+	protected Statistics getStatistics(String command) {
+		Statistics stats = iStatistics.get(command);
+		if (stats == null) {
+			stats = new Statistics();
+			iStatistics.put(command, stats);
+		}
+		return stats;
+	}
+
+	protected boolean canStart(Task task) {
+		if (iUserLimit > 0 && task.getUser() != null) {
+			Integer running = iRunningPerUser.get(task.getUser());
+			if (running != null && running >= iUserLimit) return false;
+		}
+		Integer commandLimit = ApplicationProperty.GwtRpcAsyncCommandLimit.intValue(task.getCommand());
+		if (commandLimit != null && commandLimit > 0) {
+			Integer running = iRunningPerCommand.get(task.getCommand());
+			if (running != null && running >= commandLimit) return false;
+		}
+		return true;
+	}
+
+	protected synchronized Task next() throws InterruptedException {
+		while (iActive) {
+			for (Iterator<Task> i = iQueue.iterator(); i.hasNext(); ) {
+				Task task = i.next();
+				if (canStart(task)) {
+					i.remove();
+					if (task.getUser() != null) {
+						Integer running = iRunningPerUser.get(task.getUser());
+						iRunningPerUser.put(task.getUser(), running == null ? 1 : running + 1);
+					}
+					Integer running = iRunningPerCommand.get(task.getCommand());
+					iRunningPerCommand.put(task.getCommand(), running == null ? 1 : running + 1);
+					task.iStartedAt = System.currentTimeMillis();
+					return task;
+				}
+			}
+			wait();
+		}
+		return null;
+	}
+
+	protected synchronized void finished(Task task) {
+		long now = System.currentTimeMillis();
+		getStatistics(task.getCommand()).executed(task.iStartedAt - task.iQueuedAt, now - task.iStartedAt);
+		if (task.getUser() != null) {
+			Integer running = iRunningPerUser.get(task.getUser());
+			if (running == null || running <= 1)
+				iRunningPerUser.remove(task.getUser());
+			else
+				iRunningPerUser.put(task.getUser(), running - 1);
+		}
+		Integer running = iRunningPerCommand.get(task.getCommand());
+		if (running == null || running <= 1)
+			iRunningPerCommand.remove(task.getCommand());
+		else
+			iRunningPerCommand.put(task.getCommand(), running - 1);
+		notifyAll();
+	}
+
+	/**
+	 * Stop all the worker threads, tasks that are waiting in the queue are not executed
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			iActive = false;
+			iQueue.clear();
+			notifyAll();
+		}
+		for (Worker worker: iWorkers)
+			worker.interrupt();
+	}
+
+	/**
+	 * Asynchronous task
+	 */
+	public static abstract class Task implements Runnable {
+		private int iPriority;
+		private long iQueuedAt, iStartedAt;
+		private Thread iThread = null;
+		private boolean iCancelled = false;
+
+		/** User that submitted the task (running tasks of a user are limited), null if not known */
+		public abstract String getUser();
+
+		/** Command name (used for statistics, priority and limits) */
+		public abstract String getCommand();
+
+		/** Time the task spent waiting in the queue in milliseconds */
+		public long getQueueTime() { return iStartedAt - iQueuedAt; }
+
+		/**
+		 * Cancel the task: interrupt it if it is running, or make sure it gets interrupted as soon as a worker
+		 * thread picks it up (the task may have been taken from the queue, but not started yet)
+		 */
+		public synchronized void interrupt() {
+			iCancelled = true;
+			if (iThread != null) iThread.interrupt();
+		}
+
+		/** True if the task has been cancelled (see {@link Task#interrupt()}), the task should not be started then */
+		public synchronized boolean isCancelled() { return iCancelled; }
+
+		synchronized void setThread(Thread thread) {
+			iThread = thread;
+			if (thread != null && iCancelled) thread.interrupt();
+		}
+	}
+
+	/**
+	 * Execution statistics of a command
+	 */
+	public static class Statistics {
+		private long iExecuted = 0, iRejected = 0, iCancelled = 0;
+		private long iQueueTime = 0, iMaxQueueTime = 0;
+		private long iExecutionTime = 0, iMaxExecutionTime = 0;
+
+		Statistics() {}
+
+		Statistics(Statistics s) {
+			iExecuted = s.iExecuted; iRejected = s.iRejected; iCancelled = s.iCancelled;
+			iQueueTime = s.iQueueTime; iMaxQueueTime = s.iMaxQueueTime;
+			iExecutionTime = s.iExecutionTime; iMaxExecutionTime = s.iMaxExecutionTime;
+		}
+
+		void executed(long queueTime, long executionTime) {
+			iExecuted ++;
+			iQueueTime += queueTime; iMaxQueueTime = Math.max(iMaxQueueTime, queueTime);
+			iExecutionTime += executionTime; iMaxExecutionTime = Math.max(iMaxExecutionTime, executionTime);
+		}
+
+		void rejected() { iRejected ++; }
+
+		void cancelled() { iCancelled ++; }
+
+		public long getNrExecuted() { return iExecuted; }
+		public long getNrRejected() { return iRejected; }
+		public long getNrCancelled() { return iCancelled; }
+		public double getAverageQueueTime() { return iExecuted == 0 ? 0.0 : ((double)iQueueTime) / iExecuted; }
+		public long getMaxQueueTime() { return iMaxQueueTime; }
+		public double getAverageExecutionTime() { return iExecuted == 0 ? 0.0 : ((double)iExecutionTime) / iExecuted; }
+		public long getMaxExecutionTime() { return iMaxExecutionTime; }
+
+		@Override
+		public String toString() {
+			return iExecuted + " executed" +
+					(iRejected > 0 ? ", " + iRejected + " rejected" : "") +
+					(iCancelled > 0 ? ", " + iCancelled + " cancelled" : "") +
+					", queue " + Math.round(getAverageQueueTime()) + " ms (max " + iMaxQueueTime + " ms)" +
+					", execution " + Math.round(getAverageExecutionTime()) + " ms (max " + iMaxExecutionTime + " ms)";
+		}
+	}
+
+	private class Worker extends Thread {
+
+		Worker(int index) {
+			super("GwtRpcAsync-" + (1 + index));
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Task task = null;
+				try {
+					task = next();
+				} catch (InterruptedException e) {}
+				if (task == null) {
+					synchronized (GwtRpcAsyncExecutor.this) {
+						if (!iActive) break;
+					}
+					continue;
+				}
+				String name = getName();
+				task.setThread(this);
+				try {
+					task.run();
+				} catch (Throwable t) {
+					sLog.error("Asynchronous execution of " + task.getCommand() + " failed: " + t.getMessage(), t);
+				} finally {
+					task.setThread(null);
+					setName(name);
+					// clear the interrupted flag (the task may have been cancelled)
+					Thread.interrupted();
+					finished(task);
+				}
+			}
+		}
+	}
+}
@@ -54,6 +54,7 @@ import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.context.HttpSessionContext;
 import org.unitime.timetable.security.evaluation.PermissionCheck;
 import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.RequestStatistics;
 
 import com.google.gson.FieldNamingStrategy;
 import com.google.gson.Gson;
@@ -74,6 +75,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 	private QueryLogFilter.Saver iSaver = null;
 	private static IdGenerator sIdGenerator = new IdGenerator();
 	private static Map<Long, Execution> sExecutions = new Hashtable<Long, Execution>();
+	private GwtRpcAsyncExecutor iExecutor = null;
 	private Gson iGson = null;
 	
 	protected SessionContext getSessionContext() {
@@ -91,6 +93,8 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 		iSaver = new QueryLogFilter.Saver();
 		iSaver.setName("GwtRpcLogSaver");
 		iSaver.start();
+		iExecutor = new GwtRpcAsyncExecutor();
+		getServletContext().setAttribute(GwtRpcAsyncExecutor.class.getName(), iExecutor);
 		iGson = new GsonBuilder()
 				.registerTypeAdapter(java.sql.Timestamp.class, new JsonSerializer<java.sql.Timestamp>() {
 					@Override
@@ -127,6 +131,10 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 	@Override
 	public void destroy() {
 		if (iSaver != null) iSaver.interrupt();
+		if (iExecutor != null) {
+			getServletContext().removeAttribute(GwtRpcAsyncExecutor.class.getName());
+			iExecutor.shutdown();
+		}
 	}
 	
 	public static <T extends GwtRpcResponse> GwtRpcImplementation<GwtRpcRequest<T>, T> getImplementation(Class<? extends GwtRpcRequest<T>> requestClass, ApplicationContext applicationContext) throws BeansException {
@@ -173,6 +181,8 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 	public <T extends GwtRpcResponse> T execute(GwtRpcRequest<T> request) throws GwtRpcException {
 		// start time
 		long t0 = JProf.currentTimeMillis();
+		RequestStatistics.Measurement measurement = RequestStatistics.start("RPC:" + request.getClass().getSimpleName());
+		boolean failed = true;
 		GwtRpcLogging logging = null;
 		// create helper
 		try {
@@ -187,6 +197,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			
 			// log request
 			log(request, response, null, JProf.currentTimeMillis() - t0, getSessionContext(), logging);
+			failed = false;
 			
 			// return response
 			return response;
@@ -214,6 +225,8 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			}
 			sLog.error("Seen exception: " + t.getMessage(), t);
 			throw new GwtRpcException(t.getMessage());
+		} finally {
+			measurement.stop(failed);
 		}
 	}
 	
@@ -269,8 +282,18 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 			synchronized (sExecutions) {
 				sExecutions.put(execution.getExecutionId(), execution);
 			}
-			execution.start();
+			try {
+				iExecutor.submit(execution);
+			} catch (GwtRpcException e) {
+				synchronized (sExecutions) {
+					sExecutions.remove(execution.getExecutionId());
+				}
+				throw e;
+			}
 			return execution.getExecutionId();
+		} catch (GwtRpcException e) {
+			sLog.warn("Execute async failed: " + e.getMessage());
+			throw e;
 		} catch (Exception e) {
 			sLog.warn("Execute async failed: " + e.getMessage());
 			throw new GwtRpcException(e.getMessage(), e);
@@ -327,32 +350,49 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 		}
 	}
 	
-	private class Execution<R extends GwtRpcRequest<T>, T extends GwtRpcResponse> extends Thread {
+	private class Execution<R extends GwtRpcRequest<T>, T extends GwtRpcResponse> extends GwtRpcAsyncExecutor.Task {
 		R iRequest;
 		T iResponse = null;
 		SessionContext iContext = null;
 		GwtRpcException iException = null;
 		Thread iWaitingThread = null;
 		long iExecutionId;
-		boolean iRunning = false;
+		boolean iRunning = true;
 		String iLocale = null;
+		String iUser = null;
 		
 		Execution(R request) {
-			setName("RPC:" + request);
-			setDaemon(true);
 			iRequest = request;
 			iExecutionId = sIdGenerator.generatedId();
 			iContext = new GwtRpcHelper(getSessionContext(), getPermissionCheck());
 			iLocale = Localization.getLocale();
+			iUser = (iContext.isAuthenticated() ? iContext.getUser().getExternalUserId() : iContext.getHttpSessionId());
 		}
+		
+		@Override
+		public String getUser() { return iUser; }
+		
+		@Override
+		public String getCommand() { return iRequest.getClass().getSimpleName(); }
 
 		@Override
 		public void run() {
-			iRunning = true;
+			synchronized (this) {
+				if (!iRunning) return;
+				if (isCancelled()) {
+					iWaitingThread = null;
+					iRunning = false;
+					iContext = null;
+					notifyAll();
+					return;
+				}
+			}
+			Thread.currentThread().setName("RPC:" + iRequest);
 			Localization.setLocale(iLocale);
 			ApplicationProperties.setSessionId(iContext.getUser() == null ? null : iContext.getUser().getCurrentAcademicSessionId());
 			// start time
 			long t0 = JProf.currentTimeMillis();
+			RequestStatistics.Measurement measurement = RequestStatistics.start("RPC:" + getCommand());
 			GwtRpcLogging logging = null;
 			try {
 				// retrieve implementation from given request
@@ -388,6 +428,7 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 					iException = new GwtRpcException(t.getMessage());
 				}
 			} finally {
+				measurement.stop(iException != null);
 				Localization.removeLocale();
 				Formats.removeFormats();
 				ApplicationProperties.setSessionId(null);
@@ -397,24 +438,30 @@ public class GwtRpcServlet extends RemoteServiceServlet implements GwtRpcService
 				iWaitingThread = null;
 				iRunning = false;
 				iContext = null;
+				notifyAll();
 			}
 		}
 		
 		void waitToFinish() throws InterruptedException {
 			synchronized (this) {
-				if (iRunning) {
-					iWaitingThread = Thread.currentThread();
-					join();
-				}
+				iWaitingThread = Thread.currentThread();
+				while (iRunning)
+					wait();
 			}
 		}
 		
 		void cancelExecution() {
+			boolean queued = iExecutor.cancel(this);
 			synchronized (this) {
 				iException = new GwtRpcCancelledException("Operation cancelled by the user.");
+				if (queued) {
+					iRunning = false;
+					iContext = null;
+					notifyAll();
+				}
 				if (iWaitingThread != null) iWaitingThread.interrupt();
 			}
-			interrupt();
+			if (!queued) interrupt();
 		}
 		
 		T getResponse() { return iResponse; }
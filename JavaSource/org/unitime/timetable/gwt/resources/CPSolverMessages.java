@@ -68,6 +68,18 @@ public interface CPSolverMessages extends Messages, Constants {
 	@DefaultMessage("Using room availability that was updated on {0}.")
 	String infoUsingRoomAvailability(String timeStamp);
 	
+	@DefaultMessage("{0} loaded in {1} seconds (waited {2} seconds).")
+	String infoLoadStage(String stage, String time, String waited);
+	
+	@DefaultMessage("Student enrollments")
+	String stageStudentEnrollments();
+	
+	@DefaultMessage("Committed student conflicts")
+	String stageCommittedStudentConflicts();
+	
+	@DefaultMessage("Room and instructor availability")
+	String stageRoomAvailability();
+	
 	@DefaultMessage("Posted {0} constraint between {1} ({2})")
 	String infoPostedConstraint(String type, String classes, String prefernce);
 	
@@ -0,0 +1,202 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.gwt.server;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.util.ChangeHistory;
+
+/**
+ * Cache of the iCalendar feeds generated by the {@link CalendarServlet}, keyed by the (encoded) calendar query.
+ * Each feed keeps the tags of the objects it was generated from (e.g., class:123, student:456) and it is invalidated
+ * when any of these objects has changed (see {@link org.unitime.timetable.util.CalendarFeedChangeListener}).
+ * The last modification time of a feed only changes when the generated content changes.
+ *
+ * @author Tomas Muller
+ */
+public class CalendarFeedCache {
+	private static CalendarFeedCache sInstance = null;
+	private static final byte[] sTimeStamp = "DTSTAMP".getBytes();
+	
+	private Map<String, CalendarFeed> iFeeds = new LinkedHashMap<String, CalendarFeed>(1024, 0.75f, true);
+	private Map<String, Set<String>> iDependencies = new HashMap<String, Set<String>>();
+	private ChangeHistory<String> iChanges = new ChangeHistory<String>(600000l);
+	
+	public static synchronized CalendarFeedCache getInstance() {
+		if (sInstance == null)
+			sInstance = new CalendarFeedCache();
+		return sInstance;
+	}
+	
+	public static boolean isEnabled() {
+		Integer size = ApplicationProperty.CalendarFeedCacheSize.intValue();
+		return size != null && size > 0;
+	}
+	
+	/**
+	 * Cached feed of the given key, the feed may no longer be valid (it is still returned so that its last modification time can be reused)
+	 */
+	public synchronized CalendarFeed get(String key) {
+		CalendarFeed feed = iFeeds.get(key);
+		if (feed != null && feed.isValid()) {
+			Integer maxAge = ApplicationProperty.CalendarFeedCacheMaxAge.intValue();
+			if (maxAge != null && maxAge > 0 && feed.getCreated() + 1000l * maxAge < System.currentTimeMillis())
+				feed.invalidate();
+		}
+		return feed;
+	}
+	
+	/**
+	 * Store a newly generated feed
+	 * @param key calendar query
+	 * @param content generated iCalendar content
+	 * @param tags objects the feed was generated from
+	 * @param created time when the generation started (changes made after this time invalidate the feed right away)
+	 * @param previous previous version of the feed (if any)
+	 */
+	public synchronized CalendarFeed put(String key, byte[] content, Set<String> tags, long created, CalendarFeed previous) {
+		String etag = digest(content);
+		long lastModified = 1000l * (created / 1000l);
+		if (previous != null && previous.getETag().equals(etag))
+			lastModified = previous.getLastModified();
+		CalendarFeed feed = new CalendarFeed(key, content, etag, lastModified, created, tags);
+		for (String tag: tags) {
+			if (iChanges.hasChanged(tag, created)) { feed.invalidate(); break; }
+		}
+		CalendarFeed old = iFeeds.put(key, feed);
+		if (old != null) removeDependencies(old);
+		for (String tag: tags) {
+			Set<String> keys = iDependencies.get(tag);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				iDependencies.put(tag, keys);
+			}
+			keys.add(key);
+		}
+		Integer size = ApplicationProperty.CalendarFeedCacheSize.intValue();
+		for (Iterator<CalendarFeed> i = iFeeds.values().iterator(); i.hasNext() && iFeeds.size() > (size == null ? 0 : size); ) {
+			CalendarFeed eldest = i.next();
+			i.remove();
+			removeDependencies(eldest);
+		}
+		return feed;
+	}
+	
+	/**
+	 * An object with the given tag has changed, invalidate all feeds that depend on it
+	 */
+	public synchronized void changed(String tag) {
+		iChanges.changed(tag);
+		Set<String> keys = iDependencies.remove(tag);
+		if (keys != null)
+			for (String key: keys) {
+				CalendarFeed feed = iFeeds.get(key);
+				if (feed != null) feed.invalidate();
+			}
+	}
+	
+	public synchronized void clear() {
+		iFeeds.clear();
+		iDependencies.clear();
+	}
+	
+	private void removeDependencies(CalendarFeed feed) {
+		for (String tag: feed.getTags()) {
+			Set<String> keys = iDependencies.get(tag);
+			if (keys != null) {
+				keys.remove(feed.getKey());
+				if (keys.isEmpty()) iDependencies.remove(tag);
+			}
+		}
+	}
+	
+	/**
+	 * Digest of the iCalendar content, DTSTAMP lines are skipped (they contain the time of the generation)
+	 */
+	protected static String digest(byte[] content) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			int start = 0;
+			for (int i = 0; i < content.length; i++) {
+				if (content[i] == '\n' || i + 1 == content.length) {
+					if (!isTimeStamp(content, start)) md.update(content, start, i + 1 - start);
+					start = i + 1;
+				}
+			}
+			return "\"" + new BigInteger(1, md.digest()).toString(16) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "-" + Integer.toHexString(content.length) + "\"";
+		}
+	}
+	
+	private static boolean isTimeStamp(byte[] content, int start) {
+		if (start + sTimeStamp.length > content.length) return false;
+		for (int i = 0; i < sTimeStamp.length; i++)
+			if (content[start + i] != sTimeStamp[i]) return false;
+		return true;
+	}
+	
+	public static class CalendarFeed {
+		private String iKey;
+		private byte[] iContent;
+		private String iETag;
+		private long iLastModified, iCreated;
+		private Set<String> iTags;
+		private volatile boolean iValid = true;
+		
+		CalendarFeed(String key, byte[] content, String etag, long lastModified, long created, Set<String> tags) {
+			iKey = key; iContent = content; iETag = etag; iLastModified = lastModified; iCreated = created; iTags = tags;
+		}
+		
+		public String getKey() { return iKey; }
+		public byte[] getContent() { return iContent; }
+		public String getETag() { return iETag; }
+		public long getLastModified() { return iLastModified; }
+		public long getCreated() { return iCreated; }
+		public Set<String> getTags() { return iTags; }
+		public boolean isValid() { return iValid; }
+		public void invalidate() { iValid = false; }
+		
+		/**
+		 * Check the If-None-Match and If-Modified-Since headers of a conditional request
+		 */
+		public boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+			if (ifNoneMatch != null) {
+				for (String etag: ifNoneMatch.split(",")) {
+					etag = etag.trim();
+					if (etag.startsWith("W/")) etag = etag.substring(2);
+					if (etag.equals("*") || etag.equals(iETag)) return true;
+				}
+				return false;
+			}
+			return ifModifiedSince >= 0 && iLastModified <= ifModifiedSince;
+		}
+	}
+}
@@ -19,9 +19,12 @@
 */
 package org.unitime.timetable.gwt.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
@@ -31,10 +34,12 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
 
@@ -58,6 +63,7 @@ import org.unitime.timetable.events.EventDetailBackend;
 import org.unitime.timetable.events.QueryEncoderBackend;
 import org.unitime.timetable.export.events.EventsExportEventsToICal;
 import org.unitime.timetable.gwt.resources.GwtConstants;
+import org.unitime.timetable.gwt.server.CalendarFeedCache.CalendarFeed;
 import org.unitime.timetable.model.Assignment;
 import org.unitime.timetable.model.ClassInstructor;
 import org.unitime.timetable.model.Class_;
@@ -174,7 +180,64 @@ public class CalendarServlet extends HttpServlet {
 		response.setContentType("text/calendar; charset=UTF-8");
 		response.setCharacterEncoding("UTF-8");
 		response.setHeader( "Content-Disposition", "attachment; filename=\"schedule.ics\"" );
-        
+		
+		if (CalendarFeedCache.isEnabled()) {
+			CalendarFeedCache cache = CalendarFeedCache.getInstance();
+			String key = sessionId + ":" + (q != null ? "q=" + q : request.getQueryString());
+			CalendarFeed feed = cache.get(key);
+			if (feed == null || !feed.isValid()) {
+				long created = System.currentTimeMillis();
+				Set<String> tags = new HashSet<String>();
+				ICalendar ical = null;
+				try {
+					ical = createCalendar(session, classIds, fts, examIds, eventIds, userId, tags);
+				} catch (Exception e) {
+		        	Debug.error(e.getMessage(), e);
+		        	response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+		        	return;
+				}
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				writeCalendar(ical, new OutputStreamWriter(bytes, "UTF-8"));
+				feed = cache.put(key, bytes.toByteArray(), tags, created, feed);
+			}
+			
+			response.setHeader("ETag", feed.getETag());
+			response.setDateHeader("Last-Modified", feed.getLastModified());
+			long ifModifiedSince = -1;
+			try {
+				ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			} catch (IllegalArgumentException e) {}
+			if (feed.isNotModified(request.getHeader("If-None-Match"), ifModifiedSince)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			
+			response.setContentLength(feed.getContent().length);
+			OutputStream out = response.getOutputStream();
+			try {
+				out.write(feed.getContent());
+				out.flush();
+			} finally {
+				out.close();
+			}
+		} else {
+			ICalendar ical = null;
+			try {
+				ical = createCalendar(session, classIds, fts, examIds, eventIds, userId, new HashSet<String>());
+			} catch (Exception e) {
+	        	Debug.error(e.getMessage(), e);
+	        	response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+	        	return;
+			}
+			writeCalendar(ical, response.getWriter());
+		}
+	}
+	
+	/**
+	 * Generate the calendar, the tags of the objects the calendar depends on are put in the given set (see {@link CalendarFeedCache})
+	 */
+	protected ICalendar createCalendar(Session session, String classIds, String fts, String examIds, String eventIds, String userId, Set<String> tags) throws IOException {
+		Long sessionId = session.getUniqueId();
 		ICalendar ical = new ICalendar();
 		ical.setVersion(ICalVersion.V2_0);
 		ical.setCalendarScale(CalendarScale.gregorian());
@@ -184,100 +247,112 @@ public class CalendarServlet extends HttpServlet {
 		ical.setProductId("-//UniTime LLC/UniTime " + Constants.getVersion() + " Schedule//EN");
 
 		org.hibernate.Session hibSession = CurriculumDAO.getInstance().getSession();
-		try {
-			EventsExportEventsToICal exporter = new EventsExportEventsToICal();
-        	if (classIds != null && !classIds.isEmpty()) {
-        		for (String classId: classIds.split(",")) {
-        			if (classId.isEmpty()) continue;
-        			String[] courseAndClassId = classId.split("-");
-        			if (courseAndClassId.length != 2) continue;
-    				CourseOffering course = CourseOfferingDAO.getInstance().get(Long.valueOf(courseAndClassId[0]), hibSession);
-    				Class_ clazz = Class_DAO.getInstance().get(Long.valueOf(courseAndClassId[1]), hibSession);
-    				if (course == null || clazz == null) continue;
-            		printClass(course, clazz, ical);
-        		}
+		EventsExportEventsToICal exporter = new EventsExportEventsToICal();
+    	if (classIds != null && !classIds.isEmpty()) {
+    		for (String classId: classIds.split(",")) {
+    			if (classId.isEmpty()) continue;
+    			String[] courseAndClassId = classId.split("-");
+    			if (courseAndClassId.length != 2) continue;
+				CourseOffering course = CourseOfferingDAO.getInstance().get(Long.valueOf(courseAndClassId[0]), hibSession);
+				Class_ clazz = Class_DAO.getInstance().get(Long.valueOf(courseAndClassId[1]), hibSession);
+				if (course == null || clazz == null) continue;
+        		printClass(course, clazz, ical, tags);
+    		}
+    	}
+    	if (fts != null && !fts.isEmpty()) {
+			Date dpFirstDate = DateUtils.getDate(1, session.getPatternStartMonth(), session.getSessionStartYear());
+			BitSet weekCode = session.getDefaultDatePattern().getPatternBitSet();
+    		for (String ft: fts.split(",")) {
+    			if (ft.isEmpty()) continue;
+    			String[] daysStartLen = ft.split("-");
+    			if (daysStartLen.length != 3) continue;
+    			printFreeTime(dpFirstDate, weekCode, daysStartLen[0], Integer.parseInt(daysStartLen[1]), Integer.parseInt(daysStartLen[2]), ical);
+    		}
+    	}
+        if (examIds != null && !examIds.isEmpty()) {
+        	for (String examId: examIds.split(",")) {
+        		if (examId.isEmpty()) continue;
+        		try {
+            		Exam exam = ExamDAO.getInstance().get(Long.valueOf(examId), hibSession);
+            		if (exam != null)
+            			printExam(exam, ical, tags);
+        		} catch (NumberFormatException e) {}
         	}
-        	if (fts != null && !fts.isEmpty()) {
-    			Date dpFirstDate = DateUtils.getDate(1, session.getPatternStartMonth(), session.getSessionStartYear());
-    			BitSet weekCode = session.getDefaultDatePattern().getPatternBitSet();
-        		for (String ft: fts.split(",")) {
-        			if (ft.isEmpty()) continue;
-        			String[] daysStartLen = ft.split("-");
-        			if (daysStartLen.length != 3) continue;
-        			printFreeTime(dpFirstDate, weekCode, daysStartLen[0], Integer.parseInt(daysStartLen[1]), Integer.parseInt(daysStartLen[2]), ical);
-        		}
+        }
+        if (eventIds != null && !eventIds.isEmpty()) {
+        	for (String eventId: eventIds.split(",")) {
+        		if (eventId.isEmpty()) continue;
+        		try {
+        			Event event = EventDAO.getInstance().get(Long.valueOf(eventId), hibSession);
+        			if (event != null) {
+        				exporter.print(ical, EventDetailBackend.getEventDetail(session, event, null));
+        				tags.add("event:" + event.getUniqueId());
+        			}
+        		} catch (NumberFormatException e) {}
         	}
-            if (examIds != null && !examIds.isEmpty()) {
-            	for (String examId: examIds.split(",")) {
-            		if (examId.isEmpty()) continue;
-            		try {
-                		Exam exam = ExamDAO.getInstance().get(Long.valueOf(examId), hibSession);
-                		if (exam != null)
-                			printExam(exam, ical);
-            		} catch (NumberFormatException e) {}
-            	}
-            }
-            if (eventIds != null && !eventIds.isEmpty()) {
-            	for (String eventId: eventIds.split(",")) {
-            		if (eventId.isEmpty()) continue;
-            		try {
-            			Event event = EventDAO.getInstance().get(Long.valueOf(eventId), hibSession);
-            			if (event != null)
-            				exporter.print(ical, EventDetailBackend.getEventDetail(session, event, null));
-            		} catch (NumberFormatException e) {}
+        }
+        if (userId != null && !userId.isEmpty()) {
+            for (DepartmentalInstructor instructor: (List<DepartmentalInstructor>)hibSession.createQuery("select i from DepartmentalInstructor i " +
+            		"where i.externalUniqueId = :externalId and i.department.session.uniqueId = :sessionId").
+            		setLong("sessionId", sessionId).setString("externalId", userId).list()) {
+            	tags.add("instructor:" + instructor.getUniqueId());
+            	if (!PersonalizedExamReportAction.canDisplay(instructor.getDepartment().getSession())) continue;
+            	for (ExamType t: ExamType.findAll(hibSession)) {
+            		ExamStatus status = ExamStatus.findStatus(hibSession, instructor.getSession().getUniqueId(), t.getUniqueId());
+            		DepartmentStatusType type = (status == null || status.getStatus() == null ? instructor.getSession().getStatusType() : status.getStatus());
+            		if (t.getType() == ExamType.sExamTypeFinal && type.canNoRoleReportExamFinal()) {
+            			for (Exam exam: instructor.getExams(t))
+            				printExam(exam, ical, tags);
+            		} else if (t.getType() == ExamType.sExamTypeMidterm && type.canNoRoleReportExamMidterm()) {
+            			for (Exam exam: instructor.getExams(t))
+            				printExam(exam, ical, tags);
+            		}
             	}
-            }
-            if (userId != null && !userId.isEmpty()) {
-                for (DepartmentalInstructor instructor: (List<DepartmentalInstructor>)hibSession.createQuery("select i from DepartmentalInstructor i " +
-                		"where i.externalUniqueId = :externalId and i.department.session.uniqueId = :sessionId").
-                		setLong("sessionId", sessionId).setString("externalId", userId).list()) {
-                	if (!PersonalizedExamReportAction.canDisplay(instructor.getDepartment().getSession())) continue;
-                	for (ExamType t: ExamType.findAll(hibSession)) {
-                		ExamStatus status = ExamStatus.findStatus(hibSession, instructor.getSession().getUniqueId(), t.getUniqueId());
-                		DepartmentStatusType type = (status == null || status.getStatus() == null ? instructor.getSession().getStatusType() : status.getStatus());
-                		if (t.getType() == ExamType.sExamTypeFinal && type.canNoRoleReportExamFinal()) {
-                			for (Exam exam: instructor.getExams(t))
-                				printExam(exam, ical);
-                		} else if (t.getType() == ExamType.sExamTypeMidterm && type.canNoRoleReportExamMidterm()) {
-                			for (Exam exam: instructor.getExams(t))
-                				printExam(exam, ical);
-                		}
-                	}
-                    if (instructor.getDepartment().getSession().getStatusType().canNoRoleReportClass()) {
-                        for (ClassInstructor ci: instructor.getClasses()) {
-                            printClass(ci.getClassInstructing().getSchedulingSubpart().getInstrOfferingConfig().getControllingCourseOffering(), ci.getClassInstructing(), ical);
-                        }
+                if (instructor.getDepartment().getSession().getStatusType().canNoRoleReportClass()) {
+                    for (ClassInstructor ci: instructor.getClasses()) {
+                        printClass(ci.getClassInstructing().getSchedulingSubpart().getInstrOfferingConfig().getControllingCourseOffering(), ci.getClassInstructing(), ical, tags);
                     }
                 }
-                for (Student student: (List<Student>)hibSession.createQuery("select s from Student s where " +
-                		"s.externalUniqueId=:externalId and s.session.uniqueId = :sessionId").
-                		setLong("sessionId", sessionId).setString("externalId", userId).list()) {
-                	if (!PersonalizedExamReportAction.canDisplay(student.getSession())) continue;
-                	for (ExamType t: ExamType.findAll(hibSession)) {
-                		ExamStatus status = ExamStatus.findStatus(hibSession, student.getSession().getUniqueId(), t.getUniqueId());
-                		DepartmentStatusType type = (status == null || status.getStatus() == null ? student.getSession().getStatusType() : status.getStatus());
-                		if (t.getType() == ExamType.sExamTypeFinal && type.canNoRoleReportExamFinal()) {
-                			for (Exam exam: student.getExams(t))
-                				printExam(exam, ical);
-                		} else if (t.getType() == ExamType.sExamTypeMidterm && type.canNoRoleReportExamMidterm()) {
-                			for (Exam exam: student.getExams(t))
-                				printExam(exam, ical);
-                		}
-                	}
-                    if (student.getSession().getStatusType().canNoRoleReportClass()) {
-                        for (Iterator i=student.getClassEnrollments().iterator();i.hasNext();) {
-                            StudentClassEnrollment sce = (StudentClassEnrollment)i.next();
-                            printClass(sce.getCourseOffering(), sce.getClazz(), ical);
-                        }
+            }
+            for (Student student: (List<Student>)hibSession.createQuery("select s from Student s where " +
+            		"s.externalUniqueId=:externalId and s.session.uniqueId = :sessionId").
+            		setLong("sessionId", sessionId).setString("externalId", userId).list()) {
+            	tags.add("student:" + student.getUniqueId());
+            	// exams of the student are found through the owners of the exams (class, configuration, course, or offering)
+            	for (Iterator i=student.getClassEnrollments().iterator();i.hasNext();) {
+            		StudentClassEnrollment sce = (StudentClassEnrollment)i.next();
+            		tags.add("class:" + sce.getClazz().getUniqueId());
+            		tags.add("config:" + sce.getClazz().getSchedulingSubpart().getInstrOfferingConfig().getUniqueId());
+            		tags.add("course:" + sce.getCourseOffering().getUniqueId());
+            		tags.add("offering:" + sce.getCourseOffering().getInstructionalOffering().getUniqueId());
+            	}
+            	if (!PersonalizedExamReportAction.canDisplay(student.getSession())) continue;
+            	for (ExamType t: ExamType.findAll(hibSession)) {
+            		ExamStatus status = ExamStatus.findStatus(hibSession, student.getSession().getUniqueId(), t.getUniqueId());
+            		DepartmentStatusType type = (status == null || status.getStatus() == null ? student.getSession().getStatusType() : status.getStatus());
+            		if (t.getType() == ExamType.sExamTypeFinal && type.canNoRoleReportExamFinal()) {
+            			for (Exam exam: student.getExams(t))
+            				printExam(exam, ical, tags);
+            		} else if (t.getType() == ExamType.sExamTypeMidterm && type.canNoRoleReportExamMidterm()) {
+            			for (Exam exam: student.getExams(t))
+            				printExam(exam, ical, tags);
+            		}
+            	}
+                if (student.getSession().getStatusType().canNoRoleReportClass()) {
+                    for (Iterator i=student.getClassEnrollments().iterator();i.hasNext();) {
+                        StudentClassEnrollment sce = (StudentClassEnrollment)i.next();
+                        printClass(sce.getCourseOffering(), sce.getClazz(), ical, tags);
                     }
                 }
             }
-        } catch (Exception e) {
-        	Debug.error(e.getMessage(), e);
-        	response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
         }
-		
-		PrintWriter out = response.getWriter();
+		return ical;
+	}
+	
+	/**
+	 * Write the calendar into the given writer (the writer is closed afterwards)
+	 */
+	protected void writeCalendar(ICalendar ical, Writer out) throws IOException {
         ICalWriter writer = new ICalWriter(out, ICalVersion.V2_0);
 		try {
 			try {
@@ -295,7 +370,8 @@ public class CalendarServlet extends HttpServlet {
 		}
 	}
 
-	private void printExam(Exam exam, ICalendar ical) throws IOException {
+	private void printExam(Exam exam, ICalendar ical, Set<String> tags) throws IOException {
+		tags.add("exam:" + exam.getUniqueId());
 		if (exam.getAssignedPeriod() == null) return;
 
         VEvent vevent = new VEvent();
@@ -321,7 +397,8 @@ public class CalendarServlet extends HttpServlet {
         ical.addEvent(vevent);
 	}
 
-	private void printClass(CourseOffering course, Class_ clazz, ICalendar ical) throws IOException {
+	private void printClass(CourseOffering course, Class_ clazz, ICalendar ical, Set<String> tags) throws IOException {
+		tags.add("class:" + clazz.getUniqueId());
 		Assignment assignment = clazz.getCommittedAssignment();
 		if (assignment == null) return;
 		TimeLocation time = assignment.getTimeLocation();
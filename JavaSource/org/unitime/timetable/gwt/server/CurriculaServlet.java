@@ -3496,6 +3496,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Integer> loadClasf2enrl(org.hibernate.Session hibSession, Curriculum c) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasf2enrl(hibSession, c);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, sum(a.weight)";
 		String from = "Student s inner join s.areaClasfMajors a";
@@ -3548,6 +3550,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Map<Long, Double>> loadClasf2enrl(org.hibernate.Session hibSession, Long acadAreaId, Collection<Long> majors, boolean multipleMajors) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasf2enrl(hibSession, getAcademicSessionId(), acadAreaId, majors, multipleMajors);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, s.uniqueId, a.weight";
 		String from = "Student s inner join s.areaClasfMajors a";
@@ -3601,6 +3605,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<String, Hashtable<String, Integer>> loadClasfMajor2ll(org.hibernate.Session hibSession, Curriculum c) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasfMajor2ll(hibSession, c);
 		List<Object[]> lines = null;
 		String select = "f.code, m.code, sum(a.weight)";
 		String from = "Student s inner join s.areaClasfMajors a inner join a.academicClassification f inner join a.major m";
@@ -3784,6 +3790,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Hashtable<Long, Integer>> loadClasfCourse2enrl(org.hibernate.Session hibSession, Curriculum c) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasfCourse2enrl(hibSession, c);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, c.uniqueId, sum(a.weight)";
 		String from = "CourseOffering c, Student s inner join s.areaClasfMajors a inner join a.major m";
@@ -4233,6 +4241,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Integer> loadClasf2req(org.hibernate.Session hibSession, Curriculum c) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasf2req(hibSession, c);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, sum(a.weight)";
 		String from = "Student s inner join s.areaClasfMajors a inner join a.major m";
@@ -4285,6 +4295,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Map<Long, Double>> loadClasf2req(org.hibernate.Session hibSession, Long acadAreaId, Collection<Long> majors, boolean multipleMajors) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasf2req(hibSession, getAcademicSessionId(), acadAreaId, majors, multipleMajors);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, s.uniqueId, a.weight";
 		String from = "Student s inner join s.areaClasfMajors a inner join a.major m";
@@ -4338,6 +4350,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<Long, Hashtable<Long, Integer>> loadClasfCourse2req(org.hibernate.Session hibSession, Curriculum c) {
+		if (CurriculumProjectionStore.isEnabled())
+			return CurriculumProjectionStore.getInstance().getClasfCourse2req(hibSession, c);
 		List<Object[]> lines = null;
 		String select = "a.academicClassification.uniqueId, r.courseOffering.uniqueId, sum(a.weight)";
 		String from = "CourseRequest r inner join r.courseDemand.student s inner join s.areaClasfMajors a inner join a.major m";
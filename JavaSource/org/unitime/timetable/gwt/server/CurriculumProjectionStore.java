@@ -0,0 +1,511 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.gwt.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.Curriculum;
+import org.unitime.timetable.model.PosMajor;
+import org.unitime.timetable.util.ChangeHistory;
+
+/**
+ * Materialized projection of the student data the curricula pages aggregate over. For each academic area it keeps the students
+ * with their area, classification, and major combinations (and weights), whether they are enrolled or have course requests,
+ * and their enrolled and requested courses; for each academic area abbreviation it keeps the students with last-like course demands.
+ * Counts of enrollments, requests, and last-like demands of a curriculum (per classification, major, and course) are then computed
+ * in memory instead of running HQL aggregations for each curriculum.<br>
+ * A projection is loaded on the first use and refreshed incrementally: students with committed changes (see
+ * {@link org.unitime.timetable.util.CurriculumProjectionChangeListener}) are reloaded on the next use, and the projection is reloaded
+ * completely when it reaches its maximal age (unitime.curricula.projections.maxAge). At most unitime.curricula.projections.size
+ * projections are kept, the least recently used ones are dropped first.
+ *
+ * @author Tomas Muller
+ */
+public class CurriculumProjectionStore {
+	private static CurriculumProjectionStore sInstance = null;
+	
+	private Map<String, Projection> iProjections = new LinkedHashMap<String, Projection>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Projection> eldest) {
+			Integer size = ApplicationProperty.CurriculaProjectionStoreSize.intValue();
+			return size != null && size > 0 && size() > size;
+		}
+	};
+	private ChangeHistory<Long> iChanges = new ChangeHistory<Long>(0l) {
+		@Override
+		protected long getHistory() { return getMaxAge(); }
+	};
+	
+	public static synchronized CurriculumProjectionStore getInstance() {
+		if (sInstance == null)
+			sInstance = new CurriculumProjectionStore();
+		return sInstance;
+	}
+	
+	public static boolean isEnabled() {
+		Integer maxAge = ApplicationProperty.CurriculaProjectionStoreMaxAge.intValue();
+		return maxAge != null && maxAge > 0;
+	}
+	
+	protected static long getMaxAge() {
+		Integer maxAge = ApplicationProperty.CurriculaProjectionStoreMaxAge.intValue();
+		return 1000l * (maxAge == null ? 0 : maxAge);
+	}
+	
+	/**
+	 * Data of the given student have changed (called after the change is committed)
+	 */
+	public void studentChanged(Long studentId) {
+		iChanges.changed(studentId);
+	}
+	
+	public synchronized void clear() {
+		iProjections.clear();
+		iChanges.clear();
+	}
+	
+	protected EnrollmentProjection getEnrollmentProjection(org.hibernate.Session hibSession, Long sessionId, Long areaId) {
+		String key = "E:" + sessionId + ":" + areaId;
+		Projection projection = null;
+		synchronized (this) {
+			projection = iProjections.get(key);
+			if (projection == null) {
+				projection = new EnrollmentProjection(sessionId, areaId);
+				iProjections.put(key, projection);
+			}
+		}
+		projection.update(hibSession);
+		return (EnrollmentProjection)projection;
+	}
+	
+	protected LastLikeProjection getLastLikeProjection(org.hibernate.Session hibSession, Long sessionId, String areaAbbv) {
+		String key = "L:" + sessionId + ":" + areaAbbv;
+		Projection projection = null;
+		synchronized (this) {
+			projection = iProjections.get(key);
+			if (projection == null) {
+				projection = new LastLikeProjection(sessionId, areaAbbv);
+				iProjections.put(key, projection);
+			}
+		}
+		projection.update(hibSession);
+		return (LastLikeProjection)projection;
+	}
+	
+	/**
+	 * Enrolled students of a curriculum: classification id -&gt; sum of weights
+	 */
+	public Hashtable<Long, Integer> getClasf2enrl(org.hibernate.Session hibSession, Curriculum c) {
+		final Map<Long, Double> clasf2enrl = new HashMap<Long, Double>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, c.getAcademicArea().getSessionId(), c.getAcademicArea().getUniqueId());
+		projection.visit(getMajorIds(c), c.isMultipleMajors(), false, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				if (student.isEnrolled()) inc(clasf2enrl, acm.getClassificationId(), acm.getWeight(multiplicity));
+			}
+		});
+		return round(clasf2enrl);
+	}
+	
+	/**
+	 * Students of a curriculum with course requests: classification id -&gt; sum of weights
+	 */
+	public Hashtable<Long, Integer> getClasf2req(org.hibernate.Session hibSession, Curriculum c) {
+		final Map<Long, Double> clasf2req = new HashMap<Long, Double>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, c.getAcademicArea().getSessionId(), c.getAcademicArea().getUniqueId());
+		projection.visit(getMajorIds(c), c.isMultipleMajors(), true, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				if (student.isRequested()) inc(clasf2req, acm.getClassificationId(), acm.getWeight(multiplicity));
+			}
+		});
+		return round(clasf2req);
+	}
+	
+	/**
+	 * Enrolled students of an academic area and majors: classification id -&gt; student id -&gt; weight
+	 */
+	public Hashtable<Long, Map<Long, Double>> getClasf2enrl(org.hibernate.Session hibSession, Long sessionId, Long acadAreaId, Collection<Long> majors, boolean multipleMajors) {
+		final Hashtable<Long, Map<Long, Double>> clasf2enrl = new Hashtable<Long, Map<Long, Double>>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, sessionId, acadAreaId);
+		projection.visit(new ArrayList<Object>(majors), multipleMajors, false, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				if (student.isEnrolled()) put(clasf2enrl, acm.getClassificationId(), student.getStudentId(), acm.getWeight());
+			}
+		});
+		return clasf2enrl;
+	}
+	
+	/**
+	 * Students of an academic area and majors with course requests: classification id -&gt; student id -&gt; weight
+	 */
+	public Hashtable<Long, Map<Long, Double>> getClasf2req(org.hibernate.Session hibSession, Long sessionId, Long acadAreaId, Collection<Long> majors, boolean multipleMajors) {
+		final Hashtable<Long, Map<Long, Double>> clasf2req = new Hashtable<Long, Map<Long, Double>>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, sessionId, acadAreaId);
+		projection.visit(new ArrayList<Object>(majors), multipleMajors, true, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				if (student.isRequested()) put(clasf2req, acm.getClassificationId(), student.getStudentId(), acm.getWeight());
+			}
+		});
+		return clasf2req;
+	}
+	
+	/**
+	 * Enrollments of the students of a curriculum: classification id -&gt; course offering id -&gt; sum of weights
+	 */
+	public Hashtable<Long, Hashtable<Long, Integer>> getClasfCourse2enrl(org.hibernate.Session hibSession, Curriculum c) {
+		final Map<Long, Map<Long, Double>> clasf2course2enrl = new HashMap<Long, Map<Long, Double>>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, c.getAcademicArea().getSessionId(), c.getAcademicArea().getUniqueId());
+		projection.visit(getMajorIds(c), c.isMultipleMajors(), true, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				for (Long courseId: student.getEnrolledCourses())
+					inc(clasf2course2enrl, acm.getClassificationId(), courseId, acm.getWeight(multiplicity));
+			}
+		});
+		return round2(clasf2course2enrl);
+	}
+	
+	/**
+	 * Course requests of the students of a curriculum: classification id -&gt; course offering id -&gt; sum of weights
+	 */
+	public Hashtable<Long, Hashtable<Long, Integer>> getClasfCourse2req(org.hibernate.Session hibSession, Curriculum c) {
+		final Map<Long, Map<Long, Double>> clasf2course2req = new HashMap<Long, Map<Long, Double>>();
+		EnrollmentProjection projection = getEnrollmentProjection(hibSession, c.getAcademicArea().getSessionId(), c.getAcademicArea().getUniqueId());
+		projection.visit(getMajorIds(c), c.isMultipleMajors(), true, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				for (Long courseId: student.getRequestedCourses())
+					inc(clasf2course2req, acm.getClassificationId(), courseId, acm.getWeight(multiplicity));
+			}
+		});
+		return round2(clasf2course2req);
+	}
+	
+	/**
+	 * Last-like students of a curriculum: classification code -&gt; major code (empty for all majors or multiple majors) -&gt; sum of weights
+	 */
+	public Hashtable<String, Hashtable<String, Integer>> getClasfMajor2ll(org.hibernate.Session hibSession, Curriculum c) {
+		final boolean groupByMajor = !c.getMajors().isEmpty() && (!c.isMultipleMajors() || c.getMajors().size() == 1);
+		final Map<String, Map<String, Double>> clasfMajor2ll = new HashMap<String, Map<String, Double>>();
+		List<Object> majorCodes = new ArrayList<Object>();
+		for (PosMajor major: c.getMajors())
+			majorCodes.add(major.getCode());
+		LastLikeProjection projection = getLastLikeProjection(hibSession, c.getAcademicArea().getSessionId(), c.getAcademicArea().getAcademicAreaAbbreviation());
+		projection.visit(majorCodes, c.isMultipleMajors(), true, new Visitor() {
+			@Override
+			public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity) {
+				inc(clasfMajor2ll, acm.getClassificationCode(), groupByMajor ? acm.getMajorCode() : "", acm.getWeight(multiplicity));
+			}
+		});
+		return round2(clasfMajor2ll);
+	}
+	
+	private static List<Object> getMajorIds(Curriculum c) {
+		List<Object> majorIds = new ArrayList<Object>();
+		for (PosMajor major: c.getMajors())
+			majorIds.add(major.getUniqueId());
+		return majorIds;
+	}
+	
+	private static <K> void inc(Map<K, Double> table, K key, double weight) {
+		Double value = table.get(key);
+		table.put(key, value == null ? weight : value + weight);
+	}
+	
+	private static <K, L> void inc(Map<K, Map<L, Double>> table, K key1, L key2, double weight) {
+		Map<L, Double> values = table.get(key1);
+		if (values == null) {
+			values = new HashMap<L, Double>();
+			table.put(key1, values);
+		}
+		inc(values, key2, weight);
+	}
+	
+	private static void put(Map<Long, Map<Long, Double>> table, Long clasfId, Long studentId, Double weight) {
+		Map<Long, Double> students = table.get(clasfId);
+		if (students == null) {
+			students = new HashMap<Long, Double>();
+			table.put(clasfId, students);
+		}
+		students.put(studentId, weight);
+	}
+	
+	private static <K> Hashtable<K, Integer> round(Map<K, Double> table) {
+		Hashtable<K, Integer> ret = new Hashtable<K, Integer>();
+		for (Map.Entry<K, Double> e: table.entrySet())
+			ret.put(e.getKey(), Math.round(e.getValue().floatValue()));
+		return ret;
+	}
+	
+	private static <K, L> Hashtable<K, Hashtable<L, Integer>> round2(Map<K, Map<L, Double>> table) {
+		Hashtable<K, Hashtable<L, Integer>> ret = new Hashtable<K, Hashtable<L, Integer>>();
+		for (Map.Entry<K, Map<L, Double>> e: table.entrySet())
+			ret.put(e.getKey(), round(e.getValue()));
+		return ret;
+	}
+	
+	protected static interface Visitor {
+		/**
+		 * Called for each matching area, classification, major combination of a student
+		 * @param multiplicity number of times the combination would be returned by the equivalent HQL join (students with multiple majors)
+		 */
+		public void visit(StudentProjection student, AreaClasfMajor acm, int multiplicity);
+	}
+	
+	/**
+	 * Students of an academic area (or an academic area abbreviation) with their area, classification, major combinations
+	 */
+	protected abstract class Projection {
+		protected Long iSessionId;
+		protected Map<Long, StudentProjection> iStudents = new HashMap<Long, StudentProjection>();
+		private long iCreated = -1, iRefreshed = -1;
+		
+		Projection(Long sessionId) {
+			iSessionId = sessionId;
+		}
+		
+		/**
+		 * Load students of the projection
+		 * @param studentIds students to load, all students when null
+		 */
+		protected abstract void load(org.hibernate.Session hibSession, Collection<Long> studentIds);
+		
+		/** Major of an area, classification, major combination that is used to match curriculum majors (id or code) */
+		protected abstract Object getMajor(AreaClasfMajor acm);
+		
+		/**
+		 * Load the projection when it is used for the first time or it is too old, reload the students that have changed otherwise
+		 */
+		public synchronized void update(org.hibernate.Session hibSession) {
+			long now = System.currentTimeMillis();
+			if (iCreated < 0 || iCreated + getMaxAge() < now) {
+				iStudents.clear();
+				load(hibSession, null);
+				iCreated = now;
+			} else {
+				Set<Long> studentIds = iChanges.getChanged(iRefreshed);
+				if (!studentIds.isEmpty()) {
+					for (Long studentId: studentIds)
+						iStudents.remove(studentId);
+					List<Long> ids = new ArrayList<Long>(studentIds);
+					for (int i = 0; i < ids.size(); i += 1000)
+						load(hibSession, ids.subList(i, Math.min(i + 1000, ids.size())));
+				}
+			}
+			iRefreshed = now;
+		}
+		
+		protected StudentProjection getStudent(Long studentId, boolean create) {
+			StudentProjection student = iStudents.get(studentId);
+			if (student == null && create) {
+				student = new StudentProjection(studentId);
+				iStudents.put(studentId, student);
+			}
+			return student;
+		}
+		
+		/**
+		 * Visit area, classification, major combinations of the students matching the given majors (same rules as the curricula HQL queries use)
+		 * @param majors curriculum majors (ids or codes, see {@link Projection#getMajor(AreaClasfMajor)})
+		 * @param multipleMajors students must have all the majors
+		 * @param requireMajor when there are no majors, skip combinations without a major
+		 */
+		public synchronized void visit(List<Object> majors, boolean multipleMajors, boolean requireMajor, Visitor visitor) {
+			if (majors.isEmpty()) {
+				// students with all majors
+				if (multipleMajors) return;
+				for (StudentProjection student: iStudents.values())
+					for (AreaClasfMajor acm: student.getAreaClasfMajors())
+						if (!requireMajor || getMajor(acm) != null)
+							visitor.visit(student, acm, 1);
+			} else if (!multipleMajors || majors.size() == 1) {
+				// students with one major
+				for (StudentProjection student: iStudents.values())
+					for (AreaClasfMajor acm: student.getAreaClasfMajors())
+						if (majors.contains(getMajor(acm)))
+							visitor.visit(student, acm, 1);
+			} else {
+				// students with multiple majors
+				students: for (StudentProjection student: iStudents.values()) {
+					int multiplicity = 1;
+					for (int i = 1; i < majors.size(); i++) {
+						int count = 0;
+						for (AreaClasfMajor acm: student.getAreaClasfMajors())
+							if (majors.get(i).equals(getMajor(acm))) count ++;
+						if (count == 0) continue students;
+						multiplicity *= count;
+					}
+					for (AreaClasfMajor acm: student.getAreaClasfMajors())
+						if (majors.get(0).equals(getMajor(acm)))
+							visitor.visit(student, acm, multiplicity);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Students of an academic area of the given academic session, with their enrollments and course requests
+	 */
+	protected class EnrollmentProjection extends Projection {
+		private Long iAreaId;
+		
+		EnrollmentProjection(Long sessionId, Long areaId) {
+			super(sessionId);
+			iAreaId = areaId;
+		}
+		
+		@Override
+		protected Object getMajor(AreaClasfMajor acm) {
+			return acm.getMajorId();
+		}
+		
+		@Override
+		protected void load(org.hibernate.Session hibSession, Collection<Long> studentIds) {
+			String students = (studentIds == null ? "" : " and s.uniqueId in :studentIds");
+			org.hibernate.Query q = hibSession.createQuery(
+					"select s.uniqueId, f.uniqueId, f.code, m.uniqueId, m.code, a.weight from StudentAreaClassificationMajor a " +
+					"inner join a.student s inner join a.academicClassification f left outer join a.major m " +
+					"where s.session.uniqueId = :sessionId and a.academicArea.uniqueId = :areaId" + students)
+					.setLong("sessionId", iSessionId).setLong("areaId", iAreaId);
+			if (studentIds != null) q.setParameterList("studentIds", studentIds);
+			for (Object[] o: (List<Object[]>)q.list())
+				getStudent((Long)o[0], true).addAreaClasfMajor(new AreaClasfMajor((Long)o[1], (String)o[2], (Long)o[3], (String)o[4], (Double)o[5]));
+			
+			q = hibSession.createQuery(
+					"select distinct s.uniqueId, e.courseOffering.uniqueId from StudentClassEnrollment e inner join e.student s " +
+					"where s.session.uniqueId = :sessionId and s.uniqueId in (select a.student.uniqueId from StudentAreaClassificationMajor a where a.academicArea.uniqueId = :areaId)" + students)
+					.setLong("sessionId", iSessionId).setLong("areaId", iAreaId);
+			if (studentIds != null) q.setParameterList("studentIds", studentIds);
+			for (Object[] o: (List<Object[]>)q.list()) {
+				StudentProjection student = getStudent((Long)o[0], false);
+				if (student != null) student.addEnrollment((Long)o[1]);
+			}
+			
+			q = hibSession.createQuery(
+					"select s.uniqueId, r.courseOffering.uniqueId from CourseDemand d inner join d.student s left outer join d.courseRequests r " +
+					"where s.session.uniqueId = :sessionId and s.uniqueId in (select a.student.uniqueId from StudentAreaClassificationMajor a where a.academicArea.uniqueId = :areaId)" + students)
+					.setLong("sessionId", iSessionId).setLong("areaId", iAreaId);
+			if (studentIds != null) q.setParameterList("studentIds", studentIds);
+			for (Object[] o: (List<Object[]>)q.list()) {
+				StudentProjection student = getStudent((Long)o[0], false);
+				if (student != null) student.addRequest((Long)o[1]);
+			}
+		}
+	}
+	
+	/**
+	 * Students with last-like course demands of the given academic session, having an academic area of the given abbreviation
+	 */
+	protected class LastLikeProjection extends Projection {
+		private String iAreaAbbv;
+		
+		LastLikeProjection(Long sessionId, String areaAbbv) {
+			super(sessionId);
+			iAreaAbbv = areaAbbv;
+		}
+		
+		@Override
+		protected Object getMajor(AreaClasfMajor acm) {
+			return acm.getMajorCode();
+		}
+		
+		@Override
+		protected void load(org.hibernate.Session hibSession, Collection<Long> studentIds) {
+			org.hibernate.Query q = hibSession.createQuery(
+					"select s.uniqueId, f.uniqueId, f.code, m.uniqueId, m.code, a.weight from StudentAreaClassificationMajor a " +
+					"inner join a.student s inner join a.academicClassification f inner join a.major m " +
+					"where s.uniqueId in (select x.student.uniqueId from LastLikeCourseDemand x where x.subjectArea.session.uniqueId = :sessionId) and " +
+					"a.academicArea.academicAreaAbbreviation = :acadAbbv" + (studentIds == null ? "" : " and s.uniqueId in :studentIds"))
+					.setLong("sessionId", iSessionId).setString("acadAbbv", iAreaAbbv);
+			if (studentIds != null) q.setParameterList("studentIds", studentIds);
+			for (Object[] o: (List<Object[]>)q.list())
+				getStudent((Long)o[0], true).addAreaClasfMajor(new AreaClasfMajor((Long)o[1], (String)o[2], (Long)o[3], (String)o[4], (Double)o[5]));
+		}
+	}
+	
+	protected static class StudentProjection {
+		private Long iStudentId;
+		private List<AreaClasfMajor> iAreaClasfMajors = new ArrayList<AreaClasfMajor>();
+		private boolean iEnrolled = false, iRequested = false;
+		private Set<Long> iEnrolledCourses = null;
+		private List<Long> iRequestedCourses = null;
+		
+		StudentProjection(Long studentId) {
+			iStudentId = studentId;
+		}
+		
+		public Long getStudentId() { return iStudentId; }
+		public List<AreaClasfMajor> getAreaClasfMajors() { return iAreaClasfMajors; }
+		public boolean isEnrolled() { return iEnrolled; }
+		public boolean isRequested() { return iRequested; }
+		public Collection<Long> getEnrolledCourses() { return iEnrolledCourses == null ? new HashSet<Long>() : iEnrolledCourses; }
+		public Collection<Long> getRequestedCourses() { return iRequestedCourses == null ? new ArrayList<Long>() : iRequestedCourses; }
+		
+		void addAreaClasfMajor(AreaClasfMajor acm) { iAreaClasfMajors.add(acm); }
+		
+		void addEnrollment(Long courseId) {
+			iEnrolled = true;
+			if (courseId != null) {
+				if (iEnrolledCourses == null) iEnrolledCourses = new HashSet<Long>();
+				iEnrolledCourses.add(courseId);
+			}
+		}
+		
+		void addRequest(Long courseId) {
+			iRequested = true;
+			if (courseId != null) {
+				if (iRequestedCourses == null) iRequestedCourses = new ArrayList<Long>();
+				iRequestedCourses.add(courseId);
+			}
+		}
+	}
+	
+	protected static class AreaClasfMajor {
+		private Long iClassificationId, iMajorId;
+		private String iClassificationCode, iMajorCode;
+		private Double iWeight;
+		
+		AreaClasfMajor(Long classificationId, String classificationCode, Long majorId, String majorCode, Double weight) {
+			iClassificationId = classificationId; iClassificationCode = classificationCode;
+			iMajorId = majorId; iMajorCode = majorCode; iWeight = weight;
+		}
+		
+		public Long getClassificationId() { return iClassificationId; }
+		public String getClassificationCode() { return iClassificationCode; }
+		public Long getMajorId() { return iMajorId; }
+		public String getMajorCode() { return iMajorCode; }
+		public Double getWeight() { return iWeight; }
+		/** Weight counted the given number of times, weights that are not set do not count (as in the SQL sum) */
+		public double getWeight(int multiplicity) { return iWeight == null ? 0.0 : multiplicity * iWeight; }
+	}
+}
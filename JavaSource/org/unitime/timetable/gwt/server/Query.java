@@ -198,6 +198,8 @@ public class Query implements Serializable {
 		
 		protected List<Term> terms() { return iTerms; }
 		
+		public List<Term> getTerms() { return iTerms; }
+		
 		public abstract String getOp();
 		
 		public boolean hasAttribute(String attribute) {
@@ -283,6 +285,8 @@ public class Query implements Serializable {
 			iTerm = t;
 		}
 		
+		public Term getTerm() { return iTerm; }
+		
 		public boolean match(TermMatcher m) {
 			return !iTerm.match(m);
 		}
@@ -320,6 +324,10 @@ public class Query implements Serializable {
 			return attribute != null && attribute.equals(iAttr);
 		}
 		
+		public String getAttribute() { return iAttr; }
+		
+		public String getBody() { return iBody; }
+		
 		public boolean sameAttribute(AtomTerm t) {
 			return t != null && hasAttribute(t.iAttr);
 		}
@@ -0,0 +1,405 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.gwt.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unitime.timetable.gwt.server.Query.AmbigousTermMatcher;
+import org.unitime.timetable.gwt.server.Query.AndTerm;
+import org.unitime.timetable.gwt.server.Query.AtomTerm;
+import org.unitime.timetable.gwt.server.Query.NotTerm;
+import org.unitime.timetable.gwt.server.Query.OrTerm;
+import org.unitime.timetable.gwt.server.Query.QueryFormatter;
+import org.unitime.timetable.gwt.server.Query.Term;
+import org.unitime.timetable.gwt.server.Query.TermMatcher;
+
+/**
+ * Compiles a parsed {@link Query} into a tree of predicates that is cheaper to evaluate: nested AND / OR terms are flattened,
+ * duplicate terms are removed, terms with a constant outcome are folded, and cheaper terms are evaluated first.
+ * Compiled queries are immutable and can be shared between threads; {@link #getQuery(String)} keeps
+ * the most recently used compiled queries in a cache keyed by the query text (their source terms are frozen,
+ * an attempt to change them fails with an {@link UnsupportedOperationException}).
+ * 
+ * @author Tomas Muller
+ */
+public class QueryCompiler {
+	private static final int sCacheSize = 500;
+	private static final TermProperties sDefaultProperties = new TermProperties() {
+		@Override
+		public Boolean constant(String attr, String body) { return null; }
+		@Override
+		public int cost(String attr, String body) { return 1; }
+	};
+	private static final Map<String, Query> sCache = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+			return size() > sCacheSize;
+		}
+	};
+	
+	/**
+	 * Compiled query of the given text (using the default term properties), taken from the cache when possible
+	 */
+	public static Query getQuery(String text) {
+		return getQuery(text, null);
+	}
+	
+	/**
+	 * Compiled query of the given text and term properties, taken from the cache when possible.
+	 * The term properties must not depend on the matched objects (they are shared by all the matches of the compiled query).
+	 */
+	public static Query getQuery(String text, TermProperties properties) {
+		String key = (properties == null ? "" : properties.getClass().getName()) + "|" + (text == null ? "" : text.trim());
+		synchronized (sCache) {
+			Query query = sCache.get(key);
+			if (query != null) return query;
+		}
+		Query query = compile(new Query(freeze(new Query(text).getQuery())), properties);
+		synchronized (sCache) {
+			sCache.put(key, query);
+		}
+		return query;
+	}
+	
+	public static Query compile(Query query) {
+		return compile(query, null);
+	}
+	
+	public static Query compile(Query query, TermProperties properties) {
+		return new Query(compile(query.getQuery(), properties == null ? sDefaultProperties : properties));
+	}
+	
+	/**
+	 * Typed predicate of a compiled query, the matcher provider creates a term matcher for the given object
+	 */
+	public static <T> Predicate<T> predicate(Query query, final MatcherProvider<T> provider) {
+		final Query compiled = (query.getQuery() instanceof CompiledTerm ? query : compile(query, provider.getTermProperties()));
+		return new Predicate<T>() {
+			@Override
+			public boolean match(T object) {
+				return compiled.match(provider.getMatcher(object));
+			}
+		};
+	}
+	
+	/**
+	 * Source (not compiled) term of the given term, for code that walks the query tree by the term types of {@link Query}
+	 */
+	public static Term getSource(Term term) {
+		while (term instanceof CompiledTerm)
+			term = ((CompiledTerm)term).getSource();
+		return term;
+	}
+	
+	/**
+	 * Copy of the given term that cannot be changed (composite terms are replaced by their frozen counterparts)
+	 */
+	protected static Term freeze(Term term) {
+		if (term instanceof AndTerm || term instanceof OrTerm) {
+			List<Term> terms = new ArrayList<Term>();
+			for (Term t: ((Query.CompositeTerm)term).getTerms())
+				terms.add(freeze(t));
+			return (term instanceof AndTerm ? new FrozenAndTerm(terms) : new FrozenOrTerm(terms));
+		} else if (term instanceof NotTerm) {
+			return new NotTerm(freeze(((NotTerm)term).getTerm()));
+		} else {
+			return term;
+		}
+	}
+	
+	protected static CompiledTerm compile(Term term, TermProperties properties) {
+		if (term instanceof CompiledTerm) {
+			return (CompiledTerm)term;
+		} else if (term instanceof AtomTerm) {
+			AtomTerm atom = (AtomTerm)term;
+			Boolean constant = properties.constant(atom.getAttribute(), atom.getBody());
+			if (constant != null) return new ConstantTerm(term, constant);
+			return new CompiledAtomTerm(atom, properties.cost(atom.getAttribute(), atom.getBody()));
+		} else if (term instanceof NotTerm) {
+			CompiledTerm inner = compile(((NotTerm)term).getTerm(), properties);
+			if (inner instanceof ConstantTerm) return new ConstantTerm(term, !((ConstantTerm)inner).getValue());
+			if (inner instanceof CompiledNotTerm) return new CompiledWrapper(term, ((CompiledNotTerm)inner).getTerm());
+			return new CompiledNotTerm(term, inner);
+		} else if (term instanceof AndTerm || term instanceof OrTerm) {
+			boolean and = (term instanceof AndTerm);
+			List<Term> terms = ((Query.CompositeTerm)term).getTerms();
+			// an empty composite term always matches
+			if (terms.isEmpty()) return new ConstantTerm(term, true);
+			List<CompiledTerm> children = new ArrayList<CompiledTerm>(terms.size());
+			for (Term t: terms)
+				add(children, compile(t, properties), and);
+			for (CompiledTerm child: children)
+				if (child instanceof ConstantTerm && ((ConstantTerm)child).getValue() != and) return new ConstantTerm(term, !and);
+			for (int i = children.size() - 1; i >= 0; i--)
+				if (children.get(i) instanceof ConstantTerm) children.remove(i);
+			if (children.isEmpty()) return new ConstantTerm(term, and);
+			if (children.size() == 1) return new CompiledWrapper(term, children.get(0));
+			Collections.sort(children, new Comparator<CompiledTerm>() {
+				@Override
+				public int compare(CompiledTerm t1, CompiledTerm t2) {
+					return Integer.compare(t1.getCost(), t2.getCost());
+				}
+			});
+			return (and ? new CompiledAndTerm(term, children) : new CompiledOrTerm(term, children));
+		} else {
+			return new CompiledWrapper(term, null);
+		}
+	}
+	
+	private static void add(List<CompiledTerm> children, CompiledTerm child, boolean and) {
+		if (child instanceof CompiledWrapper && ((CompiledWrapper)child).getTerm() != null)
+			child = ((CompiledWrapper)child).getTerm();
+		if (and && child instanceof CompiledAndTerm) {
+			for (CompiledTerm t: ((CompiledAndTerm)child).getTerms()) add(children, t, and);
+		} else if (!and && child instanceof CompiledOrTerm) {
+			for (CompiledTerm t: ((CompiledOrTerm)child).getTerms()) add(children, t, and);
+		} else {
+			if (child instanceof CompiledAtomTerm)
+				for (CompiledTerm other: children)
+					if (other instanceof CompiledAtomTerm && ((CompiledAtomTerm)other).isSame((CompiledAtomTerm)child)) return;
+			children.add(child);
+		}
+	}
+	
+	/**
+	 * Properties of the atomic terms of a query, as known by the matcher that is going to be used
+	 */
+	public static interface TermProperties {
+		/** Constant outcome of the term (regardless of the matched object), null if the term is not constant */
+		public Boolean constant(String attr, String body);
+		/** Relative cost of the evaluation of the term, cheaper terms are evaluated first */
+		public int cost(String attr, String body);
+	}
+	
+	public static interface MatcherProvider<T> {
+		public TermMatcher getMatcher(T object);
+		public TermProperties getTermProperties();
+	}
+	
+	public static interface Predicate<T> {
+		public boolean match(T object);
+	}
+	
+	/**
+	 * Compiled term, keeps the source term for formatting and attribute checks.
+	 * Compiled terms do not change the outcome of {@link TermMatcher}, an {@link AmbigousTermMatcher} is evaluated on the source term.
+	 */
+	protected static abstract class CompiledTerm implements Term {
+		private static final long serialVersionUID = 1L;
+		private Term iSource;
+		
+		protected CompiledTerm(Term source) { iSource = source; }
+		
+		public Term getSource() { return iSource; }
+		
+		public abstract int getCost();
+		
+		@Override
+		public String toString(QueryFormatter f) { return iSource.toString(f); }
+		
+		@Override
+		public boolean hasAttribute(String attribute) { return iSource.hasAttribute(attribute); }
+		
+		@Override
+		public Boolean match(AmbigousTermMatcher m) { return iSource.match(m); }
+		
+		@Override
+		public String toString() { return iSource.toString(); }
+	}
+	
+	protected static class ConstantTerm extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private boolean iValue;
+		
+		protected ConstantTerm(Term source, boolean value) {
+			super(source);
+			iValue = value;
+		}
+		
+		public boolean getValue() { return iValue; }
+		
+		@Override
+		public int getCost() { return 0; }
+		
+		@Override
+		public boolean match(TermMatcher m) { return iValue; }
+	}
+	
+	protected static class CompiledWrapper extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private CompiledTerm iTerm;
+		
+		protected CompiledWrapper(Term source, CompiledTerm term) {
+			super(source);
+			iTerm = term;
+		}
+		
+		public CompiledTerm getTerm() { return iTerm; }
+		
+		@Override
+		public int getCost() { return iTerm == null ? 1 : iTerm.getCost(); }
+		
+		@Override
+		public boolean match(TermMatcher m) { return iTerm == null ? getSource().match(m) : iTerm.match(m); }
+	}
+	
+	protected static class CompiledAtomTerm extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private String iAttr, iBody;
+		private int iCost;
+		
+		protected CompiledAtomTerm(AtomTerm atom, int cost) {
+			super(atom);
+			iAttr = atom.getAttribute(); iBody = atom.getBody();
+			iCost = cost;
+		}
+		
+		public boolean isSame(CompiledAtomTerm t) {
+			return (iAttr == null ? t.iAttr == null : iAttr.equals(t.iAttr)) && iBody.equals(t.iBody);
+		}
+		
+		@Override
+		public int getCost() { return iCost; }
+		
+		@Override
+		public boolean match(TermMatcher m) { return m.match(iAttr, iBody); }
+	}
+	
+	protected static class CompiledNotTerm extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private CompiledTerm iTerm;
+		
+		protected CompiledNotTerm(Term source, CompiledTerm term) {
+			super(source);
+			iTerm = term;
+		}
+		
+		public CompiledTerm getTerm() { return iTerm; }
+		
+		@Override
+		public int getCost() { return iTerm.getCost(); }
+		
+		@Override
+		public boolean match(TermMatcher m) { return !iTerm.match(m); }
+	}
+	
+	protected static class CompiledAndTerm extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private CompiledTerm[] iTerms;
+		private int iCost = 0;
+		
+		protected CompiledAndTerm(Term source, List<CompiledTerm> terms) {
+			super(source);
+			iTerms = terms.toArray(new CompiledTerm[terms.size()]);
+			for (CompiledTerm t: iTerms) iCost += t.getCost();
+		}
+		
+		public CompiledTerm[] getTerms() { return iTerms.clone(); }
+		
+		@Override
+		public int getCost() { return iCost; }
+		
+		@Override
+		public boolean match(TermMatcher m) {
+			for (CompiledTerm t: iTerms)
+				if (!t.match(m)) return false;
+			return true;
+		}
+	}
+	
+	protected static class CompiledOrTerm extends CompiledTerm {
+		private static final long serialVersionUID = 1L;
+		private CompiledTerm[] iTerms;
+		private int iCost = 0;
+		
+		protected CompiledOrTerm(Term source, List<CompiledTerm> terms) {
+			super(source);
+			iTerms = terms.toArray(new CompiledTerm[terms.size()]);
+			for (CompiledTerm t: iTerms) iCost += t.getCost();
+		}
+		
+		public CompiledTerm[] getTerms() { return iTerms.clone(); }
+		
+		@Override
+		public int getCost() { return iCost; }
+		
+		@Override
+		public boolean match(TermMatcher m) {
+			for (CompiledTerm t: iTerms)
+				if (t.match(m)) return true;
+			return false;
+		}
+	}
+	
+	protected static class FrozenAndTerm extends AndTerm {
+		private static final long serialVersionUID = 1L;
+		private boolean iFrozen = false;
+		
+		protected FrozenAndTerm(Collection<Term> terms) {
+			super(terms);
+			iFrozen = true;
+		}
+		
+		@Override
+		public void add(Term t) {
+			if (iFrozen) throw new UnsupportedOperationException("Compiled query cannot be changed.");
+			super.add(t);
+		}
+		
+		@Override
+		public void remove(Term t) {
+			throw new UnsupportedOperationException("Compiled query cannot be changed.");
+		}
+		
+		@Override
+		public List<Term> getTerms() { return Collections.unmodifiableList(super.getTerms()); }
+	}
+	
+	protected static class FrozenOrTerm extends OrTerm {
+		private static final long serialVersionUID = 1L;
+		private boolean iFrozen = false;
+		
+		protected FrozenOrTerm(Collection<Term> terms) {
+			super(terms);
+			iFrozen = true;
+		}
+		
+		@Override
+		public void add(Term t) {
+			if (iFrozen) throw new UnsupportedOperationException("Compiled query cannot be changed.");
+			super.add(t);
+		}
+		
+		@Override
+		public void remove(Term t) {
+			throw new UnsupportedOperationException("Compiled query cannot be changed.");
+		}
+		
+		@Override
+		public List<Term> getTerms() { return Collections.unmodifiableList(super.getTerms()); }
+	}
+}
@@ -23,13 +23,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,13 +41,24 @@ import org.cpsolver.ifs.util.ToolBox;
 
 
 /**
+ * Multi-key lock used by the online student sectioning server to lock offerings and students.<br>
+ * There is no global monitor: each lock request takes all its ids or none, using a concurrent map of lock holders.
+ * A thread that finds an id taken releases the ids it has taken so far and waits only on the holder of that id
+ * (so a release wakes up just the waiters that overlap with it), then it tries the whole set again. No ids are held
+ * while waiting, so a request cannot deadlock with another lock holder (e.g., a persistent offering lock). The {@link #lockAll()} is implemented as a gate that
+ * new lock requests wait on, while the lock all request waits for all existing holders to release.
+ * 
  * @author Tomas Muller
  */
 public class MultiLock {
     private Log iLog = LogFactory.getLog(MultiLock.class);
-    private Lock iLock = new ReentrantLock();
-    private Condition iAllLocked = null;
-    private Map<Long, Condition> iIndividualLocks = new HashMap<Long, Condition>();
+    private ConcurrentHashMap<Long, Holder> iHolders = new ConcurrentHashMap<Long, Holder>();
+    private Semaphore iAllLock = new Semaphore(1, true);
+    private volatile Holder iAllLocked = null;
+    
+    private AtomicLong iNrLocks = new AtomicLong(0), iNrContended = new AtomicLong(0), iNrLockAll = new AtomicLong(0);
+    private AtomicLong iWaitTime = new AtomicLong(0), iMaxWaitTime = new AtomicLong(0), iLockAllWaitTime = new AtomicLong(0);
+    private AtomicInteger iNrWaiting = new AtomicInteger(0);
 
     public MultiLock() {
     	iLog = LogFactory.getLog(MultiLock.class.getName() + ".lock");
@@ -52,15 +67,6 @@ public class MultiLock {
     public MultiLock(AcademicSessionInfo session) {
     	iLog = LogFactory.getLog(MultiLock.class.getName() + ".lock[" + session.toCompactString() + "]");
     }
-    
-	private Condition hasLock(Collection<Long> ids) {
-		if (iAllLocked != null) return iAllLocked;
-		for (Long id: ids) {
-			Condition c = iIndividualLocks.get(id);
-			if (c != null) return c;
-		}
-		return null;
-	}
 	
 	public Unlock lock(Long... ids) {
 		List<Long> list = new ArrayList<Long>(ids.length);
@@ -70,107 +76,203 @@ public class MultiLock {
 	}
 	
 	public UnlockAll lockAll() {
-		iLock.lock();
-		try {
-			iLog.debug("Locking all ...");
-			while (iAllLocked != null)
-				iAllLocked.awaitUninterruptibly();
-			iAllLocked = iLock.newCondition();
-			while (!iIndividualLocks.isEmpty()) {
-				Condition otherCondition = iIndividualLocks.values().iterator().next();
-				otherCondition.awaitUninterruptibly();
-			}
-			iLog.debug("Locked: all");
-			return new UnlockAll();
-		} finally {
-			iLock.unlock();
+		long t0 = System.nanoTime();
+		iLog.debug("Locking all ...");
+		iAllLock.acquireUninterruptibly();
+		Holder gate = new Holder();
+		iAllLocked = gate;
+		// wait for all the existing holders to release their locks, no new lock can be acquired in the mean time
+		while (true) {
+			Iterator<Holder> i = iHolders.values().iterator();
+			if (!i.hasNext()) break;
+			i.next().await();
 		}
+		iNrLockAll.incrementAndGet();
+		iLockAllWaitTime.addAndGet(System.nanoTime() - t0);
+		iLog.debug("Locked: all");
+		return new UnlockAll(gate);
 	}
 	
 	public void unlockAll() {
-		iLock.lock();
-		try {
-			iLog.debug("Unlocking all ...");
-			Condition allLocked = iAllLocked;
-			iAllLocked = null;
-			allLocked.signalAll();
-			iLog.debug("Unlocked: all");
-		} finally {
-			iLock.unlock();
-		}
+		unlockAll(iAllLocked);
+	}
+	
+	private void unlockAll(Holder gate) {
+		if (gate == null || gate != iAllLocked) return;
+		iLog.debug("Unlocking all ...");
+		iAllLocked = null;
+		gate.release();
+		iAllLock.release();
+		iLog.debug("Unlocked: all");
 	}
 	
 	public Unlock lock(Collection<Long> ids) {
-		iLock.lock();
-		try {
-			if (ids == null || ids.isEmpty()) return new Unlock(ids);
-			iLog.debug("Locking " + ids + " ...");
-			Condition otherCondition = null;
-			while ((otherCondition = hasLock(ids)) != null)
-				otherCondition.awaitUninterruptibly();
-			Condition myCondition = iLock.newCondition();
-			for (Long id: ids)
-				iIndividualLocks.put(id, myCondition);
+		if (ids == null || ids.isEmpty()) return new Unlock(null, null);
+		iLog.debug("Locking " + ids + " ...");
+		// unique ids, taken in the same order by all threads
+		List<Long> sorted = new ArrayList<Long>(new TreeSet<Long>(ids));
+		long t0 = System.nanoTime();
+		boolean contended = false;
+		while (true) {
+			Holder gate = iAllLocked;
+			if (gate != null) {
+				contended = true;
+				gate.await();
+				continue;
+			}
+			Holder holder = new Holder();
+			List<Long> acquired = new ArrayList<Long>(sorted.size());
+			Holder other = null; Long otherId = null;
+			for (Long id: sorted) {
+				other = iHolders.putIfAbsent(id, holder);
+				if (other != null) { otherId = id; break; }
+				acquired.add(id);
+			}
+			if (other != null) {
+				// all or nothing: release the ids taken so far, wait for the holder of the busy id, and try the whole set again
+				release(acquired, holder);
+				contended = true;
+				iNrWaiting.incrementAndGet();
+				other.addWaiter(otherId);
+				try {
+					other.await();
+				} finally {
+					other.removeWaiter(otherId);
+					iNrWaiting.decrementAndGet();
+				}
+				continue;
+			}
+			if (iAllLocked != null) {
+				// lock all has been requested in the mean time -> back off and wait for it to finish
+				release(acquired, holder);
+				continue;
+			}
+			iNrLocks.incrementAndGet();
+			if (contended) {
+				long wait = System.nanoTime() - t0;
+				iNrContended.incrementAndGet();
+				iWaitTime.addAndGet(wait);
+				long max = iMaxWaitTime.get();
+				while (wait > max && !iMaxWaitTime.compareAndSet(max, wait))
+					max = iMaxWaitTime.get();
+			}
 			iLog.debug("Locked: " + ids);
-			return new Unlock(ids);
-		} finally {
-			iLock.unlock();
+			return new Unlock(sorted, holder);
 		}
 	}
 	
-	private void unlock(Collection<Long> ids) {
-		iLock.lock();
-		try {
-			if (ids == null || ids.isEmpty()) return;
-			iLog.debug("Unlocking " + ids + " ...");
-			Condition myCondition = null;
-			for (Long id: ids)
-				myCondition = iIndividualLocks.remove(id);
-			if (myCondition != null)
-				myCondition.signalAll();
-			iLog.debug("Unlocked: " + ids);
-		} finally {
-			iLock.unlock();
-		}
+	private void release(Collection<Long> ids, Holder holder) {
+		for (Long id: ids)
+			iHolders.remove(id, holder);
+		holder.release();
 	}
 	
 	public Set<Long> locked() {
-		iLock.lock();
-		try {
-			return new TreeSet<Long>(iIndividualLocks.keySet());
-		} finally {
-			iLock.unlock();
-		}
+		return new TreeSet<Long>(iHolders.keySet());
 	}
 	
 	public boolean isLocked(Long id) {
-		iLock.lock();
-		try {
-			return iIndividualLocks.containsKey(id);
-		} finally {
-			iLock.unlock();
+		return iHolders.containsKey(id);
+	}
+	
+	/**
+	 * Number of threads that are currently waiting for a lock, for each of the locked ids that have at least one waiting thread.
+	 */
+	public Map<Long, Integer> getQueueDepths() {
+		Map<Long, Integer> depths = new TreeMap<Long, Integer>();
+		for (Map.Entry<Long, Holder> e: iHolders.entrySet()) {
+			int waiting = e.getValue().getWaiters(e.getKey());
+			if (waiting > 0) depths.put(e.getKey(), waiting);
+		}
+		return depths;
+	}
+	
+	public long getNrLocks() { return iNrLocks.get(); }
+	public long getNrContendedLocks() { return iNrContended.get(); }
+	public long getNrLockAll() { return iNrLockAll.get(); }
+	public int getNrWaiting() { return iNrWaiting.get(); }
+	public int getNrLocked() { return iHolders.size(); }
+	public boolean isAllLocked() { return iAllLocked != null; }
+	/** Total time spent waiting on contended locks, in milliseconds */
+	public double getWaitTime() { return iWaitTime.get() / 1000000.0; }
+	/** Longest time spent waiting on a lock, in milliseconds */
+	public double getMaxWaitTime() { return iMaxWaitTime.get() / 1000000.0; }
+	/** Total time spent waiting in {@link #lockAll()}, in milliseconds */
+	public double getLockAllWaitTime() { return iLockAllWaitTime.get() / 1000000.0; }
+	
+	public void resetStatistics() {
+		iNrLocks.set(0); iNrContended.set(0); iNrLockAll.set(0);
+		iWaitTime.set(0); iMaxWaitTime.set(0); iLockAllWaitTime.set(0);
+	}
+	
+	private static class Holder {
+		private CountDownLatch iReleased = new CountDownLatch(1);
+		private Map<Long, Integer> iWaiters = null;
+		
+		private void await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					iReleased.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+		
+		private void release() {
+			iReleased.countDown();
+		}
+		
+		private synchronized void addWaiter(Long id) {
+			if (iWaiters == null) iWaiters = new HashMap<Long, Integer>();
+			Integer count = iWaiters.get(id);
+			iWaiters.put(id, count == null ? 1 : count + 1);
+		}
+		
+		private synchronized void removeWaiter(Long id) {
+			Integer count = iWaiters.get(id);
+			if (count == null || count <= 1)
+				iWaiters.remove(id);
+			else
+				iWaiters.put(id, count - 1);
+		}
+		
+		private synchronized int getWaiters(Long id) {
+			if (iWaiters == null) return 0;
+			Integer count = iWaiters.get(id);
+			return (count == null ? 0 : count);
 		}
 	}
 	
 	public class Unlock implements OnlineSectioningServer.Lock {
 		private Collection<Long> iIds;
+		private Holder iHolder;
 		
-		private Unlock(Collection<Long> ids) {
+		private Unlock(Collection<Long> ids, Holder holder) {
 			iIds = ids;
+			iHolder = holder;
 		}
 		
 		public void release() {
-			unlock(iIds);
+			if (iIds == null || iIds.isEmpty()) return;
+			iLog.debug("Unlocking " + iIds + " ...");
+			MultiLock.this.release(iIds, iHolder);
+			iLog.debug("Unlocked: " + iIds);
 		}
 	}
 
 	public class UnlockAll implements OnlineSectioningServer.Lock {
+		private Holder iGate;
 		
-		private UnlockAll() {
+		private UnlockAll(Holder gate) {
+			iGate = gate;
 		}
 		
 		public void release() {
-			unlockAll();
+			unlockAll(iGate);
 		}
 	}
 
@@ -23,57 +23,98 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.CacheMode;
+import org.hibernate.Transaction;
+import org.hibernate.type.LongType;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.server.DayCode;
 import org.unitime.timetable.model.Session;
-import org.unitime.timetable.model.Student;
 import org.unitime.timetable.model.dao.OnlineSectioningLogDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
-import org.unitime.timetable.model.dao.StudentDAO;
 
 /**
+ * Online sectioning log writer. Logged actions are put in a bounded queue (see {@link ApplicationProperty#OnlineSchedulingLogLimit},
+ * zero or a negative limit makes the queue unbounded), when the queue is full the caller waits for up to
+ * {@link ApplicationProperty#OnlineSchedulingLogBlockTimeout} milliseconds before the action is dropped. The queue is persisted by one or more writer threads in batches of
+ * {@link ApplicationProperty#OnlineSchedulingLogBatchSize} actions, a batch is written when it is full or when
+ * {@link ApplicationProperty#OnlineSchedulingLogFlushInterval} seconds have passed since its first action.<br>
+ * The logger must be started explicitly (see {@link OnlineSectioningLogger#startLogger()}), actions recorded while
+ * the logger is not running are ignored.
+ * 
  * @author Tomas Muller
  */
 public class OnlineSectioningLogger extends Thread {
 	private static Log sLog = LogFactory.getLog(OnlineSectioningLogger.class);
 	protected static StudentSectioningConstants CONST = Localization.create(StudentSectioningConstants.class);
-	private List<OnlineSectioningLog.Action> iActions = new Vector<OnlineSectioningLog.Action>();
-	private boolean iActive = false;
+	private BlockingQueue<OnlineSectioningLog.Action> iActions;
+	private volatile boolean iActive = false;
 	private boolean iEnabled = false;
 	private int iLogLimit = -1;
+	private int iBatchSize = 100;
+	private long iFlushInterval = 60000;
+	private long iBlockTimeout = 100;
+	private int iNrWriters = 1;
+	private List<Writer> iWriters = new ArrayList<Writer>();
 	private PrintWriter iOut = null;
 	
-	private static OnlineSectioningLogger sInstance = null;
+	private AtomicLong iNrPersisted = new AtomicLong(0), iNrDropped = new AtomicLong(0), iNrFailed = new AtomicLong(0), iNrReportedDropped = new AtomicLong(0);
+	private AtomicLong iNrFlushes = new AtomicLong(0), iFlushTime = new AtomicLong(0), iMaxFlushTime = new AtomicLong(0);
+	private volatile long iLastFlushTime = 0;
+	
+	private static volatile OnlineSectioningLogger sInstance = null;
 	
+	/**
+	 * Logger instance, the logger thread is not started by this call
+	 */
 	public static OnlineSectioningLogger getInstance() {
-		if (sInstance == null) startLogger();
-		return sInstance;
+		OnlineSectioningLogger logger = sInstance;
+		if (logger == null) {
+			synchronized (OnlineSectioningLogger.class) {
+				if (sInstance == null) sInstance = new OnlineSectioningLogger();
+				logger = sInstance;
+			}
+		}
+		return logger;
 	}
 	
-	public static void startLogger() {
-		if (sInstance == null) {
-			sInstance = new OnlineSectioningLogger();
-			sInstance.start();
-		}
+	/**
+	 * Start the logger thread (and its writers), if not running already
+	 */
+	public static synchronized void startLogger() {
+		if (sInstance != null && sInstance.getState() == Thread.State.TERMINATED) sInstance = null;
+		OnlineSectioningLogger logger = getInstance();
+		if (logger.getState() == Thread.State.NEW)
+			logger.start();
 	}
 	
-	public static void stopLogger() {
+	public static synchronized void stopLogger() {
 		if (sInstance != null) {
 			sInstance.iActive = false;
 			sInstance.interrupt();
+			for (Writer writer: sInstance.iWriters)
+				writer.interrupt();
 			try {
 				sInstance.join();
+				for (Writer writer: sInstance.iWriters)
+					writer.join();
 			} catch (InterruptedException e) {}
 			sInstance = null;
 		}
@@ -84,6 +125,11 @@ public class OnlineSectioningLogger extends Thread {
 		setDaemon(true);
 		iEnabled = ApplicationProperty.OnlineSchedulingLoggingEnabled.isTrue(); 
 		iLogLimit = ApplicationProperty.OnlineSchedulingLogLimit.intValue();
+		iBatchSize = Math.max(1, ApplicationProperty.OnlineSchedulingLogBatchSize.intValue());
+		iFlushInterval = 1000l * Math.max(1, ApplicationProperty.OnlineSchedulingLogFlushInterval.intValue());
+		iBlockTimeout = ApplicationProperty.OnlineSchedulingLogBlockTimeout.intValue();
+		iNrWriters = Math.max(1, ApplicationProperty.OnlineSchedulingLogWriters.intValue());
+		iActions = new LinkedBlockingQueue<OnlineSectioningLog.Action>(iLogLimit <= 0 ? Integer.MAX_VALUE : iLogLimit);
 		try {
 			if (ApplicationProperty.OnlineSchedulingLogFile.value() != null)
 				iOut = new PrintWriter(new FileWriter(new File(ApplicationProperty.OnlineSchedulingLogFile.value()), true));
@@ -95,16 +141,47 @@ public class OnlineSectioningLogger extends Thread {
 	public boolean isEnabled() { return iEnabled; }
 	public void setEnabled(boolean enabled) { iEnabled = enabled; }
 	public boolean isActive() { return iActive; }
+	
+	/** Number of actions waiting to be persisted */
+	public int getQueueSize() { return iActions.size(); }
+	/** Number of persisted actions */
+	public long getNrPersisted() { return iNrPersisted.get(); }
+	/** Number of actions dropped because the queue was full */
+	public long getNrDropped() { return iNrDropped.get(); }
+	/** Number of actions that failed to persist */
+	public long getNrFailed() { return iNrFailed.get(); }
+	/** Number of persisted batches */
+	public long getNrFlushes() { return iNrFlushes.get(); }
+	/** Time needed to persist the last batch in milliseconds */
+	public long getLastFlushTime() { return iLastFlushTime; }
+	/** Maximal time needed to persist a batch in milliseconds */
+	public long getMaxFlushTime() { return iMaxFlushTime.get(); }
+	/** Average time needed to persist a batch in milliseconds */
+	public double getAverageFlushTime() {
+		long flushes = iNrFlushes.get();
+		return (flushes == 0 ? 0.0 : ((double)iFlushTime.get()) / flushes);
+	}
+	
+	public Map<String, String> getStatistics() {
+		Map<String, String> stats = new HashMap<String, String>();
+		stats.put("Log queue", getQueueSize() + (iLogLimit > 0 ? " / " + iLogLimit : "") + " (" + iNrWriters + " writer" + (iNrWriters == 1 ? "" : "s") + ")");
+		stats.put("Log persisted", getNrPersisted() + " in " + getNrFlushes() + " batches" + (getNrFailed() > 0 ? ", " + getNrFailed() + " failed" : "") + (getNrDropped() > 0 ? ", " + getNrDropped() + " dropped" : ""));
+		stats.put("Log flush time", getLastFlushTime() + " ms (avg " + new DecimalFormat("0.0").format(getAverageFlushTime()) + " ms, max " + getMaxFlushTime() + " ms)");
+		return stats;
+	}
 
 	public void record(OnlineSectioningLog.Log log) {
 		if (log == null || !isEnabled() || !isActive()) return;
 		for (OnlineSectioningLog.Action action: log.getActionList()) {
 			if (action.hasStartTime() && action.hasStudent() && action.hasOperation() && action.hasSession() && ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation())
 				&& ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation() + "." + (action.hasResult() ? action.getResult().name() : "NULL"))) {
-				synchronized (iActions) {
-					if (iLogLimit <= 0 || iActions.size() < iLogLimit)
-						iActions.add(action);
+				boolean queued = iActions.offer(action);
+				if (!queued && iBlockTimeout > 0) {
+					try {
+						queued = iActions.offer(action, iBlockTimeout, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {}
 				}
+				if (!queued) iNrDropped.incrementAndGet();
 				if (iOut != null) {
 					synchronized (iOut) {
 						iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
@@ -248,94 +325,185 @@ public class OnlineSectioningLogger extends Thread {
 		sLog.info("Online Sectioning Logger is up.");
 		try {
 			iActive = true;
-			while (true) {
+			for (int i = 1; i < iNrWriters; i++) {
+				Writer writer = new Writer(i);
+				iWriters.add(writer);
+				writer.start();
+			}
+			persistQueue();
+		} catch (Throwable t) {
+			sLog.error("Online Sectioning Logger failed: " + t.getMessage(), t);
+		} finally {
+			iActive = false;
+			for (Writer writer: iWriters) {
+				writer.interrupt();
 				try {
-					sleep(60000);
-				} catch (InterruptedException e) {
+					writer.join();
+				} catch (InterruptedException e) {}
+			}
+			if (iOut != null) { iOut.flush(); iOut.close(); }
+		}
+		sLog.info("Online Sectioning Logger is down.");
+	}
+	
+	/**
+	 * Persist the queue in batches, until the logger is stopped. A batch is persisted when it reaches the batch size or when
+	 * the flush interval has passed since the first action of the batch was taken from the queue.
+	 * When the logger is being stopped, all the remaining actions are persisted.
+	 */
+	protected void persistQueue() {
+		List<OnlineSectioningLog.Action> batch = new ArrayList<OnlineSectioningLog.Action>(iBatchSize);
+		while (true) {
+			try {
+				OnlineSectioningLog.Action first = iActions.poll(iFlushInterval, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					long deadline = System.currentTimeMillis() + iFlushInterval;
+					while (batch.size() < iBatchSize) {
+						iActions.drainTo(batch, iBatchSize - batch.size());
+						if (batch.size() >= iBatchSize) break;
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0) break;
+						OnlineSectioningLog.Action next = iActions.poll(wait, TimeUnit.MILLISECONDS);
+						if (next == null) break;
+						batch.add(next);
+					}
 				}
-				List<OnlineSectioningLog.Action> actionsToSave = null;
-				synchronized (iActions) {
-					if (!iActions.isEmpty()) {
-						actionsToSave = new ArrayList<OnlineSectioningLog.Action>(iActions);
-						iActions.clear();
+			} catch (InterruptedException e) {}
+			boolean stop = !iActive;
+			if (stop) iActions.drainTo(batch);
+			if (!batch.isEmpty()) {
+				persist(batch);
+				batch.clear();
+			}
+			long dropped = iNrDropped.get(), reported = iNrReportedDropped.get();
+			if (dropped > reported && iNrReportedDropped.compareAndSet(reported, dropped))
+				sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, " + (dropped - reported) + " messages have been dropped.");
+			if (stop) break;
+		}
+	}
+	
+	/**
+	 * Persist the given actions. The actions are saved in a single transaction, flushing the hibernate session
+	 * after each batch so that the inserts are sent to the database using JDBC batching.
+	 */
+	protected void persist(List<OnlineSectioningLog.Action> actionsToSave) {
+		sLog.debug("Persisting " + actionsToSave.size() + " actions...");
+		long t0 = System.currentTimeMillis();
+		org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
+		hibSession.setCacheMode(CacheMode.IGNORE);
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			
+			Set<Long> studentIds = new HashSet<Long>();
+			for (OnlineSectioningLog.Action q: actionsToSave)
+				if (!q.getStudent().hasExternalId() || q.getStudent().getExternalId().isEmpty())
+					studentIds.add(q.getStudent().getUniqueId());
+			Map<Long, String> studentExternalIds = new HashMap<Long, String>();
+			if (!studentIds.isEmpty()) {
+				List<Long> ids = new ArrayList<Long>(studentIds);
+				for (int i = 0; i < ids.size(); i += 1000) {
+					for (Object[] o: (List<Object[]>)hibSession.createQuery(
+							"select s.uniqueId, s.externalUniqueId from Student s where s.uniqueId in :ids")
+							.setParameterList("ids", ids.subList(i, Math.min(i + 1000, ids.size())), LongType.INSTANCE).list()) {
+						studentExternalIds.put((Long)o[0], (String)o[1]);
 					}
 				}
+			}
+			
+			Hashtable<Long, Session> sessions = new Hashtable<Long, Session>();
+			int count = 0;
+			for (OnlineSectioningLog.Action q: actionsToSave) {
+				org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
+				log.setAction(q.toByteArray());
+				log.setOperation(q.getOperation());
+				String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
+				if (studentExternalId == null || studentExternalId.isEmpty()) {
+					if (!studentExternalIds.containsKey(q.getStudent().getUniqueId())) continue;
+					studentExternalId = studentExternalIds.get(q.getStudent().getUniqueId());
+				}
+				log.setStudent(studentExternalId);
+				log.setTimeStamp(new Date(q.getStartTime()));
+				if (q.hasResult())
+					log.setResult(q.getResult().getNumber());
+				if (q.hasUser() && q.getUser().hasExternalId())
+					log.setUser(q.getUser().getExternalId());
+				if (q.hasCpuTime())
+					log.setCpuTime(q.getCpuTime());
+				if (q.hasStartTime() && q.hasEndTime())
+					log.setWallTime(q.getEndTime() - q.getStartTime());
+				if (q.hasApiGetTime())
+					log.setApiGetTime(q.getApiGetTime());
+				if (q.hasApiPostTime())
+					log.setApiPostTime(q.getApiPostTime());
+				if (q.hasApiException())
+					log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
 				try {
-					if (actionsToSave != null) {
-						sLog.debug("Persisting " + actionsToSave.size() + " actions...");
-						if (iLogLimit > 0 && actionsToSave.size() >= iLogLimit)
-							sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
-						org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
-						hibSession.setCacheMode(CacheMode.IGNORE);
-						try {
-							Hashtable<Long, Session> sessions = new Hashtable<Long, Session>();
-							for (OnlineSectioningLog.Action q: actionsToSave) {
-								org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
-								log.setAction(q.toByteArray());
-								log.setOperation(q.getOperation());
-								String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
-								if (studentExternalId == null || studentExternalId.isEmpty()) {
-									Student student = StudentDAO.getInstance().get(q.getStudent().getUniqueId(), hibSession);
-									if (student == null) continue;
-									studentExternalId = student.getExternalUniqueId();
-								}
-								log.setStudent(studentExternalId);
-								log.setTimeStamp(new Date(q.getStartTime()));
-								if (q.hasResult())
-									log.setResult(q.getResult().getNumber());
-								if (q.hasUser() && q.getUser().hasExternalId())
-									log.setUser(q.getUser().getExternalId());
-								if (q.hasCpuTime())
-									log.setCpuTime(q.getCpuTime());
-								if (q.hasStartTime() && q.hasEndTime())
-									log.setWallTime(q.getEndTime() - q.getStartTime());
-								if (q.hasApiGetTime())
-									log.setApiGetTime(q.getApiGetTime());
-								if (q.hasApiPostTime())
-									log.setApiPostTime(q.getApiPostTime());
-								if (q.hasApiException())
-									log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
-								try {
-									String message = getMessage(q);
-									if (message != null && !message.isEmpty())
-										log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-								} catch (Exception e) {
-									if (!q.getMessageList().isEmpty()) {
-										String message = null; int level = 0;
-										for (OnlineSectioningLog.Message m: q.getMessageList()) {
-											if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
-											if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
-											else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
-										}
-										if (message != null && !message.isEmpty())
-											log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-									}
-								}
-								Long sessionId = q.getSession().getUniqueId();
-								Session session = sessions.get(sessionId);
-								if (session == null) {
-									session = SessionDAO.getInstance().get(sessionId, hibSession);
-									sessions.put(sessionId, session);
-								}
-								log.setSession(session);
-								hibSession.save(log);
-							}
-							hibSession.flush();
-						} finally {
-							hibSession.close();
+					String message = getMessage(q);
+					if (message != null && !message.isEmpty())
+						log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
+				} catch (Exception e) {
+					if (!q.getMessageList().isEmpty()) {
+						String message = null; int level = 0;
+						for (OnlineSectioningLog.Message m: q.getMessageList()) {
+							if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
+							if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
+							else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
 						}
+						if (message != null && !message.isEmpty())
+							log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
 					}
-				} catch (Throwable t) {
-					sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 				}
-				if (!iActive) break;
+				Long sessionId = q.getSession().getUniqueId();
+				Session session = sessions.get(sessionId);
+				if (session == null) {
+					session = SessionDAO.getInstance().get(sessionId, hibSession);
+					sessions.put(sessionId, session);
+				}
+				log.setSession(session);
+				hibSession.save(log);
+				if (++count % iBatchSize == 0) {
+					hibSession.flush();
+					hibSession.clear();
+				}
 			}
+			hibSession.flush();
+			tx.commit();
+			iNrPersisted.addAndGet(count);
 		} catch (Throwable t) {
-			sLog.error("Online Sectioning Logger failed: " + t.getMessage(), t);
+			if (tx != null && tx.isActive()) tx.rollback();
+			iNrFailed.addAndGet(actionsToSave.size());
+			sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 		} finally {
-			iActive = false;
-			if (iOut != null) { iOut.flush(); iOut.close(); }
+			hibSession.close();
+			long time = System.currentTimeMillis() - t0;
+			iLastFlushTime = time;
+			iFlushTime.addAndGet(time);
+			iNrFlushes.incrementAndGet();
+			long max = iMaxFlushTime.get();
+			while (time > max && !iMaxFlushTime.compareAndSet(max, time))
+				max = iMaxFlushTime.get();
+		}
+	}
+	
+	/**
+	 * Additional writer thread, see {@link ApplicationProperty#OnlineSchedulingLogWriters}.
+	 */
+	protected class Writer extends Thread {
+		public Writer(int index) {
+			super("OnlineSectioningLogger-" + index);
+			setDaemon(true);
 		}
-		sLog.info("Online Sectioning Logger is down.");	}
+		
+		@Override
+		public void run() {
+			try {
+				persistQueue();
+			} catch (Throwable t) {
+				sLog.error("Online Sectioning Logger writer failed: " + t.getMessage(), t);
+			}
+		}
+	}
 
 }
@@ -65,6 +65,7 @@ import org.unitime.timetable.model.dao.StudentSectioningStatusDAO;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningLogger;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
 import org.unitime.timetable.onlinesectioning.match.AnyCourseMatcher;
@@ -90,6 +91,7 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XStudent.XGroup;
 import org.unitime.timetable.onlinesectioning.model.XStudentId;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.AbstractLockingServer;
 
 /**
  * @author Tomas Muller
@@ -426,6 +428,10 @@ public class GetInfo implements OnlineSectioningAction<Map<String, String>>{
 		} finally {
 			lock.release();
 		}
+		if (server instanceof AbstractLockingServer)
+			info.putAll(((AbstractLockingServer)server).getLockStatistics());
+		if (OnlineSectioningLogger.getInstance().isActive())
+			info.putAll(OnlineSectioningLogger.getInstance().getStatistics());
 		return info;		
 	}
 	
@@ -26,7 +26,7 @@ import org.cpsolver.studentsct.online.expectations.OverExpectedCriterion;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.server.DayCode;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface.ClassAssignment;
@@ -148,7 +148,7 @@ public class ListClasses implements OnlineSectioningAction<Collection<ClassAssig
 			if (student != null) {
 				String filter = server.getConfig().getProperty("Filter.OnlineOnlyStudentFilter", null);
 				if (filter != null && !filter.isEmpty()) {
-					if (new Query(filter).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+					if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 						imFilter = server.getConfig().getProperty("Filter.OnlineOnlyInstructionalModeRegExp");
 					} else if (server.getConfig().getPropertyBoolean("Filter.OnlineOnlyExclusiveCourses", false)) {
 						imFilter = server.getConfig().getProperty("Filter.ResidentialInstructionalModeRegExp");
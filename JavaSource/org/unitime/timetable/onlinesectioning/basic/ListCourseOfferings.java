@@ -31,7 +31,7 @@ import org.cpsolver.ifs.heuristics.RouletteWheelSelection;
 import org.hibernate.criterion.Order;
 import org.hibernate.type.LongType;
 import org.unitime.timetable.defaults.ApplicationProperty;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface.CourseAssignment;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
@@ -100,7 +100,7 @@ public class ListCourseOfferings implements OnlineSectioningAction<Collection<Cl
 			if (iStudent != null) {
 				String filter = server.getConfig().getProperty("Filter.OnlineOnlyStudentFilter", null);
 				if (filter != null && !filter.isEmpty()) {
-					if (new Query(filter).match(new StudentMatcher(iStudent, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+					if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(iStudent, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 						iFilterIM = server.getConfig().getProperty("Filter.OnlineOnlyInstructionalModeRegExp");
 					} else if (server.getConfig().getPropertyBoolean("Filter.OnlineOnlyExclusiveCourses", false)) {
 						iFilterIM = server.getConfig().getProperty("Filter.ResidentialInstructionalModeRegExp");
@@ -20,7 +20,7 @@
 package org.unitime.timetable.onlinesectioning.custom;
 
 import org.unitime.timetable.defaults.ApplicationProperty;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.model.InstrOfferingConfig;
 import org.unitime.timetable.model.InstructionalMethod;
 import org.unitime.timetable.model.InstructionalOffering;
@@ -57,7 +57,7 @@ public class OnlineOnlyCourseMatcherProvider implements CourseMatcherProvider {
 			}
 			XStudent student = server.getStudent(studentId);
 			if (student == null) return null;
-			if (new Query(filter).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
 				return new OnlineOnlyCourseMatcher(
 						ApplicationProperty.OnlineSchedulingParameter.value("Filter.OnlineOnlyInstructionalModeRegExp"),
 						ApplicationProperty.OnlineSchedulingParameter.value("Filter.OnlineOnlyCourseNameRegExp")
@@ -76,7 +76,7 @@ public class OnlineOnlyCourseMatcherProvider implements CourseMatcherProvider {
 			if (context.hasPermissionAnySession(student.getSession(), Right.StudentSchedulingAdvisor)) {
 				if ("true".equalsIgnoreCase(ApplicationProperty.OnlineSchedulingParameter.value("Filter.OnlineOnlyAdvisorOverride", "false")))  return null;
 			}
-			if (new Query(filter).match(new DbStudentMatcher(student)))
+			if (QueryCompiler.getQuery(filter).match(new DbStudentMatcher(student)))
 				return new OnlineOnlyCourseMatcher(
 						ApplicationProperty.OnlineSchedulingParameter.value("Filter.OnlineOnlyInstructionalModeRegExp"),
 						ApplicationProperty.OnlineSchedulingParameter.value("Filter.OnlineOnlyCourseNameRegExp")
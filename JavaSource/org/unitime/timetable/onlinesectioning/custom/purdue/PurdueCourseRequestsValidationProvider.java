@@ -75,7 +75,7 @@ import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface.CheckCoursesResponse;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface.CourseMessage;
@@ -497,7 +497,7 @@ public class PurdueCourseRequestsValidationProvider implements CourseRequestsVal
 		boolean onlineOnly = false;
 		String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 		if (filter != null && !filter.isEmpty()) {
-			if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
 				onlineOnly = true;
 		}
 		for (Iterator<Request> e = student.getRequests().iterator(); e.hasNext();) {
@@ -1780,7 +1780,7 @@ public class PurdueCourseRequestsValidationProvider implements CourseRequestsVal
 			}
 			String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 			if (filter != null && !filter.isEmpty()) {
-				if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+				if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 					// online only
 					String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
 					String im = server.getConfig().getProperty("Load.OnlineOnlyInstructionalModeRegExp");
@@ -1899,7 +1899,7 @@ public class PurdueCourseRequestsValidationProvider implements CourseRequestsVal
 			}
 			String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 			if (filter != null && !filter.isEmpty()) {
-				if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+				if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 					// online only
 					String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
 					String im = server.getConfig().getProperty("Load.OnlineOnlyInstructionalModeRegExp");
@@ -3253,7 +3253,7 @@ public class PurdueCourseRequestsValidationProvider implements CourseRequestsVal
 		boolean onlineOnly = false;
 		String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 		if (filter != null && !filter.isEmpty()) {
-			if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false)))
 				onlineOnly = true;
 		}
 		for (Iterator<Request> e = student.getRequests().iterator(); e.hasNext();) {
@@ -44,7 +44,7 @@ import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface.CheckCoursesResponse;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface.FreeTime;
@@ -626,7 +626,7 @@ public class SimplifiedCourseRequestsValidationProvider implements CourseRequest
 		
 		String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 		if (filter != null && !filter.isEmpty()) {
-			if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 				// online only
 				String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
 				String im = server.getConfig().getProperty("Load.OnlineOnlyInstructionalModeRegExp");
@@ -857,7 +857,7 @@ public class SimplifiedCourseRequestsValidationProvider implements CourseRequest
 		boolean questionRestrictionsNotMet = false;
 		boolean onlineOnly = false;
 		if (filter != null && !filter.isEmpty()) {
-			if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 				// online only
 				onlineOnly = true;
 				String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
@@ -1402,7 +1402,7 @@ public class SimplifiedCourseRequestsValidationProvider implements CourseRequest
 		boolean questionRestrictionsNotMet = false;
 		boolean onlineOnly = false;
 		if (filter != null && !filter.isEmpty()) {
-			if (new Query(filter).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+			if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(original, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 				// online only
 				onlineOnly = true;
 				String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
@@ -0,0 +1,33 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.match;
+
+import org.unitime.timetable.gwt.server.Query;
+
+/**
+ * Student matcher that is based on a status page filter. The server can use the filter to
+ * narrow the set of students that need to be matched using its secondary indexes.
+ * 
+ * @author Tomas Muller
+ */
+public interface QueryStudentMatcher extends StudentMatcher {
+	public Query getQuery();
+	public String getDefaultSectioningStatus();
+}
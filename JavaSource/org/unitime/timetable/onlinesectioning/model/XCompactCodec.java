@@ -0,0 +1,480 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+
+/**
+ * Compact binary encoding of the X-model classes, used by the Infinispan externalizers
+ * of the top-level cache entries (offerings, students, course requests, expectations).<br>
+ * The object is written using its {@link Externalizable#writeExternal(ObjectOutput)} method into
+ * an {@link Output} that encodes integers as variable length (zig-zag) numbers, long values as
+ * variable length differences from the previously written long (so that consecutive unique ids
+ * take one or two bytes each), and strings using a per-entry string table (so that recurring names
+ * like instructional types, subpart names or course names are only written once). Other objects are
+ * written into one object stream per entry, which follows the compact data.<br>
+ * The compact encoding is only used when {@link ApplicationProperty#OnlineSchedulingServerCompactSerialization}
+ * is enabled, each entry then starts with a format byte. When disabled, the entries are written in the plain
+ * format of the previous versions, so the property must only be enabled when all the nodes of the cluster
+ * support the compact encoding (and it must be set the same on all the nodes).
+ *
+ * @author Tomas Muller
+ */
+public class XCompactCodec {
+	protected static final byte FORMAT_PLAIN = 0;
+	protected static final byte FORMAT_COMPACT = 1;
+
+	protected static final int TAG_NULL = 0;
+	protected static final int TAG_STRING = 1;
+	protected static final int TAG_STRING_REF = 2;
+	protected static final int TAG_OBJECT = 3;
+
+	/**
+	 * Write the given object into the given output, using the compact encoding when enabled
+	 */
+	public static void writeObject(ObjectOutput output, Externalizable object) throws IOException {
+		if (!ApplicationProperty.OnlineSchedulingServerCompactSerialization.isTrue()) {
+			object.writeExternal(output);
+		} else {
+			byte[] data = encode(object);
+			output.writeByte(FORMAT_COMPACT);
+			output.writeInt(data.length);
+			output.write(data);
+		}
+	}
+
+	/**
+	 * Return input from which the object written by {@link XCompactCodec#writeObject(ObjectOutput, Externalizable)} can be read
+	 */
+	public static ObjectInput getInput(ObjectInput input) throws IOException {
+		if (!ApplicationProperty.OnlineSchedulingServerCompactSerialization.isTrue()) return input;
+		byte format = input.readByte();
+		switch (format) {
+		case FORMAT_PLAIN:
+			return input;
+		case FORMAT_COMPACT:
+			byte[] data = new byte[input.readInt()];
+			input.readFully(data);
+			return new Input(data);
+		default:
+			throw new IOException("Unknown serialization format " + format + ".");
+		}
+	}
+
+	/**
+	 * Encode the given object using the compact encoding
+	 */
+	public static byte[] encode(Externalizable object) throws IOException {
+		Output out = new Output();
+		object.writeExternal(out);
+		out.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compact encoding output: length of the compact data, the compact data, and the object stream (if any objects
+	 * other than strings have been written)
+	 */
+	public static class Output implements ObjectOutput {
+		private ByteArrayOutputStream iBuffer = new ByteArrayOutputStream(1024);
+		private Map<String, Integer> iStrings = new HashMap<String, Integer>();
+		private long iLastLong = 0;
+		private ByteArrayOutputStream iObjectBuffer = null;
+		private ObjectOutputStream iObjects = null;
+
+		public Output() {}
+
+		public byte[] toByteArray() throws IOException {
+			if (iObjects != null) iObjects.flush();
+			ByteArrayOutputStream ret = new ByteArrayOutputStream(5 + size());
+			int length = iBuffer.size();
+			while ((length & ~0x7F) != 0) {
+				ret.write((length & 0x7F) | 0x80);
+				length >>>= 7;
+			}
+			ret.write(length);
+			iBuffer.writeTo(ret);
+			if (iObjectBuffer != null) iObjectBuffer.writeTo(ret);
+			return ret.toByteArray();
+		}
+
+		public int size() {
+			return iBuffer.size() + (iObjectBuffer == null ? 0 : iObjectBuffer.size());
+		}
+
+		protected void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				iBuffer.write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			iBuffer.write((int)value);
+		}
+
+		protected void writeVarInt(int value) {
+			while ((value & ~0x7F) != 0) {
+				iBuffer.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			iBuffer.write(value);
+		}
+
+		protected void writeString(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			iBuffer.write(bytes, 0, bytes.length);
+		}
+
+		@Override
+		public void writeBoolean(boolean value) {
+			iBuffer.write(value ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int value) {
+			iBuffer.write(value);
+		}
+
+		@Override
+		public void writeShort(int value) {
+			iBuffer.write((value >>> 8) & 0xFF);
+			iBuffer.write(value & 0xFF);
+		}
+
+		@Override
+		public void writeChar(int value) {
+			writeShort(value);
+		}
+
+		@Override
+		public void writeInt(int value) {
+			writeVarInt((value << 1) ^ (value >> 31));
+		}
+
+		@Override
+		public void writeLong(long value) {
+			long delta = value - iLastLong;
+			iLastLong = value;
+			writeVarLong((delta << 1) ^ (delta >> 63));
+		}
+
+		@Override
+		public void writeFloat(float value) {
+			int bits = Float.floatToIntBits(value);
+			iBuffer.write((bits >>> 24) & 0xFF);
+			iBuffer.write((bits >>> 16) & 0xFF);
+			iBuffer.write((bits >>> 8) & 0xFF);
+			iBuffer.write(bits & 0xFF);
+		}
+
+		@Override
+		public void writeDouble(double value) {
+			long bits = Double.doubleToLongBits(value);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				iBuffer.write((int)((bits >>> shift) & 0xFF));
+		}
+
+		@Override
+		public void writeBytes(String value) {
+			for (int i = 0; i < value.length(); i++)
+				iBuffer.write((byte)value.charAt(i));
+		}
+
+		@Override
+		public void writeChars(String value) {
+			for (int i = 0; i < value.length(); i++)
+				writeChar(value.charAt(i));
+		}
+
+		@Override
+		public void writeUTF(String value) {
+			writeString(value);
+		}
+
+		@Override
+		public void writeObject(Object object) throws IOException {
+			if (object == null) {
+				writeVarInt(TAG_NULL);
+			} else if (object instanceof String) {
+				Integer ref = iStrings.get(object);
+				if (ref != null) {
+					writeVarInt(TAG_STRING_REF);
+					writeVarInt(ref);
+				} else {
+					iStrings.put((String)object, iStrings.size());
+					writeVarInt(TAG_STRING);
+					writeString((String)object);
+				}
+			} else {
+				if (iObjects == null) {
+					iObjectBuffer = new ByteArrayOutputStream();
+					iObjects = new ObjectOutputStream(iObjectBuffer);
+				}
+				writeVarInt(TAG_OBJECT);
+				iObjects.writeObject(object);
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			iBuffer.write(b);
+		}
+
+		@Override
+		public void write(byte[] b) {
+			iBuffer.write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			iBuffer.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (iObjects != null) iObjects.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (iObjects != null) iObjects.close();
+		}
+	}
+
+	/**
+	 * Compact encoding input (see {@link Output})
+	 */
+	public static class Input implements ObjectInput {
+		private byte[] iData;
+		private int iPosition = 0, iEnd;
+		private List<String> iStrings = new ArrayList<String>();
+		private long iLastLong = 0;
+		private ObjectInputStream iObjects = null;
+
+		public Input(byte[] data) throws IOException {
+			iData = data;
+			iEnd = iData.length;
+			int length = readVarInt();
+			iEnd = iPosition + length;
+			if (iEnd < iPosition || iEnd > iData.length) throw new EOFException();
+		}
+
+		protected int next() throws EOFException {
+			if (iPosition >= iEnd) throw new EOFException();
+			return iData[iPosition++] & 0xFF;
+		}
+
+		protected long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = next();
+				value |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IOException("Malformed variable length number.");
+		}
+
+		protected int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = next();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IOException("Malformed variable length number.");
+		}
+
+		protected String readString() throws IOException {
+			int length = readVarInt();
+			if (length < 0 || iPosition + length > iEnd) throw new UTFDataFormatException();
+			String value = new String(iData, iPosition, length, StandardCharsets.UTF_8);
+			iPosition += length;
+			return value;
+		}
+
+		@Override
+		public void readFully(byte[] b) throws IOException {
+			readFully(b, 0, b.length);
+		}
+
+		@Override
+		public void readFully(byte[] b, int off, int len) throws IOException {
+			if (iPosition + len > iEnd) throw new EOFException();
+			System.arraycopy(iData, iPosition, b, off, len);
+			iPosition += len;
+		}
+
+		@Override
+		public int skipBytes(int n) {
+			int skip = Math.max(0, Math.min(n, iEnd - iPosition));
+			iPosition += skip;
+			return skip;
+		}
+
+		@Override
+		public boolean readBoolean() throws IOException {
+			return next() != 0;
+		}
+
+		@Override
+		public byte readByte() throws IOException {
+			return (byte)next();
+		}
+
+		@Override
+		public int readUnsignedByte() throws IOException {
+			return next();
+		}
+
+		@Override
+		public short readShort() throws IOException {
+			return (short)readUnsignedShort();
+		}
+
+		@Override
+		public int readUnsignedShort() throws IOException {
+			return (next() << 8) | next();
+		}
+
+		@Override
+		public char readChar() throws IOException {
+			return (char)readUnsignedShort();
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			int value = readVarInt();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		@Override
+		public long readLong() throws IOException {
+			long value = readVarLong();
+			iLastLong += (value >>> 1) ^ -(value & 1);
+			return iLastLong;
+		}
+
+		@Override
+		public float readFloat() throws IOException {
+			return Float.intBitsToFloat((next() << 24) | (next() << 16) | (next() << 8) | next());
+		}
+
+		@Override
+		public double readDouble() throws IOException {
+			long bits = 0;
+			for (int i = 0; i < 8; i++)
+				bits = (bits << 8) | next();
+			return Double.longBitsToDouble(bits);
+		}
+
+		@Override
+		public String readLine() throws IOException {
+			if (iPosition >= iEnd) return null;
+			StringBuilder line = new StringBuilder();
+			while (iPosition < iEnd) {
+				int c = iData[iPosition++] & 0xFF;
+				if (c == '\n') break;
+				if (c == '\r') {
+					if (iPosition < iEnd && iData[iPosition] == '\n') iPosition++;
+					break;
+				}
+				line.append((char)c);
+			}
+			return line.toString();
+		}
+
+		@Override
+		public String readUTF() throws IOException {
+			return readString();
+		}
+
+		@Override
+		public Object readObject() throws ClassNotFoundException, IOException {
+			int tag = readVarInt();
+			switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_STRING:
+				String value = readString();
+				iStrings.add(value);
+				return value;
+			case TAG_STRING_REF:
+				int ref = readVarInt();
+				if (ref < 0 || ref >= iStrings.size()) throw new IOException("Invalid string reference " + ref + ".");
+				return iStrings.get(ref);
+			case TAG_OBJECT:
+				if (iObjects == null)
+					iObjects = new ObjectInputStream(new ByteArrayInputStream(iData, iEnd, iData.length - iEnd));
+				return iObjects.readObject();
+			default:
+				throw new IOException("Unknown object tag " + tag + ".");
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			return (iPosition < iEnd ? iData[iPosition++] & 0xFF : -1);
+		}
+
+		@Override
+		public int read(byte[] b) throws IOException {
+			return read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (iPosition >= iEnd) return -1;
+			int count = Math.min(len, iEnd - iPosition);
+			System.arraycopy(iData, iPosition, b, off, count);
+			iPosition += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return skipBytes((int)Math.min(n, Integer.MAX_VALUE));
+		}
+
+		@Override
+		public int available() throws IOException {
+			return iEnd - iPosition;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (iObjects != null) iObjects.close();
+		}
+	}
+}
@@ -832,12 +832,12 @@ public class XCourseRequest extends XRequest {
 
 		@Override
 		public void writeObject(ObjectOutput output, XCourseRequest object) throws IOException {
-			object.writeExternal(output);
+			XCompactCodec.writeObject(output, object);
 		}
 
 		@Override
 		public XCourseRequest readObject(ObjectInput input) throws IOException, ClassNotFoundException {
-			return new XCourseRequest(input);
+			return new XCourseRequest(XCompactCodec.getInput(input));
 		}
 	}
 	
@@ -143,12 +143,12 @@ public class XExpectations implements Serializable, Externalizable {
 
 		@Override
 		public void writeObject(ObjectOutput output, XExpectations object) throws IOException {
-			object.writeExternal(output);
+			XCompactCodec.writeObject(output, object);
 		}
 
 		@Override
 		public XExpectations readObject(ObjectInput input) throws IOException, ClassNotFoundException {
-			return new XExpectations(input);
+			return new XExpectations(XCompactCodec.getInput(input));
 		}
 	}
 }
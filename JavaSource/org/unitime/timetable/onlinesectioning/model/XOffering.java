@@ -60,7 +60,7 @@ import org.cpsolver.studentsct.reservation.ReservationOverride;
 import org.cpsolver.studentsct.reservation.Restriction;
 import org.infinispan.commons.marshall.Externalizer;
 import org.infinispan.commons.marshall.SerializeWith;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.model.CourseOffering;
 import org.unitime.timetable.model.CourseReservation;
 import org.unitime.timetable.model.CurriculumOverrideReservation;
@@ -655,7 +655,7 @@ public class XOffering implements Serializable, Externalizable {
 		if (!(server instanceof StudentSolver) && student != null) {
 			String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 			if (filter != null && !filter.isEmpty()) {
-				if (new Query(filter).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+				if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(student, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 					String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
 					String im = server.getConfig().getProperty("Load.OnlineOnlyInstructionalModeRegExp");
 					if (cn != null && !cn.isEmpty() && !course.getName().matches(cn)) {
@@ -992,12 +992,12 @@ public class XOffering implements Serializable, Externalizable {
 
 		@Override
 		public void writeObject(ObjectOutput output, XOffering object) throws IOException {
-			object.writeExternal(output);
+			XCompactCodec.writeObject(output, object);
 		}
 
 		@Override
 		public XOffering readObject(ObjectInput input) throws IOException, ClassNotFoundException {
-			return new XOffering(input);
+			return new XOffering(XCompactCodec.getInput(input));
 		}
 	}
 }
@@ -753,12 +753,12 @@ public class XStudent extends XStudentId implements Externalizable {
 
 		@Override
 		public void writeObject(ObjectOutput output, XStudent object) throws IOException {
-			object.writeExternal(output);
+			XCompactCodec.writeObject(output, object);
 		}
 
 		@Override
 		public XStudent readObject(ObjectInput input) throws IOException, ClassNotFoundException {
-			return new XStudent(input);
+			return new XStudent(XCompactCodec.getInput(input));
 		}
 	}
 	
@@ -19,10 +19,14 @@
 */
 package org.unitime.timetable.onlinesectioning.server;
 
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -34,6 +38,7 @@ import org.unitime.timetable.onlinesectioning.MultiLock;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 
@@ -276,5 +281,30 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		}
 	}
 	
-	
+	/**
+	 * Lock contention statistics of the offering / student locks, used by the {@link org.unitime.timetable.onlinesectioning.basic.GetInfo} action
+	 */
+	public Map<String, String> getLockStatistics() {
+		Map<String, String> info = new LinkedHashMap<String, String>();
+		if (iMultiLock == null) return info;
+		DecimalFormat df = new DecimalFormat("0.00", new DecimalFormatSymbols(Locale.US));
+		long locks = iMultiLock.getNrLocks(), contended = iMultiLock.getNrContendedLocks();
+		info.put("Locks", iMultiLock.getNrLocked() + " locked, " + iMultiLock.getNrWaiting() + " waiting" + (iMultiLock.isAllLocked() ? ", all locked" : ""));
+		info.put("Locks acquired", locks + (locks == 0 ? "" : " (" + df.format(100.0 * contended / locks) + "% contended)"));
+		info.put("Lock wait time", (contended == 0 ? "0ms" : df.format(iMultiLock.getWaitTime() / contended) + "ms average, " + df.format(iMultiLock.getMaxWaitTime()) + "ms max"));
+		Map<Long, Integer> depths = iMultiLock.getQueueDepths();
+		if (!depths.isEmpty()) {
+			String queue = "";
+			int left = 10;
+			for (Map.Entry<Long, Integer> e: depths.entrySet()) {
+				if (e.getKey() < 0) continue;
+				XOffering offering = getOffering(e.getKey());
+				queue += (queue.isEmpty() ? "" : ", ") + (offering == null ? e.getKey().toString() : offering.getName()) + " (" + e.getValue() + ")";
+				if (--left == 0) { queue += ", ..."; break; }
+			}
+			if (!queue.isEmpty())
+				info.put("Lock queues", queue);
+		}
+		return info;
+	}
 }
@@ -0,0 +1,128 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+
+/**
+ * Prefix index over course names and titles, used by the {@link InMemoryServer} to look up
+ * course suggestions without scanning all the courses.<br>
+ * The name index contains all the strings that {@link XCourseId#matchCourseName(String)} is checking the query
+ * to be a prefix of, the title index contains all the suffixes of the title that start at a word boundary
+ * (see {@link XCourseId#matchTitle(String)}). All keys are in lower case. The index is not thread safe:
+ * it is updated under the server's write lock and read under the read lock.
+ * 
+ * @author Tomas Muller
+ */
+public class CourseIndex {
+	private TreeMap<String, Set<XCourseId>> iNameIndex = new TreeMap<String, Set<XCourseId>>();
+	private TreeMap<String, Set<XCourseId>> iTitleIndex = new TreeMap<String, Set<XCourseId>>();
+	
+	public void add(XCourseId course) {
+		for (String key: getNameKeys(course))
+			add(iNameIndex, key, course);
+		for (String key: getTitleKeys(course))
+			add(iTitleIndex, key, course);
+	}
+	
+	public void remove(XCourseId course) {
+		for (String key: getNameKeys(course))
+			remove(iNameIndex, key, course);
+		for (String key: getTitleKeys(course))
+			remove(iTitleIndex, key, course);
+	}
+	
+	public void clear() {
+		iNameIndex.clear();
+		iTitleIndex.clear();
+	}
+	
+	/**
+	 * Courses whose name, course number, or name with title start with the given query (in lower case),
+	 * this is a super-set of the courses for which {@link XCourseId#matchCourseName(String)} returns true
+	 */
+	public Set<XCourseId> findByName(String queryInLowerCase) {
+		return find(iNameIndex, queryInLowerCase);
+	}
+	
+	/**
+	 * Courses with a title containing a word that starts with the given query (in lower case),
+	 * this is a super-set of the courses for which {@link XCourseId#matchTitle(String)} returns true
+	 */
+	public Set<XCourseId> findByTitle(String queryInLowerCase) {
+		return find(iTitleIndex, queryInLowerCase);
+	}
+	
+	protected static Set<XCourseId> find(TreeMap<String, Set<XCourseId>> index, String prefix) {
+		Set<XCourseId> ret = new HashSet<XCourseId>();
+		for (Map.Entry<String, Set<XCourseId>> e: index.tailMap(prefix, true).entrySet()) {
+			if (!e.getKey().startsWith(prefix)) break;
+			ret.addAll(e.getValue());
+		}
+		return ret;
+	}
+	
+	protected static void add(TreeMap<String, Set<XCourseId>> index, String key, XCourseId course) {
+		Set<XCourseId> courses = index.get(key);
+		if (courses == null) {
+			courses = new HashSet<XCourseId>();
+			index.put(key, courses);
+		}
+		courses.add(course);
+	}
+	
+	protected static void remove(TreeMap<String, Set<XCourseId>> index, String key, XCourseId course) {
+		Set<XCourseId> courses = index.get(key);
+		if (courses != null) {
+			courses.remove(course);
+			if (courses.isEmpty()) index.remove(key);
+		}
+	}
+	
+	protected static Collection<String> getNameKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		String name = course.getCourseName();
+		keys.add(name.toLowerCase());
+		keys.add(course.getCourseNumber().toLowerCase());
+		if (name.indexOf('-') >= 0)
+			keys.add(name.substring(name.lastIndexOf('-') + 1).trim().toLowerCase());
+		if (course.getTitle() != null) {
+			keys.add((name + " " + course.getTitle()).toLowerCase());
+			keys.add((name + " - " + course.getTitle()).toLowerCase());
+		}
+		return keys;
+	}
+	
+	protected static Collection<String> getTitleKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		if (course.getTitle() == null) return keys;
+		String title = course.getTitle().toLowerCase();
+		keys.add(title);
+		for (int idx = title.indexOf(' '); idx >= 0; idx = title.indexOf(' ', idx + 1))
+			keys.add(title.substring(idx + 1));
+		return keys;
+	}
+}
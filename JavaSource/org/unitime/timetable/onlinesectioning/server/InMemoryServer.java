@@ -30,6 +30,7 @@ import java.util.TreeSet;
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
 import org.unitime.timetable.onlinesectioning.match.CourseMatcher;
+import org.unitime.timetable.onlinesectioning.match.QueryStudentMatcher;
 import org.unitime.timetable.onlinesectioning.match.StudentMatcher;
 import org.unitime.timetable.onlinesectioning.model.XCourse;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
@@ -46,8 +47,10 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 public class InMemoryServer extends AbstractLockingServer {
 	private Hashtable<Long, XCourseId> iCourseForId = new Hashtable<Long, XCourseId>();
 	private Hashtable<String, TreeSet<XCourseId>> iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
+	private CourseIndex iCourseIndex = new CourseIndex();
 	
 	private Hashtable<Long, XStudent> iStudentTable = new Hashtable<Long, XStudent>();
+	private StudentIndex iStudentIndex = new StudentIndex();
 	private Hashtable<Long, XOffering> iOfferingTable = new Hashtable<Long, XOffering>();
 	private Hashtable<Long, List<XCourseRequest>> iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
 	private Hashtable<Long, XExpectations> iExpectations = new Hashtable<Long, XExpectations>();
@@ -64,11 +67,11 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, new CourseComparator(query));
 			String queryInLowerCase = query.toLowerCase();
-			for (XCourseId c : iCourseForId.values()) {
+			for (XCourseId c : (queryInLowerCase.isEmpty() ? iCourseForId.values() : iCourseIndex.findByName(queryInLowerCase))) {
 				if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
 			}
 			if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
-				for (XCourseId c : iCourseForId.values()) {
+				for (XCourseId c : iCourseIndex.findByTitle(queryInLowerCase)) {
 					if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
 				}
 			}
@@ -99,6 +102,16 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = readLock();
 		try {
 			List<XStudent> ret = new ArrayList<XStudent>();
+			if (matcher instanceof QueryStudentMatcher) {
+				Set<Long> studentIds = iStudentIndex.findStudentIds(((QueryStudentMatcher)matcher).getQuery(), ((QueryStudentMatcher)matcher).getDefaultSectioningStatus());
+				if (studentIds != null) {
+					for (Long studentId: studentIds) {
+						XStudent s = iStudentTable.get(studentId);
+						if (s != null && matcher.match(s)) ret.add(s);
+					}
+					return ret;
+				}
+			}
 			for (XStudent s: iStudentTable.values())
 				if (matcher.match(s)) ret.add(s);
 			return ret;
@@ -203,6 +216,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			XStudent oldStudent = iStudentTable.remove(student.getStudentId());
 			if (oldStudent != null) {
+				iStudentIndex.remove(oldStudent);
 				for (XRequest request: oldStudent.getRequests())
 					if (request instanceof XCourseRequest)
 						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
@@ -220,6 +234,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			XStudent oldStudent = iStudentTable.put(student.getStudentId(), student);
+			iStudentIndex.add(student);
 			if (updateRequests) {
 				if (oldStudent != null) {
 					for (XRequest request: oldStudent.getRequests())
@@ -257,7 +272,8 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			for (XCourse course: offering.getCourses()) {
-				iCourseForId.remove(course.getCourseId());
+				XCourseId indexed = iCourseForId.remove(course.getCourseId());
+				if (indexed != null) iCourseIndex.remove(indexed);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses != null) {
 					courses.remove(course);
@@ -290,6 +306,7 @@ public class InMemoryServer extends AbstractLockingServer {
 			iOfferingTable.put(offering.getOfferingId(), offering);
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.put(course.getCourseId(), course);
+				iCourseIndex.add(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses == null) {
 					courses = new TreeSet<XCourseId>();
@@ -322,6 +339,10 @@ public class InMemoryServer extends AbstractLockingServer {
 				iStudentTable = new Hashtable<Long, XStudent>();
 			else
 				iStudentTable.clear();
+			if (iStudentIndex == null)
+				iStudentIndex = new StudentIndex();
+			else
+				iStudentIndex.clear();
 			if (iOfferingTable == null)
 				iOfferingTable = new Hashtable<Long, XOffering>();
 			else
@@ -342,6 +363,10 @@ public class InMemoryServer extends AbstractLockingServer {
 				iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
 			else
 				iCourseForName.clear();
+			if (iCourseIndex == null)
+				iCourseIndex = new CourseIndex();
+			else
+				iCourseIndex.clear();
 			if (iInstructedOfferings == null)
 				iInstructedOfferings = new Hashtable<String, Set<Long>>();
 			else
@@ -356,6 +381,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			iStudentTable.clear();
+			iStudentIndex.clear();
 			iOfferingRequests.clear();
 		} finally {
 			lock.release();
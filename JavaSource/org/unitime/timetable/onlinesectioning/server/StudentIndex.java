@@ -0,0 +1,202 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.Query.AndTerm;
+import org.unitime.timetable.gwt.server.Query.AtomTerm;
+import org.unitime.timetable.gwt.server.Query.OrTerm;
+import org.unitime.timetable.gwt.server.Query.Term;
+import org.unitime.timetable.gwt.server.QueryCompiler;
+import org.unitime.timetable.onlinesectioning.model.XAreaClassificationMajor;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Secondary indexes of the students of the {@link InMemoryServer} by academic area, classification, major, minor,
+ * student group, accommodation, advisor, and student status. The indexes are used to narrow the set of students
+ * that need to be checked for a status page filter (see {@link #findStudentIds(Query, String)}); all the returned
+ * students still need to be matched against the full query. All keys are in lower case. The index is not thread safe:
+ * it is updated under the server's write lock and read under the read lock.
+ * 
+ * @author Tomas Muller
+ */
+public class StudentIndex {
+	private Map<Attribute, Map<String, Set<Long>>> iIndexes = new HashMap<Attribute, Map<String, Set<Long>>>();
+	private Map<Long, Map<Attribute, Set<String>>> iStudentKeys = new HashMap<Long, Map<Attribute, Set<String>>>();
+	
+	public StudentIndex() {
+		for (Attribute a: Attribute.values())
+			iIndexes.put(a, new HashMap<String, Set<Long>>());
+	}
+	
+	public static enum Attribute {
+		area("area"),
+		clasf("clasf", "classification"),
+		major("major"),
+		minor("minor"),
+		group("group"),
+		accommodation("accommodation"),
+		advisor("advisor"),
+		status("status"),
+		;
+		private String[] iAttributes;
+		Attribute(String... attributes) { iAttributes = attributes; }
+		
+		public static Attribute fromQuery(String attribute) {
+			if (attribute == null) return null;
+			for (Attribute a: values())
+				for (String attr: a.iAttributes)
+					if (attr.equals(attribute)) return a;
+			return null;
+		}
+	}
+	
+	protected Map<Attribute, Set<String>> getKeys(XStudent student) {
+		Map<Attribute, Set<String>> keys = new HashMap<Attribute, Set<String>>();
+		for (Attribute a: Attribute.values())
+			keys.put(a, new HashSet<String>());
+		for (XAreaClassificationMajor acm: student.getMajors()) {
+			if (acm.getArea() != null) keys.get(Attribute.area).add(acm.getArea().toLowerCase());
+			if (acm.getClassification() != null) keys.get(Attribute.clasf).add(acm.getClassification().toLowerCase());
+			if (acm.getMajor() != null) keys.get(Attribute.major).add(acm.getMajor().toLowerCase());
+		}
+		for (XAreaClassificationMajor acm: student.getMinors()) {
+			if (acm.getArea() != null) keys.get(Attribute.area).add(acm.getArea().toLowerCase());
+			if (acm.getMajor() != null) keys.get(Attribute.minor).add(acm.getMajor().toLowerCase());
+		}
+		for (XStudent.XGroup group: student.getGroups())
+			if (group.getAbbreviation() != null) keys.get(Attribute.group).add(group.getAbbreviation().toLowerCase());
+		for (XStudent.XGroup acc: student.getAccomodations())
+			if (acc.getAbbreviation() != null) keys.get(Attribute.accommodation).add(acc.getAbbreviation().toLowerCase());
+		for (XStudent.XAdvisor advisor: student.getAdvisors())
+			if (advisor.getExternalId() != null) keys.get(Attribute.advisor).add(advisor.getExternalId().toLowerCase());
+		// students without a status are indexed under an empty key
+		keys.get(Attribute.status).add(student.getStatus() == null ? "" : student.getStatus().toLowerCase());
+		return keys;
+	}
+	
+	public void add(XStudent student) {
+		remove(student.getStudentId());
+		Map<Attribute, Set<String>> keys = getKeys(student);
+		iStudentKeys.put(student.getStudentId(), keys);
+		for (Map.Entry<Attribute, Set<String>> e: keys.entrySet()) {
+			Map<String, Set<Long>> index = iIndexes.get(e.getKey());
+			for (String key: e.getValue()) {
+				Set<Long> studentIds = index.get(key);
+				if (studentIds == null) {
+					studentIds = new HashSet<Long>();
+					index.put(key, studentIds);
+				}
+				studentIds.add(student.getStudentId());
+			}
+		}
+	}
+	
+	public void remove(XStudent student) {
+		remove(student.getStudentId());
+	}
+	
+	protected void remove(Long studentId) {
+		// use the keys under which the student was indexed, the student may have been changed since
+		Map<Attribute, Set<String>> keys = iStudentKeys.remove(studentId);
+		if (keys == null) return;
+		for (Map.Entry<Attribute, Set<String>> e: keys.entrySet()) {
+			Map<String, Set<Long>> index = iIndexes.get(e.getKey());
+			for (String key: e.getValue()) {
+				Set<Long> studentIds = index.get(key);
+				if (studentIds != null) {
+					studentIds.remove(studentId);
+					if (studentIds.isEmpty()) index.remove(key);
+				}
+			}
+		}
+	}
+	
+	public void clear() {
+		iStudentKeys.clear();
+		for (Map<String, Set<Long>> index: iIndexes.values())
+			index.clear();
+	}
+	
+	/**
+	 * Returns a super-set of the ids of the students that can match the given query, or null if the query cannot be narrowed
+	 * down using the indexes (e.g., there is no indexed attribute in the query, or it is negated).
+	 * @param query status page filter
+	 * @param defaultStatus default student status of the academic session (matched by students with no status)
+	 */
+	public Set<Long> findStudentIds(Query query, String defaultStatus) {
+		if (query == null) return null;
+		return findStudentIds(query.getQuery(), defaultStatus);
+	}
+	
+	protected Set<Long> findStudentIds(Term term, String defaultStatus) {
+		// compiled queries (see QueryCompiler) are walked using their source terms
+		term = QueryCompiler.getSource(term);
+		if (term instanceof AndTerm) {
+			Set<Long> ret = null;
+			for (Term t: ((AndTerm)term).getTerms()) {
+				Set<Long> ids = findStudentIds(t, defaultStatus);
+				if (ids == null) continue;
+				if (ret == null) {
+					ret = new HashSet<Long>(ids);
+				} else {
+					ret.retainAll(ids);
+				}
+				if (ret.isEmpty()) break;
+			}
+			return ret;
+		} else if (term instanceof OrTerm) {
+			if (((OrTerm)term).getTerms().isEmpty()) return null;
+			Set<Long> ret = new HashSet<Long>();
+			for (Term t: ((OrTerm)term).getTerms()) {
+				Set<Long> ids = findStudentIds(t, defaultStatus);
+				if (ids == null) return null;
+				ret.addAll(ids);
+			}
+			return ret;
+		} else if (term instanceof AtomTerm) {
+			Attribute attribute = Attribute.fromQuery(((AtomTerm)term).getAttribute());
+			if (attribute == null) return null;
+			Map<String, Set<Long>> index = iIndexes.get(attribute);
+			String body = ((AtomTerm)term).getBody();
+			Set<Long> ret = new HashSet<Long>();
+			if (attribute == Attribute.status) {
+				if ("default".equalsIgnoreCase(body) || "Not Set".equalsIgnoreCase(body)) {
+					add(ret, index.get(""));
+					return ret;
+				}
+				if (body.equalsIgnoreCase(defaultStatus))
+					add(ret, index.get(""));
+			}
+			add(ret, index.get(body.toLowerCase()));
+			return ret;
+		}
+		return null;
+	}
+	
+	private static void add(Set<Long> ret, Set<Long> ids) {
+		if (ids != null) ret.addAll(ids);
+	}
+}
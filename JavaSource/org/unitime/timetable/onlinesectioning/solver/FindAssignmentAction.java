@@ -81,7 +81,7 @@ import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.server.DayCode;
-import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface.RequestPriority;
@@ -529,7 +529,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 		
 		OnlineSectioningSelection selection = null;
 		if (server.getConfig().getPropertyBoolean("StudentWeights.MultiCriteria", true)) {
-			selection = new MultiCriteriaBranchAndBoundSelection(server.getConfig());
+			selection = new ParallelBranchAndBoundSelection(server.getConfig());
 		} else {
 			selection = new SuggestionSelection(server.getConfig());
 		}
@@ -558,7 +558,8 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 
 		helper.debug("Using " + (server.getConfig().getPropertyBoolean("StudentWeights.MultiCriteria", true) ? "multi-criteria ": "") +
 				(server.getConfig().getPropertyBoolean("StudentWeights.PriorityWeighting", true) ? "priority" : "equal") + " weighting model" +
-				" with " + server.getConfig().getPropertyInt("Neighbour.BranchAndBoundTimeout", 1000) +" ms time limit.");
+				" with " + server.getConfig().getPropertyInt("Neighbour.BranchAndBoundTimeout", 1000) +" ms time limit" +
+				(selection instanceof ParallelBranchAndBoundSelection && server.getConfig().getPropertyInt("Neighbour.BranchAndBoundThreads", 1) > 1 ? " and " + server.getConfig().getPropertyInt("Neighbour.BranchAndBoundThreads", 1) + " threads" : "") + ".");
 
         neighbour.assign(assignment, 0);
         helper.debug("Solution: " + ToolBox.dict2string(model.getInfo(assignment), 2));
@@ -758,7 +759,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 		if (!(server instanceof StudentSolver) && originalStudent != null && onlineOnlyFilter) {
 			String filter = server.getConfig().getProperty("Load.OnlineOnlyStudentFilter", null);
 			if (filter != null && !filter.isEmpty()) {
-				if (new Query(filter).match(new StudentMatcher(originalStudent, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
+				if (QueryCompiler.getQuery(filter, StudentMatcher.sTermProperties).match(new StudentMatcher(originalStudent, server.getAcademicSession().getDefaultSectioningStatus(), server, false))) {
 					String cn = server.getConfig().getProperty("Load.OnlineOnlyCourseNameRegExp");
 					String im = server.getConfig().getProperty("Load.OnlineOnlyInstructionalModeRegExp");
 					if (cn != null && !cn.isEmpty() && !course.getCourseName().matches(cn)) {
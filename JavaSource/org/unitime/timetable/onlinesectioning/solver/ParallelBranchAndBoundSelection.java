@@ -0,0 +1,396 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.util.DataProperties;
+import org.cpsolver.ifs.util.JProf;
+import org.cpsolver.studentsct.heuristics.selection.BranchBoundSelection.BranchBoundNeighbour;
+import org.cpsolver.studentsct.model.CourseRequest;
+import org.cpsolver.studentsct.model.Enrollment;
+import org.cpsolver.studentsct.model.FreeTimeRequest;
+import org.cpsolver.studentsct.model.Request;
+import org.cpsolver.studentsct.model.Section;
+import org.cpsolver.studentsct.online.selection.MultiCriteriaBranchAndBoundSelection;
+
+/**
+ * Multi-criteria branch &amp; bound selection that can split the search among multiple threads.<br>
+ * The search is split on the alternatives of the first request of the student (each enrollment of the
+ * first course, or leaving it unassigned). The branches are searched in parallel, each branch is pruned by
+ * the best schedule found by the branches that precede it, and the best schedule of all the branches is
+ * returned (ties are resolved in the order of the branches). This way, the result is the same as when the
+ * search is done on a single thread, unless the time or node limit is reached.<br>
+ * The calling thread also takes part in the search, so the search does not wait when all the threads
+ * of the shared pool are busy.<br>
+ * Parameters:
+ * <ul>
+ * <li>Neighbour.BranchAndBoundThreads ... number of threads (defaults to 1, that is no parallel search)
+ * <li>Neighbour.BranchAndBoundNodeLimit ... limit on the number of the search nodes (defaults to 0, that is no limit)
+ * <li>Neighbour.BranchAndBoundTimeout ... time limit in milliseconds
+ * </ul>
+ * 
+ * @author Tomas Muller
+ */
+public class ParallelBranchAndBoundSelection extends MultiCriteriaBranchAndBoundSelection {
+	private static ThreadPoolExecutor sExecutor = null;
+	
+	private DataProperties iConfig;
+	private int iNrThreads = 1;
+	private long iNodeLimit = 0;
+	private Hashtable<CourseRequest, Set<Section>> iPreferredSections = null;
+	private Hashtable<CourseRequest, Set<Section>> iRequiredSections = null;
+	private Set<FreeTimeRequest> iRequiredFreeTimes = null;
+	private Set<CourseRequest> iRequiredUnassigned = null;
+	private double iMaxOverExpected = -1.0;
+	
+	private Search iSearch = null;
+	private int iBranch = -1;
+	
+	public ParallelBranchAndBoundSelection(DataProperties config) {
+		super(config);
+		iConfig = config;
+		iNrThreads = config.getPropertyInt("Neighbour.BranchAndBoundThreads", iNrThreads);
+		iNodeLimit = config.getPropertyLong("Neighbour.BranchAndBoundNodeLimit", iNodeLimit);
+	}
+	
+	/** Number of threads to use, 1 for no parallel search */
+	public void setNrThreads(int nrThreads) { iNrThreads = nrThreads; }
+	
+	/** Limit on the number of search nodes, 0 for no limit */
+	public void setNodeLimit(long nodeLimit) { iNodeLimit = nodeLimit; }
+	
+	@Override
+	public void setPreferredSections(Hashtable<CourseRequest, Set<Section>> preferredSections) {
+		super.setPreferredSections(preferredSections);
+		iPreferredSections = preferredSections;
+	}
+	
+	@Override
+	public void setRequiredSections(Hashtable<CourseRequest, Set<Section>> requiredSections) {
+		super.setRequiredSections(requiredSections);
+		if (requiredSections != null) {
+			if (iRequiredSections == null) iRequiredSections = new Hashtable<CourseRequest, Set<Section>>();
+			iRequiredSections.putAll(requiredSections);
+		}
+	}
+	
+	@Override
+	public void setRequiredFreeTimes(Set<FreeTimeRequest> requiredFreeTimes) {
+		super.setRequiredFreeTimes(requiredFreeTimes);
+		iRequiredFreeTimes = requiredFreeTimes;
+	}
+	
+	@Override
+	public void setRequiredUnassinged(Set<CourseRequest> requiredUnassignedRequests) {
+		super.setRequiredUnassinged(requiredUnassignedRequests);
+		iRequiredUnassigned = requiredUnassignedRequests;
+	}
+	
+	@Override
+	public void setMaxOverExpected(double maxOverExpected) {
+		super.setMaxOverExpected(maxOverExpected);
+		iMaxOverExpected = maxOverExpected;
+	}
+	
+	/** Shared pool of the helper threads, the pool is only grown when more threads are needed (it is never shut down) */
+	protected static synchronized ExecutorService getExecutor(int nrThreads) {
+		if (sExecutor == null) {
+			sExecutor = new ThreadPoolExecutor(nrThreads, nrThreads, 0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private AtomicInteger iCount = new AtomicInteger(0);
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "BranchAndBound-" + iCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else if (sExecutor.getMaximumPoolSize() < nrThreads) {
+			sExecutor.setMaximumPoolSize(nrThreads);
+			sExecutor.setCorePoolSize(nrThreads);
+		}
+		return sExecutor;
+	}
+	
+	@Override
+	public BranchBoundNeighbour select() {
+		if (iNrThreads <= 1 || iStudent.getRequests().isEmpty())
+			return sequential();
+		
+		iT0 = JProf.currentTimeMillis();
+		iTimeoutReached = false;
+		iCurrentAssignment = new Enrollment[iStudent.getRequests().size()];
+		iBestAssignment = null;
+		
+		int i = 0;
+		for (Request r : iStudent.getRequests())
+			iCurrentAssignment[i++] = iAssignment.getValue(r);
+		saveBest();
+		for (int j = 0; j < iCurrentAssignment.length; j++)
+			iCurrentAssignment[j] = null;
+		
+		// compute all the values beforehand, so that the value cache is not modified during the search
+		iValues = new HashMap<CourseRequest, List<Enrollment>>();
+		for (Request r: iStudent.getRequests())
+			if (r instanceof CourseRequest)
+				iValues.put((CourseRequest)r, values((CourseRequest)r));
+		
+		Request first = iStudent.getRequests().get(0);
+		if (!canAssign(first, 0))
+			return sequential();
+		final List<Enrollment> branches = getBranches(first);
+		if (branches.size() <= 1)
+			return sequential();
+		
+		final Search search = new Search(branches.size(), iBestAssignment);
+		final AtomicInteger next = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(branches.size());
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int branch;
+				while ((branch = next.getAndIncrement()) < branches.size()) {
+					try {
+						search.setResult(branch, searchBranch(search, branch, branches.get(branch)));
+					} catch (Throwable t) {
+						search.setError(t);
+					} finally {
+						done.countDown();
+					}
+				}
+			}
+		};
+		
+		List<Future<?>> helpers = new ArrayList<Future<?>>();
+		ExecutorService executor = getExecutor(iNrThreads - 1);
+		for (int t = 1; t < Math.min(iNrThreads, branches.size()); t++)
+			helpers.add(executor.submit(worker));
+		worker.run();
+		boolean interrupted = false;
+		while (done.getCount() > 0) {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				// stop the search as soon as possible, but wait for the running branches to finish
+				interrupted = true;
+				search.stop();
+			}
+		}
+		for (Future<?> helper: helpers)
+			helper.cancel(false);
+		if (interrupted) Thread.currentThread().interrupt();
+		
+		if (search.getError() != null) {
+			if (search.getError() instanceof RuntimeException) throw (RuntimeException)search.getError();
+			throw new RuntimeException(search.getError().getMessage(), search.getError());
+		}
+		iBestAssignment = search.getBest();
+		iTimeoutReached = search.isTimeoutReached();
+		iT1 = JProf.currentTimeMillis();
+		if (iBestAssignment == null)
+			return null;
+		
+		return new BranchBoundNeighbour(iStudent, iComparator.getTotalWeight(iAssignment, iBestAssignment), iBestAssignment);
+	}
+	
+	/** Single threaded search (with the node limit) */
+	protected BranchBoundNeighbour sequential() {
+		iSearch = (iNodeLimit > 0 ? new Search(0, null) : null);
+		try {
+			BranchBoundNeighbour neighbour = super.select();
+			if (iSearch != null && iSearch.isTimeoutReached()) iTimeoutReached = true;
+			return neighbour;
+		} finally {
+			iSearch = null;
+		}
+	}
+	
+	/** Alternatives of the first request, in the order in which they are tried by the branch &amp; bound (null stands for leaving the request unassigned) */
+	protected List<Enrollment> getBranches(Request request) {
+		List<Enrollment> branches = new ArrayList<Enrollment>();
+		if (request instanceof CourseRequest) {
+			CourseRequest courseRequest = (CourseRequest) request;
+			if (!courseRequest.getSelectedChoices().isEmpty()) {
+				List<Enrollment> values = courseRequest.getSelectedEnrollments(iAssignment, true);
+				if (values != null && !values.isEmpty()) {
+					boolean hasNoConflictValue = false;
+					for (Enrollment enrollment : values) {
+						if (inConflict(0, enrollment)) continue;
+						hasNoConflictValue = true;
+						branches.add(enrollment);
+					}
+					if (hasNoConflictValue && iBranchWhenSelectedHasNoConflict)
+						return branches;
+				}
+			}
+		}
+		List<Enrollment> values = (request instanceof CourseRequest ? iValues.get((CourseRequest)request) : request.computeEnrollments(iAssignment));
+		boolean hasNoConflictValue = false;
+		for (Enrollment enrollment : values) {
+			if (inConflict(0, enrollment)) continue;
+			hasNoConflictValue = true;
+			branches.add(enrollment);
+		}
+		if (canLeaveUnassigned(request) || (!hasNoConflictValue && request instanceof CourseRequest))
+			branches.add(null);
+		return branches;
+	}
+	
+	/** Search one branch using a copy of this selection */
+	protected Enrollment[] searchBranch(Search search, int branch, Enrollment enrollment) {
+		ParallelBranchAndBoundSelection selection = new ParallelBranchAndBoundSelection(iConfig);
+		selection.setModel(iModel);
+		selection.setPreferredSections(iPreferredSections);
+		selection.setRequiredSections(iRequiredSections);
+		selection.setRequiredFreeTimes(iRequiredFreeTimes);
+		selection.setRequiredUnassinged(iRequiredUnassigned);
+		if (iMaxOverExpected >= 0.0) selection.setMaxOverExpected(iMaxOverExpected);
+		selection.iStudent = iStudent;
+		selection.iAssignment = iAssignment;
+		selection.iComparator = iComparator;
+		selection.iTimeout = iTimeout;
+		selection.iNodeLimit = iNodeLimit;
+		selection.iValues = iValues;
+		selection.iT0 = iT0;
+		selection.iSearch = search;
+		selection.iBranch = branch;
+		selection.iCurrentAssignment = new Enrollment[iCurrentAssignment.length];
+		selection.iBestAssignment = search.getInitial();
+		selection.iCurrentAssignment[0] = enrollment;
+		selection.backTrack(1);
+		if (selection.iTimeoutReached) search.timeoutReached();
+		return (selection.iBestAssignment == search.getInitial() ? null : selection.iBestAssignment);
+	}
+	
+	@Override
+	public void backTrack(int idx) {
+		if (iSearch != null) {
+			if (iSearch.isStopped() || (iNodeLimit > 0 && iSearch.incNodes() > iNodeLimit)) {
+				iTimeoutReached = true;
+				iSearch.timeoutReached();
+				return;
+			}
+			if (iBranch >= 0 && idx < iCurrentAssignment.length) {
+				Enrollment[] best = iSearch.getBound(iBranch);
+				if (best != null && best != iBestAssignment && !iComparator.canImprove(iAssignment, idx, iCurrentAssignment, best))
+					return;
+			}
+		}
+		super.backTrack(idx);
+	}
+	
+	@Override
+	public void saveBest() {
+		if (iBranch >= 0) {
+			// do not modify the initial schedule, it is shared among the branches
+			iBestAssignment = new Enrollment[iCurrentAssignment.length];
+			for (int i = 0; i < iCurrentAssignment.length; i++)
+				iBestAssignment[i] = iCurrentAssignment[i];
+			iSearch.setBound(iBranch, iBestAssignment);
+		} else {
+			super.saveBest();
+		}
+	}
+	
+	/**
+	 * State of the search shared among the branches
+	 */
+	protected class Search {
+		private Enrollment[] iInitial;
+		private Enrollment[][] iResults;
+		private Enrollment[][] iBounds;
+		private volatile Enrollment[][] iPrefixBounds;
+		private AtomicLong iNodes = new AtomicLong(0);
+		private volatile boolean iStop = false, iTimeout = false;
+		private Throwable iError = null;
+		
+		Search(int nrBranches, Enrollment[] initial) {
+			iInitial = initial;
+			iResults = new Enrollment[nrBranches][];
+			iBounds = new Enrollment[nrBranches][];
+			iPrefixBounds = new Enrollment[nrBranches][];
+			for (int b = 0; b < nrBranches; b++)
+				iPrefixBounds[b] = initial;
+		}
+		
+		Enrollment[] getInitial() { return iInitial; }
+		
+		long incNodes() { return iNodes.incrementAndGet(); }
+		
+		boolean isStopped() { return iStop; }
+		
+		void stop() { iStop = true; }
+		
+		void timeoutReached() { iTimeout = true; }
+		
+		boolean isTimeoutReached() { return iTimeout; }
+		
+		/**
+		 * Record a new best schedule of a branch. Improvements are rare compared to the bound checks, so the bounds of all the
+		 * branches are recomputed here and published as a new array.
+		 */
+		synchronized void setBound(int branch, Enrollment[] best) {
+			iBounds[branch] = best;
+			Enrollment[][] prefixBounds = new Enrollment[iBounds.length][];
+			Enrollment[] bound = iInitial;
+			for (int b = 0; b < iBounds.length; b++) {
+				prefixBounds[b] = bound;
+				if (iBounds[b] != null && (bound == null || iComparator.compare(iAssignment, iBounds[b], bound) < 0))
+					bound = iBounds[b];
+			}
+			iPrefixBounds = prefixBounds;
+		}
+		
+		/** Best schedule found by the branches preceding the given one (or the initial schedule), does not block */
+		Enrollment[] getBound(int branch) {
+			return iPrefixBounds[branch];
+		}
+		
+		synchronized void setResult(int branch, Enrollment[] result) { iResults[branch] = result; }
+		
+		synchronized void setError(Throwable error) { if (iError == null) iError = error; iStop = true; }
+		
+		synchronized Throwable getError() { return iError; }
+		
+		/** Best of the results, ties are resolved in the order of the branches */
+		synchronized Enrollment[] getBest() {
+			Enrollment[] best = iInitial;
+			for (int b = 0; b < iResults.length; b++) {
+				if (iResults[b] != null && (best == null || iComparator.compare(iAssignment, iResults[b], best) < 0))
+					best = iResults[b];
+			}
+			return best;
+		}
+	}
+}
@@ -41,6 +41,7 @@ import org.unitime.timetable.gwt.client.sectioning.SectioningStatusFilterBox.Sec
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.QueryCompiler;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface.AdvisedInfoInterface;
 import org.unitime.timetable.gwt.shared.ClassAssignmentInterface.StudentInfo;
@@ -57,6 +58,7 @@ import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.match.AbstractStudentMatcher;
+import org.unitime.timetable.onlinesectioning.match.QueryStudentMatcher;
 import org.unitime.timetable.onlinesectioning.model.XAdvisorRequest;
 import org.unitime.timetable.onlinesectioning.model.XAreaClassificationMajor;
 import org.unitime.timetable.onlinesectioning.model.XConfig;
@@ -96,7 +98,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 	protected boolean iIsAdmin = false, iIsAdvisor = false, iCanEditMyStudents = false, iCanEditOtherStudents = false, iCanSelect = false;
 	
 	public FindStudentInfoAction withParams(String query, Set<Long> coursesIcoordinage, Set<Long> coursesIcanApprove, Set<Long> myStudents, Set<String> subjects, boolean canShowExtIds, boolean canRegister, boolean canUseAssistant) {
-		iQuery = new Query(query);
+		iQuery = QueryCompiler.getQuery(query);
 		iCoursesIcanApprove = coursesIcanApprove;
 		iCoursesIcoordinate = coursesIcoordinage;
 		iMyStudents = myStudents;
@@ -791,7 +793,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		return "find-student-infos";
 	}
 	
-	public static class FindStudentInfoMatcher extends AbstractStudentMatcher {
+	public static class FindStudentInfoMatcher extends AbstractStudentMatcher implements QueryStudentMatcher {
 		private static final long serialVersionUID = 1L;
 		protected Query iQuery;
 		protected String iDefaultSectioningStatus;
@@ -806,6 +808,12 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		public boolean isMyStudent(XStudentId student) {
 			return iMyStudents != null && iMyStudents.contains(student.getStudentId());
 		}
+		
+		@Override
+		public Query getQuery() { return iQuery; }
+		
+		@Override
+		public String getDefaultSectioningStatus() { return iDefaultSectioningStatus; }
 
 		@Override
 		public boolean match(XStudentId id) {
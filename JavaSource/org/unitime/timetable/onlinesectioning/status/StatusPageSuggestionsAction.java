@@ -42,6 +42,7 @@ import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.server.DayCode;
 import org.unitime.timetable.gwt.server.Query.AmbigousTermMatcher;
 import org.unitime.timetable.gwt.server.Query.TermMatcher;
+import org.unitime.timetable.gwt.server.QueryCompiler.TermProperties;
 import org.unitime.timetable.gwt.shared.PersonInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.gwt.shared.OnlineSectioningInterface.WaitListMode;
@@ -1644,6 +1645,26 @@ public class StatusPageSuggestionsAction implements OnlineSectioningAction<List<
 	}
 	
 	public static class StudentMatcher implements TermMatcher {
+		/**
+		 * Empty and limit terms always match; terms that need to go through the student requests
+		 * (and the offerings of the student enrollments) are evaluated last
+		 */
+		public static final TermProperties sTermProperties = new TermProperties() {
+			@Override
+			public Boolean constant(String attr, String body) {
+				if (attr == null && body.isEmpty()) return true;
+				if ("limit".equals(attr)) return true;
+				return null;
+			}
+			
+			@Override
+			public int cost(String attr, String body) {
+				if ("overlap".equals(attr)) return 100;
+				if ("credit".equals(attr) || "override".equals(attr) || "registered".equals(attr)) return 10;
+				return 1;
+			}
+		};
+		
 		private XStudent iStudent;
 		private String iDefaultStatus;
 		private OnlineSectioningServer iServer;
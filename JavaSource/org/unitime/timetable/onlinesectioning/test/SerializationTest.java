@@ -0,0 +1,149 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.model.XCompactCodec;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Compares the size and the encode/decode times of the plain ({@link Externalizable}) and
+ * the compact ({@link XCompactCodec}) encoding of the offerings and students of the loaded academic session.
+ * 
+ * @author Tomas Muller
+ */
+public class SerializationTest extends OnlineSectioningTestFwk {
+	private static int sRepeat = Integer.valueOf(System.getProperty("repeat", "10"));
+	
+	protected static interface Reader {
+		public Object read(ObjectInput in) throws IOException, ClassNotFoundException;
+	}
+	
+	protected double compare(String type, Externalizable object, Reader reader) throws IOException, ClassNotFoundException {
+		byte[] plain = null, compact = null;
+		
+		long t0 = System.nanoTime();
+		for (int i = 0; i < sRepeat; i++) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(buffer);
+			object.writeExternal(out);
+			out.close();
+			plain = buffer.toByteArray();
+		}
+		long t1 = System.nanoTime();
+		for (int i = 0; i < sRepeat; i++) {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(plain));
+			reader.read(in);
+			in.close();
+		}
+		long t2 = System.nanoTime();
+		for (int i = 0; i < sRepeat; i++) {
+			compact = XCompactCodec.encode(object);
+		}
+		long t3 = System.nanoTime();
+		for (int i = 0; i < sRepeat; i++) {
+			reader.read(new XCompactCodec.Input(compact));
+		}
+		long t4 = System.nanoTime();
+		
+		inc("[" + type + "] Plain size [B]", plain.length);
+		inc("[" + type + "] Compact size [B]", compact.length);
+		inc("[" + type + "] Plain encode [us]", (t1 - t0) / 1000.0 / sRepeat);
+		inc("[" + type + "] Plain decode [us]", (t2 - t1) / 1000.0 / sRepeat);
+		inc("[" + type + "] Compact encode [us]", (t3 - t2) / 1000.0 / sRepeat);
+		inc("[" + type + "] Compact decode [us]", (t4 - t3) / 1000.0 / sRepeat);
+		
+		return ((double)compact.length) / plain.length;
+	}
+
+	@Override
+	public List<Operation> operations() {
+		org.hibernate.Session hibSession = new _RootDAO().getSession();
+		
+		List<Operation> operations = new ArrayList<Operation>();
+		
+		for (final Long offeringId: (List<Long>)hibSession.createQuery(
+				"select io.uniqueId from InstructionalOffering io where io.session.uniqueId = :sessionId and io.notOffered = false")
+				.setLong("sessionId", getServer().getAcademicSession().getUniqueId()).list()) {
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					XOffering offering = s.getOffering(offeringId);
+					if (offering == null) return 1.0;
+					try {
+						return compare("Offering", offering, new Reader() {
+							@Override
+							public Object read(ObjectInput in) throws IOException, ClassNotFoundException {
+								return new XOffering(in);
+							}
+						});
+					} catch (Exception e) {
+						sLog.error("Failed to serialize offering " + offering.getName() + ": " + e.getMessage(), e);
+						return 0.0;
+					}
+				}
+			});
+		}
+		
+		for (final Long studentId: (List<Long>)hibSession.createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId")
+				.setLong("sessionId", getServer().getAcademicSession().getUniqueId()).list()) {
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					XStudent student = s.getStudent(studentId);
+					if (student == null) return 1.0;
+					try {
+						return compare("Student", student, new Reader() {
+							@Override
+							public Object read(ObjectInput in) throws IOException, ClassNotFoundException {
+								return new XStudent(in);
+							}
+						});
+					} catch (Exception e) {
+						sLog.error("Failed to serialize student " + student.getName() + ": " + e.getMessage(), e);
+						return 0.0;
+					}
+				}
+			});
+		}
+		hibSession.close();
+		
+		return operations;
+	}
+	
+	public static void main(String args[]) {
+		new SerializationTest().test(-1, 1);
+	}
+
+}
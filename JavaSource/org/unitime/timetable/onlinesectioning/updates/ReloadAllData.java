@@ -23,6 +23,7 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,7 +35,10 @@ import java.util.Set;
 
 import org.cpsolver.coursett.constraint.GroupConstraint;
 import org.cpsolver.coursett.constraint.IgnoreStudentConflictsConstraint;
+import org.hibernate.FlushMode;
+import org.hibernate.type.LongType;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.shared.OnlineSectioningInterface.WaitListMode;
@@ -49,6 +53,7 @@ import org.unitime.timetable.model.PreferenceLevel;
 import org.unitime.timetable.model.SchedulingSubpart;
 import org.unitime.timetable.model.WaitList;
 import org.unitime.timetable.model.comparators.ClassComparator;
+import org.unitime.timetable.model.dao._RootDAO;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
@@ -76,6 +81,8 @@ import org.unitime.timetable.solver.TimetableDatabaseLoader;
 public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 	private static final long serialVersionUID = 1L;
 	private static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
+	/** Server property with the time of the last reload (or re-synchronization), see {@link ResyncData} */
+	public static final String LAST_SYNC_PROPERTY = "ReloadAllData.LastSync";
 
 	@Override
 	public Boolean execute(final OnlineSectioningServer server, OnlineSectioningHelper helper) {
@@ -94,6 +101,7 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 				helper.info("Updating course infos and the student sectining model for session " + server.getAcademicSession());
 				long t0 = System.currentTimeMillis();
 				server.clearAll();
+				server.setProperty(LAST_SYNC_PROPERTY, new Date(t0));
 
 				Map<Long, List<XDistribution>> distributions = new Hashtable<Long, List<XDistribution>>();
 		    	List<DistributionPref> distPrefs = helper.getHibSession().createQuery(
@@ -125,49 +133,10 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 		        	}
 		        }
 		        
-				Map<Long, XOffering> offeringMap = new HashMap<Long, XOffering>();
-				Map<Long, XSection> sectionMap = new HashMap<Long, XSection>();
 				Map<Long, Map<Long, Double>> spaceMap = new HashMap<Long, Map<Long,Double>>();
-				List<InstructionalOffering> offerings = helper.getHibSession().createQuery(
-						"select distinct io from InstructionalOffering io " +
-						"left join io.courseOfferings co " +
-						"left join fetch io.instrOfferingConfigs cf " +
-						"left join fetch cf.schedulingSubparts ss " +
-						"left join fetch ss.classes as c "+
-						"left join fetch io.reservations x " +
-						"where io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true")
-						.setLong("sessionId", server.getAcademicSession().getUniqueId()).list();
-				for (InstructionalOffering io: offerings) {
-					XOffering offering = loadOffering(io, distributions.get(io.getUniqueId()), server, helper);
-					if (offering != null) {
-						offeringMap.put(offering.getOfferingId(), offering);
-						for (XConfig config: offering.getConfigs())
-							for (XSubpart subpart: config.getSubparts())
-								for (XSection section: subpart.getSections())
-									sectionMap.put(section.getSectionId(), section);
-						spaceMap.put(offering.getOfferingId(), new HashMap<Long, Double>());
-						server.update(offering);
-					}
-				}
+				loadOfferings(server, helper, distributions, spaceMap);
 				
-		        Map<Long, List<XCourseRequest>> requestMap = new HashMap<Long, List<XCourseRequest>>();
-				List<org.unitime.timetable.model.Student> students = helper.getHibSession().createQuery(
-	                    "select distinct s from Student s " +
-	                    "left join fetch s.courseDemands as cd " +
-	                    "left join fetch cd.courseRequests as cr " +
-	                    "left join fetch cr.classWaitLists as cwl " + 
-	                    "left join fetch s.classEnrollments as e " +
-	                    "left join fetch s.areaClasfMajors as acm " +
-	                    "left join fetch s.waitlists as w " +
-	                    "left join fetch s.groups as g " +
-	                    "left join fetch s.notes as n " +
-	                    "where s.session.uniqueId=:sessionId").
-	                    setLong("sessionId",server.getAcademicSession().getUniqueId()).list();
-	            for (org.unitime.timetable.model.Student student: students) {
-	            	XStudent s = loadStudent(student, requestMap, server, helper, WaitList.WaitListType.RELOAD);
-	            	if (s != null)
-	            		server.update(s, true);
-	            }
+				loadStudents(server, helper);
 				
 		    	List<Object[]> infos = helper.getHibSession().createQuery(
 		    			"select i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId, i.clazz.uniqueId, i.nbrExpectedStudents from SectioningInfo i where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
@@ -200,6 +169,268 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
 		}		
 	}
 	
+	protected int getNrThreads(OnlineSectioningServer server) {
+		return server.getConfig().getPropertyInt("ReloadAllData.NrThreads", 1);
+	}
+	
+	protected int getChunkSize(OnlineSectioningServer server) {
+		return server.getConfig().getPropertyInt("ReloadAllData.ChunkSize", 1000);
+	}
+	
+	protected void loadOfferings(final OnlineSectioningServer server, OnlineSectioningHelper helper, final Map<Long, List<XDistribution>> distributions, final Map<Long, Map<Long, Double>> spaceMap) {
+		List<Long> offeringIds = helper.getHibSession().createQuery(
+				"select distinct io.uniqueId from InstructionalOffering io " +
+				"left join io.courseOfferings co " +
+				"where io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true " +
+				"order by io.uniqueId")
+				.setLong("sessionId", server.getAcademicSession().getUniqueId()).list();
+		new ChunkedLoader<XOffering>("offerings", server, offeringIds) {
+			@Override
+			protected List<XOffering> load(List<Long> ids, OnlineSectioningHelper h) {
+				List<XOffering> ret = new ArrayList<XOffering>(ids.size());
+				for (InstructionalOffering io: (List<InstructionalOffering>)h.getHibSession().createQuery(
+						"select distinct io from InstructionalOffering io " +
+						"left join fetch io.instrOfferingConfigs cf " +
+						"left join fetch cf.schedulingSubparts ss " +
+						"left join fetch ss.classes as c "+
+						"left join fetch io.reservations x " +
+						"where io.uniqueId in :ids")
+						.setParameterList("ids", ids, LongType.INSTANCE).list()) {
+					XOffering offering = loadOffering(io, distributions.get(io.getUniqueId()), server, h);
+					if (offering != null) ret.add(offering);
+				}
+				return ret;
+			}
+			@Override
+			protected void process(XOffering offering) {
+				spaceMap.put(offering.getOfferingId(), new HashMap<Long, Double>());
+				server.update(offering);
+			}
+		}.execute(helper);
+	}
+	
+	protected void loadStudents(final OnlineSectioningServer server, OnlineSectioningHelper helper) {
+		final Map<Long, List<XCourseRequest>> requestMap = new HashMap<Long, List<XCourseRequest>>();
+		List<Long> studentIds = helper.getHibSession().createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId order by s.uniqueId")
+				.setLong("sessionId", server.getAcademicSession().getUniqueId()).list();
+		new ChunkedLoader<XStudent>("students", server, studentIds) {
+			@Override
+			protected List<XStudent> load(List<Long> ids, OnlineSectioningHelper h) {
+				List<XStudent> ret = new ArrayList<XStudent>(ids.size());
+				for (org.unitime.timetable.model.Student student: (List<org.unitime.timetable.model.Student>)h.getHibSession().createQuery(
+	                    "select distinct s from Student s " +
+	                    "left join fetch s.courseDemands as cd " +
+	                    "left join fetch cd.courseRequests as cr " +
+	                    "left join fetch cr.classWaitLists as cwl " + 
+	                    "left join fetch s.classEnrollments as e " +
+	                    "left join fetch s.areaClasfMajors as acm " +
+	                    "left join fetch s.waitlists as w " +
+	                    "left join fetch s.groups as g " +
+	                    "left join fetch s.notes as n " +
+	                    "where s.uniqueId in :ids")
+						.setParameterList("ids", ids, LongType.INSTANCE).list()) {
+					// wait-lists are reset in processed(...), the loading is read-only
+					XStudent s = loadStudentNoReservations(student, server, h, null);
+					if (s != null) ret.add(s);
+				}
+				return ret;
+			}
+			@Override
+			protected void process(XStudent student) {
+				// reservations are guessed in the order of the students, so that the result does not depend on the number of threads
+				guessReservations(student, requestMap, server);
+				server.update(student, true);
+			}
+			@Override
+			protected void processed(List<Long> ids, OnlineSectioningHelper h) {
+				for (org.unitime.timetable.model.Student student: (List<org.unitime.timetable.model.Student>)h.getHibSession().createQuery(
+						"select distinct s from Student s left join fetch s.waitlists as w where s.uniqueId in :ids")
+						.setParameterList("ids", ids, LongType.INSTANCE).list()) {
+					if (student.getWaitListMode() == WaitListMode.WaitList)
+						student.resetWaitLists(WaitList.WaitListType.RELOAD, h.getUser().getExternalId(), null, h.getHibSession());
+				}
+			}
+		}.execute(helper);
+	}
+	
+	/**
+	 * Loads entities in chunks of ids. Each chunk is loaded and converted to the X-model by {@link #load(List, OnlineSectioningHelper)},
+	 * either on the calling thread (ReloadAllData.NrThreads = 1), or by a pool of worker threads, each using its own Hibernate session.
+	 * The converted chunks are passed to {@link #process(Object)} on the calling thread in the order of the chunks. The workers are only
+	 * allowed to get a few chunks ahead of the processing, keeping the number of loaded entities bounded. The loading is read-only
+	 * (the worker sessions are never flushed), all changes to the database are to be made by {@link #processed(List, OnlineSectioningHelper)}
+	 * in the transaction of the calling thread, so that they are committed or rolled back together. The Hibernate session
+	 * is flushed and cleared after each chunk.
+	 */
+	protected abstract class ChunkedLoader<E> {
+		private String iName;
+		private List<List<Long>> iChunks = new ArrayList<List<Long>>();
+		private int iNrThreads, iNrIds;
+		private int iNextChunk = 0, iNextToProcess = 0;
+		private Map<Integer, List<E>> iResults = new HashMap<Integer, List<E>>();
+		private Exception iException = null;
+		private boolean iStop = false;
+		private Long iSessionId;
+		
+		protected ChunkedLoader(String name, OnlineSectioningServer server, List<Long> ids) {
+			iName = name;
+			iNrThreads = Math.max(1, getNrThreads(server));
+			iSessionId = server.getAcademicSession().getUniqueId();
+			iNrIds = ids.size();
+			int chunkSize = getChunkSize(server);
+			if (chunkSize <= 0) chunkSize = Math.max(1, ids.size());
+			for (int i = 0; i < ids.size(); i += chunkSize)
+				iChunks.add(ids.subList(i, Math.min(ids.size(), i + chunkSize)));
+		}
+		
+		/** Load and convert the given chunk, called by a worker thread (or the calling thread if there are no workers) */
+		protected abstract List<E> load(List<Long> ids, OnlineSectioningHelper helper);
+		
+		/** Process a loaded item, always called by the calling thread */
+		protected abstract void process(E item);
+		
+		/** Called by the calling thread (using its transaction) when all the items of the given chunk have been processed */
+		protected void processed(List<Long> ids, OnlineSectioningHelper helper) {}
+		
+		public void execute(OnlineSectioningHelper helper) {
+			long t0 = System.currentTimeMillis();
+			helper.info("  Loading " + iNrIds + " " + iName + " in " + iChunks.size() + " chunks" + (iNrThreads > 1 ? " using " + iNrThreads + " threads" : "") + " ...");
+			int processed = 0, lastPct = 0;
+			if (iNrThreads <= 1 || iChunks.size() <= 1) {
+				for (List<Long> chunk: iChunks) {
+					for (E item: load(chunk, helper)) {
+						process(item);
+					}
+					processed(chunk, helper);
+					helper.getHibSession().flush();
+					helper.getHibSession().clear();
+					processed += chunk.size();
+					lastPct = progress(helper, processed, lastPct, t0);
+				}
+			} else {
+				List<Worker> workers = new ArrayList<Worker>();
+				for (int i = 0; i < Math.min(iNrThreads, iChunks.size()); i++)
+					workers.add(new Worker(i, helper));
+				for (Worker worker: workers) worker.start();
+				try {
+					for (int i = 0; i < iChunks.size(); i++) {
+						List<E> items = null;
+						synchronized (this) {
+							while (!iResults.containsKey(i) && iException == null)
+								wait();
+							if (iException != null)
+								throw (iException instanceof RuntimeException ? (RuntimeException)iException : new SectioningException(MSG.exceptionUnknown(iException.getMessage()), iException));
+							items = iResults.remove(i);
+							iNextToProcess = i + 1;
+							notifyAll();
+						}
+						for (E item: items)
+							process(item);
+						processed(iChunks.get(i), helper);
+						helper.getHibSession().flush();
+						helper.getHibSession().clear();
+						processed += iChunks.get(i).size();
+						lastPct = progress(helper, processed, lastPct, t0);
+					}
+				} catch (InterruptedException e) {
+					throw new SectioningException(MSG.exceptionUnknown(e.getMessage()), e);
+				} finally {
+					synchronized (this) {
+						iStop = true;
+						notifyAll();
+					}
+					for (Worker worker: workers) {
+						try {
+							worker.join();
+						} catch (InterruptedException e) {}
+					}
+				}
+			}
+			long t1 = System.currentTimeMillis();
+			helper.info("  Loaded " + iNrIds + " " + iName + " in " + new DecimalFormat("0.0").format((t1 - t0) / 1000.0) + " seconds" +
+					(t1 > t0 ? " (" + new DecimalFormat("0.0").format(1000.0 * iNrIds / (t1 - t0)) + " " + iName + "/s)" : "") + ".");
+		}
+		
+		private int progress(OnlineSectioningHelper helper, int processed, int lastPct, long t0) {
+			int pct = (iNrIds == 0 ? 100 : (100 * processed) / iNrIds);
+			if (pct / 10 > lastPct / 10 && processed < iNrIds) {
+				helper.info("    " + pct + "% " + iName + " loaded (" + processed + " of " + iNrIds + ", " + new DecimalFormat("0.0").format((System.currentTimeMillis() - t0) / 1000.0) + " seconds)");
+			}
+			return pct;
+		}
+		
+		private synchronized Integer nextChunk() throws InterruptedException {
+			// do not get more than two chunks per thread ahead of the processing
+			while (!iStop && iException == null && iNextChunk < iChunks.size() && iNextChunk - iNextToProcess >= 2 * iNrThreads)
+				wait();
+			if (iStop || iException != null || iNextChunk >= iChunks.size()) return null;
+			return iNextChunk++;
+		}
+		
+		private synchronized void done(Integer chunk, List<E> items, Exception exception) {
+			if (exception != null) {
+				if (iException == null) iException = exception;
+			} else {
+				iResults.put(chunk, items);
+			}
+			notifyAll();
+		}
+		
+		protected class Worker extends Thread {
+			private OnlineSectioningHelper iParent;
+			
+			public Worker(int index, OnlineSectioningHelper parent) {
+				setName("ReloadAllData-" + iName + "-" + (1 + index));
+				setDaemon(true);
+				iParent = parent;
+			}
+			
+			@Override
+			public void run() {
+				org.hibernate.Session hibSession = null;
+				Integer chunk = null;
+				try {
+					ApplicationProperties.setSessionId(iSessionId);
+					hibSession = new _RootDAO().createNewSession();
+					hibSession.setDefaultReadOnly(true);
+					hibSession.setFlushMode(FlushMode.MANUAL);
+					OnlineSectioningHelper helper = new OnlineSectioningHelper(hibSession, iParent.getUser());
+					helper.setGradableSubpartsProvider(iParent.getGradableSubpartsProvider());
+					helper.addMessageHandler(new OnlineSectioningHelper.MessageHandler() {
+						@Override
+						public void onMessage(OnlineSectioningHelper.Message message) {
+							synchronized (iParent) {
+								iParent.log(message);
+							}
+						}
+						@Override
+						public boolean isDebugEnabled() {
+							return iParent.isDebugEnabled();
+						}
+					});
+					while ((chunk = nextChunk()) != null) {
+						helper.beginTransaction();
+						try {
+							List<E> items = load(iChunks.get(chunk), helper);
+							helper.commitTransaction();
+							done(chunk, items, null);
+						} catch (Exception e) {
+							helper.rollbackTransaction();
+							throw e;
+						}
+						hibSession.clear();
+					}
+				} catch (Exception e) {
+					done(chunk, null, e);
+				} finally {
+					ApplicationProperties.setSessionId(null);
+					if (hibSession != null && hibSession.isOpen()) hibSession.close();
+				}
+			}
+		}
+	}
+	
     public static XOffering loadOffering(InstructionalOffering io, List<XDistribution> distributions, OnlineSectioningServer server, OnlineSectioningHelper helper) {
     	if (io.getInstrOfferingConfigs().isEmpty() || io.isNotOffered()) return null;
     	return new XOffering(io, distributions, helper);
@@ -210,6 +441,34 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
     }
     
     public static XStudent loadStudent(org.unitime.timetable.model.Student s, Map<Long, List<XCourseRequest>> requestMap, OnlineSectioningServer server, OnlineSectioningHelper helper, WaitList.WaitListType resetWaitListType) {
+    	XStudent student = loadStudentNoReservations(s, server, helper, resetWaitListType);
+    	guessReservations(student, requestMap, server);
+    	return student;
+    }
+    
+    public static void guessReservations(XStudent student, Map<Long, List<XCourseRequest>> requestMap, OnlineSectioningServer server) {
+    	for (XRequest request: student.getRequests()) {
+    		if (!(request instanceof XCourseRequest)) continue;
+    		XCourseRequest courseRequest = (XCourseRequest)request;
+    		XEnrollment enrollment = courseRequest.getEnrollment();
+    		if (enrollment == null) continue;
+    		XOffering offering = server.getOffering(enrollment.getOfferingId());
+    		if (offering == null || offering.getReservations().isEmpty()) continue;
+    		if (requestMap != null) {
+    			List<XCourseRequest> assigned = requestMap.get(enrollment.getOfferingId());
+    			if (assigned == null) {
+    				assigned = new ArrayList<XCourseRequest>();
+    				requestMap.put(enrollment.getOfferingId(), assigned);
+    			}
+    			enrollment.setReservation(offering.guessReservation(assigned, student, enrollment));
+    			assigned.add(courseRequest);
+    		} else {
+    			enrollment.setReservation(offering.guessReservation(server.getRequests(enrollment.getOfferingId()), student, enrollment));
+    		}
+    	}
+    }
+    
+    public static XStudent loadStudentNoReservations(org.unitime.timetable.model.Student s, OnlineSectioningServer server, OnlineSectioningHelper helper, WaitList.WaitListType resetWaitListType) {
     	XStudent student = new XStudent(s, helper, server.getAcademicSession().getFreeTimePattern(), server.getAcademicSession().getDatePatternFirstDate());
     	
     	for (Iterator<XRequest> i = student.getRequests().iterator(); i.hasNext(); ) {
@@ -233,20 +492,6 @@ public class ReloadAllData implements OnlineSectioningAction<Boolean> {
     			if (enrollment != null) {
     				XOffering offering = server.getOffering(enrollment.getOfferingId());
     				
-    				if (!offering.getReservations().isEmpty()) {
-        				if (requestMap != null) {
-        					List<XCourseRequest> assigned = requestMap.get(enrollment.getOfferingId());
-        					if (assigned == null) {
-        						assigned = new ArrayList<XCourseRequest>();
-        						requestMap.put(enrollment.getOfferingId(), assigned);
-            				}
-            				enrollment.setReservation(offering.guessReservation(assigned, student, enrollment));
-        					assigned.add(courseRequest);
-        				} else {
-        					enrollment.setReservation(offering.guessReservation(server.getRequests(enrollment.getOfferingId()), student, enrollment));
-        				}
-    				}
-    				
     				boolean mixedConfig = false;
     				for (XConfig config: offering.getConfigs()) {
     					for (XSubpart subpart: config.getSubparts()) {
@@ -19,19 +19,12 @@
 */
 package org.unitime.timetable.onlinesectioning.updates;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.shared.SectioningException;
-import org.unitime.timetable.model.WaitList;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
-import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
-import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.server.CheckMaster;
 import org.unitime.timetable.onlinesectioning.server.CheckMaster.Master;
 
@@ -51,24 +44,7 @@ public class ReloadAllStudents extends ReloadAllData {
 			try {
 				server.clearAllStudents();
 				
-		        Map<Long, List<XCourseRequest>> requestMap = new HashMap<Long, List<XCourseRequest>>();
-				List<org.unitime.timetable.model.Student> students = helper.getHibSession().createQuery(
-	                    "select distinct s from Student s " +
-	                    "left join fetch s.courseDemands as cd " +
-	                    "left join fetch cd.courseRequests as cr " +
-	                    "left join fetch cr.classWaitLists as cwl " + 
-	                    "left join fetch s.classEnrollments as e " +
-	                    "left join fetch s.areaClasfMajors as acm " +
-	                    "left join fetch s.waitlists as w " +
-	                    "left join fetch s.groups as g " +
-	                    "left join fetch s.notes as n " +
-	                    "where s.session.uniqueId=:sessionId").
-	                    setLong("sessionId",server.getAcademicSession().getUniqueId()).list();
-	            for (org.unitime.timetable.model.Student student: students) {
-	            	XStudent s = loadStudent(student, requestMap, server, helper, WaitList.WaitListType.RELOAD);
-	            	if (s != null)
-	            		server.update(s, true);
-	            }
+				loadStudents(server, helper);
 
 				helper.commitTransaction();
 				return true;
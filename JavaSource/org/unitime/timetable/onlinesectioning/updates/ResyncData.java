@@ -0,0 +1,271 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.updates;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
+import org.unitime.timetable.gwt.shared.SectioningException;
+import org.unitime.timetable.model.Class_;
+import org.unitime.timetable.model.CourseOffering;
+import org.unitime.timetable.model.InstrOfferingConfig;
+import org.unitime.timetable.model.InstructionalOffering;
+import org.unitime.timetable.model.SchedulingSubpart;
+import org.unitime.timetable.model.Student;
+import org.unitime.timetable.model.StudentSectioningQueue;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.match.AnyCourseMatcher;
+import org.unitime.timetable.onlinesectioning.match.AnyStudentMatcher;
+import org.unitime.timetable.onlinesectioning.model.XCourse;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.onlinesectioning.server.CheckMaster;
+import org.unitime.timetable.onlinesectioning.server.CheckMaster.Master;
+
+/**
+ * Incremental alternative to {@link ReloadAllData}. Only offerings and students that have changed since the last
+ * reload (or re-synchronization) are reloaded, using {@link ReloadOfferingAction} and {@link ReloadStudent}, which only
+ * lock the affected offerings and students. The server remains available while the re-synchronization is running.<br>
+ * The changes are taken from the change log and from the student sectioning queue using the recorded object ids only,
+ * so that changes of objects that have been deleted since are not missed. An offering is considered changed when there
+ * is a change log record of the offering (or of its course, configuration, subpart, or class), when it is in the student
+ * sectioning queue, or when it was added or removed. When the changed object no longer exists, all the offerings
+ * of the subject area of the change log record are reloaded (this is also the case for the change log records of
+ * other objects, e.g., distribution preferences). A student is considered changed when he/she is in the student
+ * sectioning queue, has a change log record, his/her course demands, enrollments, wait-lists, notes, or advisor
+ * recommendations have been changed, or when the student was added or removed.<br>
+ * When there is no record of the last reload, or when all students or all offerings have changed, all data are reloaded.
+ * 
+ * @author Tomas Muller
+ */
+@CheckMaster(Master.REQUIRED)
+public class ResyncData extends ReloadAllData {
+	private static final long serialVersionUID = 1L;
+	private static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
+	private static final String[] sOfferingTypes = new String[] {
+			InstructionalOffering.class.getName(), CourseOffering.class.getName(), InstrOfferingConfig.class.getName(), SchedulingSubpart.class.getName(), Class_.class.getName()};
+	
+	@Override
+	public Boolean execute(OnlineSectioningServer server, OnlineSectioningHelper helper) {
+		Date lastSync = server.getProperty(LAST_SYNC_PROPERTY, null);
+		if (lastSync == null) {
+			helper.info("No record of the last reload, reloading all data.");
+			return super.execute(server, helper);
+		}
+		
+		Date now = new Date();
+		Date since = new Date(lastSync.getTime() - 1000l * server.getConfig().getPropertyInt("ResyncData.SafetyMarginInSeconds", 60));
+		Set<Long> offeringIds, studentIds;
+		long t0 = System.currentTimeMillis();
+		helper.beginTransaction();
+		try {
+			helper.info("Looking for changes in " + server.getAcademicSession() + " since " + since + "...");
+			Collection<StudentSectioningQueue> queue = StudentSectioningQueue.getItems(helper.getHibSession(), server.getAcademicSession().getUniqueId(), since);
+			offeringIds = getChangedOfferings(server, helper, since, queue);
+			studentIds = (offeringIds == null ? null : getChangedStudents(server, helper, since, queue));
+			helper.commitTransaction();
+		} catch (Exception e) {
+			helper.rollbackTransaction();
+			if (e instanceof SectioningException)
+				throw (SectioningException)e;
+			throw new SectioningException(MSG.exceptionUnknown(e.getMessage()), e);
+		}
+		if (offeringIds == null || studentIds == null) {
+			helper.info("All " + (offeringIds == null ? "offerings" : "students") + " changed, reloading all data.");
+			return super.execute(server, helper);
+		}
+		helper.info(offeringIds.size() + " offerings and " + studentIds.size() + " students changed.");
+		
+		int chunkSize = getChunkSize(server);
+		List<Long> offerings = new ArrayList<Long>(offeringIds);
+		for (int i = 0; i < offerings.size(); i += chunkSize)
+			server.execute(server.createAction(ReloadOfferingAction.class).forOfferings(new ArrayList<Long>(offerings.subList(i, Math.min(i + chunkSize, offerings.size())))), helper.getUser());
+		
+		List<Long> students = new ArrayList<Long>(studentIds);
+		for (int i = 0; i < students.size(); i += chunkSize)
+			server.execute(server.createAction(ReloadStudent.class).forStudents(new ArrayList<Long>(students.subList(i, Math.min(i + chunkSize, students.size())))), helper.getUser());
+		
+		server.setProperty(LAST_SYNC_PROPERTY, now);
+		helper.info("  Re-synchronization of session " + server.getAcademicSession() + " done " + new DecimalFormat("0.0").format((System.currentTimeMillis() - t0) / 1000.0) + " seconds.");
+		return true;
+	}
+	
+	/**
+	 * Changed offerings, null when all the offerings have changed
+	 */
+	protected Set<Long> getChangedOfferings(OnlineSectioningServer server, OnlineSectioningHelper helper, Date since, Collection<StudentSectioningQueue> queue) {
+		Long sessionId = server.getAcademicSession().getUniqueId();
+		Set<Long> offeringIds = new TreeSet<Long>();
+		Set<Long> subjectAreaIds = new HashSet<Long>();
+		
+		// change log records, only the object ids are used (the object may have been deleted since)
+		Map<String, Map<Long, Long>> changes = new HashMap<String, Map<Long, Long>>();
+		for (String type: sOfferingTypes)
+			changes.put(type, new HashMap<Long, Long>());
+		for (Object[] line: (List<Object[]>)helper.getHibSession().createQuery(
+				"select l.objectType, l.objectUniqueId, sa.uniqueId from ChangeLog l left join l.subjectArea sa where l.session.uniqueId = :sessionId and l.timeStamp >= :since")
+				.setLong("sessionId", sessionId).setTimestamp("since", since).list()) {
+			String type = (String)line[0];
+			Long objectId = (Long)line[1];
+			Long subjectAreaId = (Long)line[2];
+			Map<Long, Long> objects = changes.get(type);
+			if (objects != null && objectId != null) {
+				objects.put(objectId, subjectAreaId);
+			} else if (subjectAreaId != null) {
+				// other changes (e.g., distribution preferences, instructors, credits) -> all offerings of the subject area
+				subjectAreaIds.add(subjectAreaId);
+			}
+		}
+		offeringIds.addAll(changes.get(InstructionalOffering.class.getName()).keySet());
+		resolve(helper, "select co.uniqueId, co.instructionalOffering.uniqueId from CourseOffering co where co.uniqueId in (:ids)",
+				changes.get(CourseOffering.class.getName()), offeringIds, subjectAreaIds);
+		resolve(helper, "select cf.uniqueId, cf.instructionalOffering.uniqueId from InstrOfferingConfig cf where cf.uniqueId in (:ids)",
+				changes.get(InstrOfferingConfig.class.getName()), offeringIds, subjectAreaIds);
+		resolve(helper, "select ss.uniqueId, ss.instrOfferingConfig.instructionalOffering.uniqueId from SchedulingSubpart ss where ss.uniqueId in (:ids)",
+				changes.get(SchedulingSubpart.class.getName()), offeringIds, subjectAreaIds);
+		resolve(helper, "select c.uniqueId, c.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId from Class_ c where c.uniqueId in (:ids)",
+				changes.get(Class_.class.getName()), offeringIds, subjectAreaIds);
+		// a deleted course may still be loaded on the server
+		for (Long courseId: changes.get(CourseOffering.class.getName()).keySet()) {
+			XCourse course = server.getCourse(courseId);
+			if (course != null) offeringIds.add(course.getOfferingId());
+		}
+		
+		// student sectioning queue
+		Map<Long, Long> classIds = new HashMap<Long, Long>();
+		for (StudentSectioningQueue q: queue) {
+			switch (StudentSectioningQueue.Type.values()[q.getType()]) {
+			case OFFERING_CHANGE:
+				if (q.getIds() == null || q.getIds().isEmpty()) return null;
+				offeringIds.addAll(q.getIds());
+				break;
+			case CLASS_ASSIGNMENT_CHANGE:
+				if (q.getIds() != null)
+					for (Long classId: q.getIds()) classIds.put(classId, null);
+				break;
+			default:
+				break;
+			}
+		}
+		resolve(helper, "select c.uniqueId, c.schedulingSubpart.instrOfferingConfig.instructionalOffering.uniqueId from Class_ c where c.uniqueId in (:ids)",
+				classIds, offeringIds, subjectAreaIds);
+		
+		// all offerings of the changed subject areas
+		List<Long> subjectAreas = new ArrayList<Long>(subjectAreaIds);
+		for (int i = 0; i < subjectAreas.size(); i += 1000)
+			offeringIds.addAll(helper.getHibSession().createQuery(
+					"select distinct co.instructionalOffering.uniqueId from CourseOffering co where co.subjectArea.uniqueId in (:ids)")
+					.setParameterList("ids", subjectAreas.subList(i, Math.min(i + 1000, subjectAreas.size()))).list());
+		
+		// added and removed offerings
+		Set<Long> loaded = new HashSet<Long>();
+		for (XCourseId course: server.findCourses(new AnyCourseMatcher()))
+			loaded.add(course.getOfferingId());
+		Set<Long> existing = new HashSet<Long>(helper.getHibSession().createQuery(
+				"select distinct io.uniqueId from InstructionalOffering io " +
+				"left join io.courseOfferings co " +
+				"where io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true")
+				.setLong("sessionId", sessionId).list());
+		for (Long offeringId: existing)
+			if (!loaded.contains(offeringId)) offeringIds.add(offeringId);
+		for (Long offeringId: loaded)
+			if (!existing.contains(offeringId)) offeringIds.add(offeringId);
+		
+		return offeringIds;
+	}
+	
+	/**
+	 * Look up the offerings of the given objects (object id -&gt; subject area id of the change), using the subject area
+	 * of the change for the objects that no longer exist
+	 */
+	private void resolve(OnlineSectioningHelper helper, String query, Map<Long, Long> objects, Set<Long> offeringIds, Set<Long> subjectAreaIds) {
+		if (objects.isEmpty()) return;
+		Set<Long> found = new HashSet<Long>();
+		List<Long> ids = new ArrayList<Long>(objects.keySet());
+		for (int i = 0; i < ids.size(); i += 1000) {
+			for (Object[] line: (List<Object[]>)helper.getHibSession().createQuery(query).setParameterList("ids", ids.subList(i, Math.min(i + 1000, ids.size()))).list()) {
+				found.add((Long)line[0]);
+				offeringIds.add((Long)line[1]);
+			}
+		}
+		for (Map.Entry<Long, Long> e: objects.entrySet())
+			if (!found.contains(e.getKey()) && e.getValue() != null) subjectAreaIds.add(e.getValue());
+	}
+	
+	/**
+	 * Changed students, null when all the students have changed
+	 */
+	protected Set<Long> getChangedStudents(OnlineSectioningServer server, OnlineSectioningHelper helper, Date since, Collection<StudentSectioningQueue> queue) {
+		Long sessionId = server.getAcademicSession().getUniqueId();
+		Set<Long> studentIds = new TreeSet<Long>();
+		
+		// student sectioning queue
+		for (StudentSectioningQueue q: queue) {
+			if (StudentSectioningQueue.Type.values()[q.getType()] == StudentSectioningQueue.Type.STUDENT_ENROLLMENT_CHANGE) {
+				if (q.getIds() == null || q.getIds().isEmpty()) return null;
+				studentIds.addAll(q.getIds());
+			}
+		}
+		
+		// change log records of students (the student may have been deleted since)
+		studentIds.addAll(helper.getHibSession().createQuery(
+				"select distinct l.objectUniqueId from ChangeLog l where l.session.uniqueId = :sessionId and l.timeStamp >= :since and l.objectType = :type")
+				.setLong("sessionId", sessionId).setTimestamp("since", since).setString("type", Student.class.getName()).list());
+		
+		// students with a change
+		for (String query: new String[] {
+				"select distinct x.student.uniqueId from CourseDemand x where x.student.session.uniqueId = :sessionId and x.timestamp >= :since",
+				"select distinct x.student.uniqueId from StudentClassEnrollment x where x.student.session.uniqueId = :sessionId and x.timestamp >= :since",
+				"select distinct x.student.uniqueId from WaitList x where x.student.session.uniqueId = :sessionId and x.timestamp >= :since",
+				"select distinct x.student.uniqueId from StudentNote x where x.student.session.uniqueId = :sessionId and x.timeStamp >= :since",
+				"select distinct x.student.uniqueId from AdvisorCourseRequest x where x.student.session.uniqueId = :sessionId and x.timestamp >= :since",
+		}) {
+			studentIds.addAll(helper.getHibSession().createQuery(query).setLong("sessionId", sessionId).setTimestamp("since", since).list());
+		}
+		
+		// added and removed students
+		Set<Long> loaded = new HashSet<Long>();
+		for (XStudentId student: server.findStudents(new AnyStudentMatcher()))
+			loaded.add(student.getStudentId());
+		Set<Long> existing = new HashSet<Long>(helper.getHibSession().createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId")
+				.setLong("sessionId", sessionId).list());
+		for (Long studentId: existing)
+			if (!loaded.contains(studentId)) studentIds.add(studentId);
+		for (Long studentId: loaded)
+			if (!existing.contains(studentId)) studentIds.add(studentId);
+		
+		return studentIds;
+	}
+	
+	@Override
+    public String name() { return "resync-data"; }
+}
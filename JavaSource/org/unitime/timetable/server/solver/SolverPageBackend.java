@@ -84,6 +84,7 @@ import org.unitime.timetable.model.dao.SolverPredefinedSettingDAO;
 import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.solver.CommonSolverInterface;
+import org.unitime.timetable.solver.SolverBatch;
 import org.unitime.timetable.solver.SolverProxy;
 import org.unitime.timetable.solver.exam.ExamSolverProxy;
 import org.unitime.timetable.solver.instructor.InstructorSchedulingProxy;
@@ -145,7 +146,7 @@ public class SolverPageBackend implements GwtRpcImplementation<SolverPageRequest
 		response.setOperation(request.getOperation());
 
 		SolverService<? extends CommonSolverInterface> service = getSolverService(request.getType());
-		CommonSolverInterface solver = executeOperation(context, service, request, response);
+		CommonSolverInterface solver = prefetch(executeOperation(context, service, request, response), request);
 		
 		fillHosts(context, solver, request, response);
 		fillOwners(context, request, response);
@@ -174,6 +175,36 @@ public class SolverPageBackend implements GwtRpcImplementation<SolverPageRequest
 		return response;
 	}
 	
+	/**
+	 * When the solver is on a remote server, make the calls needed to fill in the response in a single batch and return
+	 * a proxy that answers these calls from the batch (instead of making a remote call for each of them).
+	 */
+	protected CommonSolverInterface prefetch(CommonSolverInterface solver, SolverPageRequest request) {
+		if (!SolverBatch.isRemote(solver)) return solver;
+		SolverBatch<CommonSolverInterface> batch = new SolverBatch<CommonSolverInterface>(solver);
+		CommonSolverInterface recorder = batch.record();
+		recorder.currentSolutionInfo();
+		recorder.bestSolutionInfo();
+		recorder.getProperties();
+		recorder.getProgressLog(ProgressLogLevel.WARN.ordinal(),
+				request.getType() == SolverType.COURSE ? SOLVERMSG.statusLoadingInputData() : "Loading input data ...", null);
+		recorder.getLoadedDate();
+		recorder.isRunning();
+		recorder.isWorking();
+		recorder.getProgress();
+		recorder.isCanValidate();
+		if (request.getType() == SolverType.STUDENT)
+			((StudentSolverProxy)recorder).isPublished();
+		if (request.getType() == SolverType.COURSE)
+			((SolverProxy)recorder).hasFinalSectioning();
+		try {
+			batch.execute();
+		} catch (Exception e) {
+			return solver;
+		}
+		return batch.getCachedProxy();
+	}
+	
 	protected CommonSolverInterface executeOperation(SessionContext context, SolverService<? extends CommonSolverInterface> service, SolverPageRequest request, SolverPageResponse response) {
 		CommonSolverInterface solver = service.getSolver();
 
@@ -24,6 +24,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
@@ -32,6 +33,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.logging.Log;
@@ -58,9 +60,11 @@ import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.CPSolverMessages;
 import org.unitime.timetable.solver.remote.BackupFileFilter;
+import org.unitime.timetable.solver.remote.BinaryDocumentFormat;
 import org.unitime.timetable.util.Constants;
 
 /**
@@ -172,6 +176,14 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     
     @Override
     public void dispose() {
+        synchronized (this) {
+            if (isPassivated()) {
+                // no need to activate a passivated solver just to dispose it
+                File file = getPassivatedFile();
+                if (file != null) file.delete();
+                iIsPassivated = false;
+            }
+        }
         disposeNoInherit(true);
     }
 
@@ -418,24 +430,33 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         Lock lock = currentSolution().getLock().readLock();
         lock.lock();
         try {
-            File outXmlFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        	boolean binary = ApplicationProperty.SolverBackupBinary.isTrue();
+            File outFile = new File(folder, getType().getPrefix() + puid + (binary ? BackupFileFilter.sBinaryExtension : BackupFileFilter.sXmlExtension));
             try {
                 FileOutputStream fos = null;
                 try {
-                    fos = new FileOutputStream(outXmlFile);
+                	long t0 = System.currentTimeMillis();
+                    fos = new FileOutputStream(outFile);
                     Document document = createCurrentSolutionBackup(false, false);
                     saveProperties(document);
-                    (new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
+                    if (binary)
+                    	BinaryDocumentFormat.write(document, fos, ApplicationProperty.SolverBackupCompress.isTrue());
+                    else
+                    	(new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
                     fos.flush(); fos.close(); fos=null;
+                    sLog.debug(" -- backup of " + getType().getPrefix() + puid + " took " + (System.currentTimeMillis() - t0) + " ms (" + (outFile.length() / 1024) + " kB)");
                 } finally {
                     try {
                         if (fos!=null) fos.close();
                     } catch (IOException e) {}
                 }
+                // remove backup in the other format (if exists)
+                File other = new File(folder, getType().getPrefix() + puid + (binary ? BackupFileFilter.sXmlExtension : BackupFileFilter.sBinaryExtension));
+                if (other.exists()) other.delete();
                 return true;
             } catch (Exception e) {
                 sLog.error(e.getMessage(),e);
-                if (outXmlFile.exists()) outXmlFile.delete();
+                if (outFile.exists()) outFile.delete();
             }
         } finally {
         	lock.unlock();
@@ -453,14 +474,16 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     @Override
     public boolean restore(File folder, String puid, boolean removeFiles) {
         sLog.debug("restore(folder="+folder+","+puid+")");
-        File inXmlFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        File inFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sBinaryExtension);
+        if (!inFile.exists()) inFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
         
         M model = null;
         try {
             if (isRunning()) stopSolver();
             disposeNoInherit(false);
 
-            Document document = (new SAXReader()).read(inXmlFile);
+            long t0 = System.currentTimeMillis();
+            Document document = (BinaryDocumentFormat.isBinary(inFile) ? BinaryDocumentFormat.read(inFile) : (new SAXReader()).read(inFile));
             readProperties(document);
             
             model = createModel(getProperties());
@@ -470,9 +493,10 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
 
             restureCurrentSolutionFromBackup(document);
             Progress.getInstance(model).setStatus(MSG.statusReady());
+            sLog.debug(" -- restore of " + getType().getPrefix() + puid + " took " + (System.currentTimeMillis() - t0) + " ms (" + (inFile.length() / 1024) + " kB)");
             
             if (removeFiles) {
-                inXmlFile.delete();
+                inFile.delete();
             }
             
             return true;
@@ -573,6 +597,57 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         return true;
     }
 
+    protected File getPassivatedFile() {
+        if (iPassivationFolder == null || iPassivationPuid == null) return null;
+        File file = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sBinaryExtension);
+        if (!file.exists()) file = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sXmlExtension);
+        return (file.exists() ? file : null);
+    }
+    
+    /**
+     * Content of the passivation backup (null if the solver is not passivated), used to move a passivated solver to a different server
+     */
+    @Override
+    public synchronized byte[] exportPassivated() {
+        if (!isPassivated()) return null;
+        File file = getPassivatedFile();
+        if (file == null) return null;
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            sLog.error("Failed to read " + file + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Make this solver passivated, using the given passivation backup (see {@link AbstractSolver#exportPassivated()}).
+     * The solver is restored from the backup when it is used for the first time.
+     */
+    @Override
+    public synchronized boolean importPassivated(String puid, byte[] data, Map progress, Map<String,String> currentSolutionInfo, Map<String,String> bestSolutionInfo) {
+        if (!canPassivate() || isPassivated() || super.currentSolution() != null || data == null) return false;
+        File folder = ApplicationProperties.getPassivationFolder();
+        boolean binary = BinaryDocumentFormat.isBinary(data);
+        // the passivation folder may be shared with the source server, which deletes its own passivation file when the solver is unloaded there
+        String filePuid = puid + "-" + UUID.randomUUID().toString();
+        File outFile = new File(folder, getType().getPrefix() + filePuid + (binary ? BackupFileFilter.sBinaryExtension : BackupFileFilter.sXmlExtension));
+        try {
+            Files.write(outFile.toPath(), data);
+        } catch (IOException e) {
+            sLog.error("Failed to write " + outFile + ": " + e.getMessage(), e);
+            if (outFile.exists()) outFile.delete();
+            return false;
+        }
+        iProgressBeforePassivation = progress;
+        iCurrentSolutionInfoBeforePassivation = currentSolutionInfo;
+        iBestSolutionInfoBeforePassivation = bestSolutionInfo;
+        iPassivationFolder = folder;
+        iPassivationPuid = filePuid;
+        iIsPassivated = true;
+        return true;
+    }
+    
     @Override
     public synchronized boolean passivateIfNeeded(File folder, String puid) {
     	if (!canPassivate()) return false;
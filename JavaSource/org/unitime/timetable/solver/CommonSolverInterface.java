@@ -76,6 +76,8 @@ public interface CommonSolverInterface {
     public boolean passivate(File folder, String puid);
     public boolean passivateIfNeeded(File folder, String puid);
     public Date getLastUsed();
+    public byte[] exportPassivated();
+    public boolean importPassivated(String puid, byte[] data, Map progress, Map<String,String> currentSolutionInfo, Map<String,String> bestSolutionInfo);
     
     public void interrupt();
     public boolean isCanValidate();
@@ -0,0 +1,245 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.unitime.timetable.solver.jgroups.RemoteMethodTable;
+import org.unitime.timetable.solver.jgroups.RemoteSolver;
+
+/**
+ * Batch of solver calls.<br>
+ * The calls are recorded on the proxy returned by {@link SolverBatch#record()} and made together by {@link SolverBatch#execute()}.
+ * When the solver lives on a remote server, all the recorded calls are sent in a single message (see {@link RemoteSolver#invokeAll(Method[], Object[][])}),
+ * so that the time needed does not grow with the number of calls. The results are available either through the {@link Result} objects
+ * returned by {@link SolverBatch#result(Object)}, or through the proxy returned by {@link SolverBatch#getCachedProxy()} that answers the recorded
+ * calls from the results and passes all the other calls to the solver.
+ * <pre>
+ * SolverBatch&lt;SolverProxy&gt; batch = new SolverBatch&lt;SolverProxy&gt;(solver);
+ * Result&lt;Map&lt;String,String&gt;&gt; info = batch.result(batch.record().currentSolutionInfo());
+ * Result&lt;DataProperties&gt; config = batch.result(batch.record().getProperties());
+ * batch.execute();
+ * </pre>
+ *
+ * @author Tomas Muller
+ */
+public class SolverBatch<T> {
+	private T iSolver;
+	private Class<?>[] iInterfaces;
+	private List<Method> iMethods = new ArrayList<Method>();
+	private List<Object[]> iArgs = new ArrayList<Object[]>();
+	private Object[] iResults = null;
+	private T iRecorder = null;
+	
+	public SolverBatch(T solver) {
+		iSolver = solver;
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> clazz = solver.getClass(); clazz != null; clazz = clazz.getSuperclass())
+			for (Class<?> i: clazz.getInterfaces()) interfaces.add(i);
+		iInterfaces = interfaces.toArray(new Class<?>[interfaces.size()]);
+	}
+	
+	/** True if the given solver lives on a remote server (the calls can be sent in one message) */
+	public static boolean isRemote(Object solver) {
+		return solver != null && solver instanceof RemoteSolver && Proxy.isProxyClass(solver.getClass());
+	}
+	
+	/** The solver */
+	public T getSolver() { return iSolver; }
+	
+	/** Number of recorded calls */
+	public int size() { return iMethods.size(); }
+	
+	/** True if the batch has been executed */
+	public synchronized boolean isExecuted() { return iResults != null; }
+	
+	/**
+	 * Proxy recording the calls made on it. The calls are not made until {@link SolverBatch#execute()} is called,
+	 * each call returns the default value of its return type (null, zero, or false). 
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T record() {
+		if (iRecorder == null)
+			iRecorder = (T)Proxy.newProxyInstance(iSolver.getClass().getClassLoader(), iInterfaces, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getDeclaringClass() == Object.class)
+						return method.invoke(this, args);
+					synchronized (SolverBatch.this) {
+						if (iResults != null) throw new IllegalStateException("The batch has been already executed.");
+						iMethods.add(method);
+						iArgs.add(args);
+					}
+					return getDefaultValue(method.getReturnType());
+				}
+			});
+		return iRecorder;
+	}
+	
+	/**
+	 * Result of the last recorded call, to be used as <code>batch.result(batch.record().getProperties())</code>
+	 */
+	public synchronized <R> Result<R> result(R value) {
+		if (iMethods.isEmpty()) throw new IllegalStateException("No call has been recorded.");
+		return new Result<R>(iMethods.size() - 1);
+	}
+	
+	/**
+	 * Make all the recorded calls. A failure of one call does not stop the others from being made, the exception
+	 * is thrown by the appropriate {@link Result#get()} or by the cached proxy instead.
+	 * @throws Exception when the calls cannot be made at all (e.g., the remote server is not reachable)
+	 */
+	public synchronized SolverBatch<T> execute() throws Exception {
+		if (iResults != null) return this;
+		Method[] methods = iMethods.toArray(new Method[iMethods.size()]);
+		Object[][] args = iArgs.toArray(new Object[iArgs.size()][]);
+		if (isRemote(iSolver)) {
+			try {
+				iResults = ((RemoteSolver)iSolver).invokeAll(methods, args);
+			} catch (InvocationTargetException e) {
+				if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
+					throw (Exception)e.getTargetException();
+				else
+					throw e;
+			}
+		} else {
+			Object[] results = new Object[methods.length];
+			for (int i = 0; i < methods.length; i++) {
+				try {
+					results[i] = methods[i].invoke(iSolver, args[i]);
+				} catch (InvocationTargetException e) {
+					results[i] = new RemoteMethodTable.Failure(e.getTargetException() == null ? e : e.getTargetException());
+				}
+			}
+			iResults = results;
+		}
+		return this;
+	}
+	
+	/**
+	 * Make all the recorded calls asynchronously, see {@link SolverBatch#execute()}
+	 */
+	public CompletableFuture<SolverBatch<T>> executeAsync() {
+		return CompletableFuture.supplyAsync(new Supplier<SolverBatch<T>>() {
+			@Override
+			public SolverBatch<T> get() {
+				try {
+					return execute();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Proxy that answers the recorded calls (with the same arguments) from the results of the batch,
+	 * all other calls (and all calls made before the batch is executed) are passed to the solver.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getCachedProxy() {
+		return (T)Proxy.newProxyInstance(iSolver.getClass().getClassLoader(), iInterfaces, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				int index = getIndex(method, args);
+				if (index >= 0) return getResult(index);
+				try {
+					return method.invoke(iSolver, args);
+				} catch (InvocationTargetException e) {
+					throw (e.getTargetException() == null ? e : e.getTargetException());
+				}
+			}
+		});
+	}
+	
+	protected synchronized int getIndex(Method method, Object[] args) {
+		if (iResults == null) return -1;
+		for (int i = 0; i < iMethods.size(); i++)
+			if (iMethods.get(i).equals(method) && Arrays.deepEquals(iArgs.get(i), args)) return i;
+		return -1;
+	}
+	
+	protected synchronized Object getResult(int index) throws Throwable {
+		if (iResults == null) throw new IllegalStateException("The batch has not been executed yet.");
+		Object result = iResults[index];
+		if (result instanceof RemoteMethodTable.Failure)
+			throw ((RemoteMethodTable.Failure)result).getError();
+		return result;
+	}
+	
+	protected static Object getDefaultValue(Class<?> type) {
+		if (!type.isPrimitive() || void.class.equals(type)) return null;
+		if (boolean.class.equals(type)) return Boolean.FALSE;
+		if (char.class.equals(type)) return Character.valueOf((char)0);
+		if (byte.class.equals(type)) return Byte.valueOf((byte)0);
+		if (short.class.equals(type)) return Short.valueOf((short)0);
+		if (int.class.equals(type)) return Integer.valueOf(0);
+		if (long.class.equals(type)) return Long.valueOf(0l);
+		if (float.class.equals(type)) return Float.valueOf(0f);
+		return Double.valueOf(0.0);
+	}
+	
+	/**
+	 * Result of a recorded call
+	 */
+	public class Result<R> {
+		private int iIndex;
+		
+		private Result(int index) { iIndex = index; }
+		
+		/** True if the call failed */
+		public boolean isFailed() {
+			synchronized (SolverBatch.this) {
+				return iResults != null && iResults[iIndex] instanceof RemoteMethodTable.Failure;
+			}
+		}
+		
+		/**
+		 * Returned value
+		 * @throws IllegalStateException when the batch has not been executed yet
+		 * @throws RuntimeException when the call failed (exceptions that are not runtime exceptions are wrapped)
+		 */
+		@SuppressWarnings("unchecked")
+		public R get() {
+			try {
+				return (R)getResult(iIndex);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new RuntimeException(t.getMessage(), t);
+			}
+		}
+	}
+}
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.solver;
 
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
@@ -131,6 +132,7 @@ import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.model.dao.SolutionDAO;
 import org.unitime.timetable.model.dao.SolverGroupDAO;
 import org.unitime.timetable.model.dao.TimetableManagerDAO;
+import org.unitime.timetable.model.dao._RootDAO;
 import org.unitime.timetable.onlinesectioning.status.db.DbFindEnrollmentInfoAction.DbStudentMatcher;
 import org.unitime.timetable.solver.course.weights.ClassWeightProvider;
 import org.unitime.timetable.solver.course.weights.DefaultClassWeights;
@@ -154,6 +156,7 @@ import org.unitime.timetable.util.duration.DurationModel;
  */
 public class TimetableDatabaseLoader extends TimetableLoader {
 	private static Log sLog = LogFactory.getLog(TimetableDatabaseLoader.class);
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
 	protected static CPSolverMessages MSG = Localization.create(CPSolverMessages.class);
 	private Session iSession;
 	private Long iSessionId;
@@ -190,6 +193,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     private boolean iAutoSameStudents = true;
     private String iAutoPrecedence = null;
     private boolean iLoadCommittedAssignments = false;
+    private boolean iParallelLoad = true;
 
     private double iFewerSeatsDisouraged = 0.01;
     private double iFewerSeatsStronglyDisouraged = 0.02;
@@ -317,6 +321,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         iCommittedStudentConflictsMode = CommittedStudentConflictsMode.valueOf(getModel().getProperties().getProperty("General.CommittedStudentConflicts",
         		iCommittedStudentConflictsMode.name()));
         iLoadCommittedAssignments = getModel().getProperties().getPropertyBoolean("General.LoadCommittedAssignments", iLoadCommittedAssignments);
+        iParallelLoad = getModel().getProperties().getPropertyBoolean("General.ParallelLoad", iParallelLoad);
         if (iCommittedStudentConflictsMode == CommittedStudentConflictsMode.Load && iStudentCourseDemands.isMakingUpStudents()) {
         	iCommittedStudentConflictsMode = CommittedStudentConflictsMode.Compute;
         	getModel().getProperties().setProperty("General.CommittedStudentConflicts", iCommittedStudentConflictsMode.name());
@@ -2296,39 +2301,32 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	}
     }
     
-    private void loadCommittedStudentConflicts(org.hibernate.Session hibSession, Set<Long> offeringsToAvoid) {
-        //Load all committed assignment - student relations that may be relevant
-		List<Object[]> assignmentEnrollments = (List<Object[]>)hibSession.createQuery(
-    			"select distinct a, e.studentId, io.uniqueId from "+
-    			"Solution s inner join s.assignments a inner join s.studentEnrollments e inner join a.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering io "+
-    			"where "+
-    			"s.commited=true and s.owner.session.uniqueId=:sessionId and s.owner not in ("+iSolverGroupIds+") and "+
-    			"a.clazz=e.clazz").setLong("sessionId", iSessionId.longValue()).list();
-
-    	
+    private void loadCommittedStudentConflicts(org.hibernate.Session hibSession, Set<Long> offeringsToAvoid, List<Object[]> assignmentEnrollments) {
 		// Filter out relevant relations (relations that are for loaded students)
-		Hashtable<Assignment, Set<Student>> assignments = new Hashtable<Assignment, Set<Student>>();
+		Map<Long, Set<Student>> assignmentStudents = new HashMap<Long, Set<Student>>();
 		for (Object[] result: assignmentEnrollments) {
-    		Assignment assignment = (Assignment)result[0];
+    		Long assignmentId = (Long)result[0];
 			Long studentId = (Long)result[1];
 			Long offeringId = (Long)result[2];
 			if (offeringsToAvoid.contains(offeringId)) continue;
     		Student student = (Student)iStudents.get(studentId);
     		if (student!=null) {
-    			Set<Student> students = assignments.get(assignment);
+    			Set<Student> students = assignmentStudents.get(assignmentId);
     			if (students==null) {
     				students = new HashSet<Student>();
-    				assignments.put(assignment, students);
+    				assignmentStudents.put(assignmentId, students);
     			}
     			students.add(student);
     		}
 		}
 		
-		// Ensure no assignment-class relation is got from the cache
-		for (Iterator i1=assignmentEnrollments.iterator(); i1.hasNext();) {
-			Object[] result = (Object[])i1.next();
-    		Assignment assignment = (Assignment)result[0];
-    		if (!assignments.containsKey(assignment)) hibSession.evict(assignment);
+		// Load the relevant assignments only
+		Hashtable<Assignment, Set<Student>> assignments = new Hashtable<Assignment, Set<Student>>();
+		List<Long> assignmentIds = new ArrayList<Long>(assignmentStudents.keySet());
+		for (int i = 0; i < assignmentIds.size(); i += 1000) {
+			for (Assignment assignment: (List<Assignment>)hibSession.createQuery("from Assignment a where a.uniqueId in :assignmentIds")
+					.setParameterList("assignmentIds", assignmentIds.subList(i, Math.min(i + 1000, assignmentIds.size()))).list())
+				assignments.put(assignment, assignmentStudents.get(assignment.getUniqueId()));
 		}
 		
 		// Make up the appropriate committed placements and propagate those through the course structure
@@ -2779,6 +2777,20 @@ public class TimetableDatabaseLoader extends TimetableLoader {
 			return;
 		}
 		iProgress.debug("session: "+iSession.getLabel());
+		
+		LoadStage<List<Object[]>> committedStudentConflictsStage = null;
+		if (iCommittedStudentConflictsMode == CommittedStudentConflictsMode.Load && !iStudentCourseDemands.isMakingUpStudents())
+			committedStudentConflictsStage = createCommittedStudentConflictsStage().begin();
+		
+		LoadStage<List<List<Object[]>>> studentEnrollmentsStage = null;
+		if (iLoadStudentEnrlsFromSolution) {
+			Long[] solutionIds = new Long[iSolverGroupId.length];
+			for (int idx = 0; idx < iSolverGroupId.length; idx++) {
+				Solution solution = (solutions == null ? null : solutions.get(iSolverGroupId[idx]));
+				if (solution != null) solutionIds[idx] = solution.getUniqueId();
+			}
+			studentEnrollmentsStage = createStudentEnrollmentsStage(solutionIds).begin();
+		}
 
 		getModel().getProperties().setProperty("Data.Term",iSession.getAcademicYearTerm());
 		getModel().getProperties().setProperty("Data.Initiative",iSession.getAcademicInitiative());
@@ -2836,6 +2848,16 @@ public class TimetableDatabaseLoader extends TimetableLoader {
 			incProgress();
 		}
 		
+		RoomAvailabilityInterface availability = null;
+    	if (SolverServerImplementation.getInstance() != null)
+    		availability = SolverServerImplementation.getInstance().getRoomAvailability();
+    	else
+    		availability = RoomAvailability.getInstance();
+    	Date[] availabilityStartEnd = (availability == null ? null : getRoomAvailabilityTimeFrame());
+    	LoadStage<RoomAvailabilityData> roomAvailabilityStage = null;
+    	if (availabilityStartEnd != null)
+    		roomAvailabilityStage = createRoomAvailabilityStage(availability, availabilityStartEnd).begin();
+		
 		loadInstructorAvailabilities(hibSession);
 		
 		loadRoomAvailabilities(hibSession);
@@ -3340,8 +3362,8 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	if (!hibSession.isOpen())
     		iProgress.message(msglevel("hibernateFailure", Progress.MSGLEVEL_FATAL), MSG.fatalHibernateSessionClosed());
 
-    	if (iCommittedStudentConflictsMode == CommittedStudentConflictsMode.Load && !iStudentCourseDemands.isMakingUpStudents())
-    		loadCommittedStudentConflicts(hibSession, loadedOfferings);
+    	if (committedStudentConflictsStage != null)
+    		loadCommittedStudentConflicts(hibSession, loadedOfferings, committedStudentConflictsStage.get(hibSession));
     	else if (iCommittedStudentConflictsMode != CommittedStudentConflictsMode.Ignore)
     		makeupCommittedStudentConflicts(loadedOfferings);
     	
@@ -3349,14 +3371,11 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     		iProgress.message(msglevel("hibernateFailure", Progress.MSGLEVEL_FATAL), MSG.fatalHibernateSessionClosed());
 
     	Hashtable<Student, Set<Lecture>> iPreEnrollments = new Hashtable<Student, Set<Lecture>>();
-    	if (iLoadStudentEnrlsFromSolution) {
+    	if (studentEnrollmentsStage != null) {
+    		List<List<Object[]>> studentEnrollments = studentEnrollmentsStage.get(hibSession);
     		if (iStudentCourseDemands.canUseStudentClassEnrollmentsAsSolution()) {
     			// Load real student enrollments (not saved last-like)
-    			List<Object[]> enrollments = (List<Object[]>)hibSession.createQuery(
-    					"select distinct e.student.uniqueId, e.clazz.uniqueId from " +
-    					"StudentClassEnrollment e, Class_ c where " + 
-    					"e.courseOffering.instructionalOffering = c.schedulingSubpart.instrOfferingConfig.instructionalOffering and " +
-    					"c.managingDept.solverGroup.uniqueId in (" + iSolverGroupIds + ")").list();
+    			List<Object[]> enrollments = studentEnrollments.get(0);
     			setPhase(MSG.phaseLoadingStudentEnrollemnts(), enrollments.size());
     			int totalEnrollments = 0;
     			for (Object[] o: enrollments) {
@@ -3389,19 +3408,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     		} else {
     			// Load enrollments from selected / committed solutions
             	for (int idx=0;idx<iSolverGroupId.length;idx++) {
-            		Solution solution = (solutions == null ? null : solutions.get(iSolverGroupId[idx]));
-            		List studentEnrls = null;
-            		if (solution != null) {
-            			studentEnrls = hibSession
-            				.createQuery("select distinct e.studentId, e.clazz.uniqueId from StudentEnrollment e where e.solution.uniqueId=:solutionId")
-            				.setLong("solutionId", solution.getUniqueId())
-            				.list();
-            		} else {
-            			studentEnrls = hibSession
-        				.createQuery("select distinct e.studentId, e.clazz.uniqueId from StudentEnrollment e where e.solution.owner.uniqueId=:sovlerGroupId and e.solution.commited = true")
-        				.setLong("sovlerGroupId", iSolverGroupId[idx])
-        				.list();
-            		}
+            		List studentEnrls = studentEnrollments.get(idx);
             		setPhase(MSG.phaseLoadingStudentEnrollemntsPhase(idx+1),studentEnrls.size());
                 	for (Iterator i1=studentEnrls.iterator();i1.hasNext();) {
                 		Object o[] = (Object[])i1.next();
@@ -3430,14 +3437,9 @@ public class TimetableDatabaseLoader extends TimetableLoader {
                 	}
             	}
             	
-            	if (getModel().getProperties().getPropertyBoolean("Global.LoadOtherCommittedStudentEnrls", true)) {
+            	if (studentEnrollments.size() > iSolverGroupId.length) {
                 	// Other committed enrollments
-        			List<Object[]> enrollments = (List<Object[]>)hibSession.createQuery(
-        					"select distinct e.studentId, e.clazz.uniqueId from " +
-        					"StudentEnrollment e, Class_ c where " + 
-        					"e.solution.commited = true and e.solution.owner.uniqueId not in (" + iSolverGroupIds + ") and " +
-        					"e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering = c.schedulingSubpart.instrOfferingConfig.instructionalOffering and " +
-        					"c.managingDept.solverGroup.uniqueId in (" + iSolverGroupIds + ")").list();
+        			List<Object[]> enrollments = studentEnrollments.get(iSolverGroupId.length);
         			setPhase(MSG.phaseLoadingOtherStudentEnrollments(), enrollments.size());
 
         			for (Object[] o: enrollments) {
@@ -3472,17 +3474,13 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	if (!hibSession.isOpen())
     		iProgress.message(msglevel("hibernateFailure", Progress.MSGLEVEL_FATAL), MSG.fatalHibernateSessionClosed());
     	
-    	RoomAvailabilityInterface availability = null;
-    	if (SolverServerImplementation.getInstance() != null)
-    		availability = SolverServerImplementation.getInstance().getRoomAvailability();
-    	else
-    		availability = RoomAvailability.getInstance();
-        if (availability != null) {
-        	Date[] startEnd = initializeRoomAvailability(availability);
-        	if (startEnd != null) {
-        		loadRoomAvailability(availability, startEnd);
-        		loadInstructorAvailability(availability, startEnd);
-        	}
+        if (roomAvailabilityStage != null) {
+        	RoomAvailabilityData data = roomAvailabilityStage.get(hibSession);
+        	if (data.getError() != null)
+        		iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_WARN), MSG.warnRoomAvailableServiceFailed(data.getError()));
+        	setRoomAvailabilityTimeStamp(data.getTimeStamp());
+        	loadRoomAvailability(availability, availabilityStartEnd, data.getTimes());
+        	loadInstructorAvailability(availability, availabilityStartEnd, data.getTimes());
         }
 
         if (!hibSession.isOpen())
@@ -3793,6 +3791,13 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     }
     
     public Date[] initializeRoomAvailability(RoomAvailabilityInterface availability) {
+    	Date[] startEnd = getRoomAvailabilityTimeFrame();
+    	if (startEnd != null)
+    		roomAvailabilityActivate(availability, startEnd[0], startEnd[1]);
+    	return startEnd;
+    }
+    
+    protected Date[] getRoomAvailabilityTimeFrame() {
     	Date startDate = null, endDate = null;
         for (Iterator i=iAllUsedDatePatterns.iterator();i.hasNext();) {
             DatePattern dp = (DatePattern)i.next();
@@ -3815,11 +3820,14 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         endDateCal.set(Calendar.HOUR_OF_DAY, 23);
         endDateCal.set(Calendar.MINUTE, 59);
         endDateCal.set(Calendar.SECOND, 59);
-        roomAvailabilityActivate(availability, startDateCal.getTime(),endDateCal.getTime());
         return new Date[] {startDateCal.getTime(), endDateCal.getTime()};
     }
     
     public void loadRoomAvailability(RoomAvailabilityInterface availability, Date[] startEnd) {
+    	loadRoomAvailability(availability, startEnd, null);
+    }
+    
+    protected void loadRoomAvailability(RoomAvailabilityInterface availability, Date[] startEnd, Map<Constraint<Lecture, Placement>, Collection<TimeBlock>> prefetched) {
         setPhase(MSG.phaseLoadingRoomAvailability(), iRooms.size());
         int firstDOY = iSession.getDayOfYear(1,iSession.getPatternStartMonth());
         int lastDOY = iSession.getDayOfYear(0,iSession.getPatternEndMonth()+1);
@@ -3831,7 +3839,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
             RoomConstraint room = (RoomConstraint)e.nextElement();
             incProgress();
             if (!room.getConstraint()) continue;
-            Collection<TimeBlock> times = getRoomAvailability(availability, room, startEnd[0], startEnd[1]);
+            Collection<TimeBlock> times = (prefetched != null && prefetched.containsKey(room) ? prefetched.get(room) : getRoomAvailability(availability, room, startEnd[0], startEnd[1]));
             if (times==null) continue;
             for (TimeBlock time : times) {
                 iProgress.debug(room.getName()+" not available due to "+time);
@@ -3889,19 +3897,29 @@ public class TimetableDatabaseLoader extends TimetableLoader {
             sLog.error(e.getMessage(),e);
             iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_WARN), MSG.warnRoomAvailableServiceFailed(e.getMessage()));
         } 
-        if (!iRoomAvailabilityTimeStampIsSet) {
-            iRoomAvailabilityTimeStampIsSet = true;
-            if (ts!=null) {
-                getModel().getProperties().setProperty("RoomAvailability.TimeStamp", ts);
-                iProgress.message(msglevel("roomAvailabilityUpdated", Progress.MSGLEVEL_INFO), MSG.infoUsingRoomAvailability(ts));
-            } else {
-                iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_ERROR), MSG.warnRoomAvailableServiceNotAvailable());
-            }
-        }
+        setRoomAvailabilityTimeStamp(ts);
         return ret;
     }
     
+    /**
+     * Set RoomAvailability.TimeStamp model property (only the first call counts, null time stamp means that the room availability service is not available)
+     */
+    protected void setRoomAvailabilityTimeStamp(String ts) {
+        if (iRoomAvailabilityTimeStampIsSet) return;
+        iRoomAvailabilityTimeStampIsSet = true;
+        if (ts!=null) {
+            getModel().getProperties().setProperty("RoomAvailability.TimeStamp", ts);
+            iProgress.message(msglevel("roomAvailabilityUpdated", Progress.MSGLEVEL_INFO), MSG.infoUsingRoomAvailability(ts));
+        } else {
+            iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_ERROR), MSG.warnRoomAvailableServiceNotAvailable());
+        }
+    }
+    
     public void loadInstructorAvailability(RoomAvailabilityInterface availability, Date[] startEnd) {
+    	loadInstructorAvailability(availability, startEnd, null);
+    }
+    
+    protected void loadInstructorAvailability(RoomAvailabilityInterface availability, Date[] startEnd, Map<Constraint<Lecture, Placement>, Collection<TimeBlock>> prefetched) {
         setPhase(MSG.phaseLoadingInstructorAvailability(), getModel().getInstructorConstraints().size());
         int firstDOY = iSession.getDayOfYear(1,iSession.getPatternStartMonth());
         int lastDOY = iSession.getDayOfYear(0,iSession.getPatternEndMonth()+1);
@@ -3911,7 +3929,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         int sessionYear = iSession.getSessionStartYear();
         for (InstructorConstraint instructor: getModel().getInstructorConstraints()) {
             incProgress();
-            Collection<TimeBlock> times = getInstructorAvailability(availability, instructor, startEnd[0], startEnd[1]);
+            Collection<TimeBlock> times = (prefetched != null && prefetched.containsKey(instructor) ? prefetched.get(instructor) : getInstructorAvailability(availability, instructor, startEnd[0], startEnd[1]));
             if (times==null) continue;
             for (TimeBlock time : times) {
                 iProgress.debug(instructor.getName() + " not available due to " + time);
@@ -3985,15 +4003,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
             sLog.error(e.getMessage(),e);
             iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_WARN), MSG.warnRoomAvailableServiceFailed(e.getMessage()));
         } 
-        if (!iRoomAvailabilityTimeStampIsSet) {
-            iRoomAvailabilityTimeStampIsSet = true;
-            if (ts!=null) {
-                getModel().getProperties().setProperty("RoomAvailability.TimeStamp", ts);
-                iProgress.message(msglevel("roomAvailabilityUpdated", Progress.MSGLEVEL_INFO), MSG.infoUsingRoomAvailability(ts));
-            } else {
-                iProgress.message(msglevel("roomAvailabilityFailure", Progress.MSGLEVEL_ERROR), MSG.warnRoomAvailableServiceNotAvailable());
-            }
-        }
+        setRoomAvailabilityTimeStamp(ts);
         return ret;
     }
     
@@ -4255,6 +4265,200 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	iProgress.setPhase(phase, progressMax);
     }
     
+    /**
+     * Independent part of the input data that is fetched in a separate thread (using its own hibernate session)
+     * while the main thread continues with the load. The main thread merges the fetched data into the model when
+     * it gets to the stage (see {@link LoadStage#get(org.hibernate.Session)}). When the parallel load is disabled
+     * (General.ParallelLoad set to false), the data are fetched at that point using the main hibernate session.
+     */
+    protected abstract class LoadStage<T> extends Thread {
+    	private String iStage;
+    	private T iResult = null;
+    	private Throwable iError = null;
+    	private long iTime = 0;
+    	private boolean iStarted = false;
+
+    	protected LoadStage(String stage) {
+    		super("Loader-" + stage);
+    		setDaemon(true);
+    		iStage = stage;
+    	}
+
+    	/** Fetch the data, must not modify the model */
+    	protected abstract T fetch(org.hibernate.Session hibSession) throws Exception;
+
+    	/** Start the stage in the background (only when the parallel load is enabled) */
+    	public LoadStage<T> begin() {
+    		if (iParallelLoad) {
+    			iStarted = true;
+    			start();
+    		}
+    		return this;
+    	}
+
+    	@Override
+    	public void run() {
+    		long t0 = System.currentTimeMillis();
+    		try {
+    			ApplicationProperties.setSessionId(iSessionId);
+    			org.hibernate.Session hibSession = TimetableManagerDAO.getInstance().getSession();
+    			hibSession.setCacheMode(CacheMode.IGNORE);
+    			hibSession.setFlushMode(FlushMode.MANUAL);
+    			iResult = fetch(hibSession);
+    		} catch (Throwable t) {
+    			iError = t;
+    		} finally {
+    			_RootDAO.rollbackCurrentThreadSessions();
+    			ApplicationProperties.setSessionId(null);
+    			iTime = System.currentTimeMillis() - t0;
+    		}
+    	}
+
+    	/**
+    	 * Wait for the fetched data (or fetch them now using the given hibernate session when the stage has not been started)
+    	 */
+    	public T get(org.hibernate.Session hibSession) throws Exception {
+    		long t0 = System.currentTimeMillis();
+    		if (iStarted) {
+    			join();
+    			if (iError != null) {
+    				if (iError instanceof Exception) throw (Exception)iError;
+    				throw new RuntimeException(iError.getMessage(), iError);
+    			}
+    		} else {
+    			iResult = fetch(hibSession);
+    			iTime = System.currentTimeMillis() - t0;
+    		}
+    		iProgress.info(MSG.infoLoadStage(iStage, sDF.format(iTime / 1000.0), sDF.format((System.currentTimeMillis() - t0) / 1000.0)));
+    		return iResult;
+    	}
+    }
+
+    /**
+     * Student class enrollments (student id, class id) to be loaded as the initial enrollments. Either a single list of real
+     * student class enrollments, or a list of student enrollments for each solver group followed by the list of other
+     * committed enrollments (when Global.LoadOtherCommittedStudentEnrls is true).
+     */
+    protected LoadStage<List<List<Object[]>>> createStudentEnrollmentsStage(final Long[] solutionIds) {
+    	return new LoadStage<List<List<Object[]>>>(MSG.stageStudentEnrollments()) {
+			@Override
+			protected List<List<Object[]>> fetch(org.hibernate.Session hibSession) {
+				List<List<Object[]>> ret = new ArrayList<List<Object[]>>();
+				if (iStudentCourseDemands.canUseStudentClassEnrollmentsAsSolution()) {
+					ret.add((List<Object[]>)hibSession.createQuery(
+	    					"select distinct e.student.uniqueId, e.clazz.uniqueId from " +
+	    					"StudentClassEnrollment e, Class_ c where " +
+	    					"e.courseOffering.instructionalOffering = c.schedulingSubpart.instrOfferingConfig.instructionalOffering and " +
+	    					"c.managingDept.solverGroup.uniqueId in (" + iSolverGroupIds + ")").list());
+				} else {
+					for (int idx=0;idx<iSolverGroupId.length;idx++) {
+						if (solutionIds[idx] != null) {
+							ret.add((List<Object[]>)hibSession
+		            				.createQuery("select distinct e.studentId, e.clazz.uniqueId from StudentEnrollment e where e.solution.uniqueId=:solutionId")
+		            				.setLong("solutionId", solutionIds[idx])
+		            				.list());
+						} else {
+							ret.add((List<Object[]>)hibSession
+		            				.createQuery("select distinct e.studentId, e.clazz.uniqueId from StudentEnrollment e where e.solution.owner.uniqueId=:sovlerGroupId and e.solution.commited = true")
+		            				.setLong("sovlerGroupId", iSolverGroupId[idx])
+		            				.list());
+						}
+					}
+					if (getModel().getProperties().getPropertyBoolean("Global.LoadOtherCommittedStudentEnrls", true)) {
+						ret.add((List<Object[]>)hibSession.createQuery(
+	        					"select distinct e.studentId, e.clazz.uniqueId from " +
+	        					"StudentEnrollment e, Class_ c where " +
+	        					"e.solution.commited = true and e.solution.owner.uniqueId not in (" + iSolverGroupIds + ") and " +
+	        					"e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering = c.schedulingSubpart.instrOfferingConfig.instructionalOffering and " +
+	        					"c.managingDept.solverGroup.uniqueId in (" + iSolverGroupIds + ")").list());
+					}
+				}
+				return ret;
+			}
+		};
+    }
+
+    /**
+     * Committed assignment - student relations (assignment id, student id, offering id) of the other problems
+     */
+    protected LoadStage<List<Object[]>> createCommittedStudentConflictsStage() {
+    	return new LoadStage<List<Object[]>>(MSG.stageCommittedStudentConflicts()) {
+			@Override
+			protected List<Object[]> fetch(org.hibernate.Session hibSession) {
+				return (List<Object[]>)hibSession.createQuery(
+		    			"select distinct a.uniqueId, e.studentId, io.uniqueId from "+
+		    			"Solution s inner join s.assignments a inner join s.studentEnrollments e inner join a.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering io "+
+		    			"where "+
+		    			"s.commited=true and s.owner.session.uniqueId=:sessionId and s.owner not in ("+iSolverGroupIds+") and "+
+		    			"a.clazz=e.clazz").setLong("sessionId", iSessionId.longValue()).list();
+			}
+		};
+    }
+
+    /**
+     * Data fetched by the room availability stage: times when the rooms and the instructors are not available, the time stamp of the
+     * room availability service (null when not available), and the message of the last failure (if any)
+     */
+    protected static class RoomAvailabilityData {
+    	private Map<Constraint<Lecture, Placement>, Collection<TimeBlock>> iTimes = new HashMap<Constraint<Lecture, Placement>, Collection<TimeBlock>>();
+    	private String iTimeStamp = null;
+    	private String iError = null;
+    	
+    	public Map<Constraint<Lecture, Placement>, Collection<TimeBlock>> getTimes() { return iTimes; }
+    	public String getTimeStamp() { return iTimeStamp; }
+    	public void setTimeStamp(String timeStamp) { iTimeStamp = timeStamp; }
+    	public String getError() { return iError; }
+    	public void setError(String error) { iError = error; }
+    }
+
+    /**
+     * Room and instructor availability from the room availability service (for the rooms and the instructors that are known at the time of the call).
+     * The time stamp is only returned, it is set to the model when the stage is merged (see {@link TimetableDatabaseLoader#setRoomAvailabilityTimeStamp(String)}).
+     */
+    protected LoadStage<RoomAvailabilityData> createRoomAvailabilityStage(final RoomAvailabilityInterface availability, final Date[] startEnd) {
+    	final List<RoomConstraint> rooms = new ArrayList<RoomConstraint>();
+    	for (RoomConstraint room: iRooms.values())
+    		if (room.getConstraint()) rooms.add(room);
+    	final List<InstructorConstraint> instructors = new ArrayList<InstructorConstraint>(getModel().getInstructorConstraints());
+    	return new LoadStage<RoomAvailabilityData>(MSG.stageRoomAvailability()) {
+			@Override
+			protected RoomAvailabilityData fetch(org.hibernate.Session hibSession) {
+				RoomAvailabilityData ret = new RoomAvailabilityData();
+				try {
+					availability.activate(new SessionDAO().get(iSessionId, hibSession), startEnd[0], startEnd[1], RoomAvailabilityInterface.sClassType, ApplicationProperty.RoomAvailabilitySolverWaitForSync.isTrue());
+				} catch (Exception e) {
+					sLog.error(e.getMessage(), e);
+					ret.setError(e.getMessage());
+				}
+				for (RoomConstraint room: rooms) {
+					try {
+						ret.getTimes().put(room, availability.getRoomAvailability(room.getResourceId(), startEnd[0], startEnd[1], RoomAvailabilityInterface.sClassType));
+					} catch (Exception e) {
+						sLog.error(e.getMessage(), e);
+						ret.getTimes().put(room, null);
+						ret.setError(e.getMessage());
+					}
+				}
+				for (InstructorConstraint instructor: instructors) {
+					try {
+						ret.getTimes().put(instructor, availability.getInstructorAvailability(instructor.getResourceId(), startEnd[0], startEnd[1], RoomAvailabilityInterface.sClassType));
+					} catch (Exception e) {
+						sLog.error(e.getMessage(), e);
+						ret.getTimes().put(instructor, null);
+						ret.setError(e.getMessage());
+					}
+				}
+				try {
+					ret.setTimeStamp(availability.getTimeStamp(startEnd[0], startEnd[1], RoomAvailabilityInterface.sClassType));
+				} catch (Exception e) {
+					sLog.error(e.getMessage(), e);
+					ret.setError(e.getMessage());
+				}
+				return ret;
+			}
+		};
+    }
+
     protected void incProgress() {
     	checkTermination();
     	iProgress.incProgress();
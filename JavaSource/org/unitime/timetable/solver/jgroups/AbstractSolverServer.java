@@ -38,6 +38,7 @@ import org.unitime.timetable.model.DepartmentalInstructor;
 import org.unitime.timetable.model.ExamType;
 import org.unitime.timetable.model.InstructionalOffering;
 import org.unitime.timetable.model.Solution;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
 import org.unitime.timetable.model.TeachingRequest;
 import org.unitime.timetable.model.dao._RootDAO;
 import org.unitime.timetable.util.Constants;
@@ -148,6 +149,19 @@ public abstract class AbstractSolverServer implements SolverServer {
 		return getMemoryLimit() <= getAvailableMemory();
 	}
 	
+	@Override
+	public SolverServerLoad getLoad(SolverType type, long problemSize) {
+		return new SolverServerLoad(isAvailable(), getUsage(), getAvailableMemory(), getMemoryLimit(),
+				SolverMemoryForecast.getReservedMemory(this), SolverMemoryForecast.getPassivatedMemory(this),
+				type == null ? 0 : SolverMemoryForecast.estimate(type, problemSize),
+				SolverMemoryForecast.getPassivatedSolvers(this, type));
+	}
+	
+	@Override
+	public void reserveMemory(SolverType type, String user, long problemSize, long memory) {
+		SolverMemoryForecast.reserve(type, user, problemSize, memory);
+	}
+	
 	@Override
 	public RoomAvailabilityInterface getRoomAvailability() {
 		return RoomAvailability.getInstance();
@@ -223,6 +237,12 @@ public abstract class AbstractSolverServer implements SolverServer {
 		else
 			properties.setProperty(key, value);
 	}
+	
+	@Override
+	public void reloadApplicationProperties(Long sessionId) {
+		sLog.info("Reload application properties" + (sessionId == null ? "" : " (for session " + sessionId + ")"));
+		ApplicationProperties.reload(sessionId);
+	}
 
 	@Override
 	public void setLoggingLevel(String name, String level) {
@@ -60,7 +60,10 @@ public class CourseSolverContainer implements SolverContainer<SolverProxy> {
 	@Override
 	public long getMemUsage(String user) {
 		SolverProxy solver = getSolver(user);
-		return solver == null ? 0 : new MemoryCounter().estimate(solver);
+		if (solver == null) return 0;
+		long memory = new MemoryCounter().estimate(solver);
+		SolverMemoryForecast.measured(SolverParameterGroup.SolverType.COURSE, user, solver, memory);
+		return memory;
 	}
 	
 	@Override
@@ -141,6 +144,7 @@ public class CourseSolverContainer implements SolverContainer<SolverProxy> {
         @Override
         public void onDispose() {
             iCourseSolvers.remove(iUser);
+            SolverMemoryForecast.release(SolverParameterGroup.SolverType.COURSE, iUser);
         }
     }
     
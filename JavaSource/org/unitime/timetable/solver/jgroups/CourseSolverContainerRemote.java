@@ -59,9 +59,11 @@ public class CourseSolverContainerRemote extends CourseSolverContainer implement
 	private boolean iSaveFileInfos = false;
 	
 	private RpcDispatcher iDispatcher;
+	private static RemoteMethodTable sMethods = new RemoteMethodTable(SolverProxy.class, RemoteSolver.class);
 		
 	public CourseSolverContainerRemote(JChannel channel, short scope, boolean saveFileInfos) {
 		iDispatcher = new MuxRpcDispatcher(scope, channel, null, null, this);
+		iDispatcher.setMethodLookup(RemoteMethodTable.sMethodLookup);
 		iSaveFileInfos = saveFileInfos;
 	}
 	
@@ -81,7 +83,7 @@ public class CourseSolverContainerRemote extends CourseSolverContainer implement
 				return solver != null;
 			if (solver == null)
 				throw new Exception("Solver " + user + " does not exist.");
-			return solver.getClass().getMethod(method, types).invoke(solver, args);
+			return sMethods.invoke(solver, method, types, args);
 		} catch (InvocationTargetException e) {
 			if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
 				throw (Exception)e.getTargetException();
@@ -92,10 +94,42 @@ public class CourseSolverContainerRemote extends CourseSolverContainer implement
 		}
 	}
 	
+	@Override
+	public long getMethodTableFingerprint() {
+		return sMethods.getFingerprint();
+	}
+	
+	@Override
+	public Object invokeMethod(int methodId, String user, byte[] args) throws Exception {
+		try {
+			Method method = sMethods.getMethod(methodId);
+			SolverProxy solver = iCourseSolvers.get(user);
+			if ("exists".equals(method.getName()) && method.getParameterTypes().length == 0)
+				return solver != null;
+			if (solver == null)
+				throw new Exception("Solver " + user + " does not exist.");
+			return sMethods.invoke(solver, methodId, RemoteMethodTable.unmarshal(args));
+		} finally {
+			_RootDAO.closeCurrentThreadSessions();
+		}
+	}
+	
+	@Override
+	public Object[] invokeMethods(int[] methodIds, String user, byte[][] args) throws Exception {
+		try {
+			SolverProxy solver = iCourseSolvers.get(user);
+			if (solver == null)
+				throw new Exception("Solver " + user + " does not exist.");
+			return sMethods.invokeAll(solver, methodIds, args);
+		} finally {
+			_RootDAO.closeCurrentThreadSessions();
+		}
+	}
+	
 	@Override
 	public Object dispatch(Address address, String user, Method method, Object[] args) throws Exception {
 		try {
-			return iDispatcher.callRemoteMethod(address, "invoke",  new Object[] { method.getName(), user, method.getParameterTypes(), args }, new Class[] { String.class, String.class, Class[].class, Object[].class }, SolverServerImplementation.sFirstResponse);
+			return sMethods.dispatch(iDispatcher, address, user, method, args, SolverServerImplementation.sFirstResponse);
 		} catch (InvocationTargetException e) {
 			if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
 				throw (Exception)e.getTargetException();
@@ -277,11 +311,15 @@ public class CourseSolverContainerRemote extends CourseSolverContainer implement
             return infos;
         }
     	
+    	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception {
+    		return sMethods.dispatchAll(iDispatcher, iAddress, iUser, this, methods, args, SolverServerImplementation.sFirstResponse);
+    	}
+    	
     	@Override
     	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    		try {
-    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-    		} catch (NoSuchMethodException e) {}
+    		Method local = sMethods.getLocalMethod(getClass(), method);
+    		if (local != null)
+    			return local.invoke(this, args);
     		return dispatch(iAddress, iUser, method, args);
         }
     }
@@ -217,10 +217,13 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 	public class DummyContainer<T> implements RemoteSolverContainer<T> {
 		protected RpcDispatcher iDispatcher;
 		protected Class<T> iClazz;
+		protected RemoteMethodTable iMethods;
 		
 		public DummyContainer(JChannel channel, short scope, Class<T> clazz) {
 			iDispatcher = new MuxRpcDispatcher(scope, channel, null, null, this);
+			iDispatcher.setMethodLookup(RemoteMethodTable.sMethodLookup);
 			iClazz = clazz;
+			iMethods = new RemoteMethodTable(clazz, RemoteSolver.class);
 		}
 		
 		@Override
@@ -278,7 +281,7 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 		@Override
 		public Object dispatch(Address address, String user, Method method, Object[] args) throws Exception {
 			try {
-				return iDispatcher.callRemoteMethod(address, "invoke",  new Object[] { method.getName(), user, method.getParameterTypes(), args }, new Class[] { String.class, String.class, Class[].class, Object[].class }, SolverServerImplementation.sFirstResponse);
+				return iMethods.dispatch(iDispatcher, address, user, method, args, SolverServerImplementation.sFirstResponse);
 			} catch (Exception e) {
 				sLog.debug("Excution of " + method.getName() + " on solver " + user + " failed: " + e.getMessage(), e);
 				throw e;
@@ -289,6 +292,21 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 		public Object invoke(String method, String user, Class[] types, Object[] args) throws Exception {
 			throw new Exception("Method " + method + " not implemented.");
 		}
+		
+		@Override
+		public long getMethodTableFingerprint() {
+			return iMethods.getFingerprint();
+		}
+		
+		@Override
+		public Object invokeMethod(int methodId, String user, byte[] args) throws Exception {
+			throw new Exception("Method " + iMethods.getMethod(methodId).getName() + " not implemented.");
+		}
+		
+		@Override
+		public Object[] invokeMethods(int[] methodIds, String user, byte[][] args) throws Exception {
+			throw new Exception("Methods not implemented.");
+		}
 
 		@Override
 		public T createProxy(Address address, String user) {
@@ -316,11 +334,15 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 	    		return iUser;
 	    	}
 	    	
+	    	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception {
+	    		return iMethods.dispatchAll(iDispatcher, iAddress, iUser, this, methods, args, SolverServerImplementation.sFirstResponse);
+	    	}
+	    	
 	    	@Override
 	    	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-	    		try {
-	    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-	    		} catch (NoSuchMethodException e) {}
+	    		Method local = iMethods.getLocalMethod(getClass(), method);
+	    		if (local != null)
+	    			return local.invoke(this, args);
 	    		return dispatch(iAddress, iUser, method, args);
 	        }
 	    }
@@ -402,11 +424,15 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 	    		return iUser;
 	    	}
 	    	
+	    	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception {
+	    		return RemoteMethodTable.invokeEach(this, null, methods, args);
+	    	}
+	    	
 	    	@Override
 	    	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-	    		try {
-	    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-	    		} catch (NoSuchMethodException e) {}
+	    		Method local = iMethods.getLocalMethod(getClass(), method);
+	    		if (local != null)
+	    			return local.invoke(this, args);
 	    		return dispatch(iAddresses, iUser, method, args);
 	        }
 	    }
@@ -59,7 +59,10 @@ public class ExaminationSolverContainer implements SolverContainer<ExamSolverPro
 	@Override
 	public long getMemUsage(String user) {
 		ExamSolverProxy solver = getSolver(user);
-		return solver == null ? 0 : new MemoryCounter().estimate(solver);
+		if (solver == null) return 0;
+		long memory = new MemoryCounter().estimate(solver);
+		SolverMemoryForecast.measured(SolverParameterGroup.SolverType.EXAM, user, solver, memory);
+		return memory;
 	}
 	
 	@Override
@@ -140,6 +143,7 @@ public class ExaminationSolverContainer implements SolverContainer<ExamSolverPro
         @Override
         public void onDispose() {
             iExamSolvers.remove(iUser);
+            SolverMemoryForecast.release(SolverParameterGroup.SolverType.EXAM, iUser);
         }
     }
     
@@ -58,7 +58,10 @@ public class InstructorSchedulingContainer implements SolverContainer<Instructor
 	@Override
 	public long getMemUsage(String user) {
 		InstructorSchedulingProxy solver = getSolver(user);
-		return solver == null ? 0 : new MemoryCounter().estimate(solver);
+		if (solver == null) return 0;
+		long memory = new MemoryCounter().estimate(solver);
+		SolverMemoryForecast.measured(SolverParameterGroup.SolverType.INSTRUCTOR, user, solver, memory);
+		return memory;
 	}
 	
 	@Override
@@ -139,6 +142,7 @@ public class InstructorSchedulingContainer implements SolverContainer<Instructor
         @Override
         public void onDispose() {
         	iInstrSchdSolvers.remove(iUser);
+        	SolverMemoryForecast.release(SolverParameterGroup.SolverType.INSTRUCTOR, iUser);
         }
     }
     
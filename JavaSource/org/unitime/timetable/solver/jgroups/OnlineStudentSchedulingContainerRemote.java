@@ -63,11 +63,13 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
 	private static Log sLog = LogFactory.getLog(OnlineStudentSchedulingContainerRemote.class);
 	
 	private RpcDispatcher iDispatcher;
+	private static RemoteMethodTable sMethods = new RemoteMethodTable(OnlineSectioningServer.class, RemoteSolver.class);
 	private EmbeddedCacheManager iCacheManager = null;
 	private LockService iLockService;
 
 	public OnlineStudentSchedulingContainerRemote(JChannel channel, short scope) {
 		iDispatcher = new MuxRpcDispatcher(scope, channel, null, null, this);
+		iDispatcher.setMethodLookup(RemoteMethodTable.sMethodLookup);
 		iLockService = new LockService(channel);
 	}
 	
@@ -126,7 +128,7 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
 				return solver != null;
 			if (solver == null)
 				throw new Exception("Server " + sessionId + " does not exist.");
-			return solver.getClass().getMethod(method, types).invoke(solver, args);
+			return sMethods.invoke(solver, method, types, args);
 		} catch (InvocationTargetException e) {
 			if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
 				throw (Exception)e.getTargetException();
@@ -137,10 +139,42 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
 		}
 	}
 	
+	@Override
+	public long getMethodTableFingerprint() {
+		return sMethods.getFingerprint();
+	}
+	
+	@Override
+	public Object invokeMethod(int methodId, String sessionId, byte[] args) throws Exception {
+		try {
+			Method method = sMethods.getMethod(methodId);
+			OnlineSectioningServer solver = iInstances.get(Long.valueOf(sessionId));
+			if ("exists".equals(method.getName()) && method.getParameterTypes().length == 0)
+				return solver != null;
+			if (solver == null)
+				throw new Exception("Server " + sessionId + " does not exist.");
+			return sMethods.invoke(solver, methodId, RemoteMethodTable.unmarshal(args));
+		} finally {
+			_RootDAO.closeCurrentThreadSessions();
+		}
+	}
+	
+	@Override
+	public Object[] invokeMethods(int[] methodIds, String sessionId, byte[][] args) throws Exception {
+		try {
+			OnlineSectioningServer solver = iInstances.get(Long.valueOf(sessionId));
+			if (solver == null)
+				throw new Exception("Server " + sessionId + " does not exist.");
+			return sMethods.invokeAll(solver, methodIds, args);
+		} finally {
+			_RootDAO.closeCurrentThreadSessions();
+		}
+	}
+	
 	@Override
 	public Object dispatch(Address address, String sessionId, Method method, Object[] args) throws Exception {
 		try {
-			return iDispatcher.callRemoteMethod(address, "invoke",  new Object[] { method.getName(), sessionId, method.getParameterTypes(), args }, new Class[] { String.class, String.class, Class[].class, Object[].class }, SolverServerImplementation.sFirstResponse);
+			return sMethods.dispatch(iDispatcher, address, sessionId, method, args, SolverServerImplementation.sFirstResponse);
 		} catch (InvocationTargetException e) {
 			if (e.getTargetException() != null && e.getTargetException() instanceof Exception)
 				throw (Exception)e.getTargetException();
@@ -228,11 +262,15 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
     		return iUser;
     	}
     	
+    	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception {
+    		return sMethods.dispatchAll(iDispatcher, iAddress, iUser, this, methods, args, SolverServerImplementation.sFirstResponse);
+    	}
+    	
     	@Override
     	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    		try {
-    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-    		} catch (NoSuchMethodException e) {}
+    		Method local = sMethods.getLocalMethod(getClass(), method);
+    		if (local != null)
+    			return local.invoke(this, args);
     		return dispatch(iAddress, iUser, method, args);
         }
     }
@@ -255,11 +293,15 @@ public class OnlineStudentSchedulingContainerRemote extends OnlineStudentSchedul
     		return iUser;
     	}
     	
+    	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception {
+    		return RemoteMethodTable.invokeEach(this, null, methods, args);
+    	}
+    	
     	@Override
     	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    		try {
-    			return getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-    		} catch (NoSuchMethodException e) {}
+    		Method local = sMethods.getLocalMethod(getClass(), method);
+    		if (local != null)
+    			return local.invoke(this, args);
     		return dispatch(iAddresses, iUser, method, args);
         }
     }
@@ -46,6 +46,7 @@ import org.unitime.timetable.onlinesectioning.updates.ReloadAllData;
 import org.unitime.timetable.onlinesectioning.updates.ReloadAllStudents;
 import org.unitime.timetable.onlinesectioning.updates.ReloadOfferingAction;
 import org.unitime.timetable.onlinesectioning.updates.ReloadStudent;
+import org.unitime.timetable.onlinesectioning.updates.ResyncData;
 
 /**
  * @author Tomas Muller
@@ -87,6 +88,8 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 							checkForUpdates(server);
 							if (!iRun) break;
 							checkForExpiredReservations(server);
+							if (!iRun) break;
+							checkForResync(server);
 							persistExpectedSpaces(server);
 						} else if (!ApplicationProperty.OnlineSchedulingServerReplicated.isTrue()) {
 							// not master, but replication is disabled -> unload
@@ -158,6 +161,25 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 		}
 	}
 	
+	public void checkForResync(OnlineSectioningServer server) {
+		Integer interval = ApplicationProperty.OnlineSchedulingResyncInterval.intValue();
+		if (interval == null || interval <= 0) return;
+		long ts = System.currentTimeMillis(); // current time stamp
+		Long lastResync = server.getProperty("Updater.LastResync", null);
+		if (lastResync == null) {
+			// first check -> wait for the interval
+			server.setProperty("Updater.LastResync", ts);
+			return;
+		}
+		if (ts - lastResync < 60000l * interval) return;
+		server.setProperty("Updater.LastResync", ts);
+		try {
+			server.execute(server.createAction(ResyncData.class), user());
+		} catch (Exception e) {
+			iLog.error("Re-synchronization failed: " + e.getMessage(), e);
+		}
+	}
+	
 	protected OnlineSectioningLog.Entity user() {
 		return OnlineSectioningLog.Entity.newBuilder()
 			.setExternalId(StudentClassEnrollment.SystemChange.SYSTEM.name())
@@ -186,8 +208,13 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 	protected void processChange(OnlineSectioningServer server, StudentSectioningQueue q) {
 		switch (StudentSectioningQueue.Type.values()[q.getType()]) {
 		case SESSION_RELOAD:
-			iLog.info("Reloading " + server.getAcademicSession());
-			server.execute(server.createAction(ReloadAllData.class), q.getUser());
+			if (ApplicationProperty.OnlineSchedulingReloadIncremental.isTrue()) {
+				iLog.info("Re-synchronizing " + server.getAcademicSession());
+				server.execute(server.createAction(ResyncData.class), q.getUser());
+			} else {
+				iLog.info("Reloading " + server.getAcademicSession());
+				server.execute(server.createAction(ReloadAllData.class), q.getUser());
+			}
 			if (server.getAcademicSession().isSectioningEnabled())
 				server.execute(server.createAction(CheckAllOfferingsAction.class), q.getUser());
 			break;
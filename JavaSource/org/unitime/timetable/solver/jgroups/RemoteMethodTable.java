@@ -0,0 +1,449 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgroups.Address;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.MethodLookup;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.RpcDispatcher;
+
+/**
+ * Method table of the remote solver proxy interfaces.<br>
+ * Each method of the given interfaces gets an id (methods are ordered by their signatures, so all the servers
+ * running the same version end up with the same table) and the table gets a fingerprint. The fingerprints are compared
+ * on the first call to a server. When they match, a remote call only consists of the JGroups method id, the method id,
+ * the user, and the arguments marshalled by {@link RemoteMethodTable#marshal(Object[])} (instead of the method name,
+ * the parameter types, and the Java-serialized arguments). The method is called on the server using a {@link MethodHandle}
+ * that is created once for each method.<br>
+ * When the other server has a different method table (e.g., during a rolling upgrade), the name-based invocation is used instead.
+ *
+ * @author Tomas Muller
+ */
+public class RemoteMethodTable {
+	/** JGroups method id of the {@link RemoteSolverContainer#invokeMethod(int, String, byte[])} method, see {@link RemoteMethodTable#sMethodLookup} */
+	public static final short INVOKE_METHOD_ID = 1;
+	/** JGroups method id of the {@link RemoteSolverContainer#invokeMethods(int[], String, byte[][])} method, see {@link RemoteMethodTable#sMethodLookup} */
+	public static final short INVOKE_METHODS_ID = 2;
+	
+	/**
+	 * JGroups method lookup (to be set on the dispatcher of a remote solver container), so that the
+	 * {@link RemoteSolverContainer#invokeMethod(int, String, byte[])} and {@link RemoteSolverContainer#invokeMethods(int[], String, byte[][])}
+	 * can be called by their ids
+	 */
+	public static final MethodLookup sMethodLookup = new MethodLookup() {
+		private Method iInvokeMethod = null, iInvokeMethods = null;
+		@Override
+		public Method findMethod(short id) {
+			try {
+				switch (id) {
+				case INVOKE_METHOD_ID:
+					if (iInvokeMethod == null)
+						iInvokeMethod = RemoteSolverContainer.class.getMethod("invokeMethod", int.class, String.class, byte[].class);
+					return iInvokeMethod;
+				case INVOKE_METHODS_ID:
+					if (iInvokeMethods == null)
+						iInvokeMethods = RemoteSolverContainer.class.getMethod("invokeMethods", int[].class, String.class, byte[][].class);
+					return iInvokeMethods;
+				default:
+					return null;
+				}
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+	};
+	
+	private static final int TAG_NULL = 0;
+	private static final int TAG_STRING = 1;
+	private static final int TAG_LONG = 2;
+	private static final int TAG_INTEGER = 3;
+	private static final int TAG_TRUE = 4;
+	private static final int TAG_FALSE = 5;
+	private static final int TAG_DOUBLE = 6;
+	private static final int TAG_OBJECT = 7;
+	
+	private Method[] iMethods;
+	private MethodHandle[] iHandles;
+	private Map<Method, Integer> iIds = new HashMap<Method, Integer>();
+	private Map<String, Integer> iSignatures = new HashMap<String, Integer>();
+	private long iFingerprint;
+	private Map<Address, Boolean> iCompatible = new ConcurrentHashMap<Address, Boolean>();
+	private Map<Class<?>, Map<Method, Method>> iLocalMethods = new ConcurrentHashMap<Class<?>, Map<Method, Method>>();
+	
+	/**
+	 * Create method table for the given interfaces (when two interfaces share a method, the first one is used)
+	 */
+	public RemoteMethodTable(Class<?>... interfaces) {
+		TreeMap<String, Method> methods = new TreeMap<String, Method>();
+		for (Class<?> clazz: interfaces)
+			for (Method method: clazz.getMethods()) {
+				String signature = getSignature(method.getName(), method.getParameterTypes());
+				if (!methods.containsKey(signature)) methods.put(signature, method);
+			}
+		iMethods = new Method[methods.size()];
+		iHandles = new MethodHandle[methods.size()];
+		long fingerprint = 1125899906842597l;
+		int id = 0;
+		for (Map.Entry<String, Method> entry: methods.entrySet()) {
+			Method method = entry.getValue();
+			iMethods[id] = method;
+			iSignatures.put(entry.getKey(), id);
+			for (Class<?> clazz: interfaces)
+				for (Method m: clazz.getMethods())
+					if (entry.getKey().equals(getSignature(m.getName(), m.getParameterTypes()))) iIds.put(m, id);
+			String key = entry.getKey() + method.getReturnType().getName();
+			for (int i = 0; i < key.length(); i++)
+				fingerprint = 31 * fingerprint + key.charAt(i);
+			id++;
+		}
+		iFingerprint = fingerprint;
+	}
+	
+	protected static String getSignature(String name, Class<?>[] types) {
+		StringBuffer signature = new StringBuffer(name).append('(');
+		if (types != null)
+			for (int i = 0; i < types.length; i++) {
+				if (i > 0) signature.append(',');
+				signature.append(types[i].getName());
+			}
+		return signature.append(')').toString();
+	}
+	
+	/** Table fingerprint */
+	public long getFingerprint() { return iFingerprint; }
+	
+	/** Number of methods in the table */
+	public int size() { return iMethods.length; }
+	
+	/** Method id, -1 if the method is not in the table */
+	public int getId(Method method) {
+		Integer id = iIds.get(method);
+		if (id == null) id = iSignatures.get(getSignature(method.getName(), method.getParameterTypes()));
+		return (id == null ? -1 : id.intValue());
+	}
+	
+	/** Method of the given id */
+	public Method getMethod(int id) {
+		if (id < 0 || id >= iMethods.length)
+			throw new IllegalArgumentException("Unknown method " + id + ".");
+		return iMethods[id];
+	}
+	
+	protected MethodHandle getHandle(int id) throws IllegalAccessException {
+		MethodHandle handle = iHandles[id];
+		if (handle == null) {
+			handle = MethodHandles.publicLookup().unreflect(iMethods[id]);
+			handle = handle.asType(handle.type().generic()).asSpreader(Object[].class, iMethods[id].getParameterTypes().length);
+			iHandles[id] = handle;
+		}
+		return handle;
+	}
+	
+	/**
+	 * Call the method of the given id on the given target
+	 */
+	public Object invoke(Object target, int id, Object[] args) throws Exception {
+		Object[] arguments = (args == null ? new Object[0] : args);
+		try {
+			return (Object)getHandle(id).invokeExact(target, arguments);
+		} catch (Exception e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+	
+	/**
+	 * Call the method of the given name and parameter types on the given target (name-based invocation)
+	 */
+	public Object invoke(Object target, String method, Class[] types, Object[] args) throws Exception {
+		Integer id = iSignatures.get(getSignature(method, types));
+		if (id != null && iMethods[id].getDeclaringClass().isInstance(target))
+			return invoke(target, id, args);
+		return target.getClass().getMethod(method, types).invoke(target, args);
+	}
+	
+	/**
+	 * Public method of the given class with the same signature as the given method (used by the invocation handlers to
+	 * find methods that are handled locally), null if there is no such method
+	 */
+	public Method getLocalMethod(Class<?> clazz, Method method) {
+		Map<Method, Method> methods = iLocalMethods.get(clazz);
+		if (methods == null) {
+			methods = new ConcurrentHashMap<Method, Method>();
+			iLocalMethods.put(clazz, methods);
+		}
+		Method local = methods.get(method);
+		if (local == null) {
+			try {
+				local = clazz.getMethod(method.getName(), method.getParameterTypes());
+			} catch (NoSuchMethodException e) {
+				local = method;
+			}
+			methods.put(method, local);
+		}
+		return (local == method ? null : local);
+	}
+	
+	/**
+	 * Call the given method on the given address, using the method id when possible.
+	 * The call is made using the invokeMethod(int methodId, String user, byte[] args) method of the remote container (called by its JGroups method id),
+	 * or using its invoke(String method, String user, Class[] types, Object[] args) method when the method tables do not match.
+	 */
+	public Object dispatch(RpcDispatcher dispatcher, Address address, String user, Method method, Object[] args, RequestOptions options) throws Exception {
+		int id = getId(method);
+		if (id >= 0 && isCompatible(dispatcher, address, options))
+			return dispatcher.callRemoteMethod(address, new MethodCall(INVOKE_METHOD_ID, id, user, marshal(args)), options);
+		return dispatcher.callRemoteMethod(address, "invoke", new Object[] { method.getName(), user, method.getParameterTypes(), args }, new Class[] { String.class, String.class, Class[].class, Object[].class }, options);
+	}
+	
+	/**
+	 * Call the methods of the given ids on the given target (server side of {@link RemoteMethodTable#dispatchAll(RpcDispatcher, Address, String, Object, Method[], Object[][], RequestOptions)}).
+	 * A method that fails does not stop the other methods from being called, its exception is returned as {@link Failure} instead.
+	 */
+	public Object[] invokeAll(Object target, int[] ids, byte[][] args) {
+		Object[] results = new Object[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			try {
+				Method method = getMethod(ids[i]);
+				if ("exists".equals(method.getName()) && method.getParameterTypes().length == 0)
+					results[i] = Boolean.TRUE;
+				else if (!method.getDeclaringClass().isInstance(target))
+					throw new Exception("Method " + method.getName() + " not implemented.");
+				else
+					results[i] = invoke(target, ids[i], unmarshal(args[i]));
+			} catch (Throwable t) {
+				results[i] = new Failure(t);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Call the given methods on the given address using a single call of the invokeMethods(int[] methodIds, String user, byte[][] args) method
+	 * of the remote container. Methods that are implemented by the given invocation handler are called locally, all the methods are called
+	 * one by one when the method tables do not match. A method that fails has an instance of {@link Failure} in the returned array.
+	 */
+	public Object[] dispatchAll(RpcDispatcher dispatcher, Address address, String user, Object handler, Method[] methods, Object[][] args, RequestOptions options) throws Exception {
+		Object[] results = new Object[methods.length];
+		List<Integer> remote = new ArrayList<Integer>(methods.length);
+		for (int i = 0; i < methods.length; i++) {
+			Method local = (handler == null ? null : getLocalMethod(handler.getClass(), methods[i]));
+			if (local != null) {
+				try {
+					results[i] = local.invoke(handler, args[i]);
+				} catch (InvocationTargetException e) {
+					results[i] = new Failure(e.getTargetException() == null ? e : e.getTargetException());
+				} catch (Exception e) {
+					results[i] = new Failure(e);
+				}
+			} else if (getId(methods[i]) < 0) {
+				results[i] = new Failure(new Exception("Method " + methods[i].getName() + " not implemented."));
+			} else {
+				remote.add(i);
+			}
+		}
+		if (remote.isEmpty()) return results;
+		if (isCompatible(dispatcher, address, options)) {
+			int[] ids = new int[remote.size()];
+			byte[][] data = new byte[remote.size()][];
+			for (int i = 0; i < remote.size(); i++) {
+				ids[i] = getId(methods[remote.get(i)]);
+				data[i] = marshal(args[remote.get(i)]);
+			}
+			Object[] ret = dispatcher.callRemoteMethod(address, new MethodCall(INVOKE_METHODS_ID, ids, user, data), options);
+			for (int i = 0; i < remote.size(); i++)
+				results[remote.get(i)] = ret[i];
+		} else {
+			for (Integer i: remote) {
+				try {
+					results[i] = dispatch(dispatcher, address, user, methods[i], args[i], options);
+				} catch (InvocationTargetException e) {
+					results[i] = new Failure(e.getTargetException() == null ? e : e.getTargetException());
+				} catch (Exception e) {
+					results[i] = new Failure(e);
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Call the given methods one by one using the given invocation handler (used by the handlers that cannot send all the calls to a single server).
+	 * A method that fails has an instance of {@link Failure} in the returned array.
+	 */
+	public static Object[] invokeEach(InvocationHandler handler, Object proxy, Method[] methods, Object[][] args) {
+		Object[] results = new Object[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			try {
+				results[i] = handler.invoke(proxy, methods[i], args[i]);
+			} catch (InvocationTargetException e) {
+				results[i] = new Failure(e.getTargetException() == null ? e : e.getTargetException());
+			} catch (Throwable t) {
+				results[i] = new Failure(t);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Check whether the method table of the container on the given address matches this table (the result is cached for each address)
+	 */
+	protected boolean isCompatible(RpcDispatcher dispatcher, Address address, RequestOptions options) {
+		Boolean compatible = iCompatible.get(address);
+		if (compatible == null) {
+			try {
+				Long fingerprint = dispatcher.callRemoteMethod(address, "getMethodTableFingerprint", new Object[] {}, new Class[] {}, options);
+				compatible = (fingerprint != null && fingerprint.longValue() == iFingerprint);
+			} catch (NoSuchMethodException e) {
+				// older version of the container
+				compatible = false;
+			} catch (Exception e) {
+				// unable to check, do not remember
+				return false;
+			}
+			iCompatible.put(address, compatible);
+		}
+		return compatible;
+	}
+	
+	/**
+	 * Marshall method arguments: null, strings, and boxed primitives are written directly, other objects
+	 * are written using a single object stream at the end (so that class descriptors are not repeated).
+	 */
+	public static byte[] marshal(Object[] args) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		int length = (args == null ? 0 : args.length);
+		out.writeShort(length);
+		List<Object> objects = null;
+		for (int i = 0; i < length; i++) {
+			Object arg = args[i];
+			if (arg == null) {
+				out.writeByte(TAG_NULL);
+			} else if (arg instanceof String) {
+				out.writeByte(TAG_STRING);
+				byte[] value = ((String)arg).getBytes(StandardCharsets.UTF_8);
+				out.writeInt(value.length);
+				out.write(value);
+			} else if (arg instanceof Long) {
+				out.writeByte(TAG_LONG);
+				out.writeLong((Long)arg);
+			} else if (arg instanceof Integer) {
+				out.writeByte(TAG_INTEGER);
+				out.writeInt((Integer)arg);
+			} else if (arg instanceof Boolean) {
+				out.writeByte((Boolean)arg ? TAG_TRUE : TAG_FALSE);
+			} else if (arg instanceof Double) {
+				out.writeByte(TAG_DOUBLE);
+				out.writeDouble((Double)arg);
+			} else {
+				out.writeByte(TAG_OBJECT);
+				if (objects == null) objects = new ArrayList<Object>();
+				objects.add(arg);
+			}
+		}
+		out.flush();
+		if (objects != null) {
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			for (Object object: objects)
+				oos.writeObject(object);
+			oos.flush();
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Unmarshall method arguments written by {@link RemoteMethodTable#marshal(Object[])}
+	 */
+	public static Object[] unmarshal(byte[] data) throws IOException, ClassNotFoundException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		DataInputStream in = new DataInputStream(bytes);
+		Object[] args = new Object[in.readUnsignedShort()];
+		List<Integer> objects = null;
+		for (int i = 0; i < args.length; i++) {
+			int tag = in.readByte();
+			switch (tag) {
+			case TAG_NULL: args[i] = null; break;
+			case TAG_STRING:
+				byte[] value = new byte[in.readInt()];
+				in.readFully(value);
+				args[i] = new String(value, StandardCharsets.UTF_8);
+				break;
+			case TAG_LONG: args[i] = in.readLong(); break;
+			case TAG_INTEGER: args[i] = in.readInt(); break;
+			case TAG_TRUE: args[i] = Boolean.TRUE; break;
+			case TAG_FALSE: args[i] = Boolean.FALSE; break;
+			case TAG_DOUBLE: args[i] = in.readDouble(); break;
+			case TAG_OBJECT:
+				if (objects == null) objects = new ArrayList<Integer>();
+				objects.add(i);
+				break;
+			default:
+				throw new IOException("Unknown argument tag " + tag + ".");
+			}
+		}
+		if (objects != null) {
+			ObjectInputStream ois = new ObjectInputStream(bytes);
+			for (Integer index: objects)
+				args[index] = ois.readObject();
+		}
+		return args;
+	}
+	
+	/**
+	 * Result of a method call that failed (see {@link RemoteMethodTable#dispatchAll(RpcDispatcher, Address, String, Object, Method[], Object[][], RequestOptions)})
+	 */
+	public static class Failure implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private Throwable iError;
+		
+		public Failure(Throwable error) {
+			iError = error;
+		}
+		
+		public Throwable getError() { return iError; }
+		
+		@Override
+		public String toString() { return "Failure(" + iError + ")"; }
+	}
+}
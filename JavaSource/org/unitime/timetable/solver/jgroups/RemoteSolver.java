@@ -19,9 +19,17 @@
 */
 package org.unitime.timetable.solver.jgroups;
 
+import java.lang.reflect.Method;
+
 /**
  * @author Tomas Muller
  */
 public interface RemoteSolver {
 	public boolean exists();
+	
+	/**
+	 * Call the given methods using a single remote message (when possible).
+	 * A method that failed has an instance of {@link RemoteMethodTable.Failure} in the returned array.
+	 */
+	public Object[] invokeAll(Method[] methods, Object[][] args) throws Exception;
 }
@@ -38,5 +38,11 @@ public interface RemoteSolverContainer<T> extends SolverContainer<T> {
 	
 	public Object invoke(String method, String user, Class[] types, Object[] args) throws Exception;
 	
+	public long getMethodTableFingerprint();
+	
+	public Object invokeMethod(int methodId, String user, byte[] args) throws Exception;
+	
+	public Object[] invokeMethods(int[] methodIds, String user, byte[][] args) throws Exception;
+	
 	public T createProxy(Address address, String user);
 }
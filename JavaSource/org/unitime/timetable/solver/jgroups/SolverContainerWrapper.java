@@ -20,8 +20,12 @@
 package org.unitime.timetable.solver.jgroups;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -32,6 +36,8 @@ import org.jgroups.Address;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
+import org.unitime.timetable.solver.CommonSolverInterface;
 
 
 /**
@@ -42,12 +48,21 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 	private RpcDispatcher iDispatcher;
 	private RemoteSolverContainer<T> iContainer;
 	private boolean iCheckLocal = true;
+	private SolverType iType = null;
 
 	public SolverContainerWrapper(RpcDispatcher dispatcher, RemoteSolverContainer<T> container, boolean checkLocal) {
 		iDispatcher = dispatcher;
 		iContainer = container;
 		iCheckLocal = checkLocal;
 	}
+	
+	/**
+	 * Solver container wrapper with a memory aware placement of the new solvers of the given type (see {@link SolverMemoryForecast})
+	 */
+	public SolverContainerWrapper(RpcDispatcher dispatcher, RemoteSolverContainer<T> container, boolean checkLocal, SolverType type) {
+		this(dispatcher, container, checkLocal);
+		iType = type;
+	}
 
 	@Override
 	public Set<String> getSolvers() {
@@ -132,16 +147,18 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 	@Override
 	public T createSolver(String user, DataProperties config) {
 		try {
-			Address bestAddress = null;
-			int bestUsage = 0;
-			RspList<Boolean> ret = iDispatcher.callRemoteMethods(null, "isAvailable", new Object[] {}, new Class[] {}, SolverServerImplementation.sAllResponses);
-			for (Rsp<Boolean> rsp : ret) {
-				if (Boolean.TRUE.equals(rsp.getValue())) {
-					Integer usage = iDispatcher.callRemoteMethod(rsp.getSender(), "getUsage", new Object[] {}, new Class[] {}, SolverServerImplementation.sFirstResponse);
-					if (bestAddress == null || bestUsage > usage) {
-						bestAddress = rsp.getSender();
-		                bestUsage = usage;
-		            }
+			Address bestAddress = (iType == null ? null : getBestAddress(user, config));
+			if (bestAddress == null) {
+				int bestUsage = 0;
+				RspList<Boolean> ret = iDispatcher.callRemoteMethods(null, "isAvailable", new Object[] {}, new Class[] {}, SolverServerImplementation.sAllResponses);
+				for (Rsp<Boolean> rsp : ret) {
+					if (Boolean.TRUE.equals(rsp.getValue())) {
+						Integer usage = iDispatcher.callRemoteMethod(rsp.getSender(), "getUsage", new Object[] {}, new Class[] {}, SolverServerImplementation.sFirstResponse);
+						if (bestAddress == null || bestUsage > usage) {
+							bestAddress = rsp.getSender();
+			                bestUsage = usage;
+			            }
+					}
 				}
 			}
 				
@@ -160,6 +177,130 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 		}
 	}
 	
+	/**
+	 * Memory aware placement: among the available servers, the servers on which the forecasted footprint of the new solver fits
+	 * (taking into account the memory reserved for the solvers that are being loaded) are preferred, the one with the lowest usage is taken.
+	 * When the solver does not fit anywhere, the server with the most memory is taken. The forecasted memory is reserved on the selected server.
+	 * @return null when the load of the servers cannot be retrieved (e.g., an older version of the solver server is running)
+	 */
+	protected Address getBestAddress(String user, DataProperties config) {
+		try {
+			long problemSize = SolverMemoryForecast.getProblemSize(iType, config);
+			RspList<SolverServerLoad> ret = iDispatcher.callRemoteMethods(null, "getLoad", new Object[] { iType, problemSize }, new Class[] { SolverType.class, long.class }, SolverServerImplementation.sAllResponses);
+			Address bestAddress = null;
+			SolverServerLoad bestLoad = null;
+			for (Rsp<SolverServerLoad> rsp : ret) {
+				SolverServerLoad load = rsp.getValue();
+				if (load == null || !load.isAvailable()) continue;
+				if (bestLoad == null || compare(load, bestLoad) < 0) {
+					bestAddress = rsp.getSender();
+					bestLoad = load;
+				}
+			}
+			if (bestAddress == null) return null;
+			if (!bestLoad.canFit())
+				sLog.warn("Solver " + user + " (" + iType.name().toLowerCase() + ", " + problemSize + " units, " + (bestLoad.getForecast() >> 20) + " MB) may not fit on any server, using " + bestAddress + " (" + bestLoad + ").");
+			else
+				sLog.info("Solver " + user + " (" + iType.name().toLowerCase() + ", " + problemSize + " units, " + (bestLoad.getForecast() >> 20) + " MB) placed on " + bestAddress + " (" + bestLoad + ").");
+			iDispatcher.callRemoteMethod(bestAddress, "reserveMemory", new Object[] { iType, user, problemSize, bestLoad.getForecast() }, new Class[] { SolverType.class, String.class, long.class, long.class }, SolverServerImplementation.sFirstResponse);
+			return bestAddress;
+		} catch (Exception e) {
+			sLog.warn("Failed to retrieve solver server load: " + e.getMessage(), e);
+			return null;
+		}
+	}
+	
+	protected static int compare(SolverServerLoad l1, SolverServerLoad l2) {
+		if (l1.canFit() != l2.canFit()) return (l1.canFit() ? -1 : 1);
+		if (l1.canFit()) {
+			if (l1.getUsage() != l2.getUsage()) return (l1.getUsage() < l2.getUsage() ? -1 : 1);
+		}
+		return -Long.compare(l1.getHeadroom(), l2.getHeadroom());
+	}
+	
+	/**
+	 * Move a passivated solver to a different server. The passivation backup is transferred to the target server, where the solver
+	 * is created in the passivated state, and the solver is then unloaded from the source server (without being activated).
+	 * @param footprint memory footprint of the solver (when known, it is recorded on the target server)
+	 * @return true if the solver has been moved
+	 */
+	public boolean migrateSolver(String user, Address source, Address target, long footprint) {
+		if (iType == null || source.equals(target)) return false;
+		try {
+			CommonSolverInterface solver = (CommonSolverInterface)iContainer.createProxy(source, user);
+			if (!solver.isPassivated()) return false;
+			byte[] data = solver.exportPassivated();
+			if (data == null) return false;
+			DataProperties config = solver.getProperties();
+			Map progress = solver.getProgress();
+			Map<String, String> currentInfo = solver.currentSolutionInfo();
+			Map<String, String> bestInfo = solver.bestSolutionInfo();
+			
+			iContainer.getDispatcher().callRemoteMethod(target, "createRemoteSolver", new Object[] { user, config, iDispatcher.getChannel().getAddress() }, new Class[] { String.class, DataProperties.class, Address.class }, SolverServerImplementation.sFirstResponse);
+			CommonSolverInterface copy = (CommonSolverInterface)iContainer.createProxy(target, user);
+			if (!copy.importPassivated(user, data, progress, currentInfo, bestInfo)) {
+				iContainer.getDispatcher().callRemoteMethod(target, "unloadSolver", new Object[] { user }, new Class[] { String.class }, SolverServerImplementation.sFirstResponse);
+				return false;
+			}
+			if (footprint > 0)
+				iDispatcher.callRemoteMethod(target, "reserveMemory", new Object[] { iType, user, 0l, footprint }, new Class[] { SolverType.class, String.class, long.class, long.class }, SolverServerImplementation.sFirstResponse);
+			iContainer.getDispatcher().callRemoteMethod(source, "unloadSolver", new Object[] { user }, new Class[] { String.class }, SolverServerImplementation.sFirstResponse);
+			sLog.info("Passivated solver " + user + " (" + iType.name().toLowerCase() + ", " + (data.length >> 10) + " kB) moved from " + source + " to " + target + ".");
+			return true;
+		} catch (Exception e) {
+			sLog.error("Failed to move solver " + user + " from " + source + " to " + target + ": " + e.getMessage(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Move passivated solvers from servers that would not have enough memory to activate them again
+	 * to the servers with the most memory to spare.
+	 * @return number of solvers that have been moved
+	 */
+	public int rebalance() {
+		if (iType == null) return 0;
+		int moved = 0;
+		try {
+			RspList<SolverServerLoad> ret = iDispatcher.callRemoteMethods(null, "getLoad", new Object[] { iType, 0l }, new Class[] { SolverType.class, long.class }, SolverServerImplementation.sAllResponses);
+			Map<Address, SolverServerLoad> loads = new HashMap<Address, SolverServerLoad>();
+			for (Rsp<SolverServerLoad> rsp : ret)
+				if (rsp.getValue() != null && rsp.getValue().isAvailable()) loads.put(rsp.getSender(), rsp.getValue());
+			for (Rsp<SolverServerLoad> rsp : ret) {
+				SolverServerLoad load = rsp.getValue();
+				if (load == null || load.getCommittedHeadroom() >= 0 || load.getPassivatedSolvers() == null) continue;
+				List<Map.Entry<String, Long>> passivated = new ArrayList<Map.Entry<String, Long>>(load.getPassivatedSolvers().entrySet());
+				Collections.sort(passivated, new Comparator<Map.Entry<String, Long>>() {
+					@Override
+					public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+						return e2.getValue().compareTo(e1.getValue());
+					}
+				});
+				for (Map.Entry<String, Long> solver: passivated) {
+					if (load.getCommittedHeadroom() >= 0) break;
+					Address target = null;
+					SolverServerLoad targetLoad = null;
+					for (Map.Entry<Address, SolverServerLoad> other: loads.entrySet()) {
+						if (other.getKey().equals(rsp.getSender())) continue;
+						if (other.getValue().getCommittedHeadroom() < solver.getValue()) continue;
+						if (targetLoad == null || targetLoad.getCommittedHeadroom() < other.getValue().getCommittedHeadroom()) {
+							target = other.getKey(); targetLoad = other.getValue();
+						}
+					}
+					if (target == null) break;
+					if (migrateSolver(solver.getKey(), rsp.getSender(), target, solver.getValue())) {
+						load.moved(-solver.getValue());
+						targetLoad.moved(solver.getValue());
+						moved ++;
+					}
+				}
+			}
+		} catch (Exception e) {
+			sLog.error("Failed to rebalance " + iType.name().toLowerCase() + " solvers: " + e.getMessage(), e);
+		}
+		return moved;
+	}
+	
 	@Override
 	public void unloadSolver(String user) {
 		try {
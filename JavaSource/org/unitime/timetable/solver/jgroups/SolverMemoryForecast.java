@@ -0,0 +1,272 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.DataProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.solver.CommonSolverInterface;
+
+/**
+ * Memory footprint forecasting of the solver instances.<br>
+ * The footprint of a new solver is estimated from the size of the problem (number of classes, exams, students and course requests,
+ * or teaching requests, see {@link SolverMemoryForecast#getProblemSize(SolverType, DataProperties)}) multiplied by the memory needed
+ * for each unit. The memory per unit starts with the value of {@link ApplicationProperty#SolverMemoryPerUnit} and it is adjusted
+ * each time the actual memory usage of a loaded solver is measured by the {@link org.unitime.timetable.util.MemoryCounter}.<br>
+ * The forecasted memory is reserved on the solver server on which the solver is created (until the solver is loaded), and
+ * the footprints of passivated solvers are remembered, so that the placement of the solvers can take them into account
+ * (see {@link SolverServerLoad}).
+ *
+ * @author Tomas Muller
+ */
+public class SolverMemoryForecast {
+	private static Log sLog = LogFactory.getLog(SolverMemoryForecast.class);
+	private static Map<SolverType, Double> sMemoryPerUnit = new HashMap<SolverType, Double>();
+	private static Map<String, Footprint> sFootprints = new HashMap<String, Footprint>();
+	
+	/** A reservation is kept for at most an hour (e.g., when the solver is never loaded) */
+	private static final long sReservationTimeout = 3600000l;
+	/** A reservation of a solver that does not exist (yet) is kept for five minutes */
+	private static final long sCreationTimeout = 300000l;
+	
+	/**
+	 * Problem size of a solver with the given configuration: number of classes of the solver groups (course timetabling),
+	 * number of exams of the exam type (examination timetabling), number of students and course requests (student scheduling),
+	 * or number of teaching requests of the solver groups (instructor scheduling). Returns zero when the size cannot be computed.
+	 */
+	public static long getProblemSize(SolverType type, DataProperties config) {
+		if (type == null || config == null) return 0;
+		Long sessionId = config.getPropertyLong("General.SessionId", null);
+		Long[] solverGroupIds = config.getPropertyLongArry("General.SolverGroupId", null);
+		org.hibernate.Session hibSession = new _RootDAO().createNewSession();
+		try {
+			switch (type) {
+			case COURSE:
+				if (solverGroupIds == null || solverGroupIds.length == 0) return 0;
+				return ((Number)hibSession.createQuery(
+						"select count(c) from Class_ c where c.controllingDept.solverGroup.uniqueId in :solverGroupIds and c.cancelled = false")
+						.setParameterList("solverGroupIds", Arrays.asList(solverGroupIds)).uniqueResult()).longValue();
+			case EXAM:
+				Long examTypeId = config.getPropertyLong("Exam.Type", null);
+				if (sessionId == null || examTypeId == null) return 0;
+				return ((Number)hibSession.createQuery(
+						"select count(x) from Exam x where x.session.uniqueId = :sessionId and x.examType.uniqueId = :examTypeId")
+						.setLong("sessionId", sessionId).setLong("examTypeId", examTypeId).uniqueResult()).longValue();
+			case STUDENT:
+				if (sessionId == null) return 0;
+				return ((Number)hibSession.createQuery(
+						"select count(s) from Student s where s.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue() +
+						((Number)hibSession.createQuery(
+						"select count(cd) from CourseDemand cd where cd.student.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue();
+			case INSTRUCTOR:
+				if (solverGroupIds == null || solverGroupIds.length == 0) return 0;
+				return ((Number)hibSession.createQuery(
+						"select count(distinct r) from Class_ c inner join c.teachingRequests r where c.controllingDept.solverGroup.uniqueId in :solverGroupIds and c.cancelled = false")
+						.setParameterList("solverGroupIds", Arrays.asList(solverGroupIds)).uniqueResult()).longValue();
+			default:
+				return 0;
+			}
+		} catch (Exception e) {
+			sLog.warn("Failed to compute problem size of a " + type.name().toLowerCase() + " solver: " + e.getMessage(), e);
+			return 0;
+		} finally {
+			hibSession.close();
+		}
+	}
+	
+	/**
+	 * Memory (in bytes) needed for each unit of the problem size
+	 */
+	public static synchronized double getMemoryPerUnit(SolverType type) {
+		Double perUnit = sMemoryPerUnit.get(type);
+		if (perUnit == null) {
+			Integer configured = ApplicationProperty.SolverMemoryPerUnit.intValue(type.name().toLowerCase());
+			if (configured != null) {
+				perUnit = configured.doubleValue();
+			} else {
+				switch (type) {
+				case COURSE: perUnit = 250000.0; break;
+				case EXAM: perUnit = 100000.0; break;
+				case STUDENT: perUnit = 10000.0; break;
+				case INSTRUCTOR: perUnit = 50000.0; break;
+				default: perUnit = 0.0;
+				}
+			}
+			sMemoryPerUnit.put(type, perUnit);
+		}
+		return perUnit;
+	}
+	
+	/**
+	 * Forecasted memory footprint (in bytes) of a solver of the given type and problem size
+	 */
+	public static long estimate(SolverType type, long problemSize) {
+		if (type == null) return 0;
+		return 1024l * 1024l * ApplicationProperty.SolverMemoryBase.intValue() + Math.round(problemSize * getMemoryPerUnit(type));
+	}
+	
+	/**
+	 * Reserve the forecasted memory for a solver that is about to be created on this server
+	 */
+	public static synchronized void reserve(SolverType type, String user, long problemSize, long memory) {
+		sFootprints.put(type.getPrefix() + user, new Footprint(type, user, problemSize, memory));
+	}
+	
+	/**
+	 * Record the actual memory usage of a solver (measured by the {@link org.unitime.timetable.util.MemoryCounter}), the memory per unit
+	 * of the solver type is adjusted when the problem size of the solver is known. Solvers that are being loaded (or that are passivated)
+	 * are not sampled, as their memory usage does not correspond to the problem size.
+	 */
+	public static synchronized void measured(SolverType type, String user, CommonSolverInterface solver, long memory) {
+		if (memory <= 0 || !isLoaded(solver)) return;
+		Footprint footprint = sFootprints.get(type.getPrefix() + user);
+		if (footprint == null) {
+			footprint = new Footprint(type, user, 0, memory);
+			footprint.iReserved = false;
+			sFootprints.put(type.getPrefix() + user, footprint);
+		} else {
+			footprint.iMemory = memory;
+			if (footprint.iProblemSize > 0) {
+				long base = 1024l * 1024l * ApplicationProperty.SolverMemoryBase.intValue();
+				double perUnit = Math.max(0.0, memory - base) / footprint.iProblemSize;
+				double old = getMemoryPerUnit(type);
+				sMemoryPerUnit.put(type, 0.7 * old + 0.3 * perUnit);
+				sLog.debug("Memory per unit of " + type.name().toLowerCase() + " solver: " + Math.round(old) + " -> " + Math.round(sMemoryPerUnit.get(type)) + " bytes (" + user + ": " + footprint.iProblemSize + " units, " + (memory >> 20) + " MB)");
+			}
+		}
+	}
+	
+	/**
+	 * True if the solver has its problem loaded: it is not passivated, it has been loaded, and it is either solving or idle
+	 * (not loading, reloading, or restoring)
+	 */
+	protected static boolean isLoaded(CommonSolverInterface solver) {
+		try {
+			return solver != null && !solver.isPassivated() && solver.getLoadedDate() != null && (solver.isRunning() || !solver.isWorking());
+		} catch (Exception e) {
+			return false;
+		}
+	}
+	
+	protected static SolverContainer<? extends CommonSolverInterface> getContainer(SolverServer server, SolverType type) {
+		switch (type) {
+		case COURSE: return server.getCourseSolverContainer();
+		case EXAM: return server.getExamSolverContainer();
+		case STUDENT: return server.getStudentSolverContainer();
+		case INSTRUCTOR: return server.getInstructorSchedulingContainer();
+		default: return null;
+		}
+	}
+	
+	/**
+	 * Update the footprints using the solvers of the given (local) server: a reservation is released when the solver is
+	 * loaded (its memory is then counted in the used memory) or passivated, footprints of solvers that no longer exist are removed.
+	 */
+	protected static synchronized void update(SolverServer server) {
+		long now = System.currentTimeMillis();
+		for (Iterator<Footprint> i = sFootprints.values().iterator(); i.hasNext(); ) {
+			Footprint footprint = i.next();
+			SolverContainer<? extends CommonSolverInterface> container = getContainer(server, footprint.iType);
+			CommonSolverInterface solver = (container == null ? null : container.getSolver(footprint.iUser));
+			if (solver == null) {
+				if (!footprint.iReserved || now - footprint.iCreated > sCreationTimeout) i.remove();
+				continue;
+			}
+			if (footprint.iReserved) {
+				try {
+					if (now - footprint.iCreated > sReservationTimeout || solver.isPassivated() || (solver.getLoadedDate() != null && !solver.isWorking()))
+						footprint.iReserved = false;
+				} catch (Exception e) {}
+			}
+			footprint.iPassivated = (!footprint.iReserved && solver.isPassivated());
+		}
+	}
+	
+	/**
+	 * Memory (in bytes) reserved for the solvers of the given server that are being loaded
+	 */
+	public static synchronized long getReservedMemory(SolverServer server) {
+		update(server);
+		long reserved = 0;
+		for (Footprint footprint: sFootprints.values())
+			if (footprint.iReserved) reserved += footprint.iMemory;
+		return reserved;
+	}
+	
+	/**
+	 * Footprints of the passivated solvers of the given type on the given server (user -&gt; memory in bytes),
+	 * this is the memory that would be needed if these solvers were activated again
+	 */
+	public static synchronized Map<String, Long> getPassivatedSolvers(SolverServer server, SolverType type) {
+		update(server);
+		Map<String, Long> passivated = new HashMap<String, Long>();
+		for (Footprint footprint: sFootprints.values())
+			if (footprint.iPassivated && (type == null || footprint.iType == type))
+				passivated.put(footprint.iUser, footprint.iMemory);
+		return passivated;
+	}
+	
+	/**
+	 * Total footprint (in bytes) of all the passivated solvers on the given server
+	 */
+	public static synchronized long getPassivatedMemory(SolverServer server) {
+		update(server);
+		long passivated = 0;
+		for (Footprint footprint: sFootprints.values())
+			if (footprint.iPassivated) passivated += footprint.iMemory;
+		return passivated;
+	}
+	
+	/**
+	 * Forget the footprint of the given solver (called by the solver containers when the solver is disposed)
+	 */
+	public static synchronized void release(SolverType type, String user) {
+		sFootprints.remove(type.getPrefix() + user);
+	}
+	
+	private static class Footprint {
+		private SolverType iType;
+		private String iUser;
+		private long iProblemSize;
+		private long iMemory;
+		private long iCreated;
+		private boolean iReserved = true, iPassivated = false;
+		
+		private Footprint(SolverType type, String user, long problemSize, long memory) {
+			iType = type; iUser = user; iProblemSize = problemSize; iMemory = memory;
+			iCreated = System.currentTimeMillis();
+		}
+		
+		@Override
+		public String toString() {
+			return iType.getPrefix() + iUser + "[" + (iMemory >> 20) + " MB" + (iProblemSize > 0 ? ", " + iProblemSize + " units" : "") + (iReserved ? ", reserved" : "") + (iPassivated ? ", passivated" : "") + "]";
+		}
+	}
+}
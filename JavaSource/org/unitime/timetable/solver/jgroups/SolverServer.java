@@ -73,6 +73,10 @@ public interface SolverServer {
 	
 	public boolean isAvailable();
 	
+	public SolverServerLoad getLoad(SolverType type, long problemSize);
+	
+	public void reserveMemory(SolverType type, String user, long problemSize, long memory);
+	
 	public void shutdown();
 	
 	public SolverContainer<SolverProxy> getCourseSolverContainer();
@@ -95,6 +99,8 @@ public interface SolverServer {
 	
 	public void setApplicationProperty(Long sessionId, String key, String value);
 	
+	public void reloadApplicationProperties(Long sessionId);
+	
 	public void setLoggingLevel(String name, String level);
 	
 	public void unloadSolver(SolverType type, String id);
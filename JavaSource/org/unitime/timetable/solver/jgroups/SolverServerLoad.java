@@ -0,0 +1,92 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Load of a solver server, as returned by {@link SolverServer#getLoad(org.unitime.timetable.model.SolverParameterGroup.SolverType, long)}.
+ * Besides of the usage and the available memory, it contains the memory reserved for solvers that are being loaded,
+ * the footprints of the passivated solvers, and the forecasted footprint of the new solver (see {@link SolverMemoryForecast}).
+ *
+ * @author Tomas Muller
+ */
+public class SolverServerLoad implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private boolean iAvailable;
+	private int iUsage;
+	private long iAvailableMemory, iMemoryLimit, iReservedMemory, iPassivatedMemory, iForecast;
+	private Map<String, Long> iPassivatedSolvers;
+	
+	public SolverServerLoad(boolean available, int usage, long availableMemory, long memoryLimit, long reservedMemory, long passivatedMemory, long forecast, Map<String, Long> passivatedSolvers) {
+		iAvailable = available;
+		iUsage = usage;
+		iAvailableMemory = availableMemory;
+		iMemoryLimit = memoryLimit;
+		iReservedMemory = reservedMemory;
+		iPassivatedMemory = passivatedMemory;
+		iForecast = forecast;
+		iPassivatedSolvers = passivatedSolvers;
+	}
+	
+	/** Server is active and has at least the memory limit of free memory */
+	public boolean isAvailable() { return iAvailable; }
+	/** Server usage (see {@link SolverServer#getUsage()}) */
+	public int getUsage() { return iUsage; }
+	/** Free memory in bytes */
+	public long getAvailableMemory() { return iAvailableMemory; }
+	/** Minimal amount of free memory in bytes */
+	public long getMemoryLimit() { return iMemoryLimit; }
+	/** Memory reserved for solvers that are being loaded */
+	public long getReservedMemory() { return iReservedMemory; }
+	/** Memory that would be needed to activate all passivated solvers */
+	public long getPassivatedMemory() { return iPassivatedMemory; }
+	/** Forecasted footprint of the new solver */
+	public long getForecast() { return iForecast; }
+	/** Passivated solvers of the requested type (user -&gt; footprint in bytes) */
+	public Map<String, Long> getPassivatedSolvers() { return iPassivatedSolvers; }
+	
+	/** Memory that can be used by a new solver, excluding the reserved memory */
+	public long getHeadroom() {
+		return iAvailableMemory - iMemoryLimit - iReservedMemory;
+	}
+	
+	/** Memory that would remain if all the passivated solvers were activated again */
+	public long getCommittedHeadroom() {
+		return getHeadroom() - iPassivatedMemory;
+	}
+	
+	/** True if the new solver is expected to fit in the memory of the server */
+	public boolean canFit() {
+		return iForecast <= getHeadroom();
+	}
+	
+	/** Record that a solver with the given footprint has been moved to (positive) or from (negative) this server */
+	public void moved(long footprint) {
+		iPassivatedMemory += footprint;
+	}
+	
+	@Override
+	public String toString() {
+		return "usage: " + iUsage + ", free: " + (iAvailableMemory >> 20) + " MB, reserved: " + (iReservedMemory >> 20) + " MB, passivated: " + (iPassivatedMemory >> 20) + " MB" +
+				(iForecast > 0 ? ", forecast: " + (iForecast >> 20) + " MB" : "");
+	}
+}
@@ -59,7 +59,10 @@ public class StudentSolverContainer implements SolverContainer<StudentSolverProx
 	@Override
 	public long getMemUsage(String user) {
 		StudentSolverProxy solver = getSolver(user);
-		return solver == null ? 0 : new MemoryCounter().estimate(solver);
+		if (solver == null) return 0;
+		long memory = new MemoryCounter().estimate(solver);
+		SolverMemoryForecast.measured(SolverParameterGroup.SolverType.STUDENT, user, solver, memory);
+		return memory;
 	}
 	
 	@Override
@@ -139,6 +142,7 @@ public class StudentSolverContainer implements SolverContainer<StudentSolverProx
         @Override
         public void onDispose() {
             iStudentSolvers.remove(iUser);
+            SolverMemoryForecast.release(SolverParameterGroup.SolverType.STUDENT, iUser);
         }
     }
     
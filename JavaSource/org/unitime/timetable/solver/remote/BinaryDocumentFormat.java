@@ -0,0 +1,271 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+/**
+ * Binary format of the solver backups (used for solver passivation and for the backups made when the solver server
+ * is stopped), an alternative to the pretty-printed XML file that is much faster to write and read and considerably smaller.<br>
+ * The document is written element by element as it is traversed (no intermediate text representation is created),
+ * element and attribute names and short values are written only once using a string table (attribute values and texts
+ * are kept as strings, only the token types, counts, lengths, and string table references are written as variable length
+ * integers). The stream can be compressed (deflate).<br>
+ * The file starts with a header (magic number, format version, and flags), so that the format can evolve
+ * while the older files can still be read.
+ *
+ * @author Tomas Muller
+ */
+public class BinaryDocumentFormat {
+	private static final byte[] sMagic = new byte[] { 'U', 'T', 'B', 'D' };
+	/** Current version of the format */
+	public static final int sVersion = 1;
+	
+	private static final int FLAG_COMPRESSED = 1;
+	
+	private static final int TOKEN_END = 0;
+	private static final int TOKEN_ELEMENT = 1;
+	private static final int TOKEN_TEXT = 2;
+	
+	/** Only strings up to this length are put in the string table */
+	private static final int MAX_TABLE_STRING_LENGTH = 64;
+	/** Maximal size of the string table */
+	private static final int MAX_TABLE_SIZE = 1 << 20;
+	
+	/**
+	 * Write the given document into the given stream.
+	 * @param document document to write
+	 * @param out output stream (it is not closed)
+	 * @param compress use deflate compression
+	 */
+	public static void write(Document document, OutputStream out, boolean compress) throws IOException {
+		out.write(sMagic);
+		out.write(sVersion);
+		out.write(compress ? FLAG_COMPRESSED : 0);
+		DeflaterOutputStream deflater = null;
+		if (compress) {
+			deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 65536);
+			out = deflater;
+		}
+		Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(out, 65536)));
+		writer.writeElement(document.getRootElement());
+		writer.flush();
+		if (deflater != null) deflater.finish();
+	}
+	
+	/**
+	 * Read document from the given stream.
+	 * @param in input stream (it is not closed)
+	 * @return document
+	 * @throws IOException when the stream is not in the binary format or when the format version is not supported
+	 */
+	public static Document read(InputStream in) throws IOException {
+		for (int i = 0; i < sMagic.length; i++)
+			if (in.read() != sMagic[i]) throw new IOException("Not a binary backup.");
+		int version = in.read();
+		if (version < 1 || version > sVersion) throw new IOException("Unsupported version " + version + " of the binary backup.");
+		int flags = in.read();
+		if (flags < 0) throw new EOFException();
+		if ((flags & FLAG_COMPRESSED) != 0)
+			in = new InflaterInputStream(in, new Inflater(), 65536);
+		Reader reader = new Reader(new DataInputStream(new BufferedInputStream(in, 65536)));
+		Document document = DocumentHelper.createDocument();
+		if (reader.readVarInt() != TOKEN_ELEMENT) throw new IOException("Binary backup has no root element.");
+		reader.readElement(document.addElement(reader.readString()));
+		return document;
+	}
+	
+	/**
+	 * Read document from the given file.
+	 */
+	public static Document read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Check whether the given data are in the binary format (based on the header)
+	 */
+	public static boolean isBinary(byte[] data) {
+		if (data == null || data.length < sMagic.length) return false;
+		for (int i = 0; i < sMagic.length; i++)
+			if ((data[i] & 0xFF) != sMagic[i]) return false;
+		return true;
+	}
+	
+	/**
+	 * Check whether the given file is in the binary format (based on its header)
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			for (int i = 0; i < sMagic.length; i++)
+				if (in.read() != sMagic[i]) return false;
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static class Writer {
+		private DataOutputStream iOut;
+		private Map<String, Integer> iStrings = new HashMap<String, Integer>();
+		
+		Writer(DataOutputStream out) {
+			iOut = out;
+		}
+		
+		void writeVarInt(int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				iOut.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			iOut.write(value);
+		}
+		
+		void writeString(String value) throws IOException {
+			Integer ref = iStrings.get(value);
+			if (ref != null) {
+				writeVarInt(1 + ref);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(0);
+			writeVarInt(bytes.length);
+			iOut.write(bytes);
+			if (value.length() <= MAX_TABLE_STRING_LENGTH && iStrings.size() < MAX_TABLE_SIZE)
+				iStrings.put(value, iStrings.size());
+		}
+		
+		void writeElement(Element element) throws IOException {
+			writeVarInt(TOKEN_ELEMENT);
+			writeString(element.getQualifiedName());
+			writeVarInt(element.attributeCount());
+			for (Iterator<Attribute> i = element.attributeIterator(); i.hasNext(); ) {
+				Attribute attribute = i.next();
+				writeString(attribute.getQualifiedName());
+				writeString(attribute.getValue());
+			}
+			for (Iterator<Node> i = element.nodeIterator(); i.hasNext(); ) {
+				Node node = i.next();
+				switch (node.getNodeType()) {
+				case Node.ELEMENT_NODE:
+					writeElement((Element)node);
+					break;
+				case Node.TEXT_NODE:
+				case Node.CDATA_SECTION_NODE:
+					writeVarInt(TOKEN_TEXT);
+					writeString(node.getText());
+					break;
+				}
+			}
+			writeVarInt(TOKEN_END);
+		}
+		
+		void flush() throws IOException {
+			iOut.flush();
+		}
+	}
+	
+	private static class Reader {
+		private DataInputStream iIn;
+		private List<String> iStrings = new ArrayList<String>();
+		
+		Reader(DataInputStream in) {
+			iIn = in;
+		}
+		
+		int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = iIn.readUnsignedByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new IOException("Malformed variable length number.");
+		}
+		
+		String readString() throws IOException {
+			int ref = readVarInt();
+			if (ref > 0) {
+				if (ref > iStrings.size()) throw new IOException("Invalid string reference " + ref + ".");
+				return iStrings.get(ref - 1);
+			}
+			byte[] bytes = new byte[readVarInt()];
+			iIn.readFully(bytes);
+			String value = new String(bytes, StandardCharsets.UTF_8);
+			if (value.length() <= MAX_TABLE_STRING_LENGTH && iStrings.size() < MAX_TABLE_SIZE)
+				iStrings.add(value);
+			return value;
+		}
+		
+		void readElement(Element element) throws IOException {
+			int attributes = readVarInt();
+			for (int i = 0; i < attributes; i++) {
+				String name = readString();
+				element.addAttribute(name, readString());
+			}
+			while (true) {
+				int token = readVarInt();
+				switch (token) {
+				case TOKEN_END:
+					return;
+				case TOKEN_ELEMENT:
+					readElement(element.addElement(readString()));
+					break;
+				case TOKEN_TEXT:
+					element.addText(readString());
+					break;
+				default:
+					throw new IOException("Unknown token " + token + ".");
+				}
+			}
+		}
+	}
+}
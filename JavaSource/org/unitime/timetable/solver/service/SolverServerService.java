@@ -35,6 +35,7 @@ import org.springframework.stereotype.Service;
 import org.unitime.commons.jgroups.UniTimeChannelLookup;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Session;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.solver.SolverProxy;
@@ -64,6 +65,7 @@ public class SolverServerService implements InitializingBean, DisposableBean {
 	private SolverContainer<StudentSolverProxy> iStudentSolverContainer;
 	private SolverContainer<InstructorSchedulingProxy> iInstructorSchedulingContainer;
 	private SolverContainer<OnlineSectioningServer> iOnlineStudentSchedulingContainer;
+	private RebalanceThread iRebalanceThread = null;
 	
 	@Override
 	public void afterPropertiesSet() throws Exception {
@@ -89,19 +91,24 @@ public class SolverServerService implements InitializingBean, DisposableBean {
 				
 				iCourseSolverContainer = new SolverContainerWrapper<SolverProxy>(
 						((SolverServerImplementation)iServer).getDispatcher(),
-						(RemoteSolverContainer<SolverProxy>) iServer.getCourseSolverContainer(), true);
+						(RemoteSolverContainer<SolverProxy>) iServer.getCourseSolverContainer(), true, SolverType.COURSE);
 				iExamSolverContainer = new SolverContainerWrapper<ExamSolverProxy>(
 						((SolverServerImplementation)iServer).getDispatcher(),
-						(RemoteSolverContainer<ExamSolverProxy>) iServer.getExamSolverContainer(), true);
+						(RemoteSolverContainer<ExamSolverProxy>) iServer.getExamSolverContainer(), true, SolverType.EXAM);
 				iStudentSolverContainer = new SolverContainerWrapper<StudentSolverProxy>(
 						((SolverServerImplementation)iServer).getDispatcher(),
-						(RemoteSolverContainer<StudentSolverProxy>) iServer.getStudentSolverContainer(), true);
+						(RemoteSolverContainer<StudentSolverProxy>) iServer.getStudentSolverContainer(), true, SolverType.STUDENT);
 				iInstructorSchedulingContainer = new SolverContainerWrapper<InstructorSchedulingProxy>(
 						((SolverServerImplementation)iServer).getDispatcher(),
-						(RemoteSolverContainer<InstructorSchedulingProxy>) iServer.getInstructorSchedulingContainer(), true);
+						(RemoteSolverContainer<InstructorSchedulingProxy>) iServer.getInstructorSchedulingContainer(), true, SolverType.INSTRUCTOR);
 				iOnlineStudentSchedulingContainer = new SolverContainerWrapper<OnlineSectioningServer>(
 						((SolverServerImplementation)iServer).getDispatcher(),
 						(RemoteSolverContainer<OnlineSectioningServer>) iServer.getOnlineStudentSchedulingContainer(), false);
+				
+				if (ApplicationProperty.SolverRebalanceInterval.intValue() > 0) {
+					iRebalanceThread = new RebalanceThread();
+					iRebalanceThread.start();
+				}
 			}
 		} catch (Exception e) {
 			sLog.fatal("Failed to start solver server: " + e.getMessage(), e);
@@ -118,6 +125,11 @@ public class SolverServerService implements InitializingBean, DisposableBean {
 	public void destroy() throws Exception {
 		try {
 			sLog.info("Server is going down...");
+			if (iRebalanceThread != null) {
+				iRebalanceThread.interrupt();
+				iRebalanceThread = null;
+			}
+			
 			iServer.stop();
 			
 			if (iChannel != null) {
@@ -265,6 +277,18 @@ public class SolverServerService implements InitializingBean, DisposableBean {
 		}
 	}
 	
+	public void reloadApplicationProperties(Long sessionId) {
+		try {
+			RpcDispatcher dispatcher = getDispatcher();
+			if (dispatcher != null)
+				dispatcher.callRemoteMethods(null, "reloadApplicationProperties", new Object[] { sessionId }, new Class[] { Long.class }, SolverServerImplementation.sAllResponses);
+			else
+				iServer.reloadApplicationProperties(sessionId);
+		} catch (Exception e) {
+			sLog.error("Failed to reload application properties along the cluster: " + e.getMessage(), e);
+		}
+	}
+	
 	public void setLoggingLevel(String name, String level) {
 		try {
 			RpcDispatcher dispatcher = getDispatcher();
@@ -288,4 +312,46 @@ public class SolverServerService implements InitializingBean, DisposableBean {
     		if (server.getHost().matches(regExp)) return server.getHost();
 		return null;
 	}
+	
+	/**
+	 * Move passivated solvers from the solver servers that would not have enough memory to activate them again,
+	 * see {@link SolverContainerWrapper#rebalance()}
+	 * @return number of solvers that have been moved
+	 */
+	public int rebalance() {
+		int moved = 0;
+		for (SolverContainer<?> container: new SolverContainer<?>[] { iCourseSolverContainer, iExamSolverContainer, iStudentSolverContainer, iInstructorSchedulingContainer })
+			if (container instanceof SolverContainerWrapper)
+				moved += ((SolverContainerWrapper<?>)container).rebalance();
+		return moved;
+	}
+	
+	private class RebalanceThread extends Thread {
+		
+		RebalanceThread() {
+			super("SolverRebalance");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+		
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					sleep(60000l * Math.max(1, ApplicationProperty.SolverRebalanceInterval.intValue()));
+				} catch (InterruptedException e) {
+					break;
+				}
+				try {
+					if (iServer != null && iServer.isCoordinator()) {
+						int moved = rebalance();
+						if (moved > 0)
+							sLog.info(moved + " passivated solver(s) moved to a different server.");
+					}
+				} catch (Exception e) {
+					sLog.warn("Failed to rebalance the solvers: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
 }
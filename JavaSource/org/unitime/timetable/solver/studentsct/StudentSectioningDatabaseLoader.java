@@ -183,6 +183,7 @@ import org.unitime.timetable.util.duration.DurationModel;
  */
 public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     private static Log sLog = LogFactory.getLog(StudentSectioningDatabaseLoader.class);
+    private static DecimalFormat sDF = new DecimalFormat("0.00");
     private boolean iIncludeCourseDemands = true;
     private boolean iIncludeUseCommittedAssignments = false;
     private boolean iMakeupAssignmentsFromRequiredPrefs = false;
@@ -222,6 +223,8 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
 	private boolean iCheckCriticalCourses = false;
 	private CriticalCoursesProvider iCriticalCoursesProvider = null;
 	private int iNrCheckCriticalThreads = 1;
+	private int iStudentChunkSize = 0;
+	private int iNrStudentChunkThreads = 4;
 	private boolean iMoveCriticalCoursesUp = false;
 	private boolean iMoveFreeTimesDown = false;
 	private boolean iCorrectConfigLimit = false;
@@ -322,6 +325,8 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         	}
         	iNrCheckCriticalThreads = model.getProperties().getPropertyInt("CheckCriticalCourses.NrThreads", 10);
         }
+        iStudentChunkSize = model.getProperties().getPropertyInt("Load.StudentChunkSize", iStudentChunkSize);
+        iNrStudentChunkThreads = model.getProperties().getPropertyInt("Load.StudentChunkThreads", iNrStudentChunkThreads);
         try {
         	String studentCourseDemandsClassName = getModel().getProperties().getProperty("StudentSct.ProjectedCourseDemadsClass", LastLikeStudentCourseDemands.class.getName());
         	if (studentCourseDemandsClassName.indexOf(' ') >= 0) studentCourseDemandsClassName = studentCourseDemandsClassName.replace(" ", "");
@@ -2572,7 +2577,9 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         
         Map<String, Student> ext2student = new HashMap<String, Student>();
         Set<Student> onlineOnlyStudents = new HashSet<Student>();
-        if (iIncludeCourseDemands || iProjections) {
+        if ((iIncludeCourseDemands || iProjections) && useStudentChunks()) {
+        	loadStudentsInChunks(hibSession, session, courseTable, classTable, ext2student, onlineOnlyStudents);
+        } else if (iIncludeCourseDemands || iProjections) {
             List students = hibSession.createQuery(
                     "select distinct s from Student s " +
 /*                    "left join fetch s.courseDemands as cd "+
@@ -2596,51 +2603,7 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
             for (Iterator i=students.iterator();i.hasNext();) {
                 org.unitime.timetable.model.Student s = (org.unitime.timetable.model.Student)i.next(); incProgress();
                 if (s.getCourseDemands().isEmpty() && s.getClassEnrollments().isEmpty()) continue;
-                Student student = loadStudent(hibSession, s, courseTable, classTable);
-                if (student == null) continue;
-                if (iUseAdvisorWaitLists)
-                	loadAdvisorWaitLists(student, s);
-                else if (iUseAdvisorNoSubs)
-                	loadAdvisorNoSubs(student, s);
-                if (iOnlineOnlyStudentQuery != null && iOnlineOnlyStudentQuery.match(new DbStudentMatcher(s)))
-                	onlineOnlyStudents.add(student);
-                updateCurriculumCounts(student);
-                if (iProjections) {
-                	// Decrease the limits accordingly
-                	for (Request request: student.getRequests()) {
-                		if (request.getInitialAssignment() != null && request.getInitialAssignment().isCourseRequest()) {
-                			Enrollment enrollment = request.getInitialAssignment();
-                			if (enrollment.getConfig().getLimit() > 0)
-                				enrollment.getConfig().setLimit(enrollment.getConfig().getLimit() - 1);
-                			for (Section section: enrollment.getSections())
-                				if (section.getLimit() > 0)
-                					section.setLimit(section.getLimit() - 1);
-                			if (enrollment.getCourse() != null && enrollment.getCourse().getLimit() > 0)
-                				enrollment.getCourse().setLimit(enrollment.getCourse().getLimit() - 1);
-                			if (enrollment.getReservation() != null) {
-                				if (enrollment.getReservation() instanceof GroupReservation && enrollment.getReservation().getReservationLimit() >= 1.0) {
-                					((GroupReservation)enrollment.getReservation()).getStudentIds().remove(student.getId());
-                					((GroupReservation)enrollment.getReservation()).setReservationLimit(((GroupReservation)enrollment.getReservation()).getReservationLimit() - 1.0);
-                				} else if (enrollment.getReservation() instanceof IndividualReservation) {
-                					((IndividualReservation)enrollment.getReservation()).getStudentIds().remove(student.getId());
-                				} else if (enrollment.getReservation() instanceof CurriculumReservation && enrollment.getReservation().getReservationLimit() >= 1.0) {
-                					((CurriculumReservation)enrollment.getReservation()).setReservationLimit(enrollment.getReservation().getReservationLimit() - 1.0);
-                				}
-                			}
-                		}
-                		if (request instanceof CourseRequest) {
-                			for (Course course: ((CourseRequest)request).getCourses()) {
-                				course.getRequests().remove(request);
-                			}
-                		}
-                	}
-                } else {
-                	if (iLoadRequestGroups) loadRequestGroups(student, s);
-                	if (student.getExternalId() != null && !student.getExternalId().isEmpty())
-                		ext2student.put(student.getExternalId(), student);
-                    getModel().addStudent(student);
-                    // assignStudent(student);
-                }
+                loadStudent(hibSession, s, courseTable, classTable, ext2student, onlineOnlyStudents);
             }
         }
         
@@ -3002,6 +2965,282 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         setPhase("Done",1);incProgress();
     }
     
+    /**
+     * Create the solver student from the given database student and add it to the model
+     * (or adjust the limits accordingly when the student is loaded as a projection)
+     */
+    protected void loadStudent(org.hibernate.Session hibSession, org.unitime.timetable.model.Student s, Hashtable<Long,Course> courseTable, Hashtable<Long,Section> classTable, Map<String, Student> ext2student, Set<Student> onlineOnlyStudents) {
+        Student student = loadStudent(hibSession, s, courseTable, classTable);
+        if (student == null) return;
+        if (iUseAdvisorWaitLists)
+        	loadAdvisorWaitLists(student, s);
+        else if (iUseAdvisorNoSubs)
+        	loadAdvisorNoSubs(student, s);
+        if (iOnlineOnlyStudentQuery != null && iOnlineOnlyStudentQuery.match(new DbStudentMatcher(s)))
+        	onlineOnlyStudents.add(student);
+        updateCurriculumCounts(student);
+        if (iProjections) {
+        	// Decrease the limits accordingly
+        	for (Request request: student.getRequests()) {
+        		if (request.getInitialAssignment() != null && request.getInitialAssignment().isCourseRequest()) {
+        			Enrollment enrollment = request.getInitialAssignment();
+        			if (enrollment.getConfig().getLimit() > 0)
+        				enrollment.getConfig().setLimit(enrollment.getConfig().getLimit() - 1);
+        			for (Section section: enrollment.getSections())
+        				if (section.getLimit() > 0)
+        					section.setLimit(section.getLimit() - 1);
+        			if (enrollment.getCourse() != null && enrollment.getCourse().getLimit() > 0)
+        				enrollment.getCourse().setLimit(enrollment.getCourse().getLimit() - 1);
+        			if (enrollment.getReservation() != null) {
+        				if (enrollment.getReservation() instanceof GroupReservation && enrollment.getReservation().getReservationLimit() >= 1.0) {
+        					((GroupReservation)enrollment.getReservation()).getStudentIds().remove(student.getId());
+        					((GroupReservation)enrollment.getReservation()).setReservationLimit(((GroupReservation)enrollment.getReservation()).getReservationLimit() - 1.0);
+        				} else if (enrollment.getReservation() instanceof IndividualReservation) {
+        					((IndividualReservation)enrollment.getReservation()).getStudentIds().remove(student.getId());
+        				} else if (enrollment.getReservation() instanceof CurriculumReservation && enrollment.getReservation().getReservationLimit() >= 1.0) {
+        					((CurriculumReservation)enrollment.getReservation()).setReservationLimit(enrollment.getReservation().getReservationLimit() - 1.0);
+        				}
+        			}
+        		}
+        		if (request instanceof CourseRequest) {
+        			for (Course course: ((CourseRequest)request).getCourses()) {
+        				course.getRequests().remove(request);
+        			}
+        		}
+        	}
+        } else {
+        	if (iLoadRequestGroups) loadRequestGroups(student, s);
+        	if (student.getExternalId() != null && !student.getExternalId().isEmpty())
+        		ext2student.put(student.getExternalId(), student);
+            getModel().addStudent(student);
+            // assignStudent(student);
+        }
+    }
+    
+    /**
+     * Students can be loaded in id-range chunks (Load.StudentChunkSize greater than zero) unless some of the checks that
+     * need all the students to be loaded in the main hibernate session are enabled (override validation, override status
+     * check, or critical courses check)
+     */
+    protected boolean useStudentChunks() {
+    	if (iStudentChunkSize <= 0) return false;
+    	if ((iValidateOverrides || iCheckOverrideStatus) && iValidationProvider != null) return false;
+    	if (iCheckCriticalCourses) return false;
+    	return true;
+    }
+    
+    /**
+     * Load students in id-range chunks. The chunks are fetched by {@link StudentChunkFetcher} threads, each using its own
+     * hibernate session, while the main thread creates the solver students of the chunks in the order of their student ids.
+     * The hibernate session of a chunk is closed as soon as the chunk is processed and the number of chunks that are
+     * fetched ahead is limited, so only a few chunks are kept in memory at any time.
+     */
+    protected void loadStudentsInChunks(org.hibernate.Session hibSession, Session session, Hashtable<Long,Course> courseTable, Hashtable<Long,Section> classTable, Map<String, Student> ext2student, Set<Student> onlineOnlyStudents) {
+    	List<Long> studentIds = (List<Long>)hibSession.createQuery(
+    			"select s.uniqueId from Student s where s.session.uniqueId = :sessionId order by s.uniqueId"
+    			).setLong("sessionId", session.getUniqueId()).setFetchSize(10000).list();
+    	List<Long[]> ranges = new ArrayList<Long[]>();
+    	for (int i = 0; i < studentIds.size(); i += iStudentChunkSize)
+    		ranges.add(new Long[] { studentIds.get(i), studentIds.get(Math.min(i + iStudentChunkSize, studentIds.size()) - 1) });
+    	int nrThreads = Math.max(1, Math.min(iNrStudentChunkThreads, ranges.size()));
+    	iProgress.info("Loading " + studentIds.size() + " students in " + ranges.size() + " chunks of " + iStudentChunkSize + " using " + nrThreads + " threads...");
+    	
+    	setPhase("Loading student requests...", studentIds.size());
+    	StudentChunks chunks = new StudentChunks(ranges, nrThreads + 1);
+    	List<StudentChunkFetcher> fetchers = new ArrayList<StudentChunkFetcher>();
+    	for (int i = 0; i < nrThreads; i++)
+    		fetchers.add(new StudentChunkFetcher(i, chunks));
+    	long t0 = System.currentTimeMillis();
+    	int nrStudents = 0;
+    	try {
+    		for (StudentChunkFetcher fetcher: fetchers) fetcher.start();
+    		for (int idx = 0; idx < ranges.size(); idx++) {
+    			StudentChunk chunk = chunks.take(idx);
+    			long c0 = System.currentTimeMillis();
+    			try {
+    				for (org.unitime.timetable.model.Student s: chunk.getStudents()) {
+    					incProgress();
+    					if (s.getCourseDemands().isEmpty() && s.getClassEnrollments().isEmpty()) continue;
+    					loadStudent(chunk.getHibSession(), s, courseTable, classTable, ext2student, onlineOnlyStudents);
+    				}
+    			} finally {
+    				chunk.close();
+    			}
+    			long c1 = System.currentTimeMillis();
+    			nrStudents += chunk.getStudents().size();
+    			iProgress.debug("Chunk " + (1 + idx) + "/" + ranges.size() + ": " + chunk.getStudents().size() + " students fetched in " +
+    					sDF.format(chunk.getFetchTime() / 1000.0) + " s, loaded in " + sDF.format((c1 - c0) / 1000.0) + " s" +
+    					" (" + sDF.format(1000.0 * chunk.getStudents().size() / Math.max(1, c1 - c0)) + " students/s)");
+    		}
+    	} finally {
+    		chunks.stop();
+    		for (StudentChunkFetcher fetcher: fetchers) {
+    			try {
+    				fetcher.join();
+    			} catch (InterruptedException e) {}
+    		}
+    		chunks.close();
+    	}
+    	long t1 = System.currentTimeMillis();
+    	iProgress.info("Loaded " + nrStudents + " students in " + sDF.format((t1 - t0) / 1000.0) + " s (" + sDF.format(1000.0 * nrStudents / Math.max(1, t1 - t0)) + " students/s)");
+    }
+    
+    /**
+     * Students of one id range, fetched in their own hibernate session
+     */
+    protected static class StudentChunk {
+    	private org.hibernate.Session iHibSession;
+    	private List<org.unitime.timetable.model.Student> iStudents;
+    	private long iFetchTime;
+    	
+    	public StudentChunk(org.hibernate.Session hibSession, List<org.unitime.timetable.model.Student> students, long fetchTime) {
+    		iHibSession = hibSession; iStudents = students; iFetchTime = fetchTime;
+    	}
+    	
+    	public org.hibernate.Session getHibSession() { return iHibSession; }
+    	public List<org.unitime.timetable.model.Student> getStudents() { return iStudents; }
+    	public long getFetchTime() { return iFetchTime; }
+    	
+    	public void close() {
+    		if (iHibSession != null && iHibSession.isOpen()) iHibSession.close();
+    		iHibSession = null;
+    	}
+    }
+    
+    /**
+     * Id ranges to be fetched and the fetched chunks, ordered by the range index.
+     * A range is only handed out when it is at most the given number of chunks ahead of the last chunk taken by the main thread.
+     */
+    protected class StudentChunks {
+    	private List<Long[]> iRanges;
+    	private int iMaxAhead;
+    	private int iNext = 0, iTaken = 0;
+    	private Map<Integer, StudentChunk> iChunks = new HashMap<Integer, StudentChunk>();
+    	private RuntimeException iError = null;
+    	private boolean iStop = false;
+    	
+    	public StudentChunks(List<Long[]> ranges, int maxAhead) {
+    		iRanges = ranges; iMaxAhead = maxAhead;
+    	}
+    	
+    	/** Index of the next range to be fetched, -1 if there is none */
+    	public synchronized int next() throws InterruptedException {
+    		while (!iStop && iNext < iRanges.size() && iNext >= iTaken + iMaxAhead)
+    			wait();
+    		if (iStop || iNext >= iRanges.size()) return -1;
+    		return iNext++;
+    	}
+    	
+    	public Long[] getRange(int idx) { return iRanges.get(idx); }
+    	
+    	public synchronized void fetched(int idx, StudentChunk chunk) {
+    		if (iStop) {
+    			chunk.close();
+    		} else {
+    			iChunks.put(idx, chunk);
+    			notifyAll();
+    		}
+    	}
+    	
+    	public synchronized void failed(Throwable t) {
+    		if (iError == null)
+    			iError = (t instanceof RuntimeException ? (RuntimeException)t : new RuntimeException(t.getMessage(), t));
+    		iStop = true;
+    		notifyAll();
+    	}
+    	
+    	/** Wait for the chunk of the given index */
+    	public synchronized StudentChunk take(int idx) {
+    		while (!iChunks.containsKey(idx)) {
+    			if (iError != null) throw iError;
+    			if (iStop) throw new RuntimeException("The load was interrupted.");
+    			try {
+    				wait(1000);
+    			} catch (InterruptedException e) {
+    				iStop = true;
+    				throw new RuntimeException("The load was interrupted.");
+    			}
+    			checkTermination();
+    		}
+    		iTaken = idx + 1;
+    		notifyAll();
+    		return iChunks.remove(idx);
+    	}
+    	
+    	public synchronized void stop() {
+    		iStop = true;
+    		notifyAll();
+    	}
+    	
+    	/** Close hibernate sessions of the chunks that have not been taken */
+    	public synchronized void close() {
+    		for (StudentChunk chunk: iChunks.values())
+    			chunk.close();
+    		iChunks.clear();
+    	}
+    }
+    
+    /**
+     * Fetches students of the given id ranges, one collection per query to avoid cartesian products of the fetch joins.
+     * The solver students are not created here as the model is not thread safe.
+     */
+    protected class StudentChunkFetcher extends Thread {
+    	private StudentChunks iChunks;
+    	
+    	public StudentChunkFetcher(int index, StudentChunks chunks) {
+    		setName("StudentLoader-" + (1 + index));
+    		setDaemon(true);
+    		iChunks = chunks;
+    	}
+    	
+    	@Override
+    	public void run() {
+    		iProgress.debug(getName() + " has started.");
+    		try {
+    			ApplicationProperties.setSessionId(iSessionId);
+    			while (true) {
+    				int idx = iChunks.next();
+    				if (idx < 0) break;
+    				Long[] range = iChunks.getRange(idx);
+    				long t0 = System.currentTimeMillis();
+    				org.hibernate.Session hibSession = StudentDAO.getInstance().createNewSession();
+    				boolean fetched = false;
+    				try {
+    					hibSession.setCacheMode(CacheMode.IGNORE);
+    					hibSession.setFlushMode(FlushMode.MANUAL);
+    					List<org.unitime.timetable.model.Student> students = fetch(hibSession,
+    							"select distinct s from Student s left join fetch s.courseDemands where %", "s", range, true);
+    					fetch(hibSession, "select distinct s from Student s left join fetch s.classEnrollments where %", "s", range, false);
+    					fetch(hibSession, "select distinct s from Student s left join fetch s.waitlists where %", "s", range, false);
+    					fetch(hibSession, "select distinct cd from CourseDemand cd left join fetch cd.courseRequests where %", "cd.student", range, false);
+    					if (iLoadStudentInfo) {
+    						fetch(hibSession, "select distinct s from Student s left join fetch s.areaClasfMajors where %", "s", range, false);
+    						fetch(hibSession, "select distinct s from Student s left join fetch s.areaClasfMinors where %", "s", range, false);
+    						fetch(hibSession, "select distinct s from Student s left join fetch s.groups where %", "s", range, false);
+    					}
+    					iChunks.fetched(idx, new StudentChunk(hibSession, students, System.currentTimeMillis() - t0));
+    					fetched = true;
+    				} finally {
+    					if (!fetched) hibSession.close();
+    				}
+    			}
+    		} catch (Throwable t) {
+    			iProgress.error(getName() + " failed: " + t.getMessage(), t);
+    			iChunks.failed(t);
+    		} finally {
+    			ApplicationProperties.setSessionId(null);
+    		}
+    		iProgress.debug(getName() + " has finished.");
+    	}
+    	
+    	private <T> List<T> fetch(org.hibernate.Session hibSession, String query, String student, Long[] range, boolean ordered) {
+    		return (List<T>)hibSession.createQuery(
+    				query.replace("%", student + ".session.uniqueId = :sessionId and " + student + ".uniqueId between :first and :last") +
+    				(ordered ? " order by " + student + ".uniqueId" : ""))
+    				.setLong("sessionId", iSessionId).setLong("first", range[0]).setLong("last", range[1]).list();
+    	}
+    }
+    
     protected void checkTermination() {
     	if (getTerminationCondition() != null && !getTerminationCondition().canContinue(new Solution<Request, Enrollment>(getModel(), getAssignment())))
     		throw new RuntimeException("The load was interrupted.");
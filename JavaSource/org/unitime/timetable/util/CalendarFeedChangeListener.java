@@ -0,0 +1,181 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.unitime.timetable.gwt.server.CalendarFeedCache;
+import org.unitime.timetable.model.Assignment;
+import org.unitime.timetable.model.ClassEvent;
+import org.unitime.timetable.model.ClassInstructor;
+import org.unitime.timetable.model.Class_;
+import org.unitime.timetable.model.DepartmentalInstructor;
+import org.unitime.timetable.model.Event;
+import org.unitime.timetable.model.Exam;
+import org.unitime.timetable.model.ExamOwner;
+import org.unitime.timetable.model.Meeting;
+import org.unitime.timetable.model.Solution;
+import org.unitime.timetable.model.StudentClassEnrollment;
+
+/**
+ * Hibernate listener invalidating the cached iCalendar feeds (see {@link CalendarFeedCache}) that depend on
+ * committed changes of class assignments, student enrollments, class instructors, examinations (including their owners
+ * and instructors), and events. Committing or uncommitting a solution changes the committed assignments of its classes
+ * (and their class events). Hibernate has no post commit collection events, changes of the examination instructors
+ * are processed when flushed.
+ *
+ * @author Tomas Muller
+ */
+public class CalendarFeedChangeListener extends PostCommitChangeListener implements
+	PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+	private static final long serialVersionUID = 1L;
+	
+	public CalendarFeedChangeListener() {
+		super(StudentClassEnrollment.class, Assignment.class, Class_.class, ClassInstructor.class, Exam.class, ExamOwner.class, Event.class, Meeting.class, Solution.class);
+	}
+
+	@Override
+	protected void register(EventListenerRegistry registry) {
+		super.register(registry);
+		registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_REMOVE, this);
+	}
+
+	@Override
+	protected void changed(Object entity, boolean deleted) {
+		CalendarFeedCache cache = CalendarFeedCache.getInstance();
+		if (entity instanceof StudentClassEnrollment) {
+			StudentClassEnrollment enrollment = (StudentClassEnrollment)entity;
+			if (enrollment.getStudent() != null)
+				cache.changed("student:" + enrollment.getStudent().getUniqueId());
+		} else if (entity instanceof Assignment) {
+			Assignment assignment = (Assignment)entity;
+			if (assignment.getClazz() != null)
+				cache.changed("class:" + assignment.getClazz().getUniqueId());
+		} else if (entity instanceof Class_) {
+			cache.changed("class:" + ((Class_)entity).getUniqueId());
+		} else if (entity instanceof ClassInstructor) {
+			ClassInstructor ci = (ClassInstructor)entity;
+			if (ci.getInstructor() != null)
+				cache.changed("instructor:" + ci.getInstructor().getUniqueId());
+		} else if (entity instanceof Exam) {
+			cache.changed("exam:" + ((Exam)entity).getUniqueId());
+		} else if (entity instanceof ExamOwner) {
+			ExamOwner owner = (ExamOwner)entity;
+			if (owner.getExam() != null)
+				cache.changed("exam:" + owner.getExam().getUniqueId());
+			if (owner.getOwnerType() != null && owner.getOwnerId() != null) {
+				switch (owner.getOwnerType()) {
+				case ExamOwner.sOwnerTypeClass: cache.changed("class:" + owner.getOwnerId()); break;
+				case ExamOwner.sOwnerTypeConfig: cache.changed("config:" + owner.getOwnerId()); break;
+				case ExamOwner.sOwnerTypeCourse: cache.changed("course:" + owner.getOwnerId()); break;
+				case ExamOwner.sOwnerTypeOffering: cache.changed("offering:" + owner.getOwnerId()); break;
+				}
+			}
+		} else if (entity instanceof Event) {
+			eventChanged(cache, (Event)entity);
+		} else if (entity instanceof Meeting) {
+			Meeting meeting = (Meeting)entity;
+			if (meeting.getEvent() != null)
+				eventChanged(cache, meeting.getEvent());
+		} else if (entity instanceof Solution) {
+			Solution solution = (Solution)entity;
+			if (solution.getAssignments() != null && Hibernate.isInitialized(solution.getAssignments()))
+				for (Assignment assignment: solution.getAssignments())
+					if (assignment.getClazz() != null)
+						cache.changed("class:" + assignment.getClazz().getUniqueId());
+		}
+	}
+	
+	/**
+	 * Event feeds, class events also change the class feeds (an uninitialized proxy is not loaded)
+	 */
+	protected void eventChanged(CalendarFeedCache cache, Event event) {
+		cache.changed("event:" + event.getUniqueId());
+		if (event instanceof HibernateProxy) {
+			LazyInitializer initializer = ((HibernateProxy)event).getHibernateLazyInitializer();
+			if (initializer.isUninitialized()) return;
+			event = (Event)initializer.getImplementation();
+		}
+		if (event instanceof ClassEvent && ((ClassEvent)event).getClazz() != null)
+			cache.changed("class:" + ((ClassEvent)event).getClazz().getUniqueId());
+	}
+
+	/**
+	 * Examination instructors (both sides of the relation), the instructors that were added or removed are taken from the stored snapshot
+	 */
+	protected void collectionChanged(AbstractCollectionEvent event) {
+		Object owner = event.getAffectedOwnerOrNull();
+		CalendarFeedCache cache = CalendarFeedCache.getInstance();
+		if (owner instanceof DepartmentalInstructor && event.getCollection().getRole().endsWith(".exams")) {
+			cache.changed("instructor:" + ((DepartmentalInstructor)owner).getUniqueId());
+			for (Object exam: getElements(event.getCollection()))
+				if (exam instanceof Exam) cache.changed("exam:" + ((Exam)exam).getUniqueId());
+		} else if (owner instanceof Exam && event.getCollection().getRole().endsWith(".instructors")) {
+			cache.changed("exam:" + ((Exam)owner).getUniqueId());
+			for (Object instructor: getElements(event.getCollection()))
+				if (instructor instanceof DepartmentalInstructor) cache.changed("instructor:" + ((DepartmentalInstructor)instructor).getUniqueId());
+		}
+	}
+	
+	private static Collection<?> getElements(PersistentCollection collection) {
+		Set<Object> elements = new HashSet<Object>();
+		if (collection instanceof Collection && collection.wasInitialized())
+			elements.addAll((Collection<?>)collection);
+		Object snapshot = collection.getStoredSnapshot();
+		if (snapshot instanceof Map)
+			elements.addAll(((Map<?, ?>)snapshot).values());
+		else if (snapshot instanceof Collection)
+			elements.addAll((Collection<?>)snapshot);
+		return elements;
+	}
+
+	@Override
+	public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+		collectionChanged(event);
+	}
+
+	@Override
+	public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+		collectionChanged(event);
+	}
+
+	@Override
+	public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+		collectionChanged(event);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recent changes of the objects an in-memory cache depends on (object key -&gt; time of the last change), ordered by
+ * the time of the change. It is used to detect that an object changed while the cache was loading data that depend on it
+ * (the data are then not used). Changes older than the history length are forgotten.
+ *
+ * @author Tomas Muller
+ */
+public class ChangeHistory<K> {
+	private LinkedHashMap<K, Long> iChanges = new LinkedHashMap<K, Long>();
+	private long iHistory;
+	
+	/**
+	 * @param history how long (in milliseconds) the changes are remembered
+	 */
+	public ChangeHistory(long history) {
+		iHistory = history;
+	}
+	
+	/** How long (in milliseconds) the changes are remembered */
+	protected long getHistory() { return iHistory; }
+	
+	/**
+	 * Record a change of the given object, changes that are too old are forgotten
+	 */
+	public synchronized void changed(K key) {
+		long now = System.currentTimeMillis();
+		iChanges.remove(key);
+		iChanges.put(key, now);
+		long history = getHistory();
+		for (Iterator<Long> i = iChanges.values().iterator(); i.hasNext(); ) {
+			if (i.next() + history >= now) break;
+			i.remove();
+		}
+	}
+	
+	/**
+	 * True if the given object has changed at or after the given time
+	 */
+	public synchronized boolean hasChanged(K key, long since) {
+		Long changed = iChanges.get(key);
+		return changed != null && changed >= since;
+	}
+	
+	/**
+	 * Objects that have changed at or after the given time
+	 */
+	public synchronized Set<K> getChanged(long since) {
+		Set<K> keys = new HashSet<K>();
+		for (Map.Entry<K, Long> e: iChanges.entrySet())
+			if (e.getValue() >= since) keys.add(e.getKey());
+		return keys;
+	}
+	
+	public synchronized void clear() {
+		iChanges.clear();
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import org.unitime.timetable.gwt.server.CurriculumProjectionStore;
+import org.unitime.timetable.model.CourseDemand;
+import org.unitime.timetable.model.CourseRequest;
+import org.unitime.timetable.model.LastLikeCourseDemand;
+import org.unitime.timetable.model.Student;
+import org.unitime.timetable.model.StudentAreaClassificationMajor;
+import org.unitime.timetable.model.StudentClassEnrollment;
+
+/**
+ * Hibernate listener passing committed changes of students, their academic area classifications and majors, enrollments,
+ * course requests, and last-like course demands to the {@link CurriculumProjectionStore}, so that the affected students
+ * can be reloaded incrementally.
+ *
+ * @author Tomas Muller
+ */
+public class CurriculumProjectionChangeListener extends PostCommitChangeListener {
+	private static final long serialVersionUID = 1L;
+	
+	public CurriculumProjectionChangeListener() {
+		super(Student.class, StudentClassEnrollment.class, CourseDemand.class, CourseRequest.class, StudentAreaClassificationMajor.class, LastLikeCourseDemand.class);
+	}
+
+	protected Student getStudent(Object entity) {
+		if (entity instanceof Student) {
+			return (Student)entity;
+		} else if (entity instanceof StudentClassEnrollment) {
+			return ((StudentClassEnrollment)entity).getStudent();
+		} else if (entity instanceof CourseDemand) {
+			return ((CourseDemand)entity).getStudent();
+		} else if (entity instanceof CourseRequest) {
+			CourseDemand demand = ((CourseRequest)entity).getCourseDemand();
+			return (demand == null ? null : demand.getStudent());
+		} else if (entity instanceof StudentAreaClassificationMajor) {
+			return ((StudentAreaClassificationMajor)entity).getStudent();
+		} else if (entity instanceof LastLikeCourseDemand) {
+			return ((LastLikeCourseDemand)entity).getStudent();
+		}
+		return null;
+	}
+
+	@Override
+	protected void changed(Object entity, boolean deleted) {
+		Student student = getStudent(entity);
+		if (student != null && student.getUniqueId() != null)
+			CurriculumProjectionStore.getInstance().studentChanged(student.getUniqueId());
+	}
+}
@@ -20,16 +20,23 @@
 package org.unitime.timetable.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
 import org.unitime.timetable.model.ClassEvent;
@@ -45,14 +52,29 @@ import org.unitime.timetable.model.MidtermExamEvent;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.dao.DepartmentalInstructorDAO;
 import org.unitime.timetable.model.dao.LocationDAO;
+import org.unitime.timetable.model.dao._RootDAO;
 
 /**
+ * Room availability computed from the approved event meetings.<br>
+ * The activated time frames are cached and shared by all the solvers of this node. A cache element is
+ * loaded using parallel date range queries ({@link ApplicationProperty#RoomAvailabilityCacheThreads}),
+ * it can be reused for {@link ApplicationProperty#RoomAvailabilityCacheMaxAge} seconds, and meetings that are
+ * changed on this node are applied to it incrementally (see {@link MeetingChangeListener}). When there are more than
+ * {@link DefaultRoomAvailabilityService#sMaxChangedMeetings} pending changes, the cache is dropped instead and loaded again.
+ *
  * @author Tomas Muller
  */
 public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface {
+	private static Log sLog = LogFactory.getLog(DefaultRoomAvailabilityService.class);
     private Vector<CacheElement> iCache = new Vector<CacheElement>();
     private boolean iInstructorAvailabilityEnabled = false;
-    
+    private Set<Long> iChangedMeetings = new HashSet<Long>();
+    private Set<Long> iChangedEvents = new HashSet<Long>();
+    private boolean iDropCache = false;
+    /** Maximal number of pending changes that are applied incrementally */
+    protected static final int sMaxChangedMeetings = 10000;
+    private long iHits = 0, iMisses = 0, iRebuilds = 0, iRebuildTime = 0, iLastRebuildTime = 0, iUpdates = 0;
+
     public String getTimeStamp(Date startTime, Date endTime, String excludeType) {
         TimeFrame time = new TimeFrame(startTime, endTime);
         CacheElement cache = get(time, excludeType);
@@ -61,11 +83,84 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
     
     public CacheElement get(TimeFrame time, String excludeType) {
         synchronized (iCache) {
+        	sync();
             for (CacheElement cache : iCache) if (cache.cover(time) && cache.exclude(excludeType)) return cache;
         }
         return null;
     }
+
+    /**
+     * Called when a meeting has been inserted, updated, or deleted (see {@link MeetingChangeListener}).
+     * The change is applied to the cache the next time it is used.
+     */
+    public void meetingChanged(Long meetingId) {
+    	if (iCache.isEmpty()) return;
+    	synchronized (iChangedMeetings) {
+    		if (iDropCache) return;
+    		iChangedMeetings.add(meetingId);
+    		if (iChangedMeetings.size() + iChangedEvents.size() > sMaxChangedMeetings) dropCache();
+    	}
+    }
     
+    /**
+     * Called when an event has been updated (e.g., its contacts have changed, see {@link MeetingChangeListener}).
+     * All the meetings of the event are applied to the cache the next time it is used.
+     */
+    public void eventChanged(Long eventId) {
+    	if (iCache.isEmpty()) return;
+    	synchronized (iChangedMeetings) {
+    		if (iDropCache) return;
+    		iChangedEvents.add(eventId);
+    		if (iChangedMeetings.size() + iChangedEvents.size() > sMaxChangedMeetings) dropCache();
+    	}
+    }
+    
+    private void dropCache() {
+    	iChangedMeetings.clear();
+    	iChangedEvents.clear();
+    	iDropCache = true;
+    }
+
+    protected void sync() {
+    	List<Long> changed = null;
+    	List<Long> events = null;
+    	boolean drop = false;
+    	synchronized (iChangedMeetings) {
+    		if (iChangedMeetings.isEmpty() && iChangedEvents.isEmpty() && !iDropCache) return;
+    		changed = new ArrayList<Long>(iChangedMeetings);
+    		events = new ArrayList<Long>(iChangedEvents);
+    		drop = iDropCache;
+    		iChangedMeetings.clear();
+    		iChangedEvents.clear();
+    		iDropCache = false;
+    	}
+    	synchronized (iCache) {
+    		if (drop) {
+    			sLog.info("Too many changed meetings, room availability cache dropped.");
+    			iCache.clear();
+    			return;
+    		}
+    		for (int i = 0; i < events.size(); i += 1000)
+    			changed.addAll((List<Long>)LocationDAO.getInstance().getSession().createQuery(
+    					"select m.uniqueId from Meeting m where m.event.uniqueId in (:eventIds)")
+    					.setParameterList("eventIds", events.subList(i, Math.min(i + 1000, events.size()))).list());
+    		for (CacheElement cache: iCache)
+    			cache.apply(changed);
+    		iUpdates += changed.size();
+    	}
+    }
+
+    /**
+     * Cache statistics: hits, misses, rebuilds (with their times), and incrementally updated meetings
+     */
+    public String getStatistics() {
+    	synchronized (iCache) {
+    		return "hits: " + iHits + ", misses: " + iMisses + ", rebuilds: " + iRebuilds +
+    				(iRebuilds == 0 ? "" : " (last " + iLastRebuildTime + " ms, average " + (iRebuildTime / iRebuilds) + " ms)") +
+    				", updated meetings: " + iUpdates;
+    	}
+    }
+
     
     public Collection<TimeBlock> getRoomAvailability(Long locationId, Date startTime, Date endTime, String excludeType) {
     	Location location = LocationDAO.getInstance().get(locationId);
@@ -74,7 +169,11 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         TimeFrame time = new TimeFrame(startTime, endTime);
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
-            if (cache!=null) return cache.get(location.getPermanentId(), excludeType);
+            if (cache!=null) {
+            	iHits ++;
+            	return cache.get(location.getPermanentId(), excludeType);
+            }
+            iMisses ++;
             TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
             Class<? extends Event> exclude = null;
             ExamType examType = null;
@@ -157,8 +256,15 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
             if (cache==null) {
                 cache = new CacheElement(time, excludeType);
                 iCache.insertElementAt(cache, 0);
+            } else if (cache.isFresh(session.getUniqueId(), iInstructorAvailabilityEnabled)) {
+            	iHits ++;
+            	return;
             }
+            long t0 = System.currentTimeMillis();
             cache.update(class2eventDateMap, session.getUniqueId(), iInstructorAvailabilityEnabled);
+            iLastRebuildTime = System.currentTimeMillis() - t0;
+            iRebuildTime += iLastRebuildTime; iRebuilds ++;
+            sLog.info("Room availability for " + cache + " loaded in " + iLastRebuildTime + " ms (" + getStatistics() + ")");
         }
     }
     
@@ -208,14 +314,145 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         private Map<String, TreeSet<TimeBlock>> iInstructorAvailability = new HashMap<String, TreeSet<TimeBlock>>();
         private String iTimestamp = null;
         private String iExcludeType = null;
+        private EventDateMapping.Class2EventDateMap iClass2EventDateMap = null;
+        private Long iSessionId = null;
+        private boolean iIncludeInstructors = false;
+        private long iLoaded = 0;
         public CacheElement(TimeFrame time, String excludeType) {
             iTime = time;
             iExcludeType = excludeType;
         }
 
+        /**
+         * True if loaded for the same academic session less than {@link ApplicationProperty#RoomAvailabilityCacheMaxAge} seconds ago
+         */
+        public boolean isFresh(Long sessionId, boolean includeInstructors) {
+        	int maxAge = ApplicationProperty.RoomAvailabilityCacheMaxAge.intValue();
+        	if (maxAge <= 0 || iLoaded == 0 || System.currentTimeMillis() - iLoaded > 1000l * maxAge) return false;
+        	return (sessionId == null ? iSessionId == null : sessionId.equals(iSessionId)) && includeInstructors == iIncludeInstructors;
+        }
+
         public void update(EventDateMapping.Class2EventDateMap class2eventDateMap, Long sessionId, boolean includeInstructors) {
         	iAvailability.clear();
         	iInstructorAvailability.clear();
+        	iClass2EventDateMap = class2eventDateMap;
+        	iSessionId = sessionId;
+        	iIncludeInstructors = includeInstructors;
+        	List<RangeLoader> loaders = new ArrayList<RangeLoader>();
+        	int nrThreads = ApplicationProperty.RoomAvailabilityCacheThreads.intValue();
+        	if (nrThreads > 1) {
+        		Calendar cal = Calendar.getInstance(Locale.US); cal.setTime(iTime.getStartDate());
+        		int days = 0;
+        		while (!cal.getTime().after(iTime.getEndDate())) { days ++; cal.add(Calendar.DAY_OF_YEAR, 1); }
+        		int daysPerRange = (days + nrThreads - 1) / nrThreads;
+        		cal.setTime(iTime.getStartDate());
+        		while (days > 1 && !cal.getTime().after(iTime.getEndDate())) {
+        			Date start = cal.getTime();
+        			cal.add(Calendar.DAY_OF_YEAR, daysPerRange - 1);
+        			Date end = (cal.getTime().after(iTime.getEndDate()) ? iTime.getEndDate() : cal.getTime());
+        			loaders.add(new RangeLoader(start, end));
+        			cal.add(Calendar.DAY_OF_YEAR, 1);
+        		}
+        	}
+        	if (loaders.size() <= 1) {
+        		load(iTime.getStartDate(), iTime.getEndDate(), null);
+        	} else {
+        		for (RangeLoader loader: loaders)
+        			loader.start();
+        		RuntimeException error = null;
+        		for (RangeLoader loader: loaders) {
+        			try {
+        				loader.join();
+        			} catch (InterruptedException e) {
+        				Thread.currentThread().interrupt();
+        				if (error == null)
+        					error = new RuntimeException("Room availability load was interrupted.", e);
+        				continue;
+        			}
+        			if (loader.iError != null) {
+        				if (error == null)
+        					error = (loader.iError instanceof RuntimeException ? (RuntimeException)loader.iError : new RuntimeException(loader.iError.getMessage(), loader.iError));
+        			} else {
+        				merge(loader.iCache);
+        			}
+        		}
+        		if (error != null) {
+        			iAvailability.clear();
+        			iInstructorAvailability.clear();
+        			iLoaded = 0;
+        			throw error;
+        		}
+        	}
+            iTimestamp = new Date().toString();
+            iLoaded = System.currentTimeMillis();
+        }
+
+        /**
+         * Reload the given meetings: remove their blocks and add them back if they still match this cache element
+         */
+        public void apply(Collection<Long> meetingIds) {
+        	if (iLoaded == 0) return;
+        	Set<Long> ids = new HashSet<Long>(meetingIds);
+        	for (TreeSet<TimeBlock> blocks: iAvailability.values())
+        		remove(blocks, ids);
+        	for (TreeSet<TimeBlock> blocks: iInstructorAvailability.values())
+        		remove(blocks, ids);
+        	List<Long> chunk = new ArrayList<Long>();
+        	for (Long id: ids) {
+        		chunk.add(id);
+        		if (chunk.size() == 1000) {
+        			load(iTime.getStartDate(), iTime.getEndDate(), chunk);
+        			chunk.clear();
+        		}
+        	}
+        	if (!chunk.isEmpty())
+        		load(iTime.getStartDate(), iTime.getEndDate(), chunk);
+        	iTimestamp = new Date().toString();
+        }
+
+        private void remove(TreeSet<TimeBlock> blocks, Set<Long> meetingIds) {
+        	for (Iterator<TimeBlock> i = blocks.iterator(); i.hasNext(); ) {
+        		TimeBlock block = i.next();
+        		if (block instanceof MeetingTimeBlock && meetingIds.contains(((MeetingTimeBlock)block).getMeetingId())) i.remove();
+        	}
+        }
+
+        private void merge(CacheElement cache) {
+        	for (Map.Entry<Long, TreeSet<TimeBlock>> e: cache.iAvailability.entrySet()) {
+        		TreeSet<TimeBlock> blocks = iAvailability.get(e.getKey());
+        		if (blocks == null)
+        			iAvailability.put(e.getKey(), e.getValue());
+        		else
+        			blocks.addAll(e.getValue());
+        	}
+        	for (Map.Entry<String, TreeSet<TimeBlock>> e: cache.iInstructorAvailability.entrySet()) {
+        		TreeSet<TimeBlock> blocks = iInstructorAvailability.get(e.getKey());
+        		if (blocks == null)
+        			iInstructorAvailability.put(e.getKey(), e.getValue());
+        		else
+        			blocks.addAll(e.getValue());
+        	}
+        }
+
+        private Query query(String hql, Date startDate, Date endDate, Collection<Long> meetingIds) {
+        	Query query = LocationDAO.getInstance().getSession().createQuery(hql + (meetingIds == null ? "" : " and m.uniqueId in (:meetingIds)"))
+        			.setDate("startDate", startDate)
+        			.setDate("endDate", endDate)
+        			.setInteger("startSlot", iTime.getStartSlot())
+        			.setInteger("endSlot", iTime.getEndSlot());
+        	if (hql.contains(":sessionId"))
+        		query.setLong("sessionId", iSessionId);
+        	if (meetingIds == null)
+        		query.setCacheable(true);
+        	else
+        		query.setParameterList("meetingIds", meetingIds);
+        	return query;
+        }
+
+        /**
+         * Load meetings of the given date range, optionally restricted to the given meeting ids
+         */
+        protected void load(Date startDate, Date endDate, Collection<Long> meetingIds) {
             Class<? extends Event> exclude = null;
             ExamType examType = null;
             if (iExcludeType!=null) {
@@ -230,49 +467,34 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                 	examType = ExamType.findByReference(iExcludeType);
                 }
             }
-            addAll(LocationDAO.getInstance().getSession().createQuery(
+            addAll(query(
                     "select m from Meeting m where m.locationPermanentId!=null and "+
                     "m.approvalStatus = 1 and "+
                     "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
                     "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
                     (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType = " + examType.getUniqueId() + ")" :
-                    	exclude == null ? "" : " and m.event.class!=" + exclude.getSimpleName()))
-                    .setDate("startDate", iTime.getStartDate())
-                    .setDate("endDate", iTime.getEndDate())
-                    .setInteger("startSlot", iTime.getStartSlot())
-                    .setInteger("endSlot", iTime.getEndSlot())
-                    .setCacheable(true)
-                    .list(), class2eventDateMap);
-            if (sessionId != null && ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
+                    	exclude == null ? "" : " and m.event.class!=" + exclude.getSimpleName()),
+                    startDate, endDate, meetingIds).list(), iClass2EventDateMap);
+            if (iSessionId != null && ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
             	if (ClassEvent.class.isAssignableFrom(exclude)) {
-            		addAll(LocationDAO.getInstance().getSession().createQuery(
+            		addAll(query(
                             "select m from ClassEvent e inner join e.meetings m where m.locationPermanentId in (select l.permanentId from Location l where l.session = :sessionId) and "+
                             "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
                             "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot")
-                            .setLong("sessionId", sessionId)
-                            .setDate("startDate", iTime.getStartDate())
-                            .setDate("endDate", iTime.getEndDate())
-                            .setInteger("startSlot", iTime.getStartSlot())
-                            .setInteger("endSlot", iTime.getEndSlot())
-                            .setCacheable(true).list(), class2eventDateMap);
+                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot",
+                            startDate, endDate, meetingIds).list(), iClass2EventDateMap);
             	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-            		addAll(LocationDAO.getInstance().getSession().createQuery(
+            		addAll(query(
                             "select m from " + exclude.getSimpleName() + " e inner join e.meetings m where m.locationPermanentId in (select l.permanentId from Location l where l.session = :sessionId) and "+
                             "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
                             "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
                             "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
-                            (examType != null ? " and e.exam.examType = " + examType.getUniqueId() : ""))
-                            .setLong("sessionId", sessionId)
-                            .setDate("startDate", iTime.getStartDate())
-                            .setDate("endDate", iTime.getEndDate())
-                            .setInteger("startSlot", iTime.getStartSlot())
-                            .setInteger("endSlot", iTime.getEndSlot())
-                            .setCacheable(true).list(), class2eventDateMap);
+                            (examType != null ? " and e.exam.examType = " + examType.getUniqueId() : ""),
+                            startDate, endDate, meetingIds).list(), iClass2EventDateMap);
             	}
             }
-            if (sessionId != null && includeInstructors) {
-            	addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+            if (iSessionId != null && iIncludeInstructors) {
+            	addAllInstructors(query(
             			"select distinct m, i.externalUniqueId from Meeting m left outer join m.event.additionalContacts c, DepartmentalInstructor i where " +
                          "i.department.session.uniqueId = :sessionId and i.externalUniqueId is not null and "+
                          "(m.event.mainContact.externalUniqueId = i.externalUniqueId or c.externalUniqueId = i.externalUniqueId) and "+
@@ -280,45 +502,59 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                          "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
                          "m.startPeriod<:endSlot and m.stopPeriod>:startSlot"+
                          (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType = " + examType.getUniqueId() + ")" :
-                        	 exclude!=null?" and m.event.class!="+exclude.getSimpleName():""))
-                         .setDate("startDate", iTime.getStartDate())
-                         .setDate("endDate", iTime.getEndDate())
-                         .setLong("sessionId", sessionId)
-                         .setInteger("startSlot", iTime.getStartSlot())
-                         .setInteger("endSlot", iTime.getEndSlot())
-                         .setCacheable(true).list(), class2eventDateMap);
+                        	 exclude!=null?" and m.event.class!="+exclude.getSimpleName():""),
+                         startDate, endDate, meetingIds).list(), iClass2EventDateMap);
             	if (ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
             		if (ClassEvent.class.isAssignableFrom(exclude)) {
-            			addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+            			addAllInstructors(query(
                                 "select m, ci.instructor.externalUniqueId from ClassEvent e inner join e.meetings m inner join e.clazz.classInstructors ci where "+
                                 "ci.lead = true and m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
                                 "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                                "m.startPeriod<:endSlot and m.stopPeriod>:startSlot")
-                                .setLong("sessionId", sessionId)
-                                .setDate("startDate", iTime.getStartDate())
-                                .setDate("endDate", iTime.getEndDate())
-                                .setInteger("startSlot", iTime.getStartSlot())
-                                .setInteger("endSlot", iTime.getEndSlot())
-                                .setCacheable(true).list(), class2eventDateMap);
+                                "m.startPeriod<:endSlot and m.stopPeriod>:startSlot",
+                                startDate, endDate, meetingIds).list(), iClass2EventDateMap);
                 	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-                		addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+                		addAllInstructors(query(
                                 "select m, di.externalUniqueId from " + exclude.getSimpleName() + " e inner join e.meetings m inner join e.exam.instructors di where  "+
                                 "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
                                 "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
                                 "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
-                                (examType != null ? " and e.exam.examType = " + examType.getUniqueId() : ""))
-                                .setLong("sessionId", sessionId)
-                                .setDate("startDate", iTime.getStartDate())
-                                .setDate("endDate", iTime.getEndDate())
-                                .setInteger("startSlot", iTime.getStartSlot())
-                                .setInteger("endSlot", iTime.getEndSlot())
-                                .setCacheable(true).list(), class2eventDateMap);
+                                (examType != null ? " and e.exam.examType = " + examType.getUniqueId() : ""),
+                                startDate, endDate, meetingIds).list(), iClass2EventDateMap);
                 	}
                 }
             }
-            iTimestamp = new Date().toString();
         }
-        
+
+        /**
+         * Loads one date range of the cache element in a separate thread (and hibernate session)
+         */
+        private class RangeLoader extends Thread {
+        	private CacheElement iCache;
+        	private Date iStartDate, iEndDate;
+        	private Throwable iError = null;
+
+        	RangeLoader(Date startDate, Date endDate) {
+        		super("RoomAvailability-" + new SimpleDateFormat("MM/dd/yy").format(startDate));
+        		setDaemon(true);
+        		iStartDate = startDate; iEndDate = endDate;
+        		iCache = new CacheElement(iTime, iExcludeType);
+        		iCache.iClass2EventDateMap = iClass2EventDateMap;
+        		iCache.iSessionId = iSessionId;
+        		iCache.iIncludeInstructors = iIncludeInstructors;
+        	}
+
+        	@Override
+        	public void run() {
+        		try {
+        			iCache.load(iStartDate, iEndDate, null);
+        		} catch (Throwable t) {
+        			iError = t;
+        		} finally {
+        			_RootDAO.rollbackCurrentThreadSessions();
+        		}
+        	}
+        }
+
         private void add(Meeting m, EventDateMapping.Class2EventDateMap class2eventDateMap) {
         	TreeSet<TimeBlock> blocks = iAvailability.get(m.getLocationPermanentId());
             if (blocks==null) {
@@ -495,6 +731,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
             if (cache!=null) {
+            	iHits ++;
             	Collection<TimeBlock> cached = cache.get(instructor.getExternalUniqueId(), excludeType);
             	if (instructor.hasUnavailabilities()) {
             		Collection<TimeBlock> ret = instructor.listUnavailableDays();
@@ -504,6 +741,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
             		return cached;
             	}
             }
+            iMisses ++;
             TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
             Class<? extends Event> exclude = null;
             ExamType examType = null;
@@ -0,0 +1,106 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.events.MeetingIndex;
+import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
+import org.unitime.timetable.model.Event;
+import org.unitime.timetable.model.Meeting;
+
+/**
+ * Hibernate listener passing committed changes of event meetings to the {@link DefaultRoomAvailabilityService}
+ * and to the {@link MeetingIndex}, so that their caches can be updated incrementally instead of being reloaded.<br>
+ * Changes of the event contacts (main contact and additional contacts) are passed to the {@link DefaultRoomAvailabilityService}
+ * as well, as they affect the instructor availability.
+ *
+ * @author Tomas Muller
+ */
+public class MeetingChangeListener extends PostCommitChangeListener implements PostCollectionUpdateEventListener, PostCollectionRecreateEventListener {
+	private static final long serialVersionUID = 1L;
+	
+	public MeetingChangeListener() {
+		super(Meeting.class, Event.class);
+	}
+	
+	@Override
+	protected void register(EventListenerRegistry registry) {
+		super.register(registry);
+		registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+		registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+	}
+
+	@Override
+	protected void changed(Object entity, boolean deleted) {
+		if (entity instanceof Meeting && ((Meeting)entity).getUniqueId() != null) {
+			if (ApplicationProperty.RoomAvailabilityCacheIncremental.isTrue()) {
+				RoomAvailabilityInterface availability = RoomAvailability.getInstance();
+				if (availability instanceof DefaultRoomAvailabilityService)
+					((DefaultRoomAvailabilityService)availability).meetingChanged(((Meeting)entity).getUniqueId());
+			}
+			if (MeetingIndex.isEnabled())
+				MeetingIndex.getInstance().meetingChanged((Meeting)entity, deleted);
+		} else if (entity instanceof Event && !deleted && ((Event)entity).getUniqueId() != null) {
+			eventChanged(((Event)entity).getUniqueId());
+		}
+	}
+	
+	protected void eventChanged(Long eventId) {
+		if (ApplicationProperty.RoomAvailabilityCacheIncremental.isTrue()) {
+			RoomAvailabilityInterface availability = RoomAvailability.getInstance();
+			if (availability instanceof DefaultRoomAvailabilityService)
+				((DefaultRoomAvailabilityService)availability).eventChanged(eventId);
+		}
+	}
+	
+	/**
+	 * Additional contacts of an event have changed: the event is passed on when the transaction is committed
+	 */
+	protected void collectionChanged(AbstractCollectionEvent event) {
+		if (!(event.getAffectedOwnerOrNull() instanceof Event) || !(event.getAffectedOwnerIdOrNull() instanceof Long)) return;
+		if (event.getCollection() == null || !(Event.class.getName() + ".additionalContacts").equals(event.getCollection().getRole())) return;
+		final Long eventId = (Long)event.getAffectedOwnerIdOrNull();
+		event.getSession().getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+			@Override
+			public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+				if (success) eventChanged(eventId);
+			}
+		});
+	}
+
+	@Override
+	public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+		collectionChanged(event);
+	}
+
+	@Override
+	public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+		collectionChanged(event);
+	}
+}
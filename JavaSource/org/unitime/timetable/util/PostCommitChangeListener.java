@@ -0,0 +1,92 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Base class of the hibernate listeners that keep the in-memory caches up to date (e.g., {@link MeetingChangeListener}).
+ * The listeners are only notified about the changes committed on this node: changes made by other nodes of a cluster
+ * (or directly in the database) are only picked up when the cached data reach their maximal age.
+ *
+ * @author Tomas Muller
+ */
+public abstract class PostCommitChangeListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+	private static final long serialVersionUID = 1L;
+	private Class<?>[] iClasses;
+	
+	/**
+	 * @param classes entities of which the listener is notified (including their sub-classes)
+	 */
+	protected PostCommitChangeListener(Class<?>... classes) {
+		iClasses = classes;
+	}
+	
+	/**
+	 * An entity has been inserted, updated, or deleted (called after the change is committed)
+	 */
+	protected abstract void changed(Object entity, boolean deleted);
+	
+	/**
+	 * Register the listener with the given session factory (post commit insert, update, and delete events)
+	 */
+	public void register(SessionFactory factory) {
+		register(((SessionFactoryImplementor)factory).getServiceRegistry().getService(EventListenerRegistry.class));
+	}
+	
+	protected void register(EventListenerRegistry registry) {
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		changed(event.getEntity(), false);
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		changed(event.getEntity(), false);
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		changed(event.getEntity(), true);
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		Class<?> clazz = persister.getMappedClass();
+		for (Class<?> c: iClasses)
+			if (c.isAssignableFrom(clazz)) return true;
+		return false;
+	}
+}
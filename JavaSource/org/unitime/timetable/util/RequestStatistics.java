@@ -0,0 +1,209 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.util;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.unitime.commons.hibernate.util.StatementCounter;
+import org.unitime.commons.web.WebTable;
+
+/**
+ * In-memory latency statistics of the GWT RPC requests and API calls.<br>
+ * For each request type, the response times are kept in a log-linear histogram (8 sub-buckets per power of two,
+ * so that the percentiles are within 12.5% of the actual value), together with the number of calls, errors, and
+ * the number of SQL statements executed by the request. Recording is lock-free.
+ * 
+ * @author Tomas Muller
+ */
+public class RequestStatistics {
+	private static RequestStatistics sInstance = new RequestStatistics();
+	private Map<String, Metric> iMetrics = new ConcurrentHashMap<String, Metric>();
+	private long iStartTime = System.currentTimeMillis();
+	
+	public static RequestStatistics getInstance() { return sInstance; }
+	
+	/**
+	 * Start measuring a request of the given name
+	 */
+	public static Measurement start(String name) {
+		return new Measurement(name);
+	}
+	
+	/**
+	 * Record execution of a request
+	 * @param name request name (e.g., RPC:ClassName or API:GET /api/path)
+	 * @param time execution time in microseconds
+	 * @param error true if the request failed
+	 * @param statements number of SQL statements executed
+	 */
+	public void record(String name, long time, boolean error, int statements) {
+		Metric metric = iMetrics.get(name);
+		if (metric == null) {
+			metric = new Metric(name);
+			Metric old = ((ConcurrentHashMap<String, Metric>)iMetrics).putIfAbsent(name, metric);
+			if (old != null) metric = old;
+		}
+		metric.record(time, error, statements);
+	}
+	
+	/** All recorded metrics */
+	public List<Metric> getMetrics() {
+		return new ArrayList<Metric>(iMetrics.values());
+	}
+	
+	/** Time of the start (or the last reset) of the statistics */
+	public long getStartTime() { return iStartTime; }
+	
+	/** Clear all statistics */
+	public void reset() {
+		iMetrics.clear();
+		iStartTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Statistics table, for the Page Statistics page
+	 */
+	public WebTable getTable(String ref) {
+		WebTable table = new WebTable(11, "Request Statistics (since " + Formats.getDateFormat(Formats.Pattern.DATE_TIME_STAMP).format(new java.util.Date(iStartTime)) + ")", ref,
+				new String[] {"Request", "Calls", "Calls [/min]", "Errors", "AvgTime [ms]", "50% [ms]", "90% [ms]", "99% [ms]", "MaxTime [ms]", "AvgSQL", "MaxSQL"},
+				new String[] {"left", "right", "right", "right", "right", "right", "right", "right", "right", "right", "right"},
+				new boolean[] {true, false, false, false, false, false, false, false, false, false, false});
+		DecimalFormat df = new DecimalFormat("#,##0.00");
+		double minutes = Math.max(1.0, (System.currentTimeMillis() - iStartTime) / 60000.0);
+		for (Metric m: getMetrics()) {
+			table.addLine(new String[] {
+					m.getName(),
+					String.valueOf(m.getCount()),
+					df.format(m.getCount() / minutes),
+					String.valueOf(m.getErrors()),
+					df.format(m.getAverageTime() / 1000.0),
+					df.format(m.getPercentile(0.50) / 1000.0),
+					df.format(m.getPercentile(0.90) / 1000.0),
+					df.format(m.getPercentile(0.99) / 1000.0),
+					df.format(m.getMaxTime() / 1000.0),
+					df.format(m.getAverageStatements()),
+					String.valueOf(m.getMaxStatements())
+				}, new Comparable[] {
+					m.getName(), m.getCount(), m.getCount() / minutes, m.getErrors(), m.getAverageTime(),
+					m.getPercentile(0.50), m.getPercentile(0.90), m.getPercentile(0.99), m.getMaxTime(),
+					m.getAverageStatements(), m.getMaxStatements()
+				});
+		}
+		return table;
+	}
+	
+	/**
+	 * Running measurement of a request, see {@link RequestStatistics#start(String)}
+	 */
+	public static class Measurement {
+		private String iName;
+		private long iStartTime;
+		private int iStatements;
+		
+		private Measurement(String name) {
+			iName = name;
+			iStartTime = System.nanoTime();
+			iStatements = StatementCounter.getCount();
+		}
+		
+		/** Record the measurement */
+		public void stop(boolean error) {
+			getInstance().record(iName, (System.nanoTime() - iStartTime) / 1000, error, StatementCounter.getCount() - iStatements);
+		}
+	}
+	
+	/**
+	 * Statistics of one request type
+	 */
+	public static class Metric {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int NR_BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+		private String iName;
+		private AtomicLongArray iHistogram = new AtomicLongArray(NR_BUCKETS);
+		private AtomicLong iCount = new AtomicLong(0), iErrors = new AtomicLong(0), iTotalTime = new AtomicLong(0), iMaxTime = new AtomicLong(0);
+		private AtomicLong iStatements = new AtomicLong(0), iMaxStatements = new AtomicLong(0);
+		
+		Metric(String name) { iName = name; }
+		
+		static int bucket(long value) {
+			if (value < 2 * SUB_BUCKETS) return (int)Math.max(0, value);
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int shift = exponent - SUB_BUCKET_BITS;
+			return 2 * SUB_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (int)((value >> shift) - SUB_BUCKETS);
+		}
+		
+		static long upperBound(int bucket) {
+			if (bucket < 2 * SUB_BUCKETS) return bucket;
+			int exponent = SUB_BUCKET_BITS + 1 + (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS;
+			long mantissa = SUB_BUCKETS + (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+			return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+		
+		static void max(AtomicLong max, long value) {
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value))
+				current = max.get();
+		}
+		
+		void record(long time, boolean error, int statements) {
+			iHistogram.incrementAndGet(bucket(time));
+			iCount.incrementAndGet();
+			if (error) iErrors.incrementAndGet();
+			iTotalTime.addAndGet(time);
+			max(iMaxTime, time);
+			iStatements.addAndGet(statements);
+			max(iMaxStatements, statements);
+		}
+		
+		public String getName() { return iName; }
+		public long getCount() { return iCount.get(); }
+		public long getErrors() { return iErrors.get(); }
+		/** Maximal time in microseconds */
+		public long getMaxTime() { return iMaxTime.get(); }
+		/** Average time in microseconds */
+		public double getAverageTime() { long count = getCount(); return count == 0 ? 0.0 : ((double)iTotalTime.get()) / count; }
+		public long getMaxStatements() { return iMaxStatements.get(); }
+		public double getAverageStatements() { long count = getCount(); return count == 0 ? 0.0 : ((double)iStatements.get()) / count; }
+		
+		/**
+		 * Percentile of the response time in microseconds
+		 * @param fraction percentile (e.g., 0.99)
+		 */
+		public long getPercentile(double fraction) {
+			long total = 0;
+			for (int i = 0; i < NR_BUCKETS; i++)
+				total += iHistogram.get(i);
+			if (total == 0) return 0;
+			long limit = (long)Math.ceil(fraction * total), count = 0;
+			for (int i = 0; i < NR_BUCKETS; i++) {
+				count += iHistogram.get(i);
+				if (count >= limit) return Math.min(upperBound(i), getMaxTime());
+			}
+			return getMaxTime();
+		}
+	}
+}
@@ -178,6 +178,8 @@ import org.unitime.timetable.model.dao.TimetableManagerDAO;
 import org.unitime.timetable.model.dao.TravelTimeDAO;
 import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.server.script.SaveTaskBackend;
+import org.unitime.timetable.solver.service.SolverServerService;
+import org.unitime.timetable.spring.SpringApplicationContextHolder;
 
 
 /**
@@ -3079,7 +3081,10 @@ public class SessionRollForward {
         
         hibSession.flush(); hibSession.clear();
         
-        ApplicationProperties.clearSessionProperties(toSession.getUniqueId());
+        if (SpringApplicationContextHolder.isInitialized())
+        	((SolverServerService)SpringApplicationContextHolder.getBean("solverServerService")).reloadApplicationProperties(toSession.getUniqueId());
+        else
+        	ApplicationProperties.clearSessionProperties(toSession.getUniqueId());
 	}
 
 	public void rollReservationsForward(ActionMessages errors, RollForwardSessionForm rollForwardSessionForm) {
@@ -20,6 +20,8 @@
 <%@ page language="java" autoFlush="true"%>
 <%@ page import="org.unitime.timetable.model.QueryLog"%>
 <%@ page import="org.unitime.commons.web.WebTable"%>
+<%@ page import="org.unitime.timetable.util.RequestStatistics"%>
+<%@ page import="org.unitime.timetable.gwt.command.server.GwtRpcAsyncExecutor"%>
 <%@ taglib uri="http://struts.apache.org/tags-bean" prefix="bean" %>
 <%@ taglib uri="http://struts.apache.org/tags-html" prefix="html" %>
 <%@ taglib uri="http://struts.apache.org/tags-logic" prefix="logic" %>
@@ -47,6 +49,17 @@
 	<% WebTable.setOrder(sessionContext,"pageStats.ord",request.getParameter("ord"), 1); %>
 	<%=QueryLog.getTopQueries(7).printTable(WebTable.getOrder(sessionContext, "pageStats.ord"))%>
 </table>
+<table width="100%" cellpadding="2" cellspacing="0" style="margin-top: 20px;">
+	<% WebTable.setOrder(sessionContext,"requestStats.ord",request.getParameter("rord"), 1); %>
+	<%=RequestStatistics.getInstance().getTable("stats.do?rord=%%").printTable(WebTable.getOrder(sessionContext, "requestStats.ord"))%>
+</table>
+<% GwtRpcAsyncExecutor executor = (GwtRpcAsyncExecutor)application.getAttribute(GwtRpcAsyncExecutor.class.getName()); %>
+<% if (executor != null) { %>
+<table width="100%" cellpadding="2" cellspacing="0" style="margin-top: 20px;">
+	<% WebTable.setOrder(sessionContext,"asyncStats.ord",request.getParameter("aord"), 1); %>
+	<%=executor.getTable("stats.do?aord=%%").printTable(WebTable.getOrder(sessionContext, "asyncStats.ord"))%>
+</table>
+<% } %>
 </sec:authorize>
 <sec:authorize access="!hasPermission(null, null, 'PageStatistics')">
 Access denied.